@@ -1,20 +1,29 @@
 package basiuktv.tfc.data.appraiser;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 
-import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Charsets;
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
 import basiuktv.tfc.data.fetchers.FileSystemDataFetcher;
 import basiuktv.tfc.data.fetchers.InputDataFetcher;
@@ -30,6 +39,11 @@ public class FileSystemWorkAppraiser {
 
 	private static final Set<String> SUPPORTED_FILE_TYPES = Sets.newHashSet("text/plain");
 
+	// Extensions every platform's content type probing maps to a supported type. Files having them are accepted
+	// without probing, which first loads the platform's whole file type database (that's most of the time a small
+	// run takes).
+	private static final Set<String> SUPPORTED_FILE_EXTENSIONS = Sets.newHashSet("txt");
+
 	/** Default desired size of one chunk of work. */
 	public static final int DEFAULT_DESIRED_WORK_SIZE = 50 * 1024 * 1024; // 50 MB
 
@@ -67,44 +81,185 @@ public class FileSystemWorkAppraiser {
 	 */
 	public List<InputDataFetcher> appraiseWork(final CLIOptions cliOptions) {
 		final List<File> files = FileSystemWorkAppraiser.collectInputFiles(cliOptions);
+		return cliOptions.isDeduplicationRequested() ? this.appraiseDistinctWork(files) : this.appraiseWork(files);
+	}
+
+	/**
+	 * Splits already collected and checked input files into list of roughly equal InputDataFetcher to be processed.
+	 *
+	 * @param files Input files.
+	 * @return List of roughly equal in size InputDataFetcher.
+	 */
+	public List<InputDataFetcher> appraiseWork(final List<File> files) {
 		final List<InputDataFetcher> result = new LinkedList<InputDataFetcher>();
-		files.stream().forEach(f -> {
-			long offset = 0;
-			long workSize = f.length();
-
-			try (final FileInputStream inputStream = new FileInputStream(f)) {
-				final byte[] separatorRange = new byte[this.maxNextSeparatorDistance];
-				// While remaining file doesn't fit into this.desiredWorkSize + this.maxNextSeparatorDistance
-				while (offset + this.desiredWorkSize + this.maxNextSeparatorDistance < workSize) {
-					inputStream.skip(this.desiredWorkSize);
-					inputStream.read(separatorRange, 0, this.maxNextSeparatorDistance);
-					// Find next index of term-separating character for given language
-					final int separatorIndex = this.termFrequencyCalculator.getLanguageSpecificTermSeparator()
-							.indexIn(new String(separatorRange, Charsets.UTF_8));
-					if (separatorIndex == -1) {
-						throw new RuntimeException(String.format(
-								"Didn't find a term separator within %d characters of %s file.",
-								this.maxNextSeparatorDistance,
-								f.getPath()));
+		files.stream().forEach(f -> result.addAll(this.appraiseFileRange(f, 0, f.length())));
+		return result;
+	}
+
+	/**
+	 * Splits already collected and checked input files into list of roughly equal InputDataFetcher to be processed,
+	 * so that byte-identical files are processed only once (see findDistinctFiles). Work on such file stands for
+	 * every copy of it, so its result is counted once per copy.
+	 *
+	 * @param files Input files.
+	 * @return List of roughly equal in size InputDataFetcher.
+	 */
+	public List<InputDataFetcher> appraiseDistinctWork(final List<File> files) {
+		final List<InputDataFetcher> result = new LinkedList<InputDataFetcher>();
+		FileSystemWorkAppraiser.findDistinctFiles(files).forEach(
+				(f, copies) -> result.addAll(this.appraiseFileRange(f, 0, f.length(), copies)));
+		return result;
+	}
+
+	/**
+	 * Splits given range of the input file into list of roughly equal InputDataFetcher to be processed.
+	 *
+	 * @param f Input file.
+	 * @param startOffset Start position of the range to split.
+	 * @param endOffset End position (exclusive) of the range to split.
+	 * @return List of roughly equal in size InputDataFetcher.
+	 */
+	public List<InputDataFetcher> appraiseFileRange(final File f, final long startOffset, final long endOffset) {
+		return this.appraiseFileRange(f, startOffset, endOffset, 1);
+	}
+
+	/** Splits given range of the input file, which stands for given number of identical copies of it. */
+	private List<InputDataFetcher> appraiseFileRange(
+			final File f, final long startOffset, final long endOffset, final int multiplicity) {
+		Preconditions.checkArgument(startOffset >= 0 && startOffset <= endOffset, "Invalid file range.");
+		final List<InputDataFetcher> result = new LinkedList<InputDataFetcher>();
+		long offset = startOffset;
+
+		try (final FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			// While remaining range doesn't fit into this.desiredWorkSize + this.maxNextSeparatorDistance
+			while (offset + this.desiredWorkSize + this.maxNextSeparatorDistance < endOffset) {
+				// Record this chunk, ending at the next term separator (looked for in bytes, not in decoded characters)
+				final long limit = this.alignToSeparator(channel, f, offset + this.desiredWorkSize, endOffset);
+				result.add(new FileSystemDataFetcher(f.getPath(), offset, limit, multiplicity));
+				offset = limit;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(
+					String.format("Error occurred while splitting file %s into smaller segments. Cause: %s",
+							f.getPath(), e.getMessage()));
+		}
+
+		// Add tail segment of work on the file range
+		result.add(new FileSystemDataFetcher(f.getPath(), offset, endOffset, multiplicity));
+		return result;
+	}
+
+	/**
+	 * Finds the end of the last term separator within given range of the input file, so text appended to a file can be
+	 * processed without splitting a term still being written. Range is searched backwards from its end.
+	 *
+	 * @param f Input file.
+	 * @param startOffset Start position of the range to search.
+	 * @param endOffset End position (exclusive) of the range to search.
+	 * @return Position right after the last term separator, or start of the range if there is none within it.
+	 */
+	public long findLastSeparatorEnd(final File f, final long startOffset, final long endOffset) {
+		Preconditions.checkArgument(startOffset >= 0 && startOffset <= endOffset, "Invalid file range.");
+		final CharMatcher separator = this.termFrequencyCalculator.getLanguageSpecificTermSeparator();
+
+		try (final FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer block = ByteBuffer.allocate(
+					(int) Math.min(this.maxNextSeparatorDistance, endOffset - startOffset));
+			long blockEnd = endOffset;
+			while (blockEnd > startOffset) {
+				final long blockStart = Math.max(startOffset, blockEnd - block.capacity());
+				block.clear().limit((int) (blockEnd - blockStart));
+				while (block.hasRemaining()) {
+					if (channel.read(block, blockStart + block.position()) < 0) {
+						break; // File is shorter than expected, look within what was there
 					}
+				}
 
-					// Record this chunk
-					long limit = offset + this.desiredWorkSize + separatorIndex;
-					result.add(new FileSystemDataFetcher(f.getPath(), offset, limit));
-					offset = limit;
-					inputStream.skip(separatorIndex - this.maxNextSeparatorDistance);
+				// Only ASCII separators are looked for, as their bytes never occur within multi-byte UTF-8 characters
+				for (int i = block.position() - 1; i >= 0; i--) {
+					final byte b = block.get(i);
+					if (b >= 0 && separator.matches((char) b)) {
+						return blockStart + i + 1;
+					}
 				}
-			} catch (IOException e) {
-				throw new RuntimeException(
-						String.format("Error occurred while splitting file %s into smaller segments. Cause: %s",
-								f.getPath(), e.getMessage()));
+
+				blockEnd = blockStart;
 			}
+		} catch (IOException e) {
+			throw new RuntimeException(
+					String.format("Error occurred while looking for the last term separator of file %s. Cause: %s",
+							f.getPath(), e.getMessage()));
+		}
 
-			// Add tail segment of work on the file
-			result.add(new FileSystemDataFetcher(f.getPath(), offset, workSize));
-		});
+		return startOffset;
+	}
 
-		return result;
+	/**
+	 * Returns number of slices of the desired work size given input file is split into (see appraiseSlice).
+	 *
+	 * @param f Input file.
+	 * @return Number of slices, at least one.
+	 */
+	public long getSliceCount(final File f) {
+		return Math.max(1, (f.length() + this.desiredWorkSize - 1) / this.desiredWorkSize);
+	}
+
+	/**
+	 * Appraises one slice of the input file without splitting the rest of it, so a few slices of a large file can
+	 * be picked (e.g. randomly sampled) cheaply. Slice starts and ends at the first term separator at or after the
+	 * multiple of the desired work size, so slices of a file don't overlap and together cover the whole file.
+	 *
+	 * @param f Input file.
+	 * @param index Index of the slice, less than getSliceCount.
+	 * @return InputDataFetcher of the slice.
+	 */
+	public InputDataFetcher appraiseSlice(final File f, final long index) {
+		final long length = f.length();
+		Preconditions.checkArgument(index >= 0 && index < this.getSliceCount(f), "Invalid slice index.");
+
+		try (final FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			return new FileSystemDataFetcher(f.getPath(),
+					this.alignToSeparator(channel, f, index * this.desiredWorkSize, length),
+					this.alignToSeparator(channel, f, (index + 1) * this.desiredWorkSize, length));
+		} catch (IOException e) {
+			throw new RuntimeException(
+					String.format("Error occurred while appraising slice of file %s. Cause: %s",
+							f.getPath(), e.getMessage()));
+		}
+	}
+
+	/** Moves given position within the file forward to the next term separator (or to given end of the range). */
+	private long alignToSeparator(final FileChannel channel, final File f, final long position, final long length)
+			throws IOException {
+		if (position <= 0 || position >= length) {
+			return Math.min(Math.max(position, 0), length);
+		}
+
+		final ByteBuffer separatorRange = ByteBuffer.allocate(
+				(int) Math.min(this.maxNextSeparatorDistance, length - position));
+		while (separatorRange.hasRemaining()) {
+			if (channel.read(separatorRange, position + separatorRange.position()) < 0) {
+				break; // File is shorter than expected, look within what was there
+			}
+		}
+
+		// Only ASCII separators are looked for, as their bytes never occur within multi-byte UTF-8 characters
+		final CharMatcher separator = this.termFrequencyCalculator.getLanguageSpecificTermSeparator();
+		for (int i = 0; i < separatorRange.position(); i++) {
+			final byte b = separatorRange.get(i);
+			if (b >= 0 && separator.matches((char) b)) {
+				return position + i;
+			}
+		}
+
+		if (position + separatorRange.position() >= length) {
+			return length;
+		}
+
+		throw new RuntimeException(String.format(
+				"Didn't find a term separator within %d characters of %s file.",
+				this.maxNextSeparatorDistance,
+				f.getPath()));
 	}
 
 	/**
@@ -113,8 +268,7 @@ public class FileSystemWorkAppraiser {
 	 * @param cliOptions CLIOptions constructed from command line arguments.
 	 * @return List of files to extract input data from.
 	 */
-	@VisibleForTesting
-	protected static List<File> collectInputFiles(final CLIOptions cliOptions) {
+	public static List<File> collectInputFiles(final CLIOptions cliOptions) {
 		final List<File> files = new LinkedList<File>();
 
 		// Go one level deep into provided directory, collect files in it, apply wildcard if provided.
@@ -138,23 +292,74 @@ public class FileSystemWorkAppraiser {
 
 		// Check that collected files are of supported types (by content probing).
 		if (!cliOptions.isSkipTypeCheck()) {
-			files.stream().forEach(f -> {
-				try {
-					final String type = Files.probeContentType(f.toPath());
-					if (!SUPPORTED_FILE_TYPES.contains(type)) {
-						throw new IllegalArgumentException(String.format(
-								"%s is a file of unsupported type %s. Supported types: %s",
-								f.getPath(),
-								type,
-								SUPPORTED_FILE_TYPES));
-					}
-				} catch (IOException e) {
-					throw new RuntimeException(String.format(
-							"Content type probing for the file %s failed. Reason: %s", f.getPath(), e.getMessage()));
-				}
-			});
+			FileSystemWorkAppraiser.checkInputFileTypes(files);
 		}
 
 		return files;
 	}
+
+	/**
+	 * Finds byte-identical files among given ones. Files are grouped by size first, so only files sharing their size
+	 * with another one get read, and their content is hashed (128-bit murmur3, in parallel) to tell them apart.
+	 *
+	 * @param files Input files.
+	 * @return First file of every distinct content (in order of given files) with its number of copies.
+	 */
+	public static Map<File, Integer> findDistinctFiles(final List<File> files) {
+		final Map<Long, List<File>> sizeGroups = files.stream().collect(
+				Collectors.groupingBy(File::length, LinkedHashMap::new, Collectors.toList()));
+
+		// Only files of the same size may be identical, others are distinct without being read
+		final Map<File, HashCode> hashes = sizeGroups.values().stream()
+				.filter(group -> group.size() > 1)
+				.flatMap(List::stream)
+				.distinct()
+				.collect(Collectors.toList())
+				.parallelStream()
+				.collect(Collectors.toConcurrentMap(f -> f, FileSystemWorkAppraiser::hashContent));
+
+		final Map<File, Integer> distinctFiles = new LinkedHashMap<File, Integer>();
+		final Map<List<Object>, File> firstCopies = new HashMap<List<Object>, File>();
+		for (final File f : files) {
+			final File firstCopy = firstCopies.computeIfAbsent(
+					Arrays.asList(f.length(), hashes.get(f)), content -> f);
+			distinctFiles.merge(firstCopy, 1, Integer::sum);
+		}
+
+		return distinctFiles;
+	}
+
+	private static HashCode hashContent(final File f) {
+		try {
+			return com.google.common.io.Files.asByteSource(f).hash(Hashing.murmur3_128());
+		} catch (IOException e) {
+			throw new RuntimeException(String.format(
+					"Hashing content of the file %s failed. Reason: %s", f.getPath(), e.getMessage()));
+		}
+	}
+
+	/**
+	 * Checks that given files are of supported types (by content probing).
+	 *
+	 * @param files Files to check.
+	 * @throws IllegalArgumentException If one of the files is of unsupported type.
+	 */
+	public static void checkInputFileTypes(final List<File> files) {
+		files.stream().filter(f -> !SUPPORTED_FILE_EXTENSIONS.contains(
+				com.google.common.io.Files.getFileExtension(f.getName()).toLowerCase(Locale.ROOT))).forEach(f -> {
+			try {
+				final String type = Files.probeContentType(f.toPath());
+				if (!SUPPORTED_FILE_TYPES.contains(type)) {
+					throw new IllegalArgumentException(String.format(
+							"%s is a file of unsupported type %s. Supported types: %s",
+							f.getPath(),
+							type,
+							SUPPORTED_FILE_TYPES));
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(String.format(
+						"Content type probing for the file %s failed. Reason: %s", f.getPath(), e.getMessage()));
+			}
+		});
+	}
 }
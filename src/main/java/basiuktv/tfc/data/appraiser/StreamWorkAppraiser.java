@@ -0,0 +1,151 @@
+package basiuktv.tfc.data.appraiser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.fetchers.StreamDataFetcher;
+import basiuktv.tfc.text.TermFrequencyCalculator;
+
+/**
+ * Reads input stream (like stdin) and slices it into chunks of work as the data arrives.
+ * Every chunk, except for the last one, ends right after a term separator, so no term is split between two chunks.
+ * Stream is only read when the next chunk is requested, so memory use is bounded by the number of chunks the consumer
+ * holds at the same time, not by the stream length.
+ *
+ * @author Taras Basiuk
+ */
+public class StreamWorkAppraiser implements Iterator<InputDataFetcher> {
+
+	/** Source name of the chunks of work read from the standard input. */
+	public static final String STDIN_SOURCE = "stdin";
+
+	private final InputStream stream;
+	private final String source;
+	private final int desiredWorkSize;
+	private final CharMatcher termSeparator;
+
+	// Arrays given back by already fetched chunks, reused for the next ones
+	private final Queue<byte[]> recycled = new ConcurrentLinkedQueue<byte[]>();
+
+	// Bytes read past the end of the previous chunk (start of the next one)
+	private byte[] carry;
+	private int carryLength;
+
+	private long position;
+	private boolean streamEnded;
+	private InputDataFetcher next;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param stream InputStream to read data from.
+	 * @param source String representation of the stream.
+	 * @param desiredWorkSize Max size of one chunk of work.
+	 * @param termFrequencyCalculator Language-specific TermFrequencyCalculator.
+	 */
+	public StreamWorkAppraiser(
+			final InputStream stream,
+			final String source,
+			final int desiredWorkSize,
+			final TermFrequencyCalculator termFrequencyCalculator) {
+		Preconditions.checkArgument(desiredWorkSize > 0, "desiredWorkSize must be positive.");
+		this.stream = Preconditions.checkNotNull(stream, "stream must not be null.");
+		this.source = Preconditions.checkNotNull(source, "source must not be null.");
+		this.desiredWorkSize = desiredWorkSize;
+		this.termSeparator = Preconditions.checkNotNull(
+				termFrequencyCalculator, "termFrequencyCalculator must not be null.")
+				.getLanguageSpecificTermSeparator();
+		this.carry = new byte[desiredWorkSize];
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (this.next == null && !this.streamEnded) {
+			this.next = this.readNextChunk();
+		}
+
+		return this.next != null;
+	}
+
+	@Override
+	public InputDataFetcher next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		final InputDataFetcher result = this.next;
+		this.next = null;
+		return result;
+	}
+
+	/**
+	 * Reads next chunk of work from the stream.
+	 *
+	 * @return Next chunk of work, or null if the stream ended.
+	 */
+	private InputDataFetcher readNextChunk() {
+		// Chunk starts with bytes carried over from the previous one
+		final byte[] chunk = this.carry;
+		int length = this.carryLength;
+		try {
+			while (length < chunk.length) {
+				final int read = this.stream.read(chunk, length, chunk.length - length);
+				if (read < 0) {
+					this.streamEnded = true;
+					break;
+				}
+
+				length += read;
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException(String.format(
+					"Error occurred while reading %s. Cause: %s", this.source, e.getMessage()));
+		}
+
+		if (length == 0) {
+			return null;
+		}
+
+		// Unless it's the last chunk, cut it right after the last term separator, carry the rest over to the next one
+		int cut = length;
+		if (!this.streamEnded) {
+			cut = this.lastSeparatorIndex(chunk, length) + 1;
+			if (cut == 0) {
+				throw new RuntimeException(String.format(
+						"Didn't find a term separator within %d bytes of %s.", length, this.source));
+			}
+		}
+
+		final byte[] recycledArray = this.recycled.poll();
+		this.carry = recycledArray != null ? recycledArray : new byte[this.desiredWorkSize];
+		this.carryLength = length - cut;
+		System.arraycopy(chunk, cut, this.carry, 0, this.carryLength);
+
+		final InputDataFetcher result =
+				new StreamDataFetcher(this.source, this.position, chunk, cut, this.recycled::add);
+		this.position += cut;
+		return result;
+	}
+
+	/**
+	 * Finds index of the last term separator in the chunk.
+	 * Term separators are expected to be ASCII characters, which in UTF-8 never appear inside multi-byte sequences.
+	 */
+	private int lastSeparatorIndex(final byte[] chunk, final int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (chunk[i] >= 0 && this.termSeparator.matches((char) chunk[i])) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,157 @@
+package basiuktv.tfc.data.documents;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.processor.ProcessingResult;
+import lombok.Getter;
+
+/**
+ * Accumulates term match and all terms counts of every input document (file) from ProcessingResult of its chunks,
+ * which may be processed in parallel, and ranks the documents by TF-IDF of the term.
+ *
+ * Documents are identified by their position in a sorted array of their paths, so per-document state is just two
+ * longs in AtomicLongArray (16 bytes per document, plus the paths known anyway), which lets directories with millions
+ * of files be ranked.
+ *
+ * TF of the document is its term match count divided by its all terms count. IDF is smoothed (ln((1 + N) / (1 + DF))
+ * + 1, N being number of documents and DF number of documents with at least one match), so a term found in every
+ * document still ranks them.
+ *
+ * @author Taras Basiuk
+ */
+public class DocumentStatistics {
+
+	// Paths of the documents, sorted, so position of the document is found by binary search
+	private final String[] documents;
+
+	private final AtomicLongArray termMatchCounts;
+	private final AtomicLongArray allTermsCounts;
+
+	/** Statistics and TF-IDF score of one document. */
+	public static class DocumentScore {
+
+		@Getter private final String document;
+		@Getter private final long termMatchCount;
+		@Getter private final long allTermsCount;
+		@Getter private final double score;
+
+		private DocumentScore(
+				final String document, final long termMatchCount, final long allTermsCount, final double score) {
+			this.document = document;
+			this.termMatchCount = termMatchCount;
+			this.allTermsCount = allTermsCount;
+			this.score = score;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.10f : %s (%d of %d terms)",
+					this.score, this.document, this.termMatchCount, this.allTermsCount);
+		}
+	}
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param documents Paths of the documents (sources of InputDataFetcher), duplicates are ignored.
+	 */
+	public DocumentStatistics(final Collection<String> documents) {
+		this.documents = documents.stream().distinct().sorted().toArray(String[]::new);
+		this.termMatchCounts = new AtomicLongArray(this.documents.length);
+		this.allTermsCounts = new AtomicLongArray(this.documents.length);
+	}
+
+	/**
+	 * Adds ProcessingResult of one chunk of given document. May be called by several threads at the same time.
+	 *
+	 * @param document Path of the document.
+	 * @param result ProcessingResult of the chunk.
+	 * @throws IllegalArgumentException When document is not known.
+	 */
+	public void add(final String document, final ProcessingResult result) {
+		final int index = Arrays.binarySearch(this.documents, document);
+		Preconditions.checkArgument(index >= 0, "%s is not a known document.", document);
+		this.termMatchCounts.addAndGet(index, result.getTermMatchCount());
+		this.allTermsCounts.addAndGet(index, result.getAllTermsCount());
+	}
+
+	/**
+	 * Returns number of documents.
+	 *
+	 * @return Number of documents.
+	 */
+	public int getDocumentCount() {
+		return this.documents.length;
+	}
+
+	/**
+	 * Returns number of documents with at least one term match.
+	 *
+	 * @return Document frequency of the term.
+	 */
+	public int getDocumentFrequency() {
+		int documentFrequency = 0;
+		for (int i = 0; i < this.documents.length; i++) {
+			documentFrequency += this.termMatchCounts.get(i) > 0 ? 1 : 0;
+		}
+
+		return documentFrequency;
+	}
+
+	/**
+	 * Returns smoothed inverse document frequency of the term.
+	 *
+	 * @return IDF of the term.
+	 */
+	public double getInverseDocumentFrequency() {
+		return Math.log((1.0 + this.documents.length) / (1.0 + this.getDocumentFrequency())) + 1;
+	}
+
+	/**
+	 * Returns given number of documents with the highest TF-IDF of the term (only documents with term matches).
+	 * Must be called once all the chunks are added.
+	 *
+	 * @param n Max number of documents to return.
+	 * @return Scores of the top documents, the highest first (ties ordered by path).
+	 */
+	public List<DocumentScore> getTopDocuments(final int n) {
+		Preconditions.checkArgument(n > 0, "n must be positive.");
+		final double idf = this.getInverseDocumentFrequency();
+		final Comparator<DocumentScore> order = Comparator.comparingDouble(DocumentScore::getScore)
+				.thenComparing(Comparator.comparing(DocumentScore::getDocument).reversed());
+
+		// Min-heap of the best n documents so far, so only n scores are held at once
+		final PriorityQueue<DocumentScore> top = new PriorityQueue<DocumentScore>(n, order);
+		for (int i = 0; i < this.documents.length; i++) {
+			final long termMatchCount = this.termMatchCounts.get(i);
+			if (termMatchCount == 0) {
+				continue;
+			}
+
+			final long allTermsCount = this.allTermsCounts.get(i);
+			final DocumentScore score = new DocumentScore(
+					this.documents[i], termMatchCount, allTermsCount, idf * termMatchCount / allTermsCount);
+			if (top.size() < n) {
+				top.add(score);
+			} else if (order.compare(score, top.peek()) > 0) {
+				top.poll();
+				top.add(score);
+			}
+		}
+
+		final LinkedList<DocumentScore> result = new LinkedList<DocumentScore>();
+		while (!top.isEmpty()) {
+			result.addFirst(top.poll());
+		}
+
+		return result;
+	}
+}
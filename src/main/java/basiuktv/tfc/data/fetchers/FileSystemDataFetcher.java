@@ -1,9 +1,12 @@
 package basiuktv.tfc.data.fetchers;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Preconditions;
 
 /**
  * InputDataFetcher which fetches data from local (or looks-like-local) file system.
@@ -21,17 +24,42 @@ public class FileSystemDataFetcher extends InputDataFetcher {
 		super(source, offset, limit);
 	}
 
+	/**
+	 * Constructs fetcher of data which stands for given number of identical copies of it.
+	 *
+	 * @param source Path to a file.
+	 * @param offset Start position of the allocated data to process.
+	 * @param limit End position (exclusive) of the allocated data to process.
+	 * @param multiplicity Number of identical copies of the data (the source itself included).
+	 */
+	public FileSystemDataFetcher(final String source, final Long offset, final Long limit, final int multiplicity) {
+		super(source, offset, limit, multiplicity);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public String fetchData() throws IOException {
-		try (final FileInputStream inputStream = new FileInputStream(new File(this.getSource()))) {
-			final byte[] data = new byte[(int) (this.getLimit() - this.getOffset())];
-			inputStream.skip(this.getOffset());
-			inputStream.read(data, 0, (int) (this.getLimit() - this.getOffset()));
-			return new String(data, StandardCharsets.UTF_8);
+	public int fetchData(final ByteBuffer buffer) throws IOException {
+		Preconditions.checkArgument(buffer.capacity() >= this.getSize(), "buffer is too small for allocated data.");
+		buffer.clear();
+		buffer.limit(this.getSize());
+
+		try (final FileChannel channel =
+				FileChannel.open(new File(this.getSource()).toPath(), StandardOpenOption.READ)) {
+			long position = this.getOffset();
+			while (buffer.hasRemaining()) {
+				final int read = channel.read(buffer, position);
+				if (read < 0) {
+					break; // File is shorter than expected, return what was there
+				}
+
+				position += read;
+			}
 		}
+
+		buffer.flip();
+		return buffer.remaining();
 	}
 
 }
@@ -1,10 +1,13 @@
 package basiuktv.tfc.data.fetchers;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
 
 import lombok.Getter;
 
@@ -18,6 +21,7 @@ public abstract class InputDataFetcher {
 	@Getter private final String source;
 	@Getter private final Long offset;
 	@Getter private final Long limit;
+	@Getter private final int multiplicity;
 
 	/**
 	 * Default constructor.
@@ -27,13 +31,36 @@ public abstract class InputDataFetcher {
 	 * @param limit End position (exclusive) of the allocated data to process.
 	 */
 	public InputDataFetcher(final String source, final Long offset, final Long limit) {
+		this(source, offset, limit, 1);
+	}
+
+	/**
+	 * Constructs allocation of data which stands for given number of identical copies of it.
+	 *
+	 * @param source String representation of the source of the data.
+	 * @param offset Start position of the allocated data to process.
+	 * @param limit End position (exclusive) of the allocated data to process.
+	 * @param multiplicity Number of identical copies of the data (the source itself included).
+	 */
+	public InputDataFetcher(final String source, final Long offset, final Long limit, final int multiplicity) {
 		if (StringUtils.isBlank(source)) {
 			throw new IllegalArgumentException("Source cannot be blank or null.");
 		}
 
+		Preconditions.checkArgument(multiplicity > 0, "Multiplicity must be positive.");
 		this.source = source;
 		this.limit = Preconditions.checkNotNull(limit, "Limit may not be null.");
 		this.offset = Preconditions.checkNotNull(offset, "Offset may not be null.");;
+		this.multiplicity = multiplicity;
+	}
+
+	/**
+	 * Returns size of the allocated data in bytes.
+	 *
+	 * @return Size of the allocated data.
+	 */
+	public int getSize() {
+		return Ints.checkedCast(this.limit - this.offset);
 	}
 
 	/**
@@ -42,10 +69,25 @@ public abstract class InputDataFetcher {
 	 * @return Allocated data to process.
 	 * @throws IOException When data access problem occurs.
 	 */
-	public abstract String fetchData() throws IOException;
+	public String fetchData() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(this.getSize());
+		final int size = this.fetchData(buffer);
+		return new String(buffer.array(), 0, size, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Actually fetches allocated data from the source into caller-supplied buffer.
+	 * Buffer is cleared first, then filled and flipped, so fetched data is between its position and limit.
+	 *
+	 * @param buffer ByteBuffer with capacity of at least getSize() bytes.
+	 * @return Number of bytes fetched.
+	 * @throws IOException When data access problem occurs.
+	 */
+	public abstract int fetchData(final ByteBuffer buffer) throws IOException;
 
 	@Override
 	public String toString() {
-		return String.format("%s, offset: %d, limit: %d", this.source, this.offset, this.limit);
+		final String description = String.format("%s, offset: %d, limit: %d", this.source, this.offset, this.limit);
+		return this.multiplicity > 1 ? String.format("%s, copies: %d", description, this.multiplicity) : description;
 	}
 }
@@ -0,0 +1,57 @@
+package basiuktv.tfc.data.fetchers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * InputDataFetcher which holds a chunk of data already read from a stream (which can't be read again).
+ * Chunk is handed over to the first fetch, after which its array is given back to the producer to be reused.
+ *
+ * @author Taras Basiuk
+ */
+public class StreamDataFetcher extends InputDataFetcher {
+
+	private byte[] data;
+	private final Consumer<byte[]> recycler;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param source String representation of the stream.
+	 * @param offset Position of the first byte of the chunk within the stream.
+	 * @param data Array holding the chunk of data (starting at index 0).
+	 * @param length Number of bytes of the chunk of data in the array.
+	 * @param recycler Consumer to give the array back to, once data is fetched.
+	 */
+	public StreamDataFetcher(
+			final String source,
+			final long offset,
+			final byte[] data,
+			final int length,
+			final Consumer<byte[]> recycler) {
+		super(source, offset, offset + length);
+		Preconditions.checkArgument(length <= data.length, "length must not exceed data array length.");
+		this.data = data;
+		this.recycler = Preconditions.checkNotNull(recycler, "recycler must not be null.");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Data can only be fetched once.
+	 */
+	@Override
+	public synchronized int fetchData(final ByteBuffer buffer) throws IOException {
+		Preconditions.checkState(this.data != null, "Data of %s was already fetched.", this);
+		Preconditions.checkArgument(buffer.capacity() >= this.getSize(), "buffer is too small for allocated data.");
+		buffer.clear();
+		buffer.put(this.data, 0, this.getSize());
+		buffer.flip();
+
+		this.recycler.accept(this.data);
+		this.data = null;
+		return buffer.remaining();
+	}
+}
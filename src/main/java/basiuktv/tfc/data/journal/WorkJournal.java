@@ -0,0 +1,309 @@
+package basiuktv.tfc.data.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.vocabulary.HyperLogLog;
+import basiuktv.tfc.engine.Query;
+
+import lombok.Getter;
+
+/**
+ * Durable journal of completed work, letting an interrupted run resume without processing the same work again.
+ *
+ * Every completed InputDataFetcher is appended (and synced to disk) as one record holding the allocated data
+ * (source, offset, limit), fingerprint of the source file (length and last modification time) and the partial
+ * ProcessingResult. Work found in the journal with the same fingerprint is not processed again, its journaled
+ * result is used instead. Records are checksummed, so a record torn by a crash is detected and dropped.
+ *
+ * Journal starts with a header record describing the query (term and what is counted), so it's not resumed by
+ * a run with different query.
+ *
+ * @author Taras Basiuk
+ */
+public class WorkJournal implements Closeable {
+
+	private static final String FORMAT = "tfc-journal-2";
+
+	// Record is payload length, payload and CRC32 of the payload
+	private static final int LENGTH_BYTES = 4;
+	private static final int CRC_BYTES = 8;
+
+	private static final int NO_COUNTS = -1;
+
+	private final Path file;
+	private final FileChannel channel;
+
+	// Position of the record of every journaled work by its key
+	private final Map<String, Long> journaled = new HashMap<String, Long>();
+
+	// Position right after the last valid record
+	private long end;
+
+	@Getter private int replayedWork;
+	@Getter private int recordedWork;
+
+	/**
+	 * Opens (or creates) journal file, dropping a torn record at its end, if any.
+	 *
+	 * @param file Journal file.
+	 * @param query Query the journal is written for.
+	 * @throws IOException When journal file can't be read or written.
+	 * @throws IllegalArgumentException When journal was written for a different query.
+	 */
+	public WorkJournal(final Path file, final Query query) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			this.load(describeQuery(query));
+		} catch (final IOException | RuntimeException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns journaled result of given work, if the work was completed before and its source didn't change since.
+	 *
+	 * @param fetcher Allocated work.
+	 * @return Journaled ProcessingResult or empty.
+	 * @throws IOException When journal can't be read.
+	 */
+	public synchronized Optional<ProcessingResult> replay(final InputDataFetcher fetcher) throws IOException {
+		final Long position = this.journaled.remove(key(fetcher));
+		if (position == null) {
+			return Optional.empty();
+		}
+
+		final DataInput in = new DataInputStream(new ByteArrayInputStream(this.readRecord(position)));
+		readString(in); // Key, already known to match
+		final long termMatchCount = in.readLong();
+		final long allTermsCount = in.readLong();
+		final Optional<Map<String, Long>> everyTermCount = readCounts(in);
+		final Optional<Map<String, Long>> matchingTermCount = readCounts(in);
+		final Optional<HyperLogLog> distinctTerms = readSketch(in);
+
+		this.replayedWork++;
+		return Optional.of(new ProcessingResult(
+				termMatchCount, allTermsCount, everyTermCount, matchingTermCount, distinctTerms));
+	}
+
+	/**
+	 * Durably records that given work was completed with given result.
+	 *
+	 * @param fetcher Completed work.
+	 * @param result ProcessingResult of the work.
+	 * @throws IOException When journal can't be written.
+	 */
+	public void record(final InputDataFetcher fetcher, final ProcessingResult result) throws IOException {
+		// Serialize outside of the lock, only appending is serialized
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(payload);
+		writeString(out, key(fetcher));
+		out.writeLong(result.getTermMatchCount());
+		out.writeLong(result.getAllTermsCount());
+		writeCounts(out, result.getEveryTermCount());
+		writeCounts(out, result.getMatchingTermCount());
+		writeSketch(out, result.getDistinctTerms());
+		out.flush();
+
+		synchronized (this) {
+			this.append(payload.toByteArray());
+			this.recordedWork++;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.channel.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Journal %s : %d chunk(s) of work replayed, %d recorded.",
+				this.file, this.replayedWork, this.recordedWork);
+	}
+
+	/** Indexes valid records, checks the header and truncates whatever follows the last valid record. */
+	private void load(final String query) throws IOException {
+		long position = 0;
+		byte[] payload = this.readRecord(position);
+		if (payload == null) {
+			if (this.channel.size() > 0) {
+				// Never overwrite a file which is not a journal
+				throw new IllegalArgumentException(String.format("%s is not a valid journal.", this.file));
+			}
+
+			this.end = 0;
+			final ByteArrayOutputStream header = new ByteArrayOutputStream();
+			writeString(new DataOutputStream(header), query);
+			this.append(header.toByteArray());
+			return;
+		}
+
+		final String journaledQuery = readString(new DataInputStream(new ByteArrayInputStream(payload)));
+		if (!journaledQuery.equals(query)) {
+			throw new IllegalArgumentException(String.format(
+					"Journal %s was written for a different query (%s).", this.file, journaledQuery));
+		}
+
+		while (payload != null) {
+			if (position > 0) {
+				this.journaled.put(readString(new DataInputStream(new ByteArrayInputStream(payload))), position);
+			}
+
+			position += LENGTH_BYTES + payload.length + CRC_BYTES;
+			payload = this.readRecord(position);
+		}
+
+		this.channel.truncate(position); // Drop a record torn by a crash
+		this.end = position;
+	}
+
+	/** Reads payload of the record at given position, or returns null if there is no complete valid record. */
+	private byte[] readRecord(final long position) throws IOException {
+		final ByteBuffer length = ByteBuffer.allocate(LENGTH_BYTES);
+		if (!this.readFully(length, position)) {
+			return null;
+		}
+
+		final int payloadLength = length.getInt(0);
+		if (payloadLength < 0 || position + LENGTH_BYTES + payloadLength + CRC_BYTES > this.channel.size()) {
+			return null;
+		}
+
+		final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+		final ByteBuffer crc = ByteBuffer.allocate(CRC_BYTES);
+		if (!this.readFully(payload, position + LENGTH_BYTES)
+				|| !this.readFully(crc, position + LENGTH_BYTES + payloadLength)
+				|| crc.getLong(0) != crc(payload.array())) {
+			return null;
+		}
+
+		return payload.array();
+	}
+
+	private boolean readFully(final ByteBuffer buffer, final long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, position + buffer.position()) < 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Appends record with given payload and syncs it to disk. */
+	private void append(final byte[] payload) throws IOException {
+		final ByteBuffer record = ByteBuffer.allocate(LENGTH_BYTES + payload.length + CRC_BYTES);
+		record.putInt(payload.length).put(payload).putLong(crc(payload)).flip();
+		while (record.hasRemaining()) {
+			this.channel.write(record, this.end + record.position());
+		}
+
+		this.channel.force(false);
+		this.end += record.capacity();
+	}
+
+	/** Describes what is counted, so results of different queries are not mixed. */
+	private static String describeQuery(final Query query) {
+		return String.format("%s\tterm=%s\teveryTermCount=%s\tmatchCount=%s\tdistinctEstimate=%s",
+				FORMAT, query.getTerm(), query.isEveryTermCountRequested(), query.isMatchCountRequested(),
+				query.isDistinctEstimateRequested());
+	}
+
+	/** Identifies allocated work together with the fingerprint of its source file. */
+	private static String key(final InputDataFetcher fetcher) {
+		final File source = new File(fetcher.getSource());
+		return String.format("%s\t%d\t%d\t%d\t%d", fetcher.getSource(), fetcher.getOffset(), fetcher.getLimit(),
+				source.length(), source.lastModified());
+	}
+
+	private static void writeCounts(final DataOutput out, final Optional<Map<String, Long>> counts)
+			throws IOException {
+		if (!counts.isPresent()) {
+			out.writeInt(NO_COUNTS);
+			return;
+		}
+
+		out.writeInt(counts.get().size());
+		for (final Map.Entry<String, Long> e : counts.get().entrySet()) {
+			writeString(out, e.getKey());
+			out.writeLong(e.getValue());
+		}
+	}
+
+	private static Optional<Map<String, Long>> readCounts(final DataInput in) throws IOException {
+		final int size = in.readInt();
+		if (size == NO_COUNTS) {
+			return Optional.empty();
+		}
+
+		final Map<String, Long> counts = new HashMap<String, Long>();
+		for (int i = 0; i < size; i++) {
+			counts.put(readString(in), in.readLong());
+		}
+
+		return Optional.of(counts);
+	}
+
+	private static void writeSketch(final DataOutput out, final Optional<HyperLogLog> sketch) throws IOException {
+		if (!sketch.isPresent()) {
+			out.writeInt(NO_COUNTS);
+			return;
+		}
+
+		final byte[] registers = sketch.get().getRegisters();
+		out.writeInt(registers.length);
+		out.write(registers);
+	}
+
+	private static Optional<HyperLogLog> readSketch(final DataInput in) throws IOException {
+		final int size = in.readInt();
+		if (size == NO_COUNTS) {
+			return Optional.empty();
+		}
+
+		final byte[] registers = new byte[size];
+		in.readFully(registers);
+		return Optional.of(HyperLogLog.fromRegisters(registers));
+	}
+
+	/** Writes UTF-8 string of any length (DataOutput.writeUTF is limited to 64 KB). */
+	private static void writeString(final DataOutput out, final String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final DataInput in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static long crc(final byte[] payload) {
+		final CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return crc.getValue();
+	}
+}
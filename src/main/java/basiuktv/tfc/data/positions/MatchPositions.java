@@ -0,0 +1,305 @@
+package basiuktv.tfc.data.positions;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+
+/**
+ * Writes byte position of every match of the term in question, in source and offset order, using bounded amount of
+ * memory. Every worker writes positions of the chunk of work it processes into a scratch file of its own (buffered,
+ * delta-encoded), as a block which is only kept once the result of the chunk is accepted. Chunks of the same source
+ * never overlap and positions within a chunk are found in order, so finally the blocks, sorted by source and offset of
+ * their chunks, are simply concatenated into the output file. Memory holds one entry per chunk, not per position.
+ *
+ * @author Taras Basiuk
+ */
+public class MatchPositions {
+
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	// Positions are written as deltas, 7 bits per byte, high bit set on every byte but the last one
+	private static final int VARINT_PAYLOAD_BITS = 7;
+	private static final int VARINT_PAYLOAD_MASK = 0x7F;
+	private static final int VARINT_CONTINUATION = 0x80;
+
+	private static final Comparator<Block> SOURCE_AND_OFFSET_ORDER =
+			Comparator.comparing((Block block) -> block.source).thenComparingLong(block -> block.offset);
+
+	private final File scratchDirectory;
+
+	// Scratch files not written by any worker at the moment, and every scratch file created
+	private final Queue<ScratchFile> idleFiles = new ConcurrentLinkedQueue<ScratchFile>();
+	private final Queue<ScratchFile> scratchFiles = new ConcurrentLinkedQueue<ScratchFile>();
+	private final AtomicInteger fileCounter = new AtomicInteger();
+
+	// Blocks of the chunks whose result was accepted
+	private final List<Block> blocks = new ArrayList<Block>();
+	private long positions;
+
+	/** Positions of matches in one chunk of work, written into a scratch file leased until the chunk is closed. */
+	public final class Chunk implements LongConsumer, Closeable {
+
+		private final InputDataFetcher fetcher;
+		private final ScratchFile file;
+		private final long start;
+		private long previous;
+		private long count;
+
+		private Chunk(final InputDataFetcher fetcher, final ScratchFile file) {
+			this.fetcher = fetcher;
+			this.file = file;
+			this.start = file.size;
+		}
+
+		/**
+		 * Writes position of the next match.
+		 *
+		 * @param position Byte position of the match within the chunk, not lower than the one before.
+		 * @throws UncheckedIOException When writing into the scratch file fails.
+		 */
+		@Override
+		public void accept(final long position) {
+			Preconditions.checkArgument(position >= this.previous, "positions must be written in order.");
+			try {
+				this.file.writeVarint(position - this.previous);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			this.previous = position;
+			this.count++;
+		}
+
+		/** Keeps positions written so far, to be written into the output file. Called once result is accepted. */
+		public void commit() {
+			synchronized (MatchPositions.this) {
+				blocks.add(new Block(this.fetcher.getSource(), this.fetcher.getOffset(), this.file, this.start,
+						this.file.size, this.count));
+				positions += this.count;
+			}
+		}
+
+		/** Gives the scratch file back, positions of the chunk not committed by then are left unused. */
+		@Override
+		public void close() {
+			idleFiles.add(this.file);
+		}
+	}
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param scratchParent Directory in which scratch directory for the positions gets created.
+	 * @throws IOException When scratch directory can't be created.
+	 */
+	public MatchPositions(final Path scratchParent) throws IOException {
+		this.scratchDirectory = Files.createTempDirectory(scratchParent, "tfc-positions").toFile();
+	}
+
+	/**
+	 * Starts writing positions of matches in given chunk of work.
+	 *
+	 * @param fetcher Chunk of work, its positions are relative to its offset.
+	 * @return Chunk to be closed once processing of the chunk of work is over.
+	 * @throws IOException When a new scratch file can't be created.
+	 */
+	public Chunk startChunk(final InputDataFetcher fetcher) throws IOException {
+		ScratchFile file = this.idleFiles.poll();
+		if (file == null) {
+			file = new ScratchFile(new File(this.scratchDirectory,
+					String.format("positions-%d.bin", this.fileCounter.getAndIncrement())));
+			this.scratchFiles.add(file);
+		}
+
+		return new Chunk(Preconditions.checkNotNull(fetcher, "fetcher must not be null."), file);
+	}
+
+	/**
+	 * Returns number of positions committed so far.
+	 *
+	 * @return Number of positions.
+	 */
+	public synchronized long getPositions() {
+		return this.positions;
+	}
+
+	/**
+	 * Writes every committed position into the output file and deletes scratch files.
+	 * Must be called once all the workers are finished.
+	 *
+	 * @param output File to write positions into (one "source TAB byte offset" line per match, in source and offset
+	 *        order).
+	 * @throws IOException When reading scratch files or writing fails.
+	 */
+	public synchronized void finish(final Path output) throws IOException {
+		try {
+			this.write(output);
+		} finally {
+			this.discard();
+		}
+	}
+
+	/**
+	 * Writes every committed position into the output file, keeping scratch files. Workers may still be writing
+	 * positions of chunks which are never committed (e.g. of an abandoned call) meanwhile.
+	 *
+	 * @param output File to write positions into (one "source TAB byte offset" line per match, in source and offset
+	 *        order).
+	 * @throws IOException When reading scratch files or writing fails.
+	 */
+	public synchronized void write(final Path output) throws IOException {
+		this.blocks.sort(SOURCE_AND_OFFSET_ORDER);
+		ByteBuffer bytes = ByteBuffer.allocate(0);
+		try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(output.toFile()), StandardCharsets.UTF_8), STREAM_BUFFER_SIZE)) {
+			for (final Block block : this.blocks) {
+				if (bytes.capacity() < block.end - block.start) {
+					bytes = ByteBuffer.allocate((int) (block.end - block.start));
+				}
+
+				block.file.read(block.start, block.end, bytes);
+				long position = block.offset;
+				for (long i = 0; i < block.count; i++) {
+					position += readVarint(bytes);
+					writer.write(block.source);
+					writer.write('\t');
+					writer.write(Long.toString(position));
+					writer.write('\n');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes scratch files, positions not written by then are lost. Must be called once all the workers are finished,
+	 * does nothing once scratch files are deleted.
+	 *
+	 * @throws IOException When scratch files can't be deleted.
+	 */
+	public synchronized void discard() throws IOException {
+		for (final ScratchFile file : this.scratchFiles) {
+			file.close();
+		}
+
+		FileUtils.deleteDirectory(this.scratchDirectory);
+	}
+
+	private static long readVarint(final ByteBuffer bytes) {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = bytes.get();
+			value |= (long) (b & VARINT_PAYLOAD_MASK) << shift;
+			shift += VARINT_PAYLOAD_BITS;
+		} while ((b & VARINT_CONTINUATION) != 0);
+
+		return value;
+	}
+
+	/** Positions of one chunk: bytes from start to end of a scratch file. */
+	private static class Block {
+
+		private final String source;
+		private final long offset;
+		private final ScratchFile file;
+		private final long start;
+		private final long end;
+		private final long count;
+
+		private Block(final String source, final long offset, final ScratchFile file,
+				final long start, final long end, final long count) {
+			this.source = source;
+			this.offset = offset;
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			this.count = count;
+		}
+	}
+
+	/** Scratch file written by one worker at a time, through a buffer. */
+	private static class ScratchFile implements Closeable {
+
+		private final File file;
+		private final OutputStream stream;
+
+		// Number of bytes written so far (buffered ones included)
+		private long size;
+
+		// Channel the file is read through, opened by the first read
+		private FileChannel channel;
+
+		private ScratchFile(final File file) throws IOException {
+			this.file = file;
+			this.stream = new BufferedOutputStream(new FileOutputStream(file), STREAM_BUFFER_SIZE);
+		}
+
+		private void writeVarint(final long value) throws IOException {
+			long rest = value;
+			while (rest > VARINT_PAYLOAD_MASK) {
+				this.stream.write((int) (rest & VARINT_PAYLOAD_MASK) | VARINT_CONTINUATION);
+				this.size++;
+				rest >>>= VARINT_PAYLOAD_BITS;
+			}
+
+			this.stream.write((int) rest);
+			this.size++;
+		}
+
+		/**
+		 * Reads bytes from start to end into given buffer, flipped to be read. Bytes up to the end must be written by
+		 * then, the file may still be written past it.
+		 */
+		private void read(final long start, final long end, final ByteBuffer buffer) throws IOException {
+			this.stream.flush();
+			if (this.channel == null) {
+				this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+			}
+
+			buffer.clear();
+			buffer.limit((int) (end - start));
+			while (buffer.hasRemaining()) {
+				if (this.channel.read(buffer, start + buffer.position()) < 0) {
+					throw new IOException(String.format("Unexpected end of %s.", this.file));
+				}
+			}
+
+			buffer.flip();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.stream.close();
+			if (this.channel != null) {
+				this.channel.close();
+			}
+		}
+	}
+}
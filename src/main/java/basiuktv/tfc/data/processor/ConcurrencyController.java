@@ -0,0 +1,199 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Getter;
+
+/**
+ * Tunes number of workers calculating terms at the same time, within given bounds, by hill climbing on the measured
+ * throughput with additive increase and multiplicative decrease (AIMD).
+ *
+ * Every window of completed chunks of work (a couple of chunks per worker, spanning at least MIN_WINDOW_NANOS) gives
+ * the throughput (input bytes per second, across all the workers) and the queue latency (how long chunks ready to be
+ * processed waited for a worker, compared to how long processing took):
+ * <ul>
+ * <li>Last change didn't pay off (more workers didn't raise throughput by at least TOLERANCE, or fewer workers
+ * lowered it): take it back and hold for a few windows.</li>
+ * <li>Throughput dropped by itself (e.g. other programs contend for cores or storage): decrease multiplicatively.</li>
+ * <li>Chunks wait for workers (workers are the bottleneck): increase by one.</li>
+ * <li>Workers wait for chunks (e.g. storage is the bottleneck): decrease by one.</li>
+ * </ul>
+ * Listener is called with the new number of workers on every change (while the controller is locked, so changes are
+ * applied in order).
+ *
+ * @author Taras Basiuk
+ */
+public class ConcurrencyController {
+
+	/** Min duration of a measurement window. */
+	public static final long MIN_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+	// Min number of chunks per worker in a measurement window
+	private static final int WINDOW_CHUNKS_PER_WORKER = 2;
+
+	// Relative change of throughput treated as noise, and number of windows to hold after taking an increase back
+	private static final double TOLERANCE = 0.05;
+	private static final int HOLD_WINDOWS = 4;
+
+	// Multiplicative decrease, queue latency (relative to processing time) of saturated and of starved workers
+	private static final double DECREASE_FACTOR = 0.75;
+	private static final double SATURATED_QUEUE_LATENCY = 0.5;
+	private static final double STARVED_QUEUE_LATENCY = 0.05;
+
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	@Getter private final int minWorkers;
+	@Getter private final int maxWorkers;
+	private final IntConsumer listener;
+
+	@Getter private int concurrency;
+
+	// Sum of number of workers over time (in worker nanoseconds) until the last change, and time of that change
+	private long workerNanos;
+	private long changeNanos = System.nanoTime();
+
+	// Current window
+	private long windowStartNanos;
+	private long windowEndNanos;
+	private int windowChunks;
+	private long windowBytes;
+	private long windowQueueNanos;
+	private long windowServiceNanos;
+
+	// Outcome of the last window: throughput (bytes per second), change made after it and windows left to hold
+	private double lastThroughput;
+	private double lastQueueLatency;
+	private int lastStep;
+	private int holdWindows;
+	private String lastReason = "initial";
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param minWorkers Min number of workers (at least 1).
+	 * @param maxWorkers Max number of workers (at least minWorkers).
+	 * @param initialWorkers Number of workers to start with, capped by the bounds.
+	 * @param listener Listener of the new number of workers.
+	 */
+	public ConcurrencyController(
+			final int minWorkers, final int maxWorkers, final int initialWorkers, final IntConsumer listener) {
+		Preconditions.checkArgument(minWorkers > 0, "minWorkers must be positive.");
+		Preconditions.checkArgument(maxWorkers >= minWorkers, "maxWorkers must not be lower than minWorkers.");
+		this.minWorkers = minWorkers;
+		this.maxWorkers = maxWorkers;
+		this.listener = Preconditions.checkNotNull(listener, "listener must not be null.");
+		this.concurrency = this.bound(initialWorkers);
+	}
+
+	/**
+	 * Tells whether number of workers is tuned at all.
+	 *
+	 * @return True if the bounds allow more than one number of workers.
+	 */
+	public boolean isAdaptive() {
+		return this.minWorkers < this.maxWorkers;
+	}
+
+	/**
+	 * Records that a chunk of work was processed and, once a measurement window is complete, tunes number of workers.
+	 *
+	 * @param bytes Size of the chunk.
+	 * @param queueNanos Time the chunk waited for a worker after being ready to be processed.
+	 * @param startNanos System.nanoTime() when a worker started processing the chunk.
+	 * @param endNanos System.nanoTime() when processing was over.
+	 * @return True if number of workers was changed.
+	 */
+	public synchronized boolean record(
+			final long bytes, final long queueNanos, final long startNanos, final long endNanos) {
+		if (!this.isAdaptive()) {
+			return false;
+		}
+
+		// Window starts with its first chunk, so idle time between calls is not counted
+		if (this.windowChunks == 0) {
+			this.windowStartNanos = Math.max(this.windowEndNanos, startNanos - queueNanos);
+		}
+
+		this.windowChunks++;
+		this.windowBytes += bytes;
+		this.windowQueueNanos += Math.max(0, queueNanos);
+		this.windowServiceNanos += Math.max(1, endNanos - startNanos);
+		this.windowEndNanos = Math.max(this.windowEndNanos, endNanos);
+		final long windowNanos = this.windowEndNanos - this.windowStartNanos;
+		if (this.windowChunks < WINDOW_CHUNKS_PER_WORKER * this.concurrency || windowNanos < MIN_WINDOW_NANOS) {
+			return false;
+		}
+
+		final double throughput = this.windowBytes * NANOS_PER_SECOND / windowNanos;
+		final double queueLatency = (double) this.windowQueueNanos / this.windowServiceNanos;
+		this.lastQueueLatency = (double) this.windowQueueNanos / this.windowChunks;
+		this.windowChunks = 0;
+		this.windowBytes = 0;
+		this.windowQueueNanos = 0;
+		this.windowServiceNanos = 0;
+
+		final int previous = this.concurrency;
+		final double gain = this.lastThroughput > 0 ? throughput / this.lastThroughput : 1;
+		if (this.lastStep > 0 && gain < 1 + TOLERANCE || this.lastStep < 0 && gain < 1 - TOLERANCE) {
+			this.concurrency = this.bound(this.concurrency - this.lastStep);
+			this.holdWindows = HOLD_WINDOWS;
+			this.lastReason = this.lastStep > 0
+					? "more workers didn't raise throughput"
+					: "fewer workers lowered throughput";
+		} else if (this.lastStep == 0 && gain < 1 - TOLERANCE) {
+			this.concurrency = this.bound((int) (this.concurrency * DECREASE_FACTOR));
+			this.lastReason = "throughput dropped";
+		} else if (this.holdWindows > 0) {
+			this.holdWindows--;
+		} else if (queueLatency > SATURATED_QUEUE_LATENCY) {
+			this.concurrency = this.bound(this.concurrency + 1);
+			this.lastReason = "work waits for workers";
+		} else if (queueLatency < STARVED_QUEUE_LATENCY) {
+			this.concurrency = this.bound(this.concurrency - 1);
+			this.lastReason = "workers wait for work";
+		}
+
+		this.lastStep = this.concurrency - previous;
+		this.lastThroughput = throughput;
+		if (this.concurrency == previous) {
+			return false;
+		}
+
+		this.workerNanos += previous * (endNanos - this.changeNanos);
+		this.changeNanos = endNanos;
+
+		this.listener.accept(this.concurrency);
+		return true;
+	}
+
+	/**
+	 * Returns sum of number of workers over time since the controller was created, e.g. to tell utilization of the
+	 * workers during some period by the difference of the sums at its start and its end.
+	 *
+	 * @param nowNanos Current System.nanoTime().
+	 * @return Sum of number of workers over time, in worker nanoseconds.
+	 */
+	public synchronized long getWorkerNanos(final long nowNanos) {
+		return this.workerNanos + this.concurrency * (nowNanos - this.changeNanos);
+	}
+
+	private int bound(final int workers) {
+		return Math.max(this.minWorkers, Math.min(this.maxWorkers, workers));
+	}
+
+	@Override
+	public synchronized String toString() {
+		if (!this.isAdaptive()) {
+			return String.format("Concurrency : %d worker(s).", this.concurrency);
+		}
+
+		return String.format("Concurrency : %d worker(s) of %d-%d (%s), throughput %.1f MB/s, queue latency %.1f ms.",
+				this.concurrency, this.minWorkers, this.maxWorkers, this.lastReason,
+				this.lastThroughput / BYTES_PER_MEGABYTE, this.lastQueueLatency / NANOS_PER_MILLI);
+	}
+}
@@ -0,0 +1,285 @@
+package basiuktv.tfc.data.processor;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+
+/**
+ * Limits number of chunks of work read from the same device at the same time, so a slow device (e.g. network
+ * storage) doesn't tie up every I/O thread, while a fast one can be read by many threads at once. Read beyond the
+ * limit of its device waits in the queue of the device, rather than holding a thread (or a buffer), and is handed over
+ * to its executor once an earlier read of the device is over. Meanwhile threads keep reading other devices.
+ *
+ * Device of a chunk is the FileStore (mount) holding its source file, detected once per source. Every device has
+ * the default limit, unless a different limit is given for the device holding some path. Sources which are not
+ * files (e.g. standard input) are not limited. Limits are shared by every call using the same DeviceLimits.
+ *
+ * @author Taras Basiuk
+ */
+public class DeviceLimits {
+
+	/** Limit of a device whose reads are not limited. */
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+
+	/** Max number of sources whose device is remembered, the least recently read ones are forgotten first. */
+	public static final int MAX_KNOWN_SOURCES = 4096;
+
+	private final int defaultLimit;
+
+	// Finds device holding given path, the FileStore (unless tests tell otherwise)
+	private final Function<String, Optional<?>> deviceFinder;
+
+	// Limits given for devices holding specific paths, by the path (as given) and by the device
+	private final Map<String, Integer> pathLimits;
+	private final Map<Object, Integer> deviceLimits = new ConcurrentHashMap<Object, Integer>();
+
+	// Reads of the device of every source read lately (in order of the last read), a source is never forgotten while
+	// being read, so its reads are released on the same device. Reads of every limited device.
+	private final Map<String, SourceReads> sources = new LinkedHashMap<String, SourceReads>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, SourceReads> eldest) {
+			// Forgets the least recently read source not being read right now, which may not be the eldest one
+			if (this.size() > MAX_KNOWN_SOURCES) {
+				final Iterator<SourceReads> it = this.values().iterator();
+				while (it.hasNext()) {
+					if (it.next().reading == 0) {
+						it.remove();
+						break;
+					}
+				}
+			}
+
+			return false;
+		}
+	};
+	private final Map<Object, DeviceReads> reads = new ConcurrentHashMap<Object, DeviceReads>();
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param defaultLimit Max number of chunks read from one device at the same time (or UNLIMITED).
+	 * @param pathLimits Limits of devices holding given paths, overriding the default one.
+	 * @throws IllegalArgumentException If a limit is not positive or a path doesn't exist.
+	 */
+	public DeviceLimits(final int defaultLimit, final Map<String, Integer> pathLimits) {
+		this(defaultLimit, pathLimits, DeviceLimits::findStore);
+	}
+
+	/** Constructor finding devices by given function, so tests may put sources on devices of their own. */
+	DeviceLimits(final int defaultLimit, final Map<String, Integer> pathLimits,
+			final Function<String, Optional<?>> deviceFinder) {
+		Preconditions.checkArgument(defaultLimit > 0, "defaultLimit must be positive.");
+		this.defaultLimit = defaultLimit;
+		this.deviceFinder = Preconditions.checkNotNull(deviceFinder, "deviceFinder must not be null.");
+		this.pathLimits = Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(pathLimits));
+		for (final Map.Entry<String, Integer> e : this.pathLimits.entrySet()) {
+			Preconditions.checkArgument(e.getValue() > 0, "Limit of %s must be positive.", e.getKey());
+			this.deviceLimits.put(deviceFinder.apply(e.getKey()).orElseThrow(() -> new IllegalArgumentException(
+					String.format("Device holding %s can't be found.", e.getKey()))), e.getValue());
+		}
+	}
+
+	/**
+	 * Returns limits which don't limit any device.
+	 *
+	 * @return DeviceLimits
+	 */
+	public static DeviceLimits unlimited() {
+		return new DeviceLimits(UNLIMITED, Collections.<String, Integer>emptyMap());
+	}
+
+	/**
+	 * Parses limits from comma separated list, where every entry is either a number (the default limit) or
+	 * PATH=NUMBER (limit of the device holding the path), e.g. "2,/mnt/nfs=16".
+	 *
+	 * @param spec Comma separated list of limits.
+	 * @return DeviceLimits
+	 * @throws IllegalArgumentException If the list is not valid.
+	 */
+	public static DeviceLimits parse(final String spec) {
+		int defaultLimit = UNLIMITED;
+		final Map<String, Integer> pathLimits = new LinkedHashMap<String, Integer>();
+		for (final String entry : spec.split(",")) {
+			final int separator = entry.lastIndexOf('=');
+			if (separator < 0) {
+				defaultLimit = parseLimit(entry);
+			} else {
+				pathLimits.put(entry.substring(0, separator).trim(), parseLimit(entry.substring(separator + 1)));
+			}
+		}
+
+		return new DeviceLimits(defaultLimit, pathLimits);
+	}
+
+	/**
+	 * Hands read of given work over to given executor once the device holding its source has room for one more
+	 * reader, or right away, if reads of the source are not limited. Until then the read waits in the queue of the
+	 * device, in the order reads are given. Once the read is over, release must be called for the same work.
+	 *
+	 * @param fetcher Allocated work.
+	 * @param read Task reading the work.
+	 * @param executor Executor the read is handed over to.
+	 */
+	public void execute(final InputDataFetcher fetcher, final Runnable read, final Executor executor) {
+		final Optional<DeviceReads> device = this.startReading(fetcher);
+		if (!device.isPresent() || device.get().acquireOrQueue(() -> executor.execute(read))) {
+			executor.execute(read);
+		}
+	}
+
+	/**
+	 * Lets the next read of the device holding source of given work start, once read of the work is over.
+	 *
+	 * @param fetcher Allocated work whose read was given to execute.
+	 */
+	public void release(final InputDataFetcher fetcher) {
+		this.stopReading(fetcher).ifPresent(DeviceReads::release);
+	}
+
+	@Override
+	public String toString() {
+		if (this.isUnlimited()) {
+			return "NONE";
+		}
+
+		final StringBuilder result = new StringBuilder(this.defaultLimit == UNLIMITED
+				? "unlimited"
+				: this.defaultLimit + " chunk(s)");
+		result.append(" per device");
+		this.pathLimits.forEach((path, limit) -> result.append(String.format(", %d for %s", limit, path)));
+		return result.toString();
+	}
+
+	/**
+	 * Returns reads of the device holding source of given work, or empty if reads of the source are not limited,
+	 * counting one more read of the source. Device is only looked for if some device is limited at all.
+	 */
+	private Optional<DeviceReads> startReading(final InputDataFetcher fetcher) {
+		if (this.isUnlimited()) {
+			return Optional.empty();
+		}
+
+		synchronized (this.sources) {
+			final SourceReads source = this.sources.computeIfAbsent(fetcher.getSource(), this::findReads);
+			source.reading++;
+			return source.device;
+		}
+	}
+
+	/** Returns reads of the device holding source of given work, counting one read of the source less. */
+	private Optional<DeviceReads> stopReading(final InputDataFetcher fetcher) {
+		if (this.isUnlimited()) {
+			return Optional.empty();
+		}
+
+		synchronized (this.sources) {
+			final SourceReads source = this.sources.get(fetcher.getSource());
+			Preconditions.checkState(source != null && source.reading > 0, "%s is not being read.", fetcher);
+			source.reading--;
+			return source.device;
+		}
+	}
+
+	/** Finds reads of the device holding given source, or empty if reads of the source are not limited. */
+	private SourceReads findReads(final String source) {
+		final Optional<?> device = this.deviceFinder.apply(source);
+		if (!device.isPresent()) {
+			return new SourceReads(Optional.empty());
+		}
+
+		final int limit = this.deviceLimits.getOrDefault(device.get(), this.defaultLimit);
+		return new SourceReads(limit == UNLIMITED
+				? Optional.empty()
+				: Optional.of(this.reads.computeIfAbsent(device.get(), d -> new DeviceReads(limit))));
+	}
+
+	private boolean isUnlimited() {
+		return this.defaultLimit == UNLIMITED && this.pathLimits.isEmpty();
+	}
+
+	private static Optional<FileStore> findStore(final String path) {
+		try {
+			return Optional.of(Files.getFileStore(Paths.get(path)));
+		} catch (final IOException | InvalidPathException e) {
+			return Optional.empty();
+		}
+	}
+
+	private static int parseLimit(final String value) {
+		try {
+			final int limit = Integer.parseInt(value.trim());
+			if (limit > 0) {
+				return limit;
+			}
+		} catch (final NumberFormatException e) {
+			// Fall through to the exception below
+		}
+
+		throw new IllegalArgumentException(String.format("Device limit %s must be a positive integer.", value));
+	}
+
+	/** Reads of one device: number of reads which may start right away and reads waiting for an earlier one. */
+	private static class DeviceReads {
+
+		private int permits;
+		private final Queue<Runnable> waiting = new ArrayDeque<Runnable>();
+
+		private DeviceReads(final int limit) {
+			this.permits = limit;
+		}
+
+		/** Takes a permit (returning true), or queues given hand-over of the read until one is released. */
+		private synchronized boolean acquireOrQueue(final Runnable handOver) {
+			if (this.permits > 0) {
+				this.permits--;
+				return true;
+			}
+
+			this.waiting.add(handOver);
+			return false;
+		}
+
+		/** Passes the permit on to the read waiting the longest, if any. */
+		private void release() {
+			final Runnable next;
+			synchronized (this) {
+				next = this.waiting.poll();
+				if (next == null) {
+					this.permits++;
+					return;
+				}
+			}
+
+			next.run();
+		}
+	}
+
+	/** Reads of the device holding one source (empty, if not limited) and number of reads of the source going on. */
+	private static class SourceReads {
+
+		private final Optional<DeviceReads> device;
+		private int reading;
+
+		private SourceReads(final Optional<DeviceReads> device) {
+			this.device = device;
+		}
+	}
+}
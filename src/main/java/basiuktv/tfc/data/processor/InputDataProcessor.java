@@ -1,10 +1,12 @@
 package basiuktv.tfc.data.processor;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 import basiuktv.tfc.data.fetchers.InputDataFetcher;
-import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.engine.Query;
 
 /**
  * Describes an object capable of processing list of InputDataFetcher and producing the combined ProcessingResult.
@@ -17,11 +19,61 @@ public interface InputDataProcessor {
 	 * Processes a list of InputDataFetcher and produces combined ProcessingResult.
 	 * 
 	 * @param work List of allocated InputDataFetcher.
-	 * @param options Parsed command line arguments.
+	 * @param query Query to run.
 	 * @return Combined ProcessingResult.
 	 * @throws IOException when problems with fetching data occur.
 	 */
-	public abstract ProcessingResult processWork(
+	public default ProcessingResult processWork(
+			final List<InputDataFetcher> work,
+			final Query query) throws IOException {
+		return this.processWork(work, query, (fetcher, partialResult) -> { });
+	}
+
+	/**
+	 * Processes a list of InputDataFetcher and produces combined ProcessingResult,
+	 * passing ProcessingResult of every chunk of work to given listener before it's combined.
+	 *
+	 * @param work List of allocated InputDataFetcher.
+	 * @param query Query to run.
+	 * @param partialResultListener Listener of the ProcessingResult of every chunk of work.
+	 * @return Combined ProcessingResult.
+	 * @throws IOException when problems with fetching data occur.
+	 */
+	public default ProcessingResult processWork(
 			final List<InputDataFetcher> work,
-			final CLIOptions options) throws IOException;
+			final Query query,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+		return this.processWork(work.iterator(), query, partialResultListener);
+	}
+
+	/**
+	 * Processes InputDataFetcher as they are produced by given iterator and produces combined ProcessingResult.
+	 * Iterator may be backed by an unbounded stream, so implementations should not collect all of its elements.
+	 *
+	 * @param work Iterator over allocated InputDataFetcher.
+	 * @param query Query to run.
+	 * @return Combined ProcessingResult.
+	 * @throws IOException when problems with fetching data occur.
+	 */
+	public default ProcessingResult processWork(
+			final Iterator<InputDataFetcher> work,
+			final Query query) throws IOException {
+		return this.processWork(work, query, (fetcher, partialResult) -> { });
+	}
+
+	/**
+	 * Processes InputDataFetcher as they are produced by given iterator and produces combined ProcessingResult,
+	 * passing ProcessingResult of every chunk of work to given listener before it's combined.
+	 * Listener may be called by several threads at the same time and must not modify or keep the partial result.
+	 *
+	 * @param work Iterator over allocated InputDataFetcher.
+	 * @param query Query to run.
+	 * @param partialResultListener Listener of the ProcessingResult of every chunk of work.
+	 * @return Combined ProcessingResult.
+	 * @throws IOException when problems with fetching data occur.
+	 */
+	public abstract ProcessingResult processWork(
+			final Iterator<InputDataFetcher> work,
+			final Query query,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException;
 }
@@ -0,0 +1,148 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.function.LongSupplier;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import lombok.Getter;
+
+/**
+ * Limits estimated amount of memory used by work being processed at the same time.
+ * Work is admitted only once its estimated memory fits into the budget, otherwise admission waits for the memory
+ * reserved by other work to be released. Work which alone doesn't fit into the budget is admitted once nothing else
+ * is being processed, so processing degrades to fewer concurrent workers instead of failing. Memory held outside of
+ * the work being processed (e.g. by buffers pooled for the next chunks of work) is counted as reserved as well.
+ *
+ * @author Taras Basiuk
+ */
+public class MemoryBudget {
+
+	/** Estimated bytes of memory used per one byte of fetched data (raw bytes plus decoded UTF-16 string). */
+	public static final int DATA_BYTES_PER_INPUT_BYTE = 3;
+
+	/** Estimated bytes of memory used per one byte of fetched data by the partial every term count map. */
+	public static final int EVERY_TERM_COUNT_BYTES_PER_INPUT_BYTE = 4;
+
+	/** Smallest work size budget will shrink the chunks to, before it starts limiting number of concurrent workers. */
+	public static final int MIN_WORK_SIZE = 1024 * 1024; // 1 MB
+
+	private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	@Getter private final long budgetBytes;
+
+	// Memory held outside of the work being processed, counted against the budget
+	private final LongSupplier heldBytes;
+
+	@Getter private long reservedBytes;
+	@Getter private long peakReservedBytes;
+	@Getter private long admissionsWaited;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param budgetBytes Total number of bytes work being processed at the same time may use.
+	 */
+	public MemoryBudget(final long budgetBytes) {
+		this(budgetBytes, () -> 0);
+	}
+
+	/**
+	 * Constructs budget counting memory held outside of the work being processed as reserved.
+	 *
+	 * @param budgetBytes Total number of bytes work being processed at the same time may use.
+	 * @param heldBytes Supplier of number of bytes held outside of the work being processed.
+	 */
+	public MemoryBudget(final long budgetBytes, final LongSupplier heldBytes) {
+		Preconditions.checkArgument(budgetBytes > 0, "budgetBytes must be positive.");
+		this.budgetBytes = budgetBytes;
+		this.heldBytes = Preconditions.checkNotNull(heldBytes, "heldBytes must not be null.");
+	}
+
+	/**
+	 * Estimates memory needed to process given work.
+	 *
+	 * @param fetcher Allocated work.
+	 * @param everyTermCount Whether every term occurrences are recorded.
+	 * @return Estimated number of bytes.
+	 */
+	public static long estimateBytes(final InputDataFetcher fetcher, final boolean everyTermCount) {
+		return estimateBytes(fetcher.getLimit() - fetcher.getOffset(), everyTermCount);
+	}
+
+	/**
+	 * Estimates memory needed to process given amount of input data.
+	 *
+	 * @param dataSize Number of bytes of input data.
+	 * @param everyTermCount Whether every term occurrences are recorded.
+	 * @return Estimated number of bytes.
+	 */
+	public static long estimateBytes(final long dataSize, final boolean everyTermCount) {
+		return dataSize * (DATA_BYTES_PER_INPUT_BYTE + (everyTermCount ? EVERY_TERM_COUNT_BYTES_PER_INPUT_BYTE : 0));
+	}
+
+	/**
+	 * Calculates size of one chunk of work which lets given number of workers be admitted at the same time.
+	 * If such chunk would be smaller than MIN_WORK_SIZE, larger chunks are used and fewer workers get admitted.
+	 *
+	 * @param workers Number of workers processing work at the same time.
+	 * @param everyTermCount Whether every term occurrences are recorded.
+	 * @param desiredWorkSize Desired size of one chunk of work if budget is not a constraint.
+	 * @return Size of one chunk of work fitting into the budget.
+	 */
+	public int fitWorkSize(final int workers, final boolean everyTermCount, final int desiredWorkSize) {
+		Preconditions.checkArgument(workers > 0, "workers must be positive.");
+		final long maxWorkSize = this.budgetBytes / estimateBytes(1, everyTermCount);
+		final long perWorkerWorkSize = maxWorkSize / workers;
+		final long workSize = perWorkerWorkSize >= MIN_WORK_SIZE
+				? perWorkerWorkSize
+				: Math.min(MIN_WORK_SIZE, maxWorkSize);
+		return (int) Math.max(1, Math.min(desiredWorkSize, workSize));
+	}
+
+	/**
+	 * Waits until given number of bytes fits into the budget and reserves them.
+	 *
+	 * @param bytes Number of bytes to reserve.
+	 * @return Number of bytes actually reserved (never more than the whole budget), to be released later.
+	 * @throws InterruptedException When interrupted while waiting.
+	 */
+	public synchronized long acquire(final long bytes) throws InterruptedException {
+		final long reserving = Math.min(bytes, this.budgetBytes);
+		if (!this.fits(reserving)) {
+			this.admissionsWaited++;
+			while (!this.fits(reserving)) {
+				this.wait();
+			}
+		}
+
+		this.reservedBytes += reserving;
+		this.peakReservedBytes = Math.max(this.peakReservedBytes, this.reservedBytes);
+		return reserving;
+	}
+
+	// Work is admitted alone even if memory held outside of it leaves no room for it
+	private boolean fits(final long reserving) {
+		return this.reservedBytes == 0
+				|| this.reservedBytes + this.heldBytes.getAsLong() + reserving <= this.budgetBytes;
+	}
+
+	/**
+	 * Releases previously reserved bytes.
+	 *
+	 * @param bytes Number of bytes returned by the acquire call.
+	 */
+	public synchronized void release(final long bytes) {
+		Preconditions.checkArgument(bytes <= this.reservedBytes, "Releasing more bytes than reserved.");
+		this.reservedBytes -= bytes;
+		this.notifyAll();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Memory budget : peak %d MB of %d MB reserved, %d admission(s) waited for memory.",
+				this.peakReservedBytes / BYTES_PER_MEGABYTE,
+				this.budgetBytes / BYTES_PER_MEGABYTE,
+				this.admissionsWaited);
+	}
+}
@@ -1,9 +1,13 @@
 package basiuktv.tfc.data.processor;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
+import basiuktv.tfc.data.vocabulary.HyperLogLog;
+import basiuktv.tfc.data.vocabulary.OffHeapTermCounts;
+import basiuktv.tfc.data.vocabulary.TermCounts;
 import lombok.Data;
 
 /**
@@ -17,6 +21,58 @@ public class ProcessingResult {
 	private final long termMatchCount;
 	private final long allTermsCount;
 	private final Optional<Map<String, Long>> everyTermCount;
+	private final Optional<Map<String, Long>> matchingTermCount;
+	private final Optional<HyperLogLog> distinctTerms;
+
+	/**
+	 * Constructs ProcessingResult without count of every term matching the term pattern.
+	 *
+	 * @param termMatchCount Number of terms matching the term in question.
+	 * @param allTermsCount Number of all the terms.
+	 * @param everyTermCount Count of every term, if requested.
+	 */
+	public ProcessingResult(
+			final long termMatchCount, final long allTermsCount, final Optional<Map<String, Long>> everyTermCount) {
+		this(termMatchCount, allTermsCount, everyTermCount, Optional.empty());
+	}
+
+	/**
+	 * Constructs ProcessingResult without distinct terms sketch.
+	 *
+	 * @param termMatchCount Number of terms matching the term in question.
+	 * @param allTermsCount Number of all the terms.
+	 * @param everyTermCount Count of every term, if requested.
+	 * @param matchingTermCount Count of every term matching the term pattern, if requested.
+	 */
+	public ProcessingResult(
+			final long termMatchCount,
+			final long allTermsCount,
+			final Optional<Map<String, Long>> everyTermCount,
+			final Optional<Map<String, Long>> matchingTermCount) {
+		this(termMatchCount, allTermsCount, everyTermCount, matchingTermCount, Optional.empty());
+	}
+
+	/**
+	 * Constructs ProcessingResult.
+	 *
+	 * @param termMatchCount Number of terms matching the term in question.
+	 * @param allTermsCount Number of all the terms.
+	 * @param everyTermCount Count of every term, if requested.
+	 * @param matchingTermCount Count of every term matching the term pattern, if requested.
+	 * @param distinctTerms HyperLogLog sketch of the distinct terms, if requested.
+	 */
+	public ProcessingResult(
+			final long termMatchCount,
+			final long allTermsCount,
+			final Optional<Map<String, Long>> everyTermCount,
+			final Optional<Map<String, Long>> matchingTermCount,
+			final Optional<HyperLogLog> distinctTerms) {
+		this.termMatchCount = termMatchCount;
+		this.allTermsCount = allTermsCount;
+		this.everyTermCount = everyTermCount;
+		this.matchingTermCount = matchingTermCount;
+		this.distinctTerms = distinctTerms;
+	}
 
 	/**
 	 * Combines two processing results into one.
@@ -28,27 +84,119 @@ public class ProcessingResult {
 	public static ProcessingResult combineResults(final ProcessingResult r1, final ProcessingResult r2) {
 		Optional<Map<String, Long>> combinedEveryMatchCount = Optional.empty();
 
-		// If either of results contains map of every match count, put smaller map into the larger one.
-		if (r1.getEveryTermCount().isPresent() || r2.getEveryTermCount().isPresent()) {
-			final Map<String, Long> m1 = r1.getEveryTermCount().orElse(new HashMap<String, Long>());
-			final Map<String, Long> m2 = r2.getEveryTermCount().orElse(new HashMap<String, Long>());
-			final Map<String, Long> larger = m1.size() > m2.size() ? m1 : m2;
-			final Map<String, Long> smaller = m1.size() > m2.size() ? m2 : m1;
-			for (final Map.Entry<String, Long> e : smaller.entrySet()) {
-				if (larger.containsKey(e.getKey())) {
-					larger.put(e.getKey(), larger.get(e.getKey()) + e.getValue());
-					continue;
-				}
-
-				larger.put(e.getKey(), e.getValue());
+		// If only one of results contains map of every match count, it is the combined one.
+		if (!r1.getEveryTermCount().isPresent() || !r2.getEveryTermCount().isPresent()) {
+			combinedEveryMatchCount = r1.getEveryTermCount().isPresent()
+					? r1.getEveryTermCount()
+					: r2.getEveryTermCount();
+		} else if (r1.getEveryTermCount().get() instanceof OffHeapTermCounts
+				|| r2.getEveryTermCount().get() instanceof OffHeapTermCounts) {
+			// Off-heap counts accumulate the other counts, which are closed if they were off-heap too.
+			final boolean firstOffHeap = r1.getEveryTermCount().get() instanceof OffHeapTermCounts;
+			final OffHeapTermCounts accumulator =
+					(OffHeapTermCounts) (firstOffHeap ? r1 : r2).getEveryTermCount().get();
+			final Map<String, Long> other = (firstOffHeap ? r2 : r1).getEveryTermCount().get();
+			accumulator.addAll(other);
+			if (other instanceof OffHeapTermCounts) {
+				((OffHeapTermCounts) other).close();
 			}
 
+			combinedEveryMatchCount = Optional.of(accumulator);
+		} else if (sharesDictionary(r1.getEveryTermCount().get(), r2.getEveryTermCount().get())) {
+			// Counts keyed by the same term IDs are combined by adding the smaller ones into the larger ones.
+			final TermCounts c1 = (TermCounts) r1.getEveryTermCount().get();
+			final TermCounts c2 = (TermCounts) r2.getEveryTermCount().get();
+			final TermCounts larger = c1.size() > c2.size() ? c1 : c2;
+			larger.addAll(larger == c1 ? c2 : c1);
 			combinedEveryMatchCount = Optional.of(larger);
+		} else {
+			// Otherwise, put smaller map into the larger one.
+			combinedEveryMatchCount = Optional.of(
+					combineCounts(r1.getEveryTermCount().get(), r2.getEveryTermCount().get()));
+		}
+
+		final Optional<Map<String, Long>> combinedMatchingTermCount =
+				r1.getMatchingTermCount().isPresent() && r2.getMatchingTermCount().isPresent()
+				? Optional.of(combineCounts(r1.getMatchingTermCount().get(), r2.getMatchingTermCount().get()))
+				: r1.getMatchingTermCount().isPresent() ? r1.getMatchingTermCount() : r2.getMatchingTermCount();
+
+		// Sketches are merged into the first one, just as counts are put into one of the maps
+		if (r1.getDistinctTerms().isPresent() && r2.getDistinctTerms().isPresent()) {
+			r1.getDistinctTerms().get().addAll(r2.getDistinctTerms().get());
 		}
 
 		return new ProcessingResult(
 				r1.getTermMatchCount() + r2.getTermMatchCount(),
 				r1.getAllTermsCount() + r2.getAllTermsCount(),
-				combinedEveryMatchCount);
+				combinedEveryMatchCount,
+				combinedMatchingTermCount,
+				r1.getDistinctTerms().isPresent() ? r1.getDistinctTerms() : r2.getDistinctTerms());
+	}
+
+	/**
+	 * Copies given result, so it can be combined with others (which modifies the counts and sketches being combined)
+	 * while given one is kept intact.
+	 *
+	 * @param result ProcessingResult to copy.
+	 * @return ProcessingResult not sharing anything with given one.
+	 */
+	public static ProcessingResult copyResult(final ProcessingResult result) {
+		return new ProcessingResult(
+				result.getTermMatchCount(),
+				result.getAllTermsCount(),
+				result.getEveryTermCount().<Map<String, Long>>map(HashMap::new),
+				result.getMatchingTermCount().<Map<String, Long>>map(HashMap::new),
+				result.getDistinctTerms().map(sketch -> HyperLogLog.fromRegisters(sketch.getRegisters())));
+	}
+
+	/**
+	 * Scales given result of data which stands for given number of identical copies of it, so it's the result of
+	 * all the copies. Counts are multiplied in place, distinct terms are the same for every copy.
+	 *
+	 * @param result ProcessingResult of one copy, not shared with anyone else.
+	 * @param multiplicity Number of identical copies.
+	 * @return Scaled ProcessingResult (given one if there is only one copy).
+	 */
+	public static ProcessingResult scaleResult(final ProcessingResult result, final int multiplicity) {
+		if (multiplicity == 1) {
+			return result;
+		}
+
+		result.getEveryTermCount().ifPresent(counts -> scaleCounts(counts, multiplicity));
+		result.getMatchingTermCount().ifPresent(counts -> scaleCounts(counts, multiplicity));
+		return new ProcessingResult(
+				result.getTermMatchCount() * multiplicity,
+				result.getAllTermsCount() * multiplicity,
+				result.getEveryTermCount(),
+				result.getMatchingTermCount(),
+				result.getDistinctTerms());
+	}
+
+	private static void scaleCounts(final Map<String, Long> counts, final int multiplicity) {
+		for (final String term : new ArrayList<String>(counts.keySet())) {
+			counts.put(term, counts.get(term) * multiplicity);
+		}
+	}
+
+	/** Combines two term count maps by putting smaller map into the larger one. */
+	private static Map<String, Long> combineCounts(final Map<String, Long> m1, final Map<String, Long> m2) {
+		final Map<String, Long> larger = m1.size() > m2.size() ? m1 : m2;
+		final Map<String, Long> smaller = m1.size() > m2.size() ? m2 : m1;
+		for (final Map.Entry<String, Long> e : smaller.entrySet()) {
+			if (larger.containsKey(e.getKey())) {
+				larger.put(e.getKey(), larger.get(e.getKey()) + e.getValue());
+				continue;
+			}
+
+			larger.put(e.getKey(), e.getValue());
+		}
+
+		return larger;
+	}
+
+	private static boolean sharesDictionary(final Map<String, Long> m1, final Map<String, Long> m2) {
+		return m1 instanceof TermCounts
+				&& m2 instanceof TermCounts
+				&& ((TermCounts) m1).getDictionary() == ((TermCounts) m2).getDictionary();
 	}
 }
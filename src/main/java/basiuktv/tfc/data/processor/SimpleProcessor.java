@@ -1,49 +1,225 @@
 package basiuktv.tfc.data.processor;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import basiuktv.tfc.data.fetchers.InputDataFetcher;
-import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.data.journal.WorkJournal;
+import basiuktv.tfc.data.positions.MatchPositions;
+import basiuktv.tfc.data.vocabulary.OffHeapTermCounts;
+import basiuktv.tfc.data.vocabulary.SpillingTermCounter;
+import basiuktv.tfc.data.vocabulary.TermDictionary;
+import basiuktv.tfc.engine.Query;
 import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+import basiuktv.tfc.text.TermFrequencyCalculator;
+import basiuktv.tfc.util.BufferPool;
 import basiuktv.tfc.util.Logging;
 
 /**
  * InputDataProcessor which processes list of work sequentially and using one thread.
- * Slow, but can be used as a good benchmark.
+ * Slow, but can be used as a good benchmark. Query with a deadline stops before the next chunk of work once the
+ * deadline passes.
  * 
  * @author Taras Basiuk
  */
 public class SimpleProcessor implements InputDataProcessor {
 
+	// Latency messages of every chunk, formatted by the logging thread
+	private static final String CALCULATING_LATENCY_FORMAT = "Calculating terms for {} : {} ms.";
+	private static final String COMBINING_LATENCY_FORMAT = "Combining results for {} : {} ms.";
+
+	// Buffers reused across chunks of work (and across calls)
+	private final BufferPool.Buffers buffers = new BufferPool.Buffers();
+
+	private final TermFrequencyCalculator calculator = new EnglishTermFrequencyCalculator();
+
 	/**
-	 * Processes a list of InputDataFetcher and produces combined ProcessingResult.
+	 * Processes InputDataFetcher as they are produced by given iterator and produces combined ProcessingResult.
 	 * 
-	 * @param work List of allocated InputDataFetcher.
-	 * @param options Parsed command line arguments.
+	 * @param work Iterator over allocated InputDataFetcher.
+	 * @param query Query to run.
+	 * @param partialResultListener Listener of the ProcessingResult of every chunk of work.
 	 * @return Combined ProcessingResult.
 	 * @throws IOException when problems with fetching data occur.
 	 */
+	@Override
 	public ProcessingResult processWork(
-			final List<InputDataFetcher> work,
-			final CLIOptions options) throws IOException {
-		ProcessingResult combinedResult = new ProcessingResult(0, 0, Optional.empty());
-		for (final InputDataFetcher fetcher : work) {
-			long startTime = System.currentTimeMillis();
-			final ProcessingResult partialResult = new EnglishTermFrequencyCalculator()
-					.splitIntoTerms(fetcher.fetchData(), options);
-			if (options.isVerbose()) {
-				Logging.logLatency(String.format("Calculating terms for %s", fetcher), startTime);
-				startTime = System.currentTimeMillis();
-			}
+			final Iterator<InputDataFetcher> work,
+			final Query query,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+		ProcessingResult combinedResult = new ProcessingResult(0, 0, query.isVocabularyOffHeap()
+				? Optional.<Map<String, Long>>of(new OffHeapTermCounts())
+				: Optional.empty());
+		final Optional<MemoryBudget> budget = query.getMemoryBudget().map(MemoryBudget::new);
+		final Optional<SpillingTermCounter> spillingCounter = query.isVocabularySpilled()
+				? Optional.of(new SpillingTermCounter(Paths.get(query.getSpillDirectory()), query.getSpillThreshold()))
+				: Optional.empty();
+		final Optional<TermDictionary> dictionary = query.isEveryTermCountRequested() && !spillingCounter.isPresent()
+				&& !query.isVocabularyOffHeap()
+				? Optional.of(new TermDictionary())
+				: Optional.empty();
+		final Optional<WorkJournal> journal = query.getJournal().isPresent()
+				? Optional.of(new WorkJournal(Paths.get(query.getJournal().get()), query))
+				: Optional.empty();
+		final Optional<MatchPositions> positions = query.getPositionsOutput().isPresent()
+				? Optional.of(new MatchPositions(Paths.get(query.getSpillDirectory())))
+				: Optional.empty();
+		final long startNanos = System.nanoTime();
+		try {
+			while (work.hasNext()) {
+				if (deadlinePassed(query, startNanos)) {
+					if (query.isVerbose()) {
+						Logging.logInfo(String.format("Deadline of %d ms passed, rest of the work abandoned.",
+								query.getDeadline().get()));
+					}
+
+					break;
+				}
 
-			combinedResult = ProcessingResult.combineResults(combinedResult, partialResult);
-			if (options.isVerbose()) {
-				Logging.logLatency(String.format("Combining results for %s", fetcher), startTime);
+				combinedResult = this.processNext(work.next(), query, combinedResult,
+						budget, spillingCounter, dictionary, journal, positions, partialResultListener);
+			}
+		} finally {
+			if (journal.isPresent()) {
+				journal.get().close();
 			}
 		}
+		if (query.isVerbose() && journal.isPresent()) {
+			Logging.logInfo(journal.get().toString());
+		}
+
+		if (query.isVerbose() && budget.isPresent()) {
+			Logging.logInfo(budget.get().toString());
+		}
+
+		if (spillingCounter.isPresent()) {
+			spillingCounter.get().finish(Paths.get(query.getVocabularyOutput().get()));
+		}
+
+		// Off-heap counts are written as they are, rather than spilled and merged
+		if (query.isVocabularyOffHeap() && query.getVocabularyOutput().isPresent()) {
+			((OffHeapTermCounts) combinedResult.getEveryTermCount().get())
+					.writeSorted(Paths.get(query.getVocabularyOutput().get()));
+		}
+
+		if (positions.isPresent()) {
+			positions.get().finish(Paths.get(query.getPositionsOutput().get()));
+		}
 
 		return combinedResult;
 	}
+
+	/** Processes (or replays from the journal) next work and returns it combined with given combined result. */
+	private ProcessingResult processNext(
+			final InputDataFetcher fetcher,
+			final Query query,
+			final ProcessingResult combinedResult,
+			final Optional<MemoryBudget> budget,
+			final Optional<SpillingTermCounter> spillingCounter,
+			final Optional<TermDictionary> dictionary,
+			final Optional<WorkJournal> journal,
+			final Optional<MatchPositions> positions,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+		// Work completed by an interrupted previous run is not processed again
+		final Optional<ProcessingResult> journaledResult = journal.isPresent()
+				? journal.get().replay(fetcher)
+				: Optional.empty();
+		if (journaledResult.isPresent()) {
+			final ProcessingResult scaledResult =
+					ProcessingResult.scaleResult(journaledResult.get(), fetcher.getMultiplicity());
+			partialResultListener.accept(fetcher, scaledResult);
+			return ProcessingResult.combineResults(combinedResult, spill(scaledResult, spillingCounter));
+		}
+
+		// Work is processed one at a time, so budget only gets to record the memory reserved
+		long reservedBytes = 0;
+		if (budget.isPresent()) {
+			try {
+				reservedBytes = budget.get().acquire(
+						MemoryBudget.estimateBytes(fetcher, query.isEveryTermCountRequested()));
+			} catch (final InterruptedException e) {
+				throw new RuntimeException(String.format(
+						"Interrupted while waiting for memory budget. Reason: %s", e.getMessage()));
+			}
+		}
+
+		long startTime = System.currentTimeMillis();
+		final ByteBuffer data = this.buffers.getBytes(fetcher.getSize());
+		fetcher.fetchData(data);
+
+		// Positions of matches are found in the same pass counting them, or by a pass over the bytes before decoding
+		final Optional<MatchPositions.Chunk> positionsChunk = positions.isPresent()
+				? Optional.of(positions.get().startChunk(fetcher))
+				: Optional.empty();
+		final ProcessingResult partialResult;
+		try {
+			final Optional<ProcessingResult> counted = positionsChunk.isPresent()
+					? this.calculator.countTerms(data, query, positionsChunk.get())
+					: this.calculator.countTerms(data, query);
+			if (!counted.isPresent() && positionsChunk.isPresent()) {
+				this.calculator.findMatches(data, query, positionsChunk.get());
+			}
+
+			partialResult = counted.isPresent()
+					? counted.get()
+					: this.calculator.splitIntoTerms(this.buffers.decode(data), query, dictionary);
+			positionsChunk.ifPresent(MatchPositions.Chunk::commit);
+		} finally {
+			positionsChunk.ifPresent(MatchPositions.Chunk::close);
+		}
+
+		if (query.isVerbose()) {
+			Logging.logLatency(CALCULATING_LATENCY_FORMAT, fetcher, startTime);
+			startTime = System.currentTimeMillis();
+		}
+
+		// Partial result is journaled before being combined, as scaling or combining may modify its counts
+		if (journal.isPresent()) {
+			journal.get().record(fetcher, partialResult);
+		}
+
+		// Identical copies of the work are counted without being processed again
+		final ProcessingResult scaledResult = ProcessingResult.scaleResult(partialResult, fetcher.getMultiplicity());
+		partialResultListener.accept(fetcher, scaledResult);
+
+		final ProcessingResult newCombinedResult = ProcessingResult.combineResults(
+				combinedResult, spill(scaledResult, spillingCounter));
+		if (query.isVerbose()) {
+			Logging.logLatency(COMBINING_LATENCY_FORMAT, fetcher, startTime);
+		}
+
+		if (budget.isPresent()) {
+			budget.get().release(reservedBytes);
+		}
+
+		return newCombinedResult;
+	}
+
+	private static boolean deadlinePassed(final Query query, final long startNanos) {
+		return query.getDeadline().isPresent()
+				&& System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(query.getDeadline().get());
+	}
+
+	/** Moves every term count of given partial result to the spilling counter, rather than to the combined result. */
+	private static ProcessingResult spill(
+			final ProcessingResult partialResult,
+			final Optional<SpillingTermCounter> spillingCounter) throws IOException {
+		if (!spillingCounter.isPresent()) {
+			return partialResult;
+		}
+
+		spillingCounter.get().add(partialResult.getEveryTermCount().get());
+		return new ProcessingResult(
+				partialResult.getTermMatchCount(),
+				partialResult.getAllTermsCount(),
+				Optional.empty(),
+				partialResult.getMatchingTermCount(),
+				partialResult.getDistinctTerms());
+	}
 }
@@ -1,119 +1,818 @@
 package basiuktv.tfc.data.processor;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
 import basiuktv.tfc.data.fetchers.InputDataFetcher;
-import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.data.journal.WorkJournal;
+import basiuktv.tfc.data.positions.MatchPositions;
+import basiuktv.tfc.data.vocabulary.OffHeapTermCounts;
+import basiuktv.tfc.data.vocabulary.SpillingTermCounter;
+import basiuktv.tfc.data.vocabulary.TermDictionary;
+import basiuktv.tfc.engine.Query;
 import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+import basiuktv.tfc.text.TermFrequencyCalculator;
+import basiuktv.tfc.util.BufferPool;
+import basiuktv.tfc.util.CpuQuota;
 import basiuktv.tfc.util.Logging;
 
 /**
- * InputDataProcessor which processes list of work through fixed thread pool executor.
+ * InputDataProcessor which processes list of work through thread pool executor.
  * Works faster than single thread processing and limits memory consumption due to fixed maximum work chunk size
- * and number of threads in the pool.
- * 
+ * and number of threads in the pool. List of work is dispatched longest-processing-time first (see WorkScheduler).
+ *
+ * With read-ahead, work is processed in two stages by separate executors: the I/O pool fetches data, feeding the
+ * CPU pool (one worker per core) calculating terms, through a queue bounded by the number of buffers. Otherwise the
+ * workers fetch data themselves. Either way, number of chunks read from the same device at the same time may be
+ * limited (see DeviceLimits), chunks beyond the limit waiting in the queue of their device rather than holding a
+ * thread, and verbose calls report how busy both stages were.
+ *
+ * Number of workers is tuned while the work is processed, within given bounds, by the measured throughput and by how
+ * long chunks wait for a worker (see ConcurrencyController). Verbose calls log every change.
+ *
+ * Chunks of work are checked as soon as they finish (in whatever order), so the first failure abandons the rest of
+ * the call: work not started yet is skipped and results of work still running are discarded. Query with a deadline
+ * abandons the rest of the call the same way once the deadline passes, returning result of the work completed by
+ * then (see WorkCoverage).
+ *
+ * Thread pools, as well as the buffers, are created once and reused by every call, so a call only sets up what's
+ * specific to its query. Several calls may run at the same time, sharing the workers. Threads are daemons, but the
+ * processor should still be closed once no longer needed.
+ *
  * @author Taras Basiuk
  */
-public class ThreadPoolExecutorProcessor implements InputDataProcessor {
+public class ThreadPoolExecutorProcessor implements InputDataProcessor, Closeable {
 
-	private static final int THREAD_POOL_SIZE = 5;
-	private static final int THREAD_POOL_EXECUTION_TIMEOUT_SEC = 120;
+	/** Default number of threads calculating terms at the same time, one per core available (within CPU quota). */
+	public static final int THREAD_POOL_SIZE = CpuQuota.availableProcessors();
 
-	// Combined result placeholder
-	private ProcessingResult combinedResult;
+	/** Default min number of threads calculating terms at the same time. */
+	public static final int DEFAULT_MIN_WORKERS = 1;
 
-	// Synchronizes updates to combinedResult
-	private synchronized void updateCombinedResult(final ProcessingResult partialResult) {
-		this.combinedResult = ProcessingResult.combineResults(combinedResult, partialResult);
+	/** Default max number of threads calculating terms at the same time. */
+	public static final int DEFAULT_MAX_WORKERS = 2 * THREAD_POOL_SIZE;
+
+	private static final String QUERY_SETUP_STAGE_FRIENDLY_NAME = "Query setup";
+
+	// Latency of every chunk is logged from the hot path, so the message is formatted by the logging thread
+	private static final String CALCULATING_LATENCY_FORMAT = "Calculating terms for {} : {} ms.";
+	private static final String COMBINING_LATENCY_FORMAT = "Combining results for {} : {} ms.";
+
+	private static final double NANOS_PER_MILLI = 1e6;
+	private static final double PERCENT = 100;
+
+	// Max number of chunks of work of one call submitted to the thread pool, but not yet finished, per current worker
+	// (plus read-ahead)
+	private static final int WORK_IN_FLIGHT_PER_WORKER = 2;
+
+	// Buffers grown beyond the largest chunk of work of the default size are not kept once released
+	private static final int MAX_RETAINED_BUFFER_CAPACITY = FileSystemWorkAppraiser.DEFAULT_DESIRED_WORK_SIZE
+			+ FileSystemWorkAppraiser.DEFAULT_MAX_NEXT_SEPARATOR_DISTANCE;
+
+	// Number of chunks read ahead of the workers (and of I/O threads reading them), every one needs its own buffers
+	private final int readAhead;
+
+	// Workers calculating terms (CPU pool) and, with read-ahead, I/O threads fetching data for them (I/O pool)
+	private final ThreadPoolExecutor pool;
+	private final Optional<ExecutorService> ioPool;
+
+	// Tunes number of workers of the CPU pool (across calls)
+	private final ConcurrencyController concurrency;
+
+	// Limits of chunks read from the same device at the same time (across calls)
+	private final DeviceLimits deviceLimits;
+
+	// Per-worker (plus read-ahead) buffers reused across chunks of work and across calls, resized with the CPU pool
+	private final BufferPool bufferPool;
+
+	// Orders work and measures throughput of its sources (across calls)
+	private final WorkScheduler scheduler;
+
+	// Language-specific calculator is stateless, so all the workers share one
+	private final TermFrequencyCalculator calculator = new EnglishTermFrequencyCalculator();
+
+	/** Constructs processor without read-ahead, data is fetched by the workers. */
+	public ThreadPoolExecutorProcessor() {
+		this(0);
+	}
+
+	/**
+	 * Constructs processor reading chunks of work ahead of the workers by dedicated I/O threads.
+	 *
+	 * @param readAhead Max number of chunks fetched, but not yet taken by a worker (0 for no read-ahead).
+	 */
+	public ThreadPoolExecutorProcessor(final int readAhead) {
+		this(readAhead, DeviceLimits.unlimited());
+	}
+
+	/**
+	 * Constructs processor reading chunks of work ahead of the workers by dedicated I/O threads, one per chunk read
+	 * ahead, limiting number of chunks read from the same device at the same time.
+	 *
+	 * @param readAhead Max number of chunks fetched, but not yet taken by a worker (0 for no read-ahead).
+	 * @param deviceLimits Limits of chunks read from the same device at the same time.
+	 */
+	public ThreadPoolExecutorProcessor(final int readAhead, final DeviceLimits deviceLimits) {
+		this(readAhead, deviceLimits, DEFAULT_MIN_WORKERS, DEFAULT_MAX_WORKERS);
 	}
 
-	/** Callable implementation responsible for processing single chunk of work. */
-	private class ProcessingThread implements Callable<Boolean> {
+	/**
+	 * Constructs processor reading chunks of work ahead of the workers by dedicated I/O threads, one per chunk read
+	 * ahead, limiting number of chunks read from the same device at the same time and tuning number of workers within
+	 * given bounds. Processing starts with one worker per available core (within the bounds).
+	 *
+	 * @param readAhead Max number of chunks fetched, but not yet taken by a worker (0 for no read-ahead).
+	 * @param deviceLimits Limits of chunks read from the same device at the same time.
+	 * @param minWorkers Min number of workers calculating terms at the same time.
+	 * @param maxWorkers Max number of workers calculating terms at the same time (same as min for a fixed number).
+	 */
+	public ThreadPoolExecutorProcessor(
+			final int readAhead, final DeviceLimits deviceLimits, final int minWorkers, final int maxWorkers) {
+		Preconditions.checkArgument(readAhead >= 0, "readAhead must not be negative.");
+		this.readAhead = readAhead;
+		this.deviceLimits = Preconditions.checkNotNull(deviceLimits, "deviceLimits must not be null.");
+		this.concurrency = new ConcurrencyController(minWorkers, maxWorkers, THREAD_POOL_SIZE, this::resizePool);
+		this.pool = new ThreadPoolExecutor(this.concurrency.getConcurrency(), this.concurrency.getConcurrency(),
+				0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("tfc-worker-%d").setDaemon(true).build());
+		this.scheduler = new WorkScheduler(this.concurrency::getConcurrency);
+		this.bufferPool = new BufferPool(this.concurrency.getConcurrency() + readAhead, MAX_RETAINED_BUFFER_CAPACITY);
+		this.ioPool = readAhead > 0
+				? Optional.of(Executors.newFixedThreadPool(readAhead,
+						new ThreadFactoryBuilder().setNameFormat("tfc-io-%d").setDaemon(true).build()))
+				: Optional.empty();
+	}
+
+	/** State of one call, so calls running at the same time don't share their results. */
+	private class Run {
+
+		private final Query query;
+
+		// Combined result placeholder
+		private ProcessingResult combinedResult;
+
+		// Memory budget of the call, if requested
+		private final Optional<MemoryBudget> budget;
+
+		// Counter spilling every term count to disk during the call, if requested
+		private final Optional<SpillingTermCounter> spillingCounter;
+
+		// Dictionary shared by every term counts of the call, unless they are spilled to disk
+		private final Optional<TermDictionary> dictionary;
+
+		// Journal of work completed during the call (or interrupted previous one), if requested
+		private final Optional<WorkJournal> journal;
+
+		// Positions of matches found during the call, if requested
+		private final Optional<MatchPositions> positions;
 
-		private final InputDataFetcher fetcher;
-		private final CLIOptions options;
+		// Listener of the partial result of every chunk of work of the call
+		private final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener;
 
-		private ProcessingThread(final InputDataFetcher fetcher, final CLIOptions options) {
-			this.fetcher = Preconditions.checkNotNull(fetcher, "fetcher must not be null");
-			this.options = Preconditions.checkNotNull(options, "options must not be null");
+		// Latency of every chunk of work of the call
+		private final WorkScheduler.Run schedule = scheduler.startRun();
+
+		// Time spent fetching data, calculating terms (and combining) and queued for device limits during the call
+		private final LongAdder fetchingNanos = new LongAdder();
+		private final LongAdder calculatingNanos = new LongAdder();
+		private final LongAdder deviceWaitNanos = new LongAdder();
+		private final long runStartNanos = System.nanoTime();
+		private final long runStartWorkerNanos = concurrency.getWorkerNanos(this.runStartNanos);
+
+		// Time (System.nanoTime) the call is abandoned at, if the query has a deadline
+		private final Optional<Long> deadlineNanos;
+
+		// Set once the call fails or its deadline passes, results are only accepted (read lock) until then
+		private volatile boolean abandoned;
+		private final ReadWriteLock accepting = new ReentrantReadWriteLock();
+
+		// The call itself (until it returns) and every chunk of work of the call still running. Scratch files and the
+		// journal are released by whichever leaves last, as chunks of the abandoned call may still be writing them.
+		private final AtomicInteger participants = new AtomicInteger(1);
+
+		private Run(final Query query, final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener)
+				throws IOException {
+			this.query = Preconditions.checkNotNull(query, "query must not be null");
+			this.partialResultListener = Preconditions.checkNotNull(
+					partialResultListener, "partialResultListener must not be null");
+
+			// Journal written for a different query is refused before anything else needing release is created
+			this.journal = query.getJournal().isPresent()
+					? Optional.of(new WorkJournal(Paths.get(query.getJournal().get()), query))
+					: Optional.empty();
+			this.combinedResult = new ProcessingResult(0, 0, query.isVocabularyOffHeap()
+					? Optional.<Map<String, Long>>of(new OffHeapTermCounts())
+					: Optional.empty());
+			// Buffers pooled across calls (but not leased by any chunk) hold memory counted against the budget
+			this.budget = query.getMemoryBudget().map(bytes -> new MemoryBudget(bytes, bufferPool::getIdleBytes));
+			this.spillingCounter = query.isVocabularySpilled()
+					? Optional.of(new SpillingTermCounter(
+							Paths.get(query.getSpillDirectory()), query.getSpillThreshold()))
+					: Optional.empty();
+			this.dictionary = query.isEveryTermCountRequested() && !spillingCounter.isPresent()
+					&& !query.isVocabularyOffHeap()
+					? Optional.of(new TermDictionary())
+					: Optional.empty();
+			this.positions = query.getPositionsOutput().isPresent()
+					? Optional.of(new MatchPositions(Paths.get(query.getSpillDirectory())))
+					: Optional.empty();
+			this.deadlineNanos = query.getDeadline().map(
+					millis -> this.runStartNanos + TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+
+		// Synchronizes updates to combinedResult
+		private synchronized void updateCombinedResult(final ProcessingResult partialResult) {
+			this.combinedResult = ProcessingResult.combineResults(combinedResult, partialResult);
 		}
 
-		@Override
-		public Boolean call() throws Exception {
-			long startTime = System.currentTimeMillis();
-			final ProcessingResult partialResult = new EnglishTermFrequencyCalculator()
-					.splitIntoTerms(fetcher.fetchData(), options);
-			if (options.isVerbose()) {
-				Logging.logLatency(String.format("Calculating terms for %s", fetcher), startTime);
-				startTime = System.currentTimeMillis();
+		/**
+		 * Folds partial result (either calculated or journaled) of given work into the combined one,
+		 * counting it once per identical copy of the work, and commits positions of its matches (if found).
+		 * Result of the abandoned call is discarded.
+		 */
+		private void acceptPartialResult(final InputDataFetcher fetcher, final ProcessingResult partialResult,
+				final Optional<MatchPositions.Chunk> positionsChunk) throws IOException {
+			this.accepting.readLock().lock();
+			try {
+				if (this.abandoned) {
+					return;
+				}
+
+				positionsChunk.ifPresent(MatchPositions.Chunk::commit);
+
+				ProcessingResult result = ProcessingResult.scaleResult(partialResult, fetcher.getMultiplicity());
+				this.partialResultListener.accept(fetcher, result);
+
+				// Every term count goes to the spilling counter, rather than to the combined result
+				if (this.spillingCounter.isPresent()) {
+					this.spillingCounter.get().add(result.getEveryTermCount().get());
+					result = new ProcessingResult(
+							result.getTermMatchCount(),
+							result.getAllTermsCount(),
+							Optional.empty(),
+							result.getMatchingTermCount(),
+							result.getDistinctTerms());
+				}
+
+				this.updateCombinedResult(result); // update combined result in thread-safe fashion
+			} finally {
+				this.accepting.readLock().unlock();
 			}
+		}
+
+		/**
+		 * Abandons the rest of the call. Work not started yet is skipped, and once results being accepted right now
+		 * are combined, no other result is. Work already running is left to finish (releasing what it holds) by itself,
+		 * rather than being cancelled while its buffers may still be in use.
+		 */
+		private void abandon() {
+			this.accepting.writeLock().lock();
+			this.abandoned = true;
+			this.accepting.writeLock().unlock();
+		}
+
+		/** Returns nanoseconds left until the deadline (or practically forever, if there is no deadline). */
+		private long remainingNanos() {
+			return this.deadlineNanos.isPresent() ? this.deadlineNanos.get() - System.nanoTime() : Long.MAX_VALUE;
+		}
+
+		/**
+		 * Callable implementation responsible for processing single chunk of work.
+		 * Work is processed in two stages, fetching data into leased buffers and calculating terms of fetched data,
+		 * which are either called one after another or (with read-ahead) by different threads.
+		 */
+		private class ProcessingThread implements Callable<Boolean> {
+
+			private final InputDataFetcher fetcher;
+
+			// Resources held from fetching data until processing is over
+			private long reservedBytes;
+			private BufferPool.Buffers buffers;
+			private Optional<MatchPositions.Chunk> positionsChunk = Optional.empty();
+			private long fetchNanos;
 
-			updateCombinedResult(partialResult); // update combined result in thread-safe fashion
-			if (options.isVerbose()) {
-				Logging.logLatency(String.format("Combining results for %s", fetcher), startTime);
+			// Time (System.nanoTime) the chunk was submitted and handed over to the executor fetching it, once the
+			// device holding its source had room for one more reader
+			private final long submittedNanos = System.nanoTime();
+			private volatile long handedOverNanos;
+
+			// Time the chunk was ready for a worker (handed over, or fetched with read-ahead) and taken by one, to
+			// tell how long it waited in the queue
+			private long readyNanos;
+			private long takenNanos;
+
+			private ProcessingThread(final InputDataFetcher fetcher) {
+				this.fetcher = Preconditions.checkNotNull(fetcher, "fetcher must not be null");
+			}
+
+			@Override
+			public Boolean call() throws Exception {
+				this.takenNanos = System.nanoTime();
+				try {
+					return this.process(this.fetch());
+				} finally {
+					this.release();
+				}
+			}
+
+			/**
+			 * Hands given task fetching the chunk over to given executor, once the device holding its source has room
+			 * for one more reader. The task must call fetch, which lets the next read of the device start.
+			 */
+			private void dispatch(final Runnable task, final Executor executor) {
+				deviceLimits.execute(this.fetcher, task, command -> {
+					this.handedOverNanos = System.nanoTime();
+					executor.execute(command);
+				});
 			}
 
-			// We return boolean rather then ProcessingResult because later one can consume a lot of memory,
-			// so we should release it now, rather then after all threads finish.
-			return true;
+			/** Reserves memory, leases buffers and fetches data into them, holding a permit of the device. */
+			private ByteBuffer fetch() throws IOException, InterruptedException {
+				final ByteBuffer data;
+				final long startNanos;
+				try {
+					deviceWaitNanos.add(this.handedOverNanos - this.submittedNanos);
+					checkNotAbandoned();
+					// Wait for the memory needed to fetch data and hold partial result to fit into the budget
+					if (budget.isPresent()) {
+						this.reservedBytes = budget.get().acquire(
+								MemoryBudget.estimateBytes(fetcher, query.isEveryTermCountRequested()));
+					}
+
+					this.buffers = bufferPool.lease();
+					data = this.buffers.getBytes(fetcher.getSize());
+					startNanos = System.nanoTime();
+					fetcher.fetchData(data);
+				} finally {
+					deviceLimits.release(fetcher);
+				}
+
+				this.fetchNanos = System.nanoTime() - startNanos;
+				fetchingNanos.add(this.fetchNanos);
+
+				// With read-ahead, chunk waits for a worker once it's fetched
+				this.readyNanos = ioPool.isPresent() ? startNanos + this.fetchNanos : this.handedOverNanos;
+				return data;
+			}
+
+			/** Calculates terms of fetched data and updates combined result. */
+			private Boolean process(final ByteBuffer data) throws IOException {
+				checkNotAbandoned();
+				final long startNanos = System.nanoTime();
+				if (ioPool.isPresent()) {
+					this.takenNanos = startNanos; // Worker only calculates terms of data fetched by the I/O pool
+				}
+
+				long startTime = System.currentTimeMillis();
+				// Count-only queries are counted straight in the fetched bytes, when possible. Positions of matches are
+				// found in the same pass, or (for text being decoded) by a pass over the bytes before decoding them.
+				if (positions.isPresent()) {
+					this.positionsChunk = Optional.of(positions.get().startChunk(fetcher));
+				}
+
+				final Optional<ProcessingResult> counted = this.positionsChunk.isPresent()
+						? calculator.countTerms(data, query, this.positionsChunk.get())
+						: calculator.countTerms(data, query);
+				if (!counted.isPresent() && this.positionsChunk.isPresent()) {
+					calculator.findMatches(data, query, this.positionsChunk.get());
+				}
+
+				final ProcessingResult partialResult = counted.isPresent()
+						? counted.get()
+						: calculator.splitIntoTerms(this.buffers.decode(data), query, dictionary);
+				bufferPool.release(this.buffers); // Data is no longer needed, let the next chunk be fetched
+				this.buffers = null;
+
+				if (query.isVerbose()) {
+					Logging.logLatency(CALCULATING_LATENCY_FORMAT, fetcher, startTime);
+					startTime = System.currentTimeMillis();
+				}
+
+				// Partial result is journaled before being combined, as scaling or combining may modify its counts
+				if (journal.isPresent()) {
+					journal.get().record(fetcher, partialResult);
+				}
+
+				acceptPartialResult(fetcher, partialResult, this.positionsChunk);
+
+				// Time spent waiting between the stages is not counted as processing time
+				final long endNanos = System.nanoTime();
+				calculatingNanos.add(endNanos - startNanos);
+				schedule.record(fetcher, startNanos - this.fetchNanos, endNanos);
+				if (query.isVerbose()) {
+					Logging.logLatency(COMBINING_LATENCY_FORMAT, fetcher, startTime);
+				}
+
+				final boolean resized = concurrency.record(
+						fetcher.getSize(), this.takenNanos - this.readyNanos, this.takenNanos, endNanos);
+				if (resized && query.isVerbose()) {
+					Logging.logInfo(concurrency.toString());
+				}
+
+				// We return boolean rather then ProcessingResult because later one can consume a lot of memory,
+				// so we should release it now, rather then after all threads finish.
+				return true;
+			}
+
+			/** Skips the rest of the work of the abandoned call. */
+			private void checkNotAbandoned() {
+				if (abandoned) {
+					throw new CancellationException(String.format("Call was abandoned before processing %s.", fetcher));
+				}
+			}
+
+			/** Releases buffers, memory and positions scratch file still held, whether processing succeeded or not. */
+			private void release() {
+				if (this.buffers != null) {
+					bufferPool.release(this.buffers);
+					this.buffers = null;
+				}
+
+				if (this.positionsChunk.isPresent()) {
+					this.positionsChunk.get().close();
+					this.positionsChunk = Optional.empty();
+				}
+
+				if (budget.isPresent()) {
+					budget.get().release(this.reservedBytes);
+					this.reservedBytes = 0;
+				}
+			}
+		}
+
+		/**
+		 * Processes the work and leaves the call. Once the call fails, off-heap term counts are freed right away, as
+		 * no chunk of work combines its result any more, while scratch files and the journal are released once every
+		 * chunk still running is over.
+		 */
+		private ProcessingResult process(final Iterator<InputDataFetcher> work) throws IOException {
+			boolean succeeded = false;
+			try {
+				final ProcessingResult result = this.processAndFinish(work);
+				succeeded = true;
+				return result;
+			} finally {
+				if (!succeeded) {
+					this.abandon();
+					this.freeOffHeapCounts();
+				}
+
+				this.leave();
+			}
+		}
+
+		/** Submits the work to the thread pool, waits for it to be processed and finishes the combined result. */
+		private ProcessingResult processAndFinish(final Iterator<InputDataFetcher> work) throws IOException {
+			// Work submitted, but not yet taken from the queue of finished work (in the order it finishes)
+			final Set<Future<Boolean>> outstanding = new HashSet<Future<Boolean>>();
+			final BlockingQueue<Future<Boolean>> finished = new LinkedBlockingQueue<Future<Boolean>>();
+
+			// submit work to the thread pool, keeping at most WORK_IN_FLIGHT_PER_WORKER chunks per current worker
+			// submitted but not finished. With read-ahead, data is fetched by the I/O pool, which keeps reading next
+			// chunks while the workers calculate terms, as long as there are buffers to read into.
+			boolean expired = false;
+			try {
+				while (true) {
+					// Finished work is checked before submitting more, so the first failure stops the call
+					Future<Boolean> done;
+					while ((done = finished.poll()) != null) {
+						outstanding.remove(done);
+						checkExecutionSuccess(done);
+					}
+
+					if (!work.hasNext()) {
+						break;
+					}
+
+					// Number of workers may change during the call, so the limit is checked before every submission
+					if (outstanding.size() >= getMaxWorkInFlight()) {
+						done = finished.poll(this.remainingNanos(), TimeUnit.NANOSECONDS);
+						if (done == null) {
+							expired = true;
+							break;
+						}
+
+						outstanding.remove(done);
+						checkExecutionSuccess(done);
+						continue;
+					}
+
+					final InputDataFetcher fetcher = work.next();
+
+					// Work completed by an interrupted previous run is not processed again
+					final Optional<ProcessingResult> journaledResult = journal.isPresent()
+							? journal.get().replay(fetcher)
+							: Optional.empty();
+					if (journaledResult.isPresent()) {
+						acceptPartialResult(fetcher, journaledResult.get(), Optional.empty());
+						continue;
+					}
+
+					outstanding.add(this.submit(new ProcessingThread(fetcher), finished));
+				}
+
+				// Wait for the rest of the work to be processed, failing on whichever chunk fails first
+				while (!expired && !outstanding.isEmpty()) {
+					final Future<Boolean> done = finished.poll(this.remainingNanos(), TimeUnit.NANOSECONDS);
+					if (done == null) {
+						expired = true;
+					} else {
+						outstanding.remove(done);
+						checkExecutionSuccess(done);
+					}
+				}
+			} catch (final InterruptedException e) {
+				this.abandon();
+				throw new RuntimeException(String.format(
+						"Interrupted while submitting work to the thread pool. Reason: %s", e.getMessage()));
+			} catch (final IOException | RuntimeException e) {
+				this.abandon(); // Call failed, don't let the rest of its work run
+				throw e;
+			}
+
+			if (expired) {
+				this.abandon();
+				if (query.isVerbose()) {
+					Logging.logInfo(String.format("Deadline of %d ms passed, %d chunk(s) of work abandoned.",
+							query.getDeadline().get(), outstanding.size()));
+				}
+			}
+
+			if (query.isVerbose()) {
+				Logging.logInfo(schedule.toString());
+				Logging.logInfo(concurrency.toString());
+				Logging.logInfo(describeUtilization(System.nanoTime()));
+				if (journal.isPresent()) {
+					Logging.logInfo(journal.get().toString());
+				}
+
+				if (budget.isPresent()) {
+					Logging.logInfo(budget.get().toString());
+				}
+			}
+
+			if (spillingCounter.isPresent()) {
+				spillingCounter.get().finish(Paths.get(query.getVocabularyOutput().get()));
+				if (query.isVerbose()) {
+					Logging.logInfo(String.format("Merged %d spilled run(s) of term counts into %s.",
+							spillingCounter.get().getSpilledRuns(), query.getVocabularyOutput().get()));
+				}
+			}
+
+			// Off-heap counts are written as they are, rather than spilled and merged
+			if (query.isVocabularyOffHeap() && query.getVocabularyOutput().isPresent()) {
+				((OffHeapTermCounts) combinedResult.getEveryTermCount().get())
+						.writeSorted(Paths.get(query.getVocabularyOutput().get()));
+			}
+
+			// Chunks left running by the deadline may still be writing positions, scratch files are deleted later
+			if (positions.isPresent()) {
+				positions.get().write(Paths.get(query.getPositionsOutput().get()));
+				if (query.isVerbose()) {
+					Logging.logInfo(String.format("Wrote %d match position(s) into %s.",
+							positions.get().getPositions(), query.getPositionsOutput().get()));
+				}
+			}
+
+			return combinedResult;
+		}
+
+		/**
+		 * Submits one chunk of work, which is put into the queue of finished work once every stage processing it is
+		 * over, so its resources are released by then.
+		 */
+		private Future<Boolean> submit(final ProcessingThread thread, final BlockingQueue<Future<Boolean>> finished) {
+			this.participants.incrementAndGet();
+			if (ioPool.isPresent()) {
+				final CompletableFuture<ByteBuffer> fetched = new CompletableFuture<ByteBuffer>();
+				thread.dispatch(() -> {
+					try {
+						fetched.complete(completeStage(thread::fetch));
+					} catch (final Throwable e) {
+						fetched.completeExceptionally(e);
+					}
+				}, ioPool.get());
+
+				final CompletableFuture<Boolean> future =
+						fetched.thenApplyAsync(data -> completeStage(() -> thread.process(data)), pool);
+				future.whenComplete((success, e) -> {
+					thread.release();
+					this.leave();
+					finished.add(future);
+				});
+				return future;
+			}
+
+			final FutureTask<Boolean> task = new FutureTask<Boolean>(thread) {
+				@Override
+				protected void done() {
+					leave();
+					finished.add(this);
+				}
+			};
+			thread.dispatch(task, pool);
+			return task;
+		}
+
+		/**
+		 * Describes share of the capacity of both stages used during the call, e.g. an I/O pool much busier than the
+		 * CPU pool suggests reading more chunks ahead (or raising limits of the devices being waited for).
+		 */
+		private String describeUtilization(final long nowNanos) {
+			final long wallNanos = nowNanos - runStartNanos;
+			final String deviceWait = String.format("%.0f ms waited for device limits (%s).",
+					deviceWaitNanos.sum() / NANOS_PER_MILLI, deviceLimits);
+
+			// Capacity of a resized CPU pool is the sum of its number of workers over the time of the call
+			final long workerNanos = concurrency.getWorkerNanos(nowNanos) - runStartWorkerNanos;
+			final String workers = concurrency.isAdaptive()
+					? String.format("%.1f thread(s) (on average)", wallNanos > 0 ? (double) workerNanos / wallNanos : 0)
+					: concurrency.getConcurrency() + " thread(s)";
+			if (!ioPool.isPresent()) {
+				return String.format("Executors : CPU pool of %s %.1f%% utilized fetching data and %.1f%%"
+						+ " calculating terms, %s",
+						workers,
+						utilization(fetchingNanos.sum(), workerNanos),
+						utilization(calculatingNanos.sum(), workerNanos),
+						deviceWait);
+			}
+
+			return String.format("Executors : I/O pool of %d thread(s) %.1f%% utilized, CPU pool of %s"
+					+ " %.1f%% utilized, %s",
+					readAhead,
+					utilization(fetchingNanos.sum(), (long) readAhead * wallNanos),
+					workers,
+					utilization(calculatingNanos.sum(), workerNanos),
+					deviceWait);
+		}
+
+		/** Frees off-heap term counts of the failed call, which are never returned. */
+		private synchronized void freeOffHeapCounts() {
+			if (query.isVocabularyOffHeap()) {
+				((OffHeapTermCounts) this.combinedResult.getEveryTermCount().get()).close();
+			}
+		}
+
+		/**
+		 * Leaves the call, either the call itself or one of its chunks of work being over. Once nobody is left, closes
+		 * journal of the call (even on failure, so it can be resumed) and deletes its scratch files.
+		 */
+		private void leave() {
+			if (this.participants.decrementAndGet() > 0) {
+				return;
+			}
+
+			try {
+				if (this.journal.isPresent()) {
+					this.journal.get().close();
+				}
+			} catch (final IOException e) {
+				Logging.logError("Closing journal", e);
+			}
+
+			try {
+				if (this.spillingCounter.isPresent()) {
+					this.spillingCounter.get().discard();
+				}
+
+				if (this.positions.isPresent()) {
+					this.positions.get().discard();
+				}
+			} catch (final IOException e) {
+				Logging.logError("Deleting scratch files", e);
+			}
 		}
 	}
 
 	/**
-	 * Processes a list of InputDataFetcher and produces combined ProcessingResult.
-	 * 
+	 * Processes a list of InputDataFetcher, dispatching the work with the highest estimated cost first,
+	 * and produces combined ProcessingResult.
+	 *
 	 * @param work List of allocated InputDataFetcher.
-	 * @param options Parsed command line arguments.
+	 * @param query Query to run.
+	 * @param partialResultListener Listener of the ProcessingResult of every chunk of work.
 	 * @return Combined ProcessingResult.
 	 * @throws IOException when problems with fetching data occur.
 	 */
 	@Override
-	public ProcessingResult processWork(List<InputDataFetcher> work, CLIOptions options) throws IOException {
-		// Initialize combined result
-		this.combinedResult = new ProcessingResult(0, 0, Optional.empty());
+	public ProcessingResult processWork(
+			final List<InputDataFetcher> work,
+			final Query query,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+		return this.processWork(this.scheduler.order(work).iterator(), query, partialResultListener);
+	}
 
-		// Record threads execution results
-		final List<Future<Boolean>> executionSuccess = new LinkedList<Future<Boolean>>();
+	/**
+	 * Processes InputDataFetcher as they are produced by given iterator and produces combined ProcessingResult.
+	 * Iterator is advanced only when there is room for more work in flight, so work produced from an unbounded
+	 * stream is held in memory only a few chunks at a time.
+	 *
+	 * @param work Iterator over allocated InputDataFetcher.
+	 * @param query Query to run.
+	 * @param partialResultListener Listener of the ProcessingResult of every chunk of work.
+	 * @return Combined ProcessingResult.
+	 * @throws IOException when problems with fetching data occur.
+	 */
+	@Override
+	public ProcessingResult processWork(
+			final Iterator<InputDataFetcher> work,
+			final Query query,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+		final long startTime = System.currentTimeMillis();
+		final Run run = new Run(query, partialResultListener);
+		if (query.isVerbose()) {
+			Logging.logLatency(QUERY_SETUP_STAGE_FRIENDLY_NAME, startTime);
+		}
 
-		// submit work to the thread pool
-		final ExecutorService pool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-		work.stream().forEach(f -> {
-			executionSuccess.add(pool.submit(new ProcessingThread(f, options)));
-		});
-		pool.shutdown(); // stop submitting work to the thread pool 
+		return run.process(work);
+	}
 
-		// Wait for thread pool to finish
-		try {
-			pool.awaitTermination(THREAD_POOL_EXECUTION_TIMEOUT_SEC, TimeUnit.SECONDS);
-		} catch (final InterruptedException e) {
-			throw new RuntimeException(String.format(
-					"Interrupted while waiting for thread pool to finish. Reason: %s", e.getMessage()));
+	/** Shuts the thread pools down, work already submitted is still processed. */
+	@Override
+	public void close() {
+		this.ioPool.ifPresent(ExecutorService::shutdown);
+		this.pool.shutdown();
+	}
+
+	/**
+	 * Resizes the CPU pool to given number of workers. Bounds are changed in the order keeping core size within max
+	 * size, extra workers quit once they finish their current chunk of work. Buffer pool follows, so buffers of the
+	 * extra workers are dropped rather than kept for the max number of workers.
+	 */
+	private void resizePool(final int workers) {
+		if (workers > this.pool.getMaximumPoolSize()) {
+			this.pool.setMaximumPoolSize(workers);
+			this.pool.setCorePoolSize(workers);
+		} else {
+			this.pool.setCorePoolSize(workers);
+			this.pool.setMaximumPoolSize(workers);
 		}
 
-		// Check that no threads finished with throwing an exception
-		executionSuccess.stream().forEach(ex -> {
-			try {
-				ex.get(); // We only record true(s), so no need to do further processing.
-			} catch (InterruptedException e) {
-				throw new RuntimeException(String.format(
-						"One of the threads was interrupted while sleeping. Reason: %s", e.getMessage()));
-			} catch (ExecutionException e) {
-				throw new RuntimeException(String.format(
-						"One of the threads threw an exception. Reason: %s", e.getMessage()));
-			}
-		});
+		this.bufferPool.resize(workers + this.readAhead);
+	}
+
+	/** Returns max number of chunks of work of one call submitted, but not yet finished, for the current workers. */
+	private int getMaxWorkInFlight() {
+		return WORK_IN_FLIGHT_PER_WORKER * this.concurrency.getConcurrency() + this.readAhead;
+	}
 
-		return combinedResult;
+	/** Returns given busy time as percentage of the time threads were available for (summed over the threads). */
+	private static double utilization(final long busyNanos, final long threadNanos) {
+		return threadNanos > 0 ? PERCENT * busyNanos / threadNanos : 0;
+	}
+
+	/** Calls one stage of processing from within CompletableFuture, which only lets unchecked exceptions through. */
+	private static <T> T completeStage(final Callable<T> stage) {
+		try {
+			return stage.call();
+		} catch (final RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/** Checks that given thread didn't finish with throwing an exception. */
+	private static void checkExecutionSuccess(final Future<Boolean> ex) {
+		try {
+			ex.get(); // We only record true(s), so no need to do further processing.
+		} catch (InterruptedException e) {
+			throw new RuntimeException(String.format(
+					"One of the threads was interrupted while sleeping. Reason: %s", e.getMessage()));
+		} catch (ExecutionException e) {
+			throw new RuntimeException(String.format(
+					"One of the threads threw an exception. Reason: %s", e.getMessage()));
+		}
 	}
 }
@@ -0,0 +1,68 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.List;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import lombok.Getter;
+
+/**
+ * Measures which part of the input is covered by the result of a run which may stop before processing all of its
+ * work (see Query.deadline). Every chunk whose ProcessingResult is passed to the partial result listener is covered,
+ * as processors combine exactly the results they pass to the listener. Chunk standing for several identical copies
+ * of the data covers every copy.
+ *
+ * @author Taras Basiuk
+ */
+public class WorkCoverage {
+
+	private static final double PERCENT = 100;
+
+	@Getter private final long totalBytes;
+	@Getter private long coveredBytes;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param work All the work of the run.
+	 */
+	public WorkCoverage(final List<InputDataFetcher> work) {
+		this.totalBytes = work.stream().mapToLong(WorkCoverage::bytesOf).sum();
+	}
+
+	/**
+	 * Adds chunk of work whose result was combined into the result of the run.
+	 *
+	 * @param fetcher Completed work.
+	 */
+	public synchronized void add(final InputDataFetcher fetcher) {
+		this.coveredBytes += bytesOf(fetcher);
+	}
+
+	/**
+	 * Tells whether the result covers all of the input.
+	 *
+	 * @return True if every chunk of work was completed.
+	 */
+	public synchronized boolean isComplete() {
+		return this.coveredBytes >= this.totalBytes;
+	}
+
+	/**
+	 * Returns fraction of the input bytes covered by the result.
+	 *
+	 * @return Fraction within [0, 1] (1 for no input at all).
+	 */
+	public synchronized double getFraction() {
+		return this.totalBytes > 0 ? (double) this.coveredBytes / this.totalBytes : 1;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%.2f%% of input covered (%d of %d bytes)",
+				this.getFraction() * PERCENT, this.coveredBytes, this.totalBytes);
+	}
+
+	private static long bytesOf(final InputDataFetcher fetcher) {
+		return (long) fetcher.getSize() * fetcher.getMultiplicity();
+	}
+}
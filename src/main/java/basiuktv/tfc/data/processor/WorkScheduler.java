@@ -0,0 +1,218 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+
+/**
+ * Orders work longest-processing-time first, so the largest chunks don't end up being processed by one busy worker
+ * while the others are already idle. Cost of a chunk is estimated as its size divided by the throughput measured for
+ * its source so far (sources not measured yet are assumed to have average throughput). Workers taking the next chunk
+ * from the shared queue as soon as they are done (greedy list scheduling) balance the remainder.
+ *
+ * Throughput is measured across runs, for a bounded number of the most recently processed sources. Latency of every
+ * chunk is recorded by the run it belongs to (see startRun), so runs at the same time report their own tail.
+ *
+ * @author Taras Basiuk
+ */
+public class WorkScheduler {
+
+	/** Max number of sources throughput is kept for, the least recently measured ones are forgotten first. */
+	public static final int MAX_MEASURED_SOURCES = 4096;
+
+	private static final double[] REPORTED_PERCENTILES = {50, 90, 99};
+
+	// Current number of workers processing work at the same time
+	private final IntSupplier workers;
+
+	// Bytes processed and nanoseconds spent per source, kept across runs (in order of the last measurement)
+	private final Map<String, long[]> throughputs = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, long[]> eldest) {
+			return this.size() > MAX_MEASURED_SOURCES;
+		}
+	};
+
+	/** Latency of every chunk processed within one run. */
+	public class Run {
+
+		// Start and end time (in nanoseconds) of every chunk processed within the run
+		private final Queue<long[]> chunkTimes = new ConcurrentLinkedQueue<long[]>();
+		private final long runStartNanos = System.nanoTime();
+
+		private Run() {
+		}
+
+		/**
+		 * Records that given work was processed within the run, measuring throughput of its source.
+		 *
+		 * @param fetcher Processed work.
+		 * @param startNanos System.nanoTime() when processing started.
+		 * @param endNanos System.nanoTime() when processing ended.
+		 */
+		public void record(final InputDataFetcher fetcher, final long startNanos, final long endNanos) {
+			this.chunkTimes.add(new long[]{startNanos, endNanos});
+			WorkScheduler.this.record(fetcher, startNanos, endNanos);
+		}
+
+		/**
+		 * Returns time between the first worker running out of work and the last one finishing, within the run.
+		 *
+		 * @return Tail in nanoseconds.
+		 */
+		public long getTailNanos() {
+			final long[] ends = this.chunkTimes.stream().mapToLong(t -> t[1]).sorted().toArray();
+			if (ends.length == 0) {
+				return 0;
+			}
+
+			// Last chunk of every worker is among the last "workers" chunks to finish, earliest of them leaves one idle
+			return ends[ends.length - 1] - ends[Math.max(0, ends.length - workers.getAsInt())];
+		}
+
+		@Override
+		public String toString() {
+			final long[] latencies = this.chunkTimes.stream().mapToLong(t -> t[1] - t[0]).sorted().toArray();
+			final long lastEnd = this.chunkTimes.stream().mapToLong(t -> t[1]).max().orElse(this.runStartNanos);
+
+			final StringBuilder percentiles = new StringBuilder();
+			for (final double p : REPORTED_PERCENTILES) {
+				percentiles.append(String.format("p%.0f %d ms, ", p, toMillis(percentile(latencies, p))));
+			}
+
+			return String.format("Work schedule : %d chunk(s), makespan %d ms, tail %d ms;"
+					+ " chunk latency %smax %d ms.",
+					latencies.length,
+					toMillis(lastEnd - this.runStartNanos),
+					toMillis(this.getTailNanos()),
+					percentiles,
+					toMillis(latencies.length > 0 ? latencies[latencies.length - 1] : 0));
+		}
+	}
+
+	/**
+	 * Constructs scheduler for a fixed number of workers.
+	 *
+	 * @param workers Number of workers processing work at the same time.
+	 */
+	public WorkScheduler(final int workers) {
+		this(() -> workers);
+		Preconditions.checkArgument(workers > 0, "workers must be positive.");
+	}
+
+	/**
+	 * Constructs scheduler for a number of workers which may change, read whenever it's needed.
+	 *
+	 * @param workers Supplier of the current number of workers processing work at the same time.
+	 */
+	public WorkScheduler(final IntSupplier workers) {
+		this.workers = Preconditions.checkNotNull(workers, "workers must not be null.");
+	}
+
+	/**
+	 * Returns given work ordered from the highest to the lowest estimated cost.
+	 *
+	 * @param work List of allocated InputDataFetcher.
+	 * @return New list with the same work, ordered.
+	 */
+	public List<InputDataFetcher> order(final List<InputDataFetcher> work) {
+		final Map<String, long[]> measured = this.measuredThroughputs();
+		final double averageThroughput = averageThroughput(measured);
+		final List<InputDataFetcher> ordered = new ArrayList<InputDataFetcher>(work);
+		ordered.sort(Comparator.comparingDouble(
+				(InputDataFetcher f) -> estimateCost(f, measured, averageThroughput)).reversed());
+		return ordered;
+	}
+
+	/**
+	 * Estimates cost of processing given work.
+	 *
+	 * @param fetcher Allocated work.
+	 * @return Estimated cost (in nanoseconds, once any throughput is measured, otherwise in bytes).
+	 */
+	public double estimateCost(final InputDataFetcher fetcher) {
+		final Map<String, long[]> measured = this.measuredThroughputs();
+		return estimateCost(fetcher, measured, averageThroughput(measured));
+	}
+
+	/**
+	 * Starts a new run, recording latency of its chunks apart from the ones of other runs.
+	 *
+	 * @return Run
+	 */
+	public Run startRun() {
+		return new Run();
+	}
+
+	/**
+	 * Records that given work was processed (outside of any run), measuring throughput of its source.
+	 *
+	 * @param fetcher Processed work.
+	 * @param startNanos System.nanoTime() when processing started.
+	 * @param endNanos System.nanoTime() when processing ended.
+	 */
+	public synchronized void record(final InputDataFetcher fetcher, final long startNanos, final long endNanos) {
+		this.throughputs.merge(fetcher.getSource(), new long[]{fetcher.getSize(), Math.max(1, endNanos - startNanos)},
+				(t1, t2) -> new long[]{t1[0] + t2[0], t1[1] + t2[1]});
+	}
+
+	/**
+	 * Returns number of sources throughput is kept for.
+	 *
+	 * @return Number of sources.
+	 */
+	public synchronized int getMeasuredSources() {
+		return this.throughputs.size();
+	}
+
+	/** Returns copy of the throughputs, so work is ordered without holding the lock (or reordering the sources). */
+	private synchronized Map<String, long[]> measuredThroughputs() {
+		return new HashMap<String, long[]>(this.throughputs);
+	}
+
+	private static double estimateCost(
+			final InputDataFetcher fetcher, final Map<String, long[]> measured, final double averageThroughput) {
+		final long[] t = measured.get(fetcher.getSource());
+		final double throughput = t != null && t[0] > 0 ? (double) t[0] / t[1] : averageThroughput;
+		return fetcher.getSize() / throughput;
+	}
+
+	/** Returns bytes per nanosecond over all the measured sources, or 1 if nothing is measured yet. */
+	private static double averageThroughput(final Map<String, long[]> measured) {
+		long bytes = 0;
+		long nanos = 0;
+		for (final long[] t : measured.values()) {
+			bytes += t[0];
+			nanos += t[1];
+		}
+
+		return bytes > 0 ? (double) bytes / nanos : 1;
+	}
+
+	/** Returns nearest-rank percentile of sorted values. */
+	private static long percentile(final long[] sorted, final double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+
+		final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static long toMillis(final long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+}
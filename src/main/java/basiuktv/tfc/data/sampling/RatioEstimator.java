@@ -0,0 +1,118 @@
+package basiuktv.tfc.data.sampling;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.processor.ProcessingResult;
+import lombok.Getter;
+
+/**
+ * Estimates occurrence frequency of the term (ratio of term matches to all the terms) of the whole input from
+ * ProcessingResult of a random sample of its chunks, together with the half-width of its 95% confidence interval.
+ *
+ * Frequency is estimated as the ratio of sampled term matches to all the sampled terms. Its variance is estimated by
+ * linearization over the sampled chunks (residuals of term matches from the ratio times all terms), with the finite
+ * population correction, so the interval shrinks to nothing once every chunk is sampled. Sample stratified by file with
+ * proportional allocation is at least as precise as a simple random one, so the interval is conservative for it.
+ *
+ * @author Taras Basiuk
+ */
+public class RatioEstimator {
+
+	/** Number of sampled chunks below which the confidence interval is not trusted. */
+	public static final int MIN_SAMPLE_SIZE = 30;
+
+	// Standard normal quantile of the two-sided 95% confidence interval
+	private static final double Z_95 = 1.96;
+
+	@Getter private final long populationSize;
+	@Getter private long sampleSize;
+
+	// Sums of term matches, all terms, their squares and products over the sampled chunks
+	private double matches;
+	private double terms;
+	private double matchesSquared;
+	private double termsSquared;
+	private double matchesTimesTerms;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param populationSize Total number of chunks the sample is drawn from.
+	 */
+	public RatioEstimator(final long populationSize) {
+		Preconditions.checkArgument(populationSize > 0, "populationSize must be positive.");
+		this.populationSize = populationSize;
+	}
+
+	/**
+	 * Adds ProcessingResult of one sampled chunk.
+	 *
+	 * @param result ProcessingResult of the chunk.
+	 */
+	public synchronized void add(final ProcessingResult result) {
+		final double m = result.getTermMatchCount();
+		final double a = result.getAllTermsCount();
+		this.sampleSize++;
+		this.matches += m;
+		this.terms += a;
+		this.matchesSquared += m * m;
+		this.termsSquared += a * a;
+		this.matchesTimesTerms += m * a;
+	}
+
+	/**
+	 * Returns estimated occurrence frequency of the term.
+	 *
+	 * @return Ratio of sampled term matches to all the sampled terms (zero if no terms were sampled).
+	 */
+	public synchronized double getEstimate() {
+		return this.terms > 0 ? this.matches / this.terms : 0;
+	}
+
+	/**
+	 * Returns half-width of the 95% confidence interval of the estimate.
+	 *
+	 * @return Half-width, or positive infinity if too few chunks (or no terms) were sampled to estimate it.
+	 */
+	public synchronized double getHalfWidth() {
+		if (this.sampleSize >= this.populationSize) {
+			return 0; // Every chunk is sampled, estimate is exact
+		}
+
+		if (this.sampleSize < 2 || this.terms <= 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		// Residuals of the ratio sum up to zero, so their variance is their mean square
+		final double n = this.sampleSize;
+		final double r = this.matches / this.terms;
+		final double residualVariance = Math.max(0, this.matchesSquared
+				- 2 * r * this.matchesTimesTerms + r * r * this.termsSquared) / (n - 1);
+		final double meanTerms = this.terms / n;
+		final double variance = (1 - n / this.populationSize) * residualVariance / (n * meanTerms * meanTerms);
+		return Z_95 * Math.sqrt(variance);
+	}
+
+	/**
+	 * Tells whether the estimate is known within given relative error (with 95% confidence).
+	 * Estimate of zero is never precise enough, unless every chunk is sampled.
+	 *
+	 * @param relativeError Accepted half-width of the confidence interval relative to the estimate (e.g. 0.01).
+	 * @return True if every chunk is sampled, or enough of them to bring the interval within the relative error.
+	 */
+	public synchronized boolean isWithin(final double relativeError) {
+		if (this.sampleSize >= this.populationSize) {
+			return true;
+		}
+
+		return this.sampleSize >= MIN_SAMPLE_SIZE
+				&& this.matches > 0
+				&& this.getHalfWidth() <= relativeError * this.getEstimate();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%.10f +/- %.10f (95%% confidence, %d of %d chunk(s) sampled)",
+				this.getEstimate(), this.getHalfWidth(), this.sampleSize, this.populationSize);
+	}
+}
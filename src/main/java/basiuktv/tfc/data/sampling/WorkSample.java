@@ -0,0 +1,128 @@
+package basiuktv.tfc.data.sampling;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import lombok.Getter;
+
+/**
+ * Iterates over a random sample of small slices of the input files, stratified by file, until the occurrence frequency
+ * estimated from the processed slices is known within the requested relative error.
+ *
+ * Every file is a stratum of slices of the desired work size of the appraiser. Slices of one file are drawn in random
+ * order, and files take turns in proportion to their number of slices (file of N slices draws its k-th slice at
+ * (k + u) / N, u being random per file), so any prefix of the sample is spread over the files proportionally.
+ * Slices are appraised only once drawn, so drawing a sample doesn't read (or split) the whole input.
+ *
+ * Iteration stops once RatioEstimator fed by the processor (see getEstimator) is within the relative error, or once
+ * every slice is drawn. Chunks already drawn, but not processed, at that point still make it into the estimate.
+ *
+ * @author Taras Basiuk
+ */
+public class WorkSample implements Iterator<InputDataFetcher> {
+
+	/** Default size of one sampled slice. Small slices make a sample of the same size spread wider. */
+	public static final int DEFAULT_SLICE_SIZE = 64 * 1024; // 64 KB
+
+	private final FileSystemWorkAppraiser appraiser;
+	private final Random random;
+	private final double relativeError;
+
+	// Files with slices left to draw, by the position of their next draw
+	private final PriorityQueue<Stratum> strata;
+
+	@Getter private final RatioEstimator estimator;
+
+	/** Slices of one file, drawn in random order by lazy Fisher-Yates shuffle. */
+	private class Stratum {
+
+		private final File file;
+		private final long slices;
+		private final double phase;
+		private long drawn;
+
+		// Slice indices moved by the shuffle, other positions hold their own index
+		private final Map<Long, Long> moved = new HashMap<Long, Long>();
+
+		private Stratum(final File file, final long slices) {
+			this.file = file;
+			this.slices = slices;
+			this.phase = random.nextDouble();
+		}
+
+		private double nextPosition() {
+			return (this.drawn + this.phase) / this.slices;
+		}
+
+		private long draw() {
+			final long pick = this.drawn + Math.min(
+					this.slices - this.drawn - 1, (long) (random.nextDouble() * (this.slices - this.drawn)));
+			final long index = this.moved.getOrDefault(pick, pick);
+			this.moved.put(pick, this.moved.getOrDefault(this.drawn, this.drawn));
+			this.moved.remove(this.drawn);
+			this.drawn++;
+			return index;
+		}
+	}
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param files Input files.
+	 * @param appraiser FileSystemWorkAppraiser to appraise slices with (its desired work size is the slice size).
+	 * @param random Source of randomness.
+	 * @param relativeError Accepted half-width of the 95% confidence interval relative to the estimate (e.g. 0.01).
+	 */
+	public WorkSample(
+			final List<File> files,
+			final FileSystemWorkAppraiser appraiser,
+			final Random random,
+			final double relativeError) {
+		Preconditions.checkArgument(!files.isEmpty(), "At least one input file is needed to be sampled.");
+		Preconditions.checkArgument(relativeError > 0, "relativeError must be positive.");
+		this.appraiser = Preconditions.checkNotNull(appraiser, "appraiser must not be null.");
+		this.random = Preconditions.checkNotNull(random, "random must not be null.");
+		this.relativeError = relativeError;
+
+		this.strata = new PriorityQueue<Stratum>(files.size(),
+				(s1, s2) -> Double.compare(s1.nextPosition(), s2.nextPosition()));
+		long populationSize = 0;
+		for (final File f : files) {
+			final Stratum stratum = new Stratum(f, appraiser.getSliceCount(f));
+			this.strata.add(stratum);
+			populationSize += stratum.slices;
+		}
+
+		this.estimator = new RatioEstimator(populationSize);
+	}
+
+	@Override
+	public synchronized boolean hasNext() {
+		return !this.strata.isEmpty() && !this.estimator.isWithin(this.relativeError);
+	}
+
+	@Override
+	public synchronized InputDataFetcher next() {
+		if (this.strata.isEmpty()) {
+			throw new NoSuchElementException("Every slice is already drawn.");
+		}
+
+		final Stratum stratum = this.strata.poll();
+		final long index = stratum.draw();
+		if (stratum.drawn < stratum.slices) {
+			this.strata.add(stratum);
+		}
+
+		return this.appraiser.appraiseSlice(stratum.file, index);
+	}
+}
@@ -0,0 +1,157 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * HyperLogLog sketch estimating number of distinct terms in a fixed amount of memory (one byte per register).
+ *
+ * Every term is hashed into 64 bits. Its first p bits pick a register, which keeps the max position of the first
+ * one bit among the remaining bits. Number of distinct terms is estimated from the harmonic mean of 2^register over
+ * all the registers (using linear counting while many registers are still empty), with relative standard error
+ * of 1.04 / sqrt(registers). Sketches of the same precision are merged by taking max of every register, so the
+ * sketch of the whole input is the same no matter how it was split into chunks.
+ *
+ * @author Taras Basiuk
+ */
+public class HyperLogLog {
+
+	/** Default number of register index bits (4096 registers of one byte, about 1.6% relative standard error). */
+	public static final int DEFAULT_PRECISION = 12;
+
+	private static final int MIN_PRECISION = 7;
+	private static final int MAX_PRECISION = 18;
+
+	// Standard normal quantile of the two-sided 95% confidence interval
+	private static final double Z_95 = 1.96;
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private final int precision;
+	private final byte[] registers;
+
+	/** Constructs sketch of the default precision. */
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Constructs sketch of given precision.
+	 *
+	 * @param precision Number of register index bits, there are 2^precision registers.
+	 */
+	public HyperLogLog(final int precision) {
+		Preconditions.checkArgument(precision >= MIN_PRECISION && precision <= MAX_PRECISION,
+				"precision must be within [%s, %s].", MIN_PRECISION, MAX_PRECISION);
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Constructs sketch from previously saved registers (see getRegisters).
+	 *
+	 * @param registers Registers of the sketch, their number must be power of two.
+	 * @return Sketch with given registers.
+	 */
+	public static HyperLogLog fromRegisters(final byte[] registers) {
+		Preconditions.checkArgument(Integer.bitCount(registers.length) == 1,
+				"Number of registers must be power of two.");
+		final HyperLogLog sketch = new HyperLogLog(Integer.numberOfTrailingZeros(registers.length));
+		System.arraycopy(registers, 0, sketch.registers, 0, registers.length);
+		return sketch;
+	}
+
+	/**
+	 * Adds a term.
+	 *
+	 * @param term Term to add.
+	 */
+	public void add(final CharSequence term) {
+		final long hash = HASH.hashUnencodedChars(term).asLong();
+		final int index = (int) (hash >>> (Long.SIZE - this.precision));
+
+		// Position of the first one bit after the index bits, sentinel bit caps it for all zero bits
+		final long rest = (hash << this.precision) | (1L << (this.precision - 1));
+		final byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+		if (rank > this.registers[index]) {
+			this.registers[index] = rank;
+		}
+	}
+
+	/**
+	 * Merges other sketch of the same precision into this one.
+	 *
+	 * @param other Sketch to merge.
+	 */
+	public void addAll(final HyperLogLog other) {
+		Preconditions.checkArgument(other.precision == this.precision, "Sketches of different precision.");
+		for (int i = 0; i < this.registers.length; i++) {
+			if (other.registers[i] > this.registers[i]) {
+				this.registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * Estimates number of distinct terms added.
+	 *
+	 * @return Estimated number of distinct terms.
+	 */
+	public long estimate() {
+		final int m = this.registers.length;
+		double sum = 0;
+		int emptyRegisters = 0;
+		for (final byte register : this.registers) {
+			sum += Math.scalb(1.0, -register);
+			emptyRegisters += register == 0 ? 1 : 0;
+		}
+
+		final double alpha = 0.7213 / (1 + 1.079 / m);
+		final double estimate = alpha * m * m / sum;
+
+		// Small cardinalities are estimated better by the share of still empty registers
+		if (estimate <= 2.5 * m && emptyRegisters > 0) {
+			return Math.round(m * Math.log((double) m / emptyRegisters));
+		}
+
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Returns relative standard error of the estimate.
+	 *
+	 * @return Relative standard error (e.g. 0.016).
+	 */
+	public double getRelativeError() {
+		return 1.04 / Math.sqrt(this.registers.length);
+	}
+
+	/**
+	 * Returns copy of the registers, to be saved and restored with fromRegisters.
+	 *
+	 * @return Registers of the sketch.
+	 */
+	public byte[] getRegisters() {
+		return this.registers.clone();
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return o instanceof HyperLogLog && Arrays.equals(this.registers, ((HyperLogLog) o).registers);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.registers);
+	}
+
+	@Override
+	public String toString() {
+		final long estimate = this.estimate();
+		return String.format("Distinct terms : %d +/- %d (95%% confidence)",
+				estimate, Math.round(Z_95 * this.getRelativeError() * estimate));
+	}
+}
@@ -0,0 +1,523 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.util.DirectBuffers;
+
+/**
+ * Every term count stored outside of the Java heap, so garbage collection cost doesn't grow with the vocabulary.
+ *
+ * Entries (term characters and count) are appended to arenas of direct ByteBuffers, and found through open addressing
+ * (linear probing) index, which is kept in direct ByteBuffers as well. Term strings are only created when the counts
+ * are read through the Map interface. Memory is freed explicitly by close(), after which counts can't be used.
+ * Not thread-safe.
+ *
+ * @author Taras Basiuk
+ */
+public class OffHeapTermCounts extends AbstractMap<String, Long> implements Closeable {
+
+	/** Default size of one arena of entries. */
+	public static final int DEFAULT_ARENA_SIZE = 64 * 1024 * 1024; // 64 MB
+
+	// Entry address is arena number followed by offset within the arena
+	private static final int OFFSET_BITS = 26;
+	private static final int MAX_ARENA_SIZE = 1 << OFFSET_BITS;
+	private static final long OFFSET_MASK = MAX_ARENA_SIZE - 1;
+	private static final int ADDRESS_BITS = 40;
+	private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+	private static final int MAX_ARENAS = 1 << (ADDRESS_BITS - OFFSET_BITS);
+
+	// Index slot is hash bits (lowest one set, so 0 is an empty slot) in the top 24 bits, entry address in the low 40
+	private static final int SLOT_BYTES = 8;
+	private static final int SEGMENT_SLOT_BITS = 27; // 1 GB index segments
+	private static final long SEGMENT_SLOT_MASK = (1L << SEGMENT_SLOT_BITS) - 1;
+	private static final long INITIAL_SLOTS = 1024;
+	private static final double MAX_LOAD_FACTOR = 0.75;
+
+	// Entry layout: term hash, term length (in chars), count, term chars
+	private static final int HASH_OFFSET = 0;
+	private static final int LENGTH_OFFSET = 4;
+	private static final int COUNT_OFFSET = 8;
+	private static final int CHARS_OFFSET = 16;
+
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final int arenaSize;
+	private final List<ByteBuffer> arenas = new ArrayList<ByteBuffer>();
+	private ByteBuffer[] indexSegments;
+	private long slots;
+	private long entries;
+	private boolean closed;
+
+	/** Constructs counts with default arena size. */
+	public OffHeapTermCounts() {
+		this(DEFAULT_ARENA_SIZE);
+	}
+
+	/**
+	 * Constructs counts with given arena size.
+	 *
+	 * @param arenaSize Size of one arena of entries in bytes (at most 64 MB).
+	 */
+	public OffHeapTermCounts(final int arenaSize) {
+		Preconditions.checkArgument(arenaSize > CHARS_OFFSET && arenaSize <= MAX_ARENA_SIZE,
+				"arenaSize must be between %s and %s bytes.", CHARS_OFFSET + 1, MAX_ARENA_SIZE);
+		this.arenaSize = arenaSize;
+		this.indexSegments = allocateIndex(INITIAL_SLOTS);
+		this.slots = INITIAL_SLOTS;
+	}
+
+	/**
+	 * Adds given number of occurrences to the count of the term.
+	 *
+	 * @param term Term which occurred.
+	 * @param occurrences Number of occurrences.
+	 */
+	public void add(final CharSequence term, final long occurrences) {
+		this.checkOpen();
+		final int hash = hash(term);
+		final long slot = this.findSlot(term, hash);
+		final long slotValue = this.getSlot(slot);
+		if (slotValue != 0) {
+			final ByteBuffer arena = this.arena(slotValue);
+			final int offset = offset(slotValue);
+			arena.putLong(offset + COUNT_OFFSET, arena.getLong(offset + COUNT_OFFSET) + occurrences);
+			return;
+		}
+
+		this.setSlot(slot, hash, this.append(term, hash, occurrences));
+		if (++this.entries > this.slots * MAX_LOAD_FACTOR) {
+			this.growIndex();
+		}
+	}
+
+	/**
+	 * Adds all the counts from given map.
+	 *
+	 * @param counts Term counts to add.
+	 */
+	public void addAll(final Map<String, Long> counts) {
+		if (counts instanceof OffHeapTermCounts) {
+			// Read entries right from the other arenas, without creating term strings
+			final OffHeapTermCounts other = (OffHeapTermCounts) counts;
+			other.checkOpen();
+			final Iterator<Long> addresses = other.addressIterator();
+			while (addresses.hasNext()) {
+				final long address = addresses.next();
+				this.add(other.termChars(address), other.count(address));
+			}
+
+			return;
+		}
+
+		counts.forEach(this::add);
+	}
+
+	/**
+	 * Returns iterator over the entries sorted by term (in String.compareTo order).
+	 * Entry addresses (8 bytes per term) are sorted on heap, terms are compared in place.
+	 *
+	 * @return Iterator over sorted entries.
+	 */
+	public Iterator<Map.Entry<String, Long>> sortedIterator() {
+		this.checkOpen();
+		final long[] sorted = new long[Math.toIntExact(this.entries)];
+		final Iterator<Long> addresses = this.addressIterator();
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = addresses.next();
+		}
+
+		this.sort(sorted, 0, sorted.length - 1);
+		return new Iterator<Map.Entry<String, Long>>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.next < sorted.length;
+			}
+
+			@Override
+			public Map.Entry<String, Long> next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return entry(sorted[this.next++]);
+			}
+		};
+	}
+
+	/**
+	 * Writes every term count into the file, one "term TAB count" line per term, sorted by term.
+	 *
+	 * @param output File to write into.
+	 * @throws IOException When writing fails.
+	 */
+	public void writeSorted(final Path output) throws IOException {
+		try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(output.toFile()), StandardCharsets.UTF_8), STREAM_BUFFER_SIZE)) {
+			final Iterator<Map.Entry<String, Long>> it = this.sortedIterator();
+			while (it.hasNext()) {
+				final Map.Entry<String, Long> e = it.next();
+				writer.write(e.getKey());
+				writer.write('\t');
+				writer.write(Long.toString(e.getValue()));
+				writer.write('\n');
+			}
+		}
+	}
+
+	/** Frees all the off-heap memory. Counts can't be used afterwards. */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+
+		this.closed = true;
+		this.arenas.forEach(DirectBuffers::free);
+		this.arenas.clear();
+		for (final ByteBuffer segment : this.indexSegments) {
+			DirectBuffers.free(segment);
+		}
+
+		this.indexSegments = null;
+	}
+
+	@Override
+	public Long get(final Object term) {
+		if (!(term instanceof CharSequence)) {
+			return null;
+		}
+
+		this.checkOpen();
+		final CharSequence chars = (CharSequence) term;
+		final long slotValue = this.getSlot(this.findSlot(chars, hash(chars)));
+		return slotValue != 0 ? this.count(slotValue) : null;
+	}
+
+	@Override
+	public boolean containsKey(final Object term) {
+		return this.get(term) != null;
+	}
+
+	@Override
+	public Long put(final String term, final Long count) {
+		Preconditions.checkNotNull(count, "count must not be null.");
+		final Long previous = this.get(term);
+		this.add(term, previous != null ? count - previous : count);
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(Integer.MAX_VALUE, this.entries);
+	}
+
+	/** Entries are iterated in insertion order, use sortedIterator() for term order. */
+	@Override
+	public Set<Map.Entry<String, Long>> entrySet() {
+		this.checkOpen();
+		return new AbstractSet<Map.Entry<String, Long>>() {
+			@Override
+			public Iterator<Map.Entry<String, Long>> iterator() {
+				final Iterator<Long> addresses = addressIterator();
+				return new Iterator<Map.Entry<String, Long>>() {
+					@Override
+					public boolean hasNext() {
+						return addresses.hasNext();
+					}
+
+					@Override
+					public Map.Entry<String, Long> next() {
+						return entry(addresses.next());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return OffHeapTermCounts.this.size();
+			}
+		};
+	}
+
+	/** Prints entries sorted by term. */
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("{");
+		final Iterator<Map.Entry<String, Long>> it = this.sortedIterator();
+		while (it.hasNext()) {
+			final Map.Entry<String, Long> e = it.next();
+			sb.append(e.getKey()).append('=').append(e.getValue());
+			if (it.hasNext()) {
+				sb.append(", ");
+			}
+		}
+
+		return sb.append('}').toString();
+	}
+
+	private void checkOpen() {
+		Preconditions.checkState(!this.closed, "Off-heap term counts are already closed.");
+	}
+
+	/** Appends new entry to the last arena (allocating new one, if it doesn't fit) and returns its address. */
+	private long append(final CharSequence term, final int hash, final long count) {
+		final int entrySize = CHARS_OFFSET + 2 * term.length();
+		Preconditions.checkArgument(entrySize <= MAX_ARENA_SIZE, "Term is too long to be counted off-heap.");
+
+		ByteBuffer arena = this.arenas.isEmpty() ? null : this.arenas.get(this.arenas.size() - 1);
+		if (arena == null || arena.remaining() < entrySize) {
+			Preconditions.checkState(this.arenas.size() < MAX_ARENAS, "Off-heap term counts are full.");
+			arena = ByteBuffer.allocateDirect(Math.max(this.arenaSize, entrySize));
+			this.arenas.add(arena);
+		}
+
+		final int offset = arena.position();
+		arena.putInt(offset + HASH_OFFSET, hash);
+		arena.putInt(offset + LENGTH_OFFSET, term.length());
+		arena.putLong(offset + COUNT_OFFSET, count);
+		for (int i = 0; i < term.length(); i++) {
+			arena.putChar(offset + CHARS_OFFSET + 2 * i, term.charAt(i));
+		}
+
+		arena.position(offset + entrySize);
+		return ((long) (this.arenas.size() - 1) << OFFSET_BITS) | offset;
+	}
+
+	/** Returns slot holding the term, or the empty slot where it belongs. */
+	private long findSlot(final CharSequence term, final int hash) {
+		final long mask = this.slots - 1;
+		final long hashBits = slotHashBits(hash);
+		for (long slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+			final long slotValue = this.getSlot(slot);
+			if (slotValue == 0 || ((slotValue & ~ADDRESS_MASK) == hashBits && this.termEquals(slotValue, term))) {
+				return slot;
+			}
+		}
+	}
+
+	private boolean termEquals(final long slotValue, final CharSequence term) {
+		final ByteBuffer arena = this.arena(slotValue);
+		final int offset = offset(slotValue);
+		if (arena.getInt(offset + LENGTH_OFFSET) != term.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < term.length(); i++) {
+			if (arena.getChar(offset + CHARS_OFFSET + 2 * i) != term.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Doubles the index, re-inserting every entry by its stored hash. */
+	private void growIndex() {
+		final ByteBuffer[] oldSegments = this.indexSegments;
+		final long oldSlots = this.slots;
+		this.slots = 2 * oldSlots;
+		this.indexSegments = allocateIndex(this.slots);
+
+		final long mask = this.slots - 1;
+		for (long oldSlot = 0; oldSlot < oldSlots; oldSlot++) {
+			final long slotValue = getSlot(oldSegments, oldSlot);
+			if (slotValue == 0) {
+				continue;
+			}
+
+			final int hash = this.arena(slotValue).getInt(offset(slotValue) + HASH_OFFSET);
+			long slot = mix(hash) & mask;
+			while (this.getSlot(slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			putSlot(this.indexSegments, slot, slotValue);
+		}
+
+		for (final ByteBuffer segment : oldSegments) {
+			DirectBuffers.free(segment);
+		}
+	}
+
+	/** Returns addresses of all the entries in insertion order. */
+	private Iterator<Long> addressIterator() {
+		return new Iterator<Long>() {
+			private int arena = 0;
+			private int offset = 0;
+
+			@Override
+			public boolean hasNext() {
+				while (this.arena < arenas.size() && this.offset >= arenas.get(this.arena).position()) {
+					this.arena++;
+					this.offset = 0;
+				}
+
+				return this.arena < arenas.size();
+			}
+
+			@Override
+			public Long next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				final long address = ((long) this.arena << OFFSET_BITS) | this.offset;
+				this.offset += CHARS_OFFSET + 2 * arenas.get(this.arena).getInt(this.offset + LENGTH_OFFSET);
+				return address;
+			}
+		};
+	}
+
+	private Map.Entry<String, Long> entry(final long address) {
+		return new AbstractMap.SimpleImmutableEntry<String, Long>(
+				this.termChars(address).toString(), this.count(address));
+	}
+
+	/** Returns term of the entry as a view of its chars in the arena. */
+	private CharSequence termChars(final long address) {
+		final ByteBuffer view = this.arena(address).duplicate();
+		final int charsOffset = offset(address) + CHARS_OFFSET;
+		view.limit(charsOffset + 2 * view.getInt(offset(address) + LENGTH_OFFSET));
+		view.position(charsOffset);
+		return view.slice().asCharBuffer();
+	}
+
+	private long count(final long address) {
+		return this.arena(address).getLong(offset(address) + COUNT_OFFSET);
+	}
+
+	/** Compares terms of two entries, in String.compareTo order. */
+	private int compareTerms(final long address1, final long address2) {
+		final ByteBuffer arena1 = this.arena(address1);
+		final ByteBuffer arena2 = this.arena(address2);
+		final int offset1 = offset(address1);
+		final int offset2 = offset(address2);
+		final int length1 = arena1.getInt(offset1 + LENGTH_OFFSET);
+		final int length2 = arena2.getInt(offset2 + LENGTH_OFFSET);
+		for (int i = 0; i < Math.min(length1, length2); i++) {
+			final char c1 = arena1.getChar(offset1 + CHARS_OFFSET + 2 * i);
+			final char c2 = arena2.getChar(offset2 + CHARS_OFFSET + 2 * i);
+			if (c1 != c2) {
+				return c1 - c2;
+			}
+		}
+
+		return length1 - length2;
+	}
+
+	/** Sorts entry addresses by their terms (quicksort, terms are compared in place). */
+	private void sort(final long[] addresses, final int from, final int to) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			final long pivot = addresses[(low + high) >>> 1];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (this.compareTerms(addresses[i], pivot) < 0) {
+					i++;
+				}
+
+				while (this.compareTerms(addresses[j], pivot) > 0) {
+					j--;
+				}
+
+				if (i <= j) {
+					final long swap = addresses[i];
+					addresses[i++] = addresses[j];
+					addresses[j--] = swap;
+				}
+			}
+
+			// Recurse into the smaller part and loop over the larger one, so recursion depth stays logarithmic
+			if (j - low < high - i) {
+				this.sort(addresses, low, j);
+				low = i;
+			} else {
+				this.sort(addresses, i, high);
+				high = j;
+			}
+		}
+	}
+
+	private ByteBuffer arena(final long slotValueOrAddress) {
+		return this.arenas.get((int) ((slotValueOrAddress & ADDRESS_MASK) >>> OFFSET_BITS));
+	}
+
+	private static int offset(final long slotValueOrAddress) {
+		return (int) (slotValueOrAddress & OFFSET_MASK);
+	}
+
+	private long getSlot(final long slot) {
+		return getSlot(this.indexSegments, slot);
+	}
+
+	private void setSlot(final long slot, final int hash, final long address) {
+		putSlot(this.indexSegments, slot, slotHashBits(hash) | address);
+	}
+
+	/** Returns hash bits of the slot, with the lowest one set to mark the slot used. */
+	private static long slotHashBits(final int hash) {
+		return ((long) (hash | 1) << ADDRESS_BITS) & ~ADDRESS_MASK;
+	}
+
+	private static long getSlot(final ByteBuffer[] segments, final long slot) {
+		return segments[(int) (slot >>> SEGMENT_SLOT_BITS)].getLong((int) (slot & SEGMENT_SLOT_MASK) * SLOT_BYTES);
+	}
+
+	private static void putSlot(final ByteBuffer[] segments, final long slot, final long slotValue) {
+		segments[(int) (slot >>> SEGMENT_SLOT_BITS)].putLong((int) (slot & SEGMENT_SLOT_MASK) * SLOT_BYTES, slotValue);
+	}
+
+	private static ByteBuffer[] allocateIndex(final long slots) {
+		final long segmentSlots = Math.min(slots, 1L << SEGMENT_SLOT_BITS);
+		final ByteBuffer[] segments = new ByteBuffer[(int) (slots / segmentSlots)];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = ByteBuffer.allocateDirect((int) (segmentSlots * SLOT_BYTES)); // Zeroed, i.e. empty
+		}
+
+		return segments;
+	}
+
+	/** FNV-1a hash of the term chars. */
+	private static int hash(final CharSequence term) {
+		int hash = 0x811C9DC5;
+		for (int i = 0; i < term.length(); i++) {
+			hash = (hash ^ term.charAt(i)) * 0x01000193;
+		}
+
+		return hash;
+	}
+
+	/** Spreads hash bits (murmur3 finalizer), so similar terms don't probe neighboring slots. */
+	private static long mix(final int hash) {
+		int h = hash;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h & 0xFFFFFFFFL;
+	}
+}
@@ -0,0 +1,288 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Counts every term occurrences using bounded amount of memory.
+ * Every worker thread accumulates counts in its own map, which is spilled to a scratch file as a run sorted by term
+ * once it holds more than a threshold number of distinct terms. Finally runs are merged (streaming k-way merge) into
+ * the exact count of every term, written to the output file sorted by term.
+ *
+ * @author Taras Basiuk
+ */
+public class SpillingTermCounter {
+
+	/** Default max number of distinct terms one worker holds in memory before spilling them. */
+	public static final int DEFAULT_SPILL_THRESHOLD = 1000000;
+
+	// Max number of runs merged at once, more runs are merged in several passes
+	private static final int MAX_MERGE_FAN_IN = 64;
+
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final File scratchDirectory;
+	private final int spillThreshold;
+
+	// Counts of every worker thread, registered on first use, so remaining counts can be spilled in the end
+	private final Queue<Map<String, Long>> workerCounts = new ConcurrentLinkedQueue<Map<String, Long>>();
+	private final ThreadLocal<Map<String, Long>> localCounts = ThreadLocal.withInitial(() -> {
+		final Map<String, Long> counts = new HashMap<String, Long>();
+		this.workerCounts.add(counts);
+		return counts;
+	});
+
+	private final Queue<File> runs = new ConcurrentLinkedQueue<File>();
+	private final AtomicInteger runCounter = new AtomicInteger();
+	private final AtomicInteger spilledRuns = new AtomicInteger();
+
+	/** Receives term counts in term order. */
+	private interface TermCountSink {
+		void accept(final String term, final long count) throws IOException;
+	}
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param scratchParent Directory in which scratch directory for the runs gets created.
+	 * @param spillThreshold Max number of distinct terms one worker holds in memory before spilling them.
+	 * @throws IOException When scratch directory can't be created.
+	 */
+	public SpillingTermCounter(final Path scratchParent, final int spillThreshold) throws IOException {
+		Preconditions.checkArgument(spillThreshold > 0, "spillThreshold must be positive.");
+		this.scratchDirectory = Files.createTempDirectory(scratchParent, "tfc-spill").toFile();
+		this.spillThreshold = spillThreshold;
+	}
+
+	/**
+	 * Adds partial term counts to the counts of the calling worker thread, spilling them if threshold is exceeded.
+	 *
+	 * @param counts Partial term counts.
+	 * @throws IOException When spilling fails.
+	 */
+	public void add(final Map<String, Long> counts) throws IOException {
+		final Map<String, Long> local = this.localCounts.get();
+		counts.forEach((term, count) -> local.merge(term, count, Long::sum));
+		if (local.size() > this.spillThreshold) {
+			this.spill(local);
+		}
+	}
+
+	/**
+	 * Returns number of runs spilled so far.
+	 *
+	 * @return Number of runs.
+	 */
+	public int getSpilledRuns() {
+		return this.spilledRuns.get();
+	}
+
+	/**
+	 * Spills counts still held by the workers, merges all the runs into the output file and deletes scratch files.
+	 * Must be called once all the workers are finished.
+	 *
+	 * @param output File to write every term count into (one "term TAB count" line per term, sorted by term).
+	 * @throws IOException When spilling, merging or writing fails.
+	 */
+	public void finish(final Path output) throws IOException {
+		try {
+			for (final Map<String, Long> counts : this.workerCounts) {
+				this.spill(counts);
+			}
+
+			// Merge in several passes, if there are too many runs to keep open at once
+			final List<File> pending = new LinkedList<File>(this.runs);
+			while (pending.size() > MAX_MERGE_FAN_IN) {
+				final List<File> batch = new LinkedList<File>();
+				while (batch.size() < MAX_MERGE_FAN_IN) {
+					batch.add(pending.remove(0));
+				}
+
+				final File merged = this.newRunFile();
+				try (final RunWriter writer = new RunWriter(merged)) {
+					mergeRuns(batch, writer::write);
+				}
+
+				batch.forEach(File::delete);
+				pending.add(merged);
+			}
+
+			try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(output.toFile()), StandardCharsets.UTF_8), STREAM_BUFFER_SIZE)) {
+				mergeRuns(pending, (term, count) -> {
+					writer.write(term);
+					writer.write('\t');
+					writer.write(Long.toString(count));
+					writer.write('\n');
+				});
+			}
+		} finally {
+			this.discard();
+		}
+	}
+
+	/**
+	 * Deletes scratch files without merging the runs, e.g. once the call counting terms fails. Must be called once all
+	 * the workers are finished, does nothing once scratch files are deleted.
+	 *
+	 * @throws IOException When scratch files can't be deleted.
+	 */
+	public void discard() throws IOException {
+		FileUtils.deleteDirectory(this.scratchDirectory);
+	}
+
+	/** Writes given counts to a new run sorted by term and clears them. */
+	private void spill(final Map<String, Long> counts) throws IOException {
+		if (counts.isEmpty()) {
+			return;
+		}
+
+		final String[] terms = counts.keySet().toArray(new String[counts.size()]);
+		Arrays.sort(terms);
+
+		final File run = this.newRunFile();
+		try (final RunWriter writer = new RunWriter(run)) {
+			for (final String term : terms) {
+				writer.write(term, counts.get(term));
+			}
+		}
+
+		counts.clear();
+		this.runs.add(run);
+		this.spilledRuns.incrementAndGet();
+	}
+
+	private File newRunFile() {
+		return new File(this.scratchDirectory, String.format("run-%d.bin", this.runCounter.getAndIncrement()));
+	}
+
+	/** Merges sorted runs, passing every distinct term with its total count to the sink in term order. */
+	private static void mergeRuns(final List<File> runFiles, final TermCountSink sink) throws IOException {
+		final PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(
+				Math.max(1, runFiles.size()), (r1, r2) -> r1.getTerm().compareTo(r2.getTerm()));
+		final List<RunReader> readers = new LinkedList<RunReader>();
+		try {
+			for (final File runFile : runFiles) {
+				final RunReader reader = new RunReader(runFile);
+				readers.add(reader);
+				if (reader.advance()) {
+					heads.add(reader);
+				}
+			}
+
+			while (!heads.isEmpty()) {
+				final RunReader first = heads.poll();
+				final String term = first.getTerm();
+				long count = first.getCount();
+				if (first.advance()) {
+					heads.add(first);
+				}
+
+				// Sum up the same term coming from other runs
+				while (!heads.isEmpty() && heads.peek().getTerm().equals(term)) {
+					final RunReader other = heads.poll();
+					count += other.getCount();
+					if (other.advance()) {
+						heads.add(other);
+					}
+				}
+
+				sink.accept(term, count);
+			}
+		} finally {
+			for (final RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/** Writes one run: "term length, term UTF-8 bytes, count" entries, followed by the end marker. */
+	private static class RunWriter implements Closeable {
+
+		private final DataOutputStream stream;
+
+		private RunWriter(final File file) throws IOException {
+			this.stream = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file), STREAM_BUFFER_SIZE));
+		}
+
+		private void write(final String term, final long count) throws IOException {
+			final byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+			this.stream.writeInt(bytes.length);
+			this.stream.write(bytes);
+			this.stream.writeLong(count);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.stream.writeInt(-1); // End of run marker
+			this.stream.close();
+		}
+	}
+
+	/** Reads one run entry by entry. */
+	private static class RunReader implements Closeable {
+
+		private final DataInputStream stream;
+		private String term;
+		private long count;
+
+		private RunReader(final File file) throws IOException {
+			this.stream = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE));
+		}
+
+		/** Reads next entry, returns false once the run is over. */
+		private boolean advance() throws IOException {
+			final int length = this.stream.readInt();
+			if (length < 0) {
+				return false;
+			}
+
+			final byte[] bytes = new byte[length];
+			this.stream.readFully(bytes);
+			this.term = new String(bytes, StandardCharsets.UTF_8);
+			this.count = this.stream.readLong();
+			return true;
+		}
+
+		private String getTerm() {
+			return this.term;
+		}
+
+		private long getCount() {
+			return this.count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.stream.close();
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Getter;
+
+/**
+ * Every term count stored as primitive open-addressed map from TermDictionary ID to count.
+ * Counts sharing the same dictionary are merged by adding IDs and counts of the smaller map into the larger one, term
+ * strings are only looked up when the counts are read through the Map interface (i.e. at output time). Map holds only
+ * the terms counted by itself, so counts of one chunk of work take memory (and merging time) by the distinct terms of
+ * the chunk, rather than by the whole vocabulary.
+ *
+ * @author Taras Basiuk
+ */
+public class TermCounts extends AbstractMap<String, Long> {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	// Slots are kept at most half used, so probing stays short
+	private static final int MAX_LOAD_DIVISOR = 2;
+
+	// Multiplier spreading consecutive IDs over the slots (golden ratio, as in Fibonacci hashing)
+	private static final int ID_HASH_MULTIPLIER = 0x9E3779B9;
+
+	// Slot holding no ID
+	private static final int EMPTY = -1;
+
+	@Getter private final TermDictionary dictionary;
+
+	// ID and count of every used slot, count of a removed term is zero (slot stays used until the map grows)
+	private int[] ids;
+	private long[] counts;
+	private int usedSlots;
+	private int size;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param dictionary TermDictionary assigning IDs to the terms.
+	 */
+	public TermCounts(final TermDictionary dictionary) {
+		this.dictionary = Preconditions.checkNotNull(dictionary, "dictionary must not be null.");
+		this.allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Records one more occurrence of the term.
+	 *
+	 * @param term Term which occurred.
+	 */
+	public void increment(final String term) {
+		this.add(this.dictionary.intern(term), 1);
+	}
+
+	/**
+	 * Adds other counts sharing the same dictionary to these ones.
+	 *
+	 * @param other TermCounts to add.
+	 */
+	public void addAll(final TermCounts other) {
+		Preconditions.checkArgument(this.dictionary == other.dictionary, "TermCounts must share the dictionary.");
+		for (int slot = 0; slot < other.ids.length; slot++) {
+			if (other.ids[slot] != EMPTY && other.counts[slot] != 0) {
+				this.add(other.ids[slot], other.counts[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Returns capacity (number of slots of the underlying arrays).
+	 *
+	 * @return Capacity.
+	 */
+	public int capacity() {
+		return this.ids.length;
+	}
+
+	/**
+	 * Copies every non-zero count with its term into given arrays, at the same index of both, without creating an
+	 * entry for every count.
+	 *
+	 * @param terms Array to copy the terms into, at least size() long.
+	 * @param termCounts Array to copy the counts into, at least size() long.
+	 * @return Number of copied counts.
+	 */
+	int copyTo(final String[] terms, final long[] termCounts) {
+		int copied = 0;
+		for (int slot = 0; slot < this.ids.length; slot++) {
+			if (this.ids[slot] != EMPTY && this.counts[slot] != 0) {
+				terms[copied] = this.dictionary.term(this.ids[slot]);
+				termCounts[copied++] = this.counts[slot];
+			}
+		}
+
+		return copied;
+	}
+
+	@Override
+	public Long get(final Object term) {
+		final int id = this.dictionary.lookup(term);
+		if (id == TermDictionary.NO_ID) {
+			return null;
+		}
+
+		final int slot = this.find(id);
+		return this.ids[slot] == id && this.counts[slot] != 0 ? this.counts[slot] : null;
+	}
+
+	@Override
+	public boolean containsKey(final Object term) {
+		return this.get(term) != null;
+	}
+
+	@Override
+	public Long put(final String term, final Long count) {
+		Preconditions.checkArgument(count != null && count != 0, "Only non-zero counts can be stored.");
+		final int id = this.dictionary.intern(term);
+		final int slot = this.find(id);
+		final Long previous = this.ids[slot] == id && this.counts[slot] != 0 ? this.counts[slot] : null;
+		this.add(id, previous != null ? count - previous : count);
+		return previous;
+	}
+
+	@Override
+	public Long remove(final Object term) {
+		final Long previous = this.get(term);
+		if (previous != null) {
+			this.counts[this.find(this.dictionary.lookup(term))] = 0;
+			this.size--;
+		}
+
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Long>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Long>>() {
+			@Override
+			public Iterator<Map.Entry<String, Long>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return TermCounts.this.size();
+			}
+		};
+	}
+
+	/** Adds given count to the count of given ID. */
+	private void add(final int id, final long count) {
+		int slot = this.find(id);
+		if (this.ids[slot] == EMPTY) {
+			if (MAX_LOAD_DIVISOR * (this.usedSlots + 1) > this.ids.length) {
+				this.grow();
+				slot = this.find(id);
+			}
+
+			this.ids[slot] = id;
+			this.usedSlots++;
+		}
+
+		final long previous = this.counts[slot];
+		this.counts[slot] = previous + count;
+		if (previous == 0) {
+			this.size++;
+		} else if (previous + count == 0) {
+			this.size--;
+		}
+	}
+
+	/** Returns slot of given ID, or the empty slot it would take. */
+	private int find(final int id) {
+		final int mask = this.ids.length - 1;
+		int slot = (id * ID_HASH_MULTIPLIER >>> Integer.numberOfLeadingZeros(mask)) & mask;
+		while (this.ids[slot] != EMPTY && this.ids[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/** Doubles the slots (if more than half of the used ones hold counts), leaving out removed terms. */
+	private void grow() {
+		final int[] oldIds = this.ids;
+		final long[] oldCounts = this.counts;
+		this.allocate(MAX_LOAD_DIVISOR * this.size >= this.usedSlots ? 2 * oldIds.length : oldIds.length);
+		for (int slot = 0; slot < oldIds.length; slot++) {
+			if (oldIds[slot] != EMPTY && oldCounts[slot] != 0) {
+				final int newSlot = this.find(oldIds[slot]);
+				this.ids[newSlot] = oldIds[slot];
+				this.counts[newSlot] = oldCounts[slot];
+				this.usedSlots++;
+			}
+		}
+	}
+
+	private void allocate(final int capacity) {
+		this.ids = new int[capacity];
+		Arrays.fill(this.ids, EMPTY);
+		this.counts = new long[capacity];
+		this.usedSlots = 0;
+	}
+
+	/** Iterates over non-zero counts, materializing their terms. */
+	private class EntryIterator implements Iterator<Map.Entry<String, Long>> {
+
+		private int nextSlot = this.findNonZero(0);
+
+		@Override
+		public boolean hasNext() {
+			return this.nextSlot < ids.length;
+		}
+
+		@Override
+		public Map.Entry<String, Long> next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			final int slot = this.nextSlot;
+			this.nextSlot = this.findNonZero(slot + 1);
+			return new AbstractMap.SimpleImmutableEntry<String, Long>(dictionary.term(ids[slot]), counts[slot]);
+		}
+
+		private int findNonZero(final int from) {
+			int slot = from;
+			while (slot < ids.length && (ids[slot] == EMPTY || counts[slot] == 0)) {
+				slot++;
+			}
+
+			return slot;
+		}
+	}
+}
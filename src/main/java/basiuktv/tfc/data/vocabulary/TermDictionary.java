@@ -0,0 +1,83 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent dictionary assigning every distinct term a dense integer ID (0, 1, 2, ...) on first sight.
+ * Lets all the workers share one copy of every term and count terms in primitive arrays indexed by ID.
+ *
+ * @author Taras Basiuk
+ */
+public class TermDictionary {
+
+	/** ID returned for the terms which are not in the dictionary. */
+	public static final int NO_ID = -1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	// Terms by their ID, only ever appended to (under the lock) and replaced by larger copy when full
+	private volatile String[] terms = new String[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * Returns ID of the term, assigning the next one if the term is seen for the first time.
+	 *
+	 * @param term Term to look up.
+	 * @return ID of the term.
+	 */
+	public int intern(final String term) {
+		final Integer id = this.ids.get(term);
+		if (id != null) {
+			return id;
+		}
+
+		synchronized (this) {
+			final Integer racedId = this.ids.get(term);
+			if (racedId != null) {
+				return racedId; // Another worker assigned it meanwhile
+			}
+
+			if (this.size == this.terms.length) {
+				this.terms = Arrays.copyOf(this.terms, 2 * this.size);
+			}
+
+			// Term is stored before its ID is published, so whoever sees the ID also sees the term
+			this.terms[this.size] = term;
+			this.ids.put(term, this.size);
+			return this.size++;
+		}
+	}
+
+	/**
+	 * Returns ID of the term without assigning one.
+	 *
+	 * @param term Term to look up.
+	 * @return ID of the term or NO_ID if the term was never interned.
+	 */
+	public int lookup(final Object term) {
+		final Integer id = this.ids.get(term);
+		return id != null ? id : NO_ID;
+	}
+
+	/**
+	 * Returns the term with given ID.
+	 *
+	 * @param id ID returned by intern.
+	 * @return Term.
+	 */
+	public String term(final int id) {
+		return this.terms[id];
+	}
+
+	/**
+	 * Returns number of distinct terms in the dictionary.
+	 *
+	 * @return Number of terms.
+	 */
+	public int size() {
+		return this.ids.size();
+	}
+}
@@ -0,0 +1,345 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Streams every term count into an output channel, one line per term, sorted either by count or by term.
+ *
+ * Terms are copied into a plain array, with their counts into a primitive array indexed the same way, and sorted by
+ * term without comparing strings scattered around the heap: a few leading chars of every term are packed with its
+ * index into a primitive key, keys are sorted by parallel sort and terms with equal keys are sorted the same way by
+ * their next chars (most significant digit first radix sort). Order by count sorts one more primitive array, of keys
+ * packing (descending) count with index of the term, so terms with equal count stay sorted by term.
+ *
+ * Lines are encoded as UTF-8 straight into a buffer of the channel, no String holding the whole report (or any of
+ * its lines) is ever built. Off-heap counts are streamed in term order right from their own sort.
+ *
+ * @author Taras Basiuk
+ */
+public class VocabularyReport {
+
+	/** Format of the report lines. */
+	public enum Format {
+		/** "term TAB count" lines. */
+		TSV,
+		/** {"term":"...","count":N} lines. */
+		JSON_LINES
+	}
+
+	/** Order of the report lines. */
+	public enum Order {
+		/** Highest count first, equal counts sorted by term. */
+		COUNT,
+		/** Sorted by term. */
+		TERM
+	}
+
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	// Key of order by count is (max count - count) in high bits and index of the term in low bits
+	private static final int INDEX_BITS = 31;
+	private static final long MAX_PACKED_COUNT = (1L << (Long.SIZE - 1 - INDEX_BITS)) - 1;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+	// Chars of the terms packed into one key of order by term, and max number of terms sorted without keys
+	private static final int KEY_CHARS = 2;
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	private static final int HEX_RADIX = 16;
+
+	private final Format format;
+	private final Order order;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param format Format of the report lines.
+	 * @param order Order of the report lines.
+	 */
+	public VocabularyReport(final Format format, final Order order) {
+		this.format = Preconditions.checkNotNull(format, "format must not be null.");
+		this.order = Preconditions.checkNotNull(order, "order must not be null.");
+	}
+
+	/**
+	 * Writes every term count into the channel. Channel is not closed.
+	 *
+	 * @param counts Every term count.
+	 * @param channel Channel to write into.
+	 * @return Number of terms written.
+	 * @throws IOException When writing fails.
+	 */
+	public int write(final Map<String, Long> counts, final WritableByteChannel channel) throws IOException {
+		final LineWriter writer = new LineWriter(channel);
+		int written = 0;
+		if (this.order == Order.TERM && counts instanceof OffHeapTermCounts) {
+			final Iterator<Map.Entry<String, Long>> it = ((OffHeapTermCounts) counts).sortedIterator();
+			while (it.hasNext()) {
+				final Map.Entry<String, Long> e = it.next();
+				this.writeLine(writer, e.getKey(), e.getValue());
+				written++;
+			}
+		} else {
+			final String[] terms = new String[counts.size()];
+			final long[] termCounts = new long[terms.length];
+			if (counts instanceof TermCounts) {
+				written = ((TermCounts) counts).copyTo(terms, termCounts);
+			} else {
+				for (final Map.Entry<String, Long> e : counts.entrySet()) {
+					terms[written] = e.getKey();
+					termCounts[written++] = e.getValue();
+				}
+			}
+
+			new TermSorter(terms, termCounts).sort(0, terms.length, 0);
+
+			if (this.order == Order.COUNT) {
+				for (final long key : sortByCount(termCounts)) {
+					final int i = (int) (key & INDEX_MASK);
+					this.writeLine(writer, terms[i], termCounts[i]);
+				}
+			} else {
+				for (int i = 0; i < terms.length; i++) {
+					this.writeLine(writer, terms[i], termCounts[i]);
+				}
+			}
+		}
+
+		writer.flush();
+		return written;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s sorted by %s", this.format, this.order);
+	}
+
+	/** Returns keys of order by count, index of the term is kept in the low bits of every key. */
+	private static long[] sortByCount(final long[] counts) {
+		// Counts too high to be packed are replaced by their rank (found the same way for equal counts)
+		final long max = Arrays.stream(counts).max().orElse(0);
+		final long[] ranks;
+		if (max > MAX_PACKED_COUNT) {
+			ranks = counts.clone();
+			Arrays.parallelSort(ranks);
+		} else {
+			ranks = null;
+		}
+
+		final long[] keys = new long[counts.length];
+		Arrays.parallelSetAll(keys, i -> {
+			final long count = ranks != null ? Arrays.binarySearch(ranks, counts[i]) : counts[i];
+			return (MAX_PACKED_COUNT - count) << INDEX_BITS | i;
+		});
+
+		Arrays.parallelSort(keys);
+		return keys;
+	}
+
+	/** Sorts terms (together with their counts) by term, as String.compareTo does. */
+	private static class TermSorter {
+
+		private final String[] terms;
+		private final long[] counts;
+
+		// Scratch arrays shared by every level of the sort, every level only uses its own range
+		private final long[] keys;
+		private final String[] sortedTerms;
+		private final long[] sortedCounts;
+
+		TermSorter(final String[] terms, final long[] counts) {
+			this.terms = terms;
+			this.counts = counts;
+			this.keys = new long[terms.length];
+			this.sortedTerms = new String[terms.length];
+			this.sortedCounts = new long[terms.length];
+		}
+
+		/** Sorts given range of terms, which share the first depth chars. */
+		void sort(final int from, final int to, final int depth) {
+			if (to - from <= INSERTION_SORT_THRESHOLD) {
+				this.insertionSort(from, to);
+				return;
+			}
+
+			int maxLength = 0;
+			for (int i = from; i < to; i++) {
+				this.keys[i] = chars(this.terms[i], depth) << INDEX_BITS | (i - from);
+				maxLength = Math.max(maxLength, this.terms[i].length());
+			}
+
+			Arrays.parallelSort(this.keys, from, to);
+			for (int i = from; i < to; i++) {
+				final int source = from + (int) (this.keys[i] & INDEX_MASK);
+				this.sortedTerms[i] = this.terms[source];
+				this.sortedCounts[i] = this.counts[source];
+			}
+
+			System.arraycopy(this.sortedTerms, from, this.terms, from, to - from);
+			System.arraycopy(this.sortedCounts, from, this.counts, from, to - from);
+
+			// Terms with the same chars are sorted by the following ones, if any term of the range has more chars
+			int groupStart = from;
+			for (int i = from + 1; i <= to; i++) {
+				if (i == to || chars(this.terms[i], depth) != chars(this.terms[groupStart], depth)) {
+					if (maxLength > depth + KEY_CHARS) {
+						this.sort(groupStart, i, depth + KEY_CHARS);
+					} else {
+						this.insertionSort(groupStart, i); // Only terms differing by trailing \0 chars are left
+					}
+
+					groupStart = i;
+				}
+			}
+		}
+
+		private void insertionSort(final int from, final int to) {
+			for (int i = from + 1; i < to; i++) {
+				final String term = this.terms[i];
+				final long count = this.counts[i];
+				int j = i - 1;
+				while (j >= from && this.terms[j].compareTo(term) > 0) {
+					this.terms[j + 1] = this.terms[j];
+					this.counts[j + 1] = this.counts[j];
+					j--;
+				}
+
+				this.terms[j + 1] = term;
+				this.counts[j + 1] = count;
+			}
+		}
+
+		/** Packs KEY_CHARS chars of the term starting at given index, missing chars are packed as \0. */
+		private static long chars(final String term, final int start) {
+			long chars = 0;
+			for (int i = start; i < start + KEY_CHARS; i++) {
+				chars = chars << Character.SIZE | (i < term.length() ? term.charAt(i) : 0);
+			}
+
+			return chars;
+		}
+	}
+
+	private void writeLine(final LineWriter writer, final String term, final long count) throws IOException {
+		if (this.format == Format.TSV) {
+			writer.write(term);
+			writer.write('\t');
+		} else {
+			writer.write("{\"term\":\"");
+			for (int i = 0; i < term.length(); i++) {
+				final char c = term.charAt(i);
+				if (c == '"' || c == '\\') {
+					writer.write('\\');
+					writer.write(c);
+				} else if (c < ' ') {
+					writer.write("\\u00");
+					writer.write(Character.forDigit(c >> 4, HEX_RADIX));
+					writer.write(Character.forDigit(c & 0xF, HEX_RADIX));
+				} else {
+					writer.write(c);
+				}
+			}
+
+			writer.write("\",\"count\":");
+		}
+
+		writer.write(count);
+		if (this.format == Format.JSON_LINES) {
+			writer.write('}');
+		}
+
+		writer.write('\n');
+	}
+
+	/**
+	 * Encodes lines as UTF-8 straight into a buffer, written into the channel whenever it's full. Unpaired surrogate
+	 * chars (which can't be encoded) are written as '?'.
+	 */
+	private static class LineWriter {
+
+		// Max number of bytes encoding one char (or surrogate pair) and max number of digits of a long
+		private static final int MAX_CHAR_BYTES = 4;
+		private static final int MAX_LONG_DIGITS = 19;
+		private static final int DECIMAL_RADIX = 10;
+
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+		private final char[] digits = new char[MAX_LONG_DIGITS];
+
+		LineWriter(final WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		void write(final String s) throws IOException {
+			for (int i = 0; i < s.length(); i++) {
+				final char c = s.charAt(i);
+				if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+					this.writeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+				} else {
+					this.write(c);
+				}
+			}
+		}
+
+		void write(final char c) throws IOException {
+			this.writeCodePoint(Character.isSurrogate(c) ? '?' : c);
+		}
+
+		void write(final long value) throws IOException {
+			if (value < 0) {
+				this.write(Long.toString(value));
+				return;
+			}
+
+			// Digits are written without creating a String for every count
+			long remaining = value;
+			int start = this.digits.length;
+			do {
+				this.digits[--start] = (char) ('0' + remaining % DECIMAL_RADIX);
+				remaining /= DECIMAL_RADIX;
+			} while (remaining > 0);
+
+			for (int i = start; i < this.digits.length; i++) {
+				this.write(this.digits[i]);
+			}
+		}
+
+		void flush() throws IOException {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+
+			this.buffer.clear();
+		}
+
+		private void writeCodePoint(final int codePoint) throws IOException {
+			if (this.buffer.remaining() < MAX_CHAR_BYTES) {
+				this.flush();
+			}
+
+			if (codePoint < 0x80) {
+				this.buffer.put((byte) codePoint);
+			} else if (codePoint < 0x800) {
+				this.buffer.put((byte) (0xC0 | codePoint >> 6));
+				this.buffer.put((byte) (0x80 | codePoint & 0x3F));
+			} else if (codePoint < 0x10000) {
+				this.buffer.put((byte) (0xE0 | codePoint >> 12));
+				this.buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				this.buffer.put((byte) (0x80 | codePoint & 0x3F));
+			} else {
+				this.buffer.put((byte) (0xF0 | codePoint >> 18));
+				this.buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				this.buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				this.buffer.put((byte) (0x80 | codePoint & 0x3F));
+			}
+		}
+	}
+}
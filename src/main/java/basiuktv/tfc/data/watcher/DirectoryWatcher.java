@@ -0,0 +1,293 @@
+package basiuktv.tfc.data.watcher;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.InputDataProcessor;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.util.Logging;
+import lombok.Getter;
+
+/**
+ * Watches input directory for created or modified files and keeps running combined ProcessingResult of their content.
+ *
+ * Files are assumed to be append-only (as log files are), so only newly appended part of a modified file is processed,
+ * up to its last term separator. The rest (a term which may still be being written) is processed along with the next
+ * appended part. File which shrunk since it was last processed, or was replaced by another file (one with a different
+ * file key, where the file system has them), is assumed to be rotated and is processed again from the start. Deleted
+ * file is forgotten, so a file created later under the same name is processed from the start too. Either way, the
+ * running result only counts the current content of the files, as it's rebuilt from the result of every file once the
+ * previous content of one of them no longer counts.
+ *
+ * @author Taras Basiuk
+ */
+public class DirectoryWatcher {
+
+	/** Default time in milliseconds a file has to stay quiet after the last event before it gets processed. */
+	public static final long DEFAULT_DEBOUNCE_MS = 500;
+
+	private static final String WATCH_STAGE_FRIENDLY_NAME = "Watched files processing";
+
+	private final FileSystemWorkAppraiser appraiser;
+	private final InputDataProcessor processor;
+	private final long debounceMillis;
+
+	// Length, identity and result of every file processed so far
+	private final Map<Path, ProcessedFile> processedFiles = new HashMap<Path, ProcessedFile>();
+
+	// Set once the running result counts content of a file which was replaced or deleted since, so it's rebuilt
+	private boolean runningResultStale;
+
+	// Time of the last event for every file which is waiting to be processed
+	private final Map<Path, Long> pendingFiles = new HashMap<Path, Long>();
+
+	@Getter private ProcessingResult runningResult = new ProcessingResult(0, 0, Optional.empty());
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param appraiser FileSystemWorkAppraiser to split created or modified files with.
+	 * @param processor InputDataProcessor to process created or modified files with.
+	 * @param debounceMillis Time a file has to stay quiet after the last event before it gets processed.
+	 */
+	public DirectoryWatcher(
+			final FileSystemWorkAppraiser appraiser, final InputDataProcessor processor, final long debounceMillis) {
+		Preconditions.checkArgument(debounceMillis >= 0, "debounceMillis must not be negative.");
+		this.appraiser = Preconditions.checkNotNull(appraiser, "appraiser must not be null.");
+		this.processor = Preconditions.checkNotNull(processor, "processor must not be null.");
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Processes files currently present in the input directory, then keeps watching it for created or modified files
+	 * until the calling thread is interrupted.
+	 *
+	 * @param options Parsed command line arguments (input directory must be present).
+	 * @param reportIntervalMillis Interval between two consecutive reports of the running result.
+	 * @param reporter Consumer of the running result, called once per report interval.
+	 * @throws IOException When watching input directory fails.
+	 * @throws InterruptedException When the calling thread is interrupted.
+	 */
+	public void watch(
+			final CLIOptions options,
+			final long reportIntervalMillis,
+			final Consumer<ProcessingResult> reporter) throws IOException, InterruptedException {
+		Preconditions.checkArgument(options.getDirectory().isPresent(), "Input directory is required to be watched.");
+		Preconditions.checkArgument(reportIntervalMillis > 0, "reportIntervalMillis must be positive.");
+
+		final Path directory = new File(options.getDirectory().get()).toPath();
+		final FileFilter filter = new WildcardFileFilter(options.getWildcard().orElse("*"));
+
+		try (final WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			// Register before the initial scan, so files created in between are not missed
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+			FileSystemWorkAppraiser.collectInputFiles(options).stream()
+					.forEach(f -> this.pendingFiles.put(f.toPath(), 0L));
+			this.processPendingFiles(options, Long.MAX_VALUE);
+			reporter.accept(this.runningResult);
+
+			long nextReportTime = System.currentTimeMillis() + reportIntervalMillis;
+			while (true) {
+				final long pollTimeout = Math.max(1, Math.min(
+						this.debounceMillis, nextReportTime - System.currentTimeMillis()));
+				final WatchKey key = watchService.poll(pollTimeout, TimeUnit.MILLISECONDS); // may be interrupted
+				if (key != null) {
+					this.recordEvents(key, directory, filter);
+					if (!key.reset()) {
+						throw new IllegalStateException(String.format("%s is no longer accessible.", directory));
+					}
+				}
+
+				this.processPendingFiles(options, System.currentTimeMillis() - this.debounceMillis);
+				if (System.currentTimeMillis() >= nextReportTime) {
+					reporter.accept(this.runningResult);
+					nextReportTime += reportIntervalMillis;
+				}
+			}
+		}
+	}
+
+	/** Records files created or modified within watched directory as pending to be processed, forgets deleted ones. */
+	private void recordEvents(final WatchKey key, final Path directory, final FileFilter filter) {
+		final long now = System.currentTimeMillis();
+		for (final WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// Some events were lost, so reconsider every matching file in the directory
+				final File[] files = directory.toFile().listFiles(filter);
+				if (files != null) {
+					for (final File f : files) {
+						this.pendingFiles.put(f.toPath(), now);
+					}
+				}
+
+				continue;
+			}
+
+			final Path path = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				if (this.processedFiles.remove(path) != null) {
+					this.runningResultStale = true;
+				}
+
+				this.pendingFiles.remove(path);
+			} else if (filter.accept(path.toFile()) && path.toFile().isFile()) {
+				this.pendingFiles.put(path, now); // Bursts of events on the same file only move its last event time
+			}
+		}
+	}
+
+	/**
+	 * Processes pending files which stayed quiet since given time and folds their result into the running one.
+	 *
+	 * @param options Parsed command line arguments.
+	 * @param quietSince Only files with the last event before this time are processed.
+	 */
+	private void processPendingFiles(final CLIOptions options, final long quietSince) {
+		final List<InputDataFetcher> work = new LinkedList<InputDataFetcher>();
+		final Map<Path, ProcessedFile> newFiles = new HashMap<Path, ProcessedFile>();
+
+		final Iterator<Map.Entry<Path, Long>> it = this.pendingFiles.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Path, Long> pending = it.next();
+			if (pending.getValue() > quietSince) {
+				continue; // Still receiving events, wait for the burst to end
+			}
+
+			it.remove();
+			final File f = pending.getKey().toFile();
+			final BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(pending.getKey(), BasicFileAttributes.class);
+			} catch (final IOException e) {
+				continue; // Deleted since the event
+			}
+
+			if (!attributes.isRegularFile()) {
+				continue; // Replaced by a directory since the event
+			}
+
+			final long length = attributes.size();
+			ProcessedFile processed = this.processedFiles.get(pending.getKey());
+			if (processed != null && (length < processed.length
+					|| (processed.fileKey != null && !processed.fileKey.equals(attributes.fileKey())))) {
+				// File was truncated, rotated or replaced, its previous content no longer counts
+				this.processedFiles.remove(pending.getKey());
+				this.runningResultStale = true;
+				processed = null;
+			}
+
+			final long processedLength = processed == null ? 0 : processed.length;
+			try {
+				// Term which may still be being written at the end of the file is left for the next event
+				final long end = this.appraiser.findLastSeparatorEnd(f, processedLength, length);
+				if (end == processedLength) {
+					continue;
+				}
+
+				if (processedLength == 0 && !options.isSkipTypeCheck()) {
+					FileSystemWorkAppraiser.checkInputFileTypes(Collections.singletonList(f));
+				}
+
+				work.addAll(this.appraiser.appraiseFileRange(f, processedLength, end));
+				newFiles.put(pending.getKey(), new ProcessedFile(end, attributes.fileKey(),
+						processed == null ? new ProcessingResult(0, 0, Optional.empty()) : processed.result));
+			} catch (final RuntimeException e) {
+				Logging.logError(String.format("Appraising %s", f.getPath()), e);
+			}
+		}
+
+		if (!work.isEmpty()) {
+			this.processWork(options, work, newFiles);
+		}
+
+		// Running result is rebuilt from (copies of) results of the files, as combining modifies the results combined
+		if (this.runningResultStale) {
+			ProcessingResult result = new ProcessingResult(0, 0, Optional.empty());
+			for (final ProcessedFile processed : this.processedFiles.values()) {
+				result = ProcessingResult.combineResults(result, ProcessingResult.copyResult(processed.result));
+			}
+
+			this.runningResult = result;
+			this.runningResultStale = false;
+		}
+	}
+
+	/**
+	 * Processes given work on given files and folds its result into the result of every file and into the running one.
+	 *
+	 * @param options Parsed command line arguments.
+	 * @param work Work on the newly appended (or not yet processed) part of the files.
+	 * @param newFiles Files the work is on, along with their result before the work.
+	 */
+	private void processWork(
+			final CLIOptions options, final List<InputDataFetcher> work, final Map<Path, ProcessedFile> newFiles) {
+		// Result of every chunk is copied, as the processor combines it into its own result too
+		final Map<Path, ProcessingResult> fileResults = new HashMap<Path, ProcessingResult>();
+		final long startTime = System.currentTimeMillis();
+		try {
+			final ProcessingResult result = this.processor.processWork(work, options.toQuery(), (fetcher, partial) -> {
+				synchronized (fileResults) {
+					fileResults.merge(Paths.get(fetcher.getSource()), ProcessingResult.copyResult(partial),
+							ProcessingResult::combineResults);
+				}
+			});
+
+			this.runningResult = ProcessingResult.combineResults(this.runningResult, result);
+		} catch (final IOException | RuntimeException e) {
+			Logging.logError(WATCH_STAGE_FRIENDLY_NAME, e);
+			return;
+		}
+
+		newFiles.forEach((path, processed) -> this.processedFiles.put(path, new ProcessedFile(
+				processed.length, processed.fileKey, fileResults.containsKey(path)
+						? ProcessingResult.combineResults(processed.result, fileResults.get(path))
+						: processed.result)));
+
+		if (options.isVerbose()) {
+			Logging.logLatency(WATCH_STAGE_FRIENDLY_NAME, startTime);
+			Logging.logInfo(work.toString());
+		}
+	}
+
+	/** Length of a file processed so far, its file key (null, if the file system has none) and its result. */
+	private static class ProcessedFile {
+
+		private final long length;
+		private final Object fileKey;
+		private final ProcessingResult result;
+
+		private ProcessedFile(final long length, final Object fileKey, final ProcessingResult result) {
+			this.length = length;
+			this.fileKey = fileKey;
+			this.result = result;
+		}
+	}
+}
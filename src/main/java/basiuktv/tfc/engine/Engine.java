@@ -0,0 +1,157 @@
+package basiuktv.tfc.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.appraiser.StreamWorkAppraiser;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.DeviceLimits;
+import basiuktv.tfc.data.processor.InputDataProcessor;
+import basiuktv.tfc.data.processor.MemoryBudget;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.processor.ThreadPoolExecutorProcessor;
+import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+import basiuktv.tfc.text.TermFrequencyCalculator;
+
+import lombok.Getter;
+
+/**
+ * Calculates term occurrence frequency within English UTF-8 text, to be embedded into other programs (the command
+ * line program is a thin wrapper over it).
+ *
+ * Engine owns a long-lived thread pool and reusable buffers (see ThreadPoolExecutorProcessor), so running a Query
+ * only costs setting up what's specific to the query (logged as "Query setup" latency by verbose queries). Several
+ * queries may run at the same time, sharing the workers. Engine should be closed once no longer needed.
+ *
+ * @author Taras Basiuk
+ */
+public class Engine implements InputDataProcessor, Closeable {
+
+	private final ThreadPoolExecutorProcessor processor;
+
+	// Max number of workers calculating terms at the same time, every one may hold a chunk of work in memory
+	private final int maxWorkers;
+
+	// Language-specific calculator is stateless, so every query shares one
+	@Getter private final TermFrequencyCalculator calculator = new EnglishTermFrequencyCalculator();
+
+	/** Constructs engine without read-ahead. */
+	public Engine() {
+		this(0);
+	}
+
+	/**
+	 * Constructs engine reading chunks of work ahead of the workers by dedicated I/O threads.
+	 *
+	 * @param readAhead Max number of chunks fetched, but not yet taken by a worker (0 for no read-ahead).
+	 */
+	public Engine(final int readAhead) {
+		this(readAhead, DeviceLimits.unlimited());
+	}
+
+	/**
+	 * Constructs engine reading chunks of work ahead of the workers by dedicated I/O threads, limiting number of
+	 * chunks read from the same device at the same time.
+	 *
+	 * @param readAhead Max number of chunks fetched, but not yet taken by a worker (0 for no read-ahead).
+	 * @param deviceLimits Limits of chunks read from the same device at the same time.
+	 */
+	public Engine(final int readAhead, final DeviceLimits deviceLimits) {
+		this(readAhead, deviceLimits,
+				ThreadPoolExecutorProcessor.DEFAULT_MIN_WORKERS, ThreadPoolExecutorProcessor.DEFAULT_MAX_WORKERS);
+	}
+
+	/**
+	 * Constructs engine reading chunks of work ahead of the workers by dedicated I/O threads, limiting number of
+	 * chunks read from the same device at the same time and tuning number of workers within given bounds.
+	 *
+	 * @param readAhead Max number of chunks fetched, but not yet taken by a worker (0 for no read-ahead).
+	 * @param deviceLimits Limits of chunks read from the same device at the same time.
+	 * @param minWorkers Min number of workers calculating terms at the same time.
+	 * @param maxWorkers Max number of workers calculating terms at the same time (same as min for a fixed number).
+	 */
+	public Engine(final int readAhead, final DeviceLimits deviceLimits, final int minWorkers, final int maxWorkers) {
+		this.processor = new ThreadPoolExecutorProcessor(readAhead, deviceLimits, minWorkers, maxWorkers);
+		this.maxWorkers = maxWorkers;
+	}
+
+	/**
+	 * Returns size of one chunk of work for given query, shrunk to fit into its memory budget (if any).
+	 *
+	 * @param query Query to be run.
+	 * @return Size of one chunk of work in bytes.
+	 */
+	public int getWorkSize(final Query query) {
+		return query.getMemoryBudget().isPresent()
+				? new MemoryBudget(query.getMemoryBudget().get()).fitWorkSize(
+						this.maxWorkers,
+						query.isEveryTermCountRequested(),
+						FileSystemWorkAppraiser.DEFAULT_DESIRED_WORK_SIZE)
+				: FileSystemWorkAppraiser.DEFAULT_DESIRED_WORK_SIZE;
+	}
+
+	/**
+	 * Returns new appraiser splitting input files into chunks of work for given query.
+	 *
+	 * @param query Query to be run.
+	 * @return FileSystemWorkAppraiser
+	 */
+	public FileSystemWorkAppraiser newAppraiser(final Query query) {
+		return new FileSystemWorkAppraiser(
+				this.getWorkSize(query), FileSystemWorkAppraiser.DEFAULT_MAX_NEXT_SEPARATOR_DISTANCE, this.calculator);
+	}
+
+	/**
+	 * Runs given query over given files.
+	 *
+	 * @param query Query to run.
+	 * @param files Input files.
+	 * @return Combined ProcessingResult.
+	 * @throws IOException when problems with fetching data occur.
+	 */
+	public ProcessingResult run(final Query query, final List<File> files) throws IOException {
+		return this.processWork(this.newAppraiser(query).appraiseWork(files), query);
+	}
+
+	/**
+	 * Runs given query over given stream, processed as it arrives. Stream is not closed.
+	 *
+	 * @param query Query to run.
+	 * @param in Stream of input text.
+	 * @param source Name of the stream, used to describe work.
+	 * @return Combined ProcessingResult.
+	 * @throws IOException when problems with reading the stream occur.
+	 */
+	public ProcessingResult run(final Query query, final InputStream in, final String source) throws IOException {
+		return this.processWork(
+				new StreamWorkAppraiser(in, source, this.getWorkSize(query), this.calculator), query);
+	}
+
+	@Override
+	public ProcessingResult processWork(
+			final List<InputDataFetcher> work,
+			final Query query,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+		return this.processor.processWork(work, query, partialResultListener);
+	}
+
+	@Override
+	public ProcessingResult processWork(
+			final Iterator<InputDataFetcher> work,
+			final Query query,
+			final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+		return this.processor.processWork(work, query, partialResultListener);
+	}
+
+	/** Shuts the worker threads down. */
+	@Override
+	public void close() {
+		this.processor.close();
+	}
+}
@@ -0,0 +1,203 @@
+package basiuktv.tfc.engine;
+
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+
+import basiuktv.tfc.data.vocabulary.SpillingTermCounter;
+import basiuktv.tfc.text.TermPattern;
+
+import lombok.Getter;
+
+/**
+ * Immutable description of what to calculate over input data: the term in question and what else is counted along
+ * with it. Built with Query.builder, either by code embedding the Engine or from command line arguments (see
+ * CLIOptions.toQuery). Being immutable, one Query may be run by several threads at the same time.
+ *
+ * @author Taras Basiuk
+ */
+public final class Query {
+
+	@Getter private final String term;
+	@Getter private final TermPattern termPattern;
+	@Getter private final boolean verbose;
+	@Getter private final boolean matchCountRequested;
+	@Getter private final boolean distinctEstimateRequested;
+	@Getter private final Optional<Long> memoryBudget;
+	@Getter private final Optional<String> vocabularyOutput;
+	@Getter private final int spillThreshold;
+	@Getter private final String spillDirectory;
+	@Getter private final boolean offHeapVocabulary;
+	@Getter private final Optional<String> journal;
+	@Getter private final Optional<Long> deadline;
+	@Getter private final Optional<String> positionsOutput;
+
+	private final boolean everyTermCount;
+
+	/** Builder of Query, every setting but the term has a default. */
+	public static class Builder {
+
+		private final String term;
+		private boolean verbose = false;
+		private boolean everyTermCount = false;
+		private boolean matchCount = false;
+		private boolean distinctEstimate = false;
+		private Optional<Long> memoryBudget = Optional.empty();
+		private Optional<String> vocabularyOutput = Optional.empty();
+		private int spillThreshold = SpillingTermCounter.DEFAULT_SPILL_THRESHOLD;
+		private String spillDirectory = System.getProperty("java.io.tmpdir");
+		private boolean offHeapVocabulary = false;
+		private Optional<String> journal = Optional.empty();
+		private Optional<Long> deadline = Optional.empty();
+		private Optional<String> positionsOutput = Optional.empty();
+
+		private Builder(final String term) {
+			this.term = Preconditions.checkNotNull(term, "term must not be null.");
+		}
+
+		/** Logs latency of every stage and chunk of work. */
+		public Builder verbose(final boolean verbose) {
+			this.verbose = verbose;
+			return this;
+		}
+
+		/** Counts every term (not only the one in question), returned within the result. */
+		public Builder everyTermCount(final boolean everyTermCount) {
+			this.everyTermCount = everyTermCount;
+			return this;
+		}
+
+		/** Counts every distinct term matching the term pattern. */
+		public Builder matchCount(final boolean matchCount) {
+			this.matchCount = matchCount;
+			return this;
+		}
+
+		/** Estimates number of distinct terms with a HyperLogLog sketch. */
+		public Builder distinctEstimate(final boolean distinctEstimate) {
+			this.distinctEstimate = distinctEstimate;
+			return this;
+		}
+
+		/** Limits estimated memory used by data being processed at the same time to given number of bytes. */
+		public Builder memoryBudget(final long bytes) {
+			Preconditions.checkArgument(bytes > 0, "memoryBudget must be positive.");
+			this.memoryBudget = Optional.of(bytes);
+			return this;
+		}
+
+		/** Writes exact count of every term (sorted by term) into given file. */
+		public Builder vocabularyOutput(final String file) {
+			this.vocabularyOutput = Optional.of(Preconditions.checkNotNull(file, "vocabularyOutput must not be null."));
+			return this;
+		}
+
+		/** Sets number of distinct terms one worker holds in memory before spilling them to disk. */
+		public Builder spillThreshold(final int spillThreshold) {
+			Preconditions.checkArgument(spillThreshold > 0, "spillThreshold must be positive.");
+			this.spillThreshold = spillThreshold;
+			return this;
+		}
+
+		/** Sets directory partial term counts (and match positions) are spilled into. */
+		public Builder spillDirectory(final String spillDirectory) {
+			this.spillDirectory = Preconditions.checkNotNull(spillDirectory, "spillDirectory must not be null.");
+			return this;
+		}
+
+		/** Keeps every term count outside of the Java heap. */
+		public Builder offHeapVocabulary(final boolean offHeapVocabulary) {
+			this.offHeapVocabulary = offHeapVocabulary;
+			return this;
+		}
+
+		/** Records completed work into given journal file, so an interrupted run can be resumed. */
+		public Builder journal(final String file) {
+			this.journal = Optional.of(Preconditions.checkNotNull(file, "journal must not be null."));
+			return this;
+		}
+
+		/**
+		 * Stops processing given number of milliseconds after it starts, returning result of the work completed by
+		 * then (see WorkCoverage), rather than waiting for the rest of the work.
+		 */
+		public Builder deadline(final long millis) {
+			Preconditions.checkArgument(millis > 0, "deadline must be positive.");
+			this.deadline = Optional.of(millis);
+			return this;
+		}
+
+		/**
+		 * Writes byte position of every match into given file (one "source TAB byte offset" line per match, in source
+		 * and offset order), found in the same pass the frequency is calculated. Work replayed from a journal has no
+		 * positions, and identical copies of the work have them under their first copy only.
+		 */
+		public Builder positionsOutput(final String file) {
+			this.positionsOutput = Optional.of(Preconditions.checkNotNull(file, "positionsOutput must not be null."));
+			return this;
+		}
+
+		/**
+		 * Builds the Query, compiling its term pattern.
+		 *
+		 * @return Query
+		 */
+		public Query build() {
+			return new Query(this);
+		}
+	}
+
+	private Query(final Builder builder) {
+		this.term = builder.term;
+		this.termPattern = new TermPattern(builder.term); // Compiled once, matched against every term
+		this.verbose = builder.verbose;
+		this.everyTermCount = builder.everyTermCount;
+		this.matchCountRequested = builder.matchCount;
+		this.distinctEstimateRequested = builder.distinctEstimate;
+		this.memoryBudget = builder.memoryBudget;
+		this.vocabularyOutput = builder.vocabularyOutput;
+		this.spillThreshold = builder.spillThreshold;
+		this.spillDirectory = builder.spillDirectory;
+		this.offHeapVocabulary = builder.offHeapVocabulary;
+		this.journal = builder.journal;
+		this.deadline = builder.deadline;
+		this.positionsOutput = builder.positionsOutput;
+	}
+
+	/**
+	 * Starts building a Query.
+	 *
+	 * @param term Term to calculate occurrence frequency for, may be a pattern (see TermPattern).
+	 * @return Builder
+	 */
+	public static Builder builder(final String term) {
+		return new Builder(term);
+	}
+
+	/**
+	 * Tells whether occurrences of every term (not only the one in question) need to be recorded.
+	 *
+	 * @return True if every term count is either requested or written into vocabulary output.
+	 */
+	public boolean isEveryTermCountRequested() {
+		return this.everyTermCount || this.vocabularyOutput.isPresent();
+	}
+
+	/**
+	 * Tells whether every term count is spilled to disk while processing.
+	 *
+	 * @return True if vocabulary output is requested and every term count is not kept off-heap.
+	 */
+	public boolean isVocabularySpilled() {
+		return this.vocabularyOutput.isPresent() && !this.offHeapVocabulary;
+	}
+
+	/**
+	 * Tells whether every term count is accumulated outside of the Java heap.
+	 *
+	 * @return True if every term count is requested and kept off-heap.
+	 */
+	public boolean isVocabularyOffHeap() {
+		return this.isEveryTermCountRequested() && this.offHeapVocabulary;
+	}
+}
@@ -2,6 +2,7 @@ package basiuktv.tfc.launcher;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 import org.apache.commons.cli.CommandLine;
@@ -11,6 +12,12 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import basiuktv.tfc.data.processor.DeviceLimits;
+import basiuktv.tfc.data.processor.ThreadPoolExecutorProcessor;
+import basiuktv.tfc.data.vocabulary.SpillingTermCounter;
+import basiuktv.tfc.data.vocabulary.VocabularyReport;
+import basiuktv.tfc.engine.Query;
+
 import lombok.Getter;
 
 /**
@@ -56,6 +63,88 @@ public class CLIOptions {
 	/** Long flag for the argument expected by the program to be verbose. */
 	public static final String VERBOSE_LONG = "verbose";
 
+	/**
+	 * Short flag for the argument expected by the program to keep watching input directory and to periodically print
+	 * the updated occurrence frequency.
+	 */
+	public static final String WATCH_SHORT = "m";
+	/**
+	 * Long flag for the argument expected by the program to keep watching input directory and to periodically print
+	 * the updated occurrence frequency.
+	 */
+	public static final String WATCH_LONG = "watch";
+
+	/** Short flag for the argument limiting estimated memory used by work being processed at the same time. */
+	public static final String MEMORY_BUDGET_SHORT = "b";
+	/** Long flag for the argument limiting estimated memory used by work being processed at the same time. */
+	public static final String MEMORY_BUDGET_LONG = "memory-budget";
+
+	/** Short flag for the argument expected by the program to read input text from the standard input. */
+	public static final String STDIN_SHORT = "i";
+	/** Long flag for the argument expected by the program to read input text from the standard input. */
+	public static final String STDIN_LONG = "stdin";
+
+	/** Short flag for the argument indicating the file to write exact count of every term into. */
+	public static final String VOCABULARY_OUTPUT_SHORT = "o";
+	/** Long flag for the argument indicating the file to write exact count of every term into. */
+	public static final String VOCABULARY_OUTPUT_LONG = "vocabulary-output";
+
+	/** Long flag for the argument indicating number of distinct terms a worker holds before spilling them to disk. */
+	public static final String SPILL_THRESHOLD_LONG = "spill-threshold";
+
+	/** Long flag for the argument indicating the directory to spill partial term counts into. */
+	public static final String SPILL_DIRECTORY_LONG = "spill-directory";
+
+	/** Long flag for the argument expected by the program to print count of every term matching the term pattern. */
+	public static final String MATCH_COUNTS_LONG = "match-counts";
+
+	/** Long flag for the argument indicating number of chunks of work read ahead while workers calculate terms. */
+	public static final String READ_AHEAD_LONG = "read-ahead";
+
+	/** Long flag for the argument indicating max number of chunks read from the same device at the same time. */
+	public static final String DEVICE_CONCURRENCY_LONG = "device-concurrency";
+
+	/** Long flag for the argument indicating number (or bounds of number) of workers calculating terms. */
+	public static final String WORKERS_LONG = "workers";
+
+	/** Long flag for the argument expected by the program to keep every term count outside of the Java heap. */
+	public static final String OFF_HEAP_VOCABULARY_LONG = "off-heap-vocabulary";
+
+	/** Short flag for the argument indicating the journal file letting an interrupted run resume. */
+	public static final String JOURNAL_SHORT = "j";
+	/** Long flag for the argument indicating the journal file letting an interrupted run resume. */
+	public static final String JOURNAL_LONG = "journal";
+
+	/** Long flag for the argument expected by the program to estimate frequency from a sample within given error. */
+	public static final String APPROXIMATE_LONG = "approximate";
+
+	/** Long flag for the argument indicating number of documents with the highest TF-IDF of the term to print. */
+	public static final String TOP_DOCUMENTS_LONG = "top-documents";
+
+	/** Long flag for the argument expected by the program to print estimated number of distinct terms. */
+	public static final String DISTINCT_ESTIMATE_LONG = "distinct-estimate";
+
+	/** Long flag for the argument expected by the program to process byte-identical input files once. */
+	public static final String DEDUP_LONG = "dedup";
+
+	/** Long flag for the argument indicating seconds after which a partial result is printed. */
+	public static final String DEADLINE_LONG = "deadline";
+
+	/** Long flag for the argument indicating format of every term count printed when verbose. */
+	public static final String REPORT_FORMAT_LONG = "report-format";
+
+	/** Long flag for the argument indicating order of every term count printed when verbose. */
+	public static final String REPORT_ORDER_LONG = "report-order";
+
+	/** Long flag for the argument indicating the file to write byte position of every match into. */
+	public static final String POSITIONS_LONG = "positions";
+
+	private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	private static final double PERCENT = 100;
+
+	private static final double MILLIS_PER_SECOND = 1000;
+
 	private static final String HELP_MESSAGE_USAGE_PREFIX = "java -jar tfc.jar";
 	private static final String HELP_MESSAGE_USAGE_SUFIX = " -t TERM [OPTIONS] [FILES]";
 	private static final String HELP_MESSAGE_HEADER =
@@ -64,8 +153,10 @@ public class CLIOptions {
 	private static final String USAGE_EXAMPLES = String.format(
 			"\nUsage examples :"
 			+ "\n%1$s -%2$s term input_file1.txt input_file2.txt"
-			+ "\n%1$s -%2$s term -%3$s input -%4$s *.txt",
-			HELP_MESSAGE_USAGE_PREFIX, TERM_SHORT, DIRECTORY_SHORT, WILDCARD_SHORT);
+			+ "\n%1$s -%2$s term -%3$s input -%4$s *.txt"
+			+ "\nzcat input.txt.gz | %1$s -%2$s term -%5$s"
+			+ "\njava -XX:SharedArchiveFile=tfc.jsa -jar tfc.jar -%2$s term input_file1.txt",
+			HELP_MESSAGE_USAGE_PREFIX, TERM_SHORT, DIRECTORY_SHORT, WILDCARD_SHORT, STDIN_SHORT);
 
 	private static final Options OPTIONS = new Options();
 
@@ -74,7 +165,8 @@ public class CLIOptions {
 		OPTIONS.addOption(HELP_SHORT, HELP_LONG, false,
 				"Print this message.");
 		OPTIONS.addOption(TERM_SHORT, TERM_LONG, true,
-				"Term to calculate occurence frequency for.");
+				"Term to calculate occurence frequency for. May be a pattern where * matches any characters and ?"
+				+ " matches one character (e.g. timeout* for all the terms starting with timeout).");
 		OPTIONS.addOption(DIRECTORY_SHORT, DIRECTORY_LONG, true,
 				"File system directory containing input files (sub-directories will not be inspected).");
 		OPTIONS.addOption(WILDCARD_SHORT, WILDCARD_LONG, true,
@@ -83,6 +175,65 @@ public class CLIOptions {
 				"Skip input files type check (by content probing). Use at your own risk.");
 		OPTIONS.addOption(VERBOSE_SHORT, VERBOSE_LONG, false,
 				"Request additional information regarding program execution.");
+		OPTIONS.addOption(WATCH_SHORT, WATCH_LONG, true,
+				"Keep watching input directory for created or modified files and print updated frequency every <arg>"
+				+ " seconds.");
+		OPTIONS.addOption(MEMORY_BUDGET_SHORT, MEMORY_BUDGET_LONG, true,
+				"Limit estimated memory used by data being processed at the same time to <arg> megabytes.");
+		OPTIONS.addOption(STDIN_SHORT, STDIN_LONG, false,
+				"Read input text from the standard input (processed as it arrives) instead of files.");
+		OPTIONS.addOption(VOCABULARY_OUTPUT_SHORT, VOCABULARY_OUTPUT_LONG, true,
+				"Write exact count of every term into <arg> file (sorted by term), spilling partial counts to disk"
+				+ " so vocabulary size is limited by disk rather than memory.");
+		OPTIONS.addOption(null, SPILL_THRESHOLD_LONG, true,
+				"Number of distinct terms one worker holds in memory before spilling them to disk (with -"
+				+ VOCABULARY_OUTPUT_SHORT + "). Default: " + SpillingTermCounter.DEFAULT_SPILL_THRESHOLD + ".");
+		OPTIONS.addOption(null, SPILL_DIRECTORY_LONG, true,
+				"Directory to spill partial term counts (with -" + VOCABULARY_OUTPUT_SHORT + ") and match positions"
+				+ " (with --" + POSITIONS_LONG + ") into. Default: system temporary directory.");
+		OPTIONS.addOption(null, MATCH_COUNTS_LONG, false,
+				"Also print count of every distinct term matching the term pattern.");
+		OPTIONS.addOption(null, READ_AHEAD_LONG, true,
+				"Read up to <arg> chunks of input ahead by as many dedicated I/O threads, so reading overlaps"
+				+ " calculating terms by one thread per core (useful for slow disks or network storage).");
+		OPTIONS.addOption(null, DEVICE_CONCURRENCY_LONG, true,
+				"Read at most N chunks of input from the same device (mount) at the same time. <arg> is a comma"
+				+ " separated list of N (for every device) and PATH=N (for the device holding PATH), e.g."
+				+ " 4,/mnt/nfs=16.");
+		OPTIONS.addOption(null, WORKERS_LONG, true,
+				"Calculate terms by <arg> workers, either N (fixed number) or MIN-MAX (tuned by throughput while"
+				+ " running, starting from one per available core). Default: from 1 to two per available core.");
+		OPTIONS.addOption(null, OFF_HEAP_VOCABULARY_LONG, false,
+				"Keep every term count (with -" + VERBOSE_SHORT + " or -" + VOCABULARY_OUTPUT_SHORT + ") outside of the"
+				+ " Java heap, so garbage collection doesn't slow down with large vocabularies. With -"
+				+ VOCABULARY_OUTPUT_SHORT + ", counts are written from memory instead of being spilled to disk.");
+		OPTIONS.addOption(JOURNAL_SHORT, JOURNAL_LONG, true,
+				"Record completed work into <arg> journal file, so an interrupted run started again with the same"
+				+ " journal only processes work which wasn't completed (or whose input file changed) before.");
+		OPTIONS.addOption(null, APPROXIMATE_LONG, true,
+				"Estimate frequency from a random sample of the input files (stratified by file), sampling until it's"
+				+ " known within <arg> percent (at 95% confidence), and print it with its error bounds.");
+		OPTIONS.addOption(null, TOP_DOCUMENTS_LONG, true,
+				"Also print <arg> input files with the highest TF-IDF of the term (with their term match and all"
+				+ " terms counts), calculated in the same pass.");
+		OPTIONS.addOption(null, DISTINCT_ESTIMATE_LONG, false,
+				"Also print estimated number of distinct terms (with its error bounds), using a few KB of memory"
+				+ " no matter how many distinct terms there are.");
+		OPTIONS.addOption(null, DEDUP_LONG, false,
+				"Process byte-identical input files (found by their size and content hash) once, counting their terms"
+				+ " once per copy.");
+		OPTIONS.addOption(null, DEADLINE_LONG, true,
+				"Stop processing <arg> seconds after it starts and print the result of the work completed by then,"
+				+ " labeled as partial with the share of input bytes it covers.");
+		OPTIONS.addOption(null, REPORT_FORMAT_LONG, true,
+				"Print every term count (with -" + VERBOSE_SHORT + ") as <arg> lines, either tsv (term TAB count,"
+				+ " default) or json-lines ({\"term\":...,\"count\":...}).");
+		OPTIONS.addOption(null, REPORT_ORDER_LONG, true,
+				"Print every term count (with -" + VERBOSE_SHORT + ") sorted by <arg>, either count (highest first,"
+				+ " default) or term.");
+		OPTIONS.addOption(null, POSITIONS_LONG, true,
+				"Also write byte position of every match into <arg> file (one \"file TAB byte offset\" line per"
+				+ " match, in file and offset order), found in the same pass the frequency is calculated.");
 	}}
 
 	@Getter private boolean helpRequest;
@@ -91,8 +242,32 @@ public class CLIOptions {
 	@Getter private Optional<String> wildcard;
 	@Getter private boolean skipTypeCheck;
 	@Getter private boolean verbose;
+	@Getter private Optional<Integer> watchInterval;
+	@Getter private Optional<Long> memoryBudget;
+	@Getter private boolean stdin;
+	@Getter private Optional<String> vocabularyOutput;
+	@Getter private int spillThreshold;
+	@Getter private String spillDirectory;
+	@Getter private boolean matchCountRequested;
+	@Getter private int readAhead;
+	@Getter private DeviceLimits deviceLimits;
+	@Getter private int minWorkers;
+	@Getter private int maxWorkers;
+	@Getter private boolean offHeapVocabulary;
+	@Getter private Optional<String> journal;
+	@Getter private Optional<Double> approximation;
+	@Getter private Optional<Integer> topDocuments;
+	@Getter private boolean distinctEstimateRequested;
+	@Getter private boolean deduplicationRequested;
+	@Getter private Optional<Long> deadline;
+	@Getter private VocabularyReport.Format reportFormat;
+	@Getter private VocabularyReport.Order reportOrder;
+	@Getter private Optional<String> positionsOutput;
 	@Getter private List<String> additionalFiles;
 
+	// Query described by the arguments, null if only help is requested
+	private Query query;
+
 	/**
 	 * Constructs CLIOptions instance.
 	 *
@@ -106,6 +281,27 @@ public class CLIOptions {
 		this.wildcard = Optional.empty();
 		this.skipTypeCheck = false;
 		this.verbose = false;
+		this.watchInterval = Optional.empty();
+		this.memoryBudget = Optional.empty();
+		this.stdin = false;
+		this.vocabularyOutput = Optional.empty();
+		this.spillThreshold = SpillingTermCounter.DEFAULT_SPILL_THRESHOLD;
+		this.spillDirectory = System.getProperty("java.io.tmpdir");
+		this.matchCountRequested = false;
+		this.readAhead = 0;
+		this.deviceLimits = DeviceLimits.unlimited();
+		this.minWorkers = ThreadPoolExecutorProcessor.DEFAULT_MIN_WORKERS;
+		this.maxWorkers = ThreadPoolExecutorProcessor.DEFAULT_MAX_WORKERS;
+		this.offHeapVocabulary = false;
+		this.journal = Optional.empty();
+		this.approximation = Optional.empty();
+		this.topDocuments = Optional.empty();
+		this.distinctEstimateRequested = false;
+		this.deduplicationRequested = false;
+		this.deadline = Optional.empty();
+		this.reportFormat = VocabularyReport.Format.TSV;
+		this.reportOrder = VocabularyReport.Order.COUNT;
+		this.positionsOutput = Optional.empty();
 		this.additionalFiles = new LinkedList<String>();
 
 		final CommandLineParser parser = new DefaultParser();
@@ -122,9 +318,16 @@ public class CLIOptions {
 
 		this.term = line.getOptionValue(TERM_SHORT);
 
-		if (!line.hasOption(DIRECTORY_SHORT) && !line.hasOption(WILDCARD_SHORT) && line.getArgList().isEmpty()) {
+		this.stdin = line.hasOption(STDIN_SHORT);
+		final boolean fileInput =
+				line.hasOption(DIRECTORY_SHORT) || line.hasOption(WILDCARD_SHORT) || !line.getArgList().isEmpty();
+		if (!this.stdin && !fileInput) {
 			throw new IllegalArgumentException(
-					"At least one of either directory or wildcard or file(s) needed as input.\n");
+					"At least one of either directory or wildcard or file(s) or stdin needed as input.\n");
+		}
+
+		if (this.stdin && fileInput) {
+			throw new IllegalArgumentException("Standard input can't be combined with other input sources.");
 		}
 
 		if (line.hasOption(DIRECTORY_SHORT)) {
@@ -142,8 +345,263 @@ public class CLIOptions {
 		this.skipTypeCheck = line.hasOption(SKIP_TYPE_CHECK_SHORT);
 		this.verbose = line.hasOption(VERBOSE_SHORT);
 
+		if (line.hasOption(WATCH_SHORT)) {
+			if (!line.hasOption(DIRECTORY_SHORT)) {
+				throw new IllegalArgumentException("Directory argument is needed to watch for input files.");
+			}
+
+			this.watchInterval = Optional.of(parsePositiveInteger(line.getOptionValue(WATCH_SHORT), WATCH_LONG));
+		}
+
+		if (line.hasOption(MEMORY_BUDGET_SHORT)) {
+			this.memoryBudget = Optional.of(BYTES_PER_MEGABYTE
+					* parsePositiveInteger(line.getOptionValue(MEMORY_BUDGET_SHORT), MEMORY_BUDGET_LONG));
+		}
+
+		if (line.hasOption(VOCABULARY_OUTPUT_SHORT)) {
+			if (this.watchInterval.isPresent()) {
+				throw new IllegalArgumentException("Vocabulary output can't be written while watching directory.");
+			}
+
+			this.vocabularyOutput = Optional.of(line.getOptionValue(VOCABULARY_OUTPUT_SHORT));
+		}
+
+		if (line.hasOption(SPILL_THRESHOLD_LONG)) {
+			this.spillThreshold = parsePositiveInteger(line.getOptionValue(SPILL_THRESHOLD_LONG), SPILL_THRESHOLD_LONG);
+		}
+
+		if (line.hasOption(SPILL_DIRECTORY_LONG)) {
+			this.spillDirectory = line.getOptionValue(SPILL_DIRECTORY_LONG);
+		}
+
+		this.matchCountRequested = line.hasOption(MATCH_COUNTS_LONG);
+
+		if (line.hasOption(READ_AHEAD_LONG)) {
+			this.readAhead = parsePositiveInteger(line.getOptionValue(READ_AHEAD_LONG), READ_AHEAD_LONG);
+		}
+
+		if (line.hasOption(DEVICE_CONCURRENCY_LONG)) {
+			this.deviceLimits = DeviceLimits.parse(line.getOptionValue(DEVICE_CONCURRENCY_LONG));
+		}
+
+		if (line.hasOption(WORKERS_LONG)) {
+			final String[] bounds = line.getOptionValue(WORKERS_LONG).split("-", 2);
+			this.minWorkers = parsePositiveInteger(bounds[0], WORKERS_LONG);
+			this.maxWorkers = bounds.length > 1 ? parsePositiveInteger(bounds[1], WORKERS_LONG) : this.minWorkers;
+			if (this.maxWorkers < this.minWorkers) {
+				throw new IllegalArgumentException(
+						String.format("%s argument must not have max lower than min.", WORKERS_LONG));
+			}
+		}
+
+		this.offHeapVocabulary = line.hasOption(OFF_HEAP_VOCABULARY_LONG);
+
+		if (line.hasOption(JOURNAL_SHORT)) {
+			if (this.stdin || this.watchInterval.isPresent()) {
+				throw new IllegalArgumentException(
+						"Journal can't be used with standard input or while watching directory.");
+			}
+
+			this.journal = Optional.of(line.getOptionValue(JOURNAL_SHORT));
+		}
+
+		if (line.hasOption(APPROXIMATE_LONG)) {
+			if (this.stdin || this.watchInterval.isPresent() || this.vocabularyOutput.isPresent()) {
+				throw new IllegalArgumentException(
+						"Frequency can't be approximated for standard input, while watching directory"
+						+ " or with exact vocabulary output.");
+			}
+
+			this.approximation = Optional.of(
+					parsePositiveDouble(line.getOptionValue(APPROXIMATE_LONG), APPROXIMATE_LONG) / PERCENT);
+		}
+
+		if (line.hasOption(TOP_DOCUMENTS_LONG)) {
+			if (this.stdin || this.watchInterval.isPresent() || this.approximation.isPresent()) {
+				throw new IllegalArgumentException(
+						"Top documents can't be ranked for standard input, while watching directory or approximating.");
+			}
+
+			this.topDocuments = Optional.of(
+					parsePositiveInteger(line.getOptionValue(TOP_DOCUMENTS_LONG), TOP_DOCUMENTS_LONG));
+		}
+
+		this.distinctEstimateRequested = line.hasOption(DISTINCT_ESTIMATE_LONG);
+		if (this.distinctEstimateRequested && this.approximation.isPresent()) {
+			throw new IllegalArgumentException("Distinct terms can't be estimated while approximating.");
+		}
+
+		this.deduplicationRequested = line.hasOption(DEDUP_LONG);
+		if (this.deduplicationRequested && (this.stdin || this.watchInterval.isPresent()
+				|| this.approximation.isPresent() || this.topDocuments.isPresent())) {
+			throw new IllegalArgumentException("Input files can't be deduplicated for standard input, while watching"
+					+ " directory, approximating or ranking top documents.");
+		}
+
+		if (line.hasOption(DEADLINE_LONG)) {
+			if (this.stdin || this.watchInterval.isPresent() || this.approximation.isPresent()) {
+				throw new IllegalArgumentException(
+						"Deadline can't be used with standard input, while watching directory or approximating.");
+			}
+
+			this.deadline = Optional.of(Math.max(1, Math.round(MILLIS_PER_SECOND
+					* parsePositiveDouble(line.getOptionValue(DEADLINE_LONG), DEADLINE_LONG))));
+		}
+
+		if ((line.hasOption(REPORT_FORMAT_LONG) || line.hasOption(REPORT_ORDER_LONG)) && !this.verbose) {
+			throw new IllegalArgumentException("Report format and order only apply to every term count printed when"
+					+ " verbose.");
+		}
+
+		if (line.hasOption(REPORT_FORMAT_LONG)) {
+			this.reportFormat = parseChoice(
+					line.getOptionValue(REPORT_FORMAT_LONG), VocabularyReport.Format.class, REPORT_FORMAT_LONG);
+		}
+
+		if (line.hasOption(REPORT_ORDER_LONG)) {
+			this.reportOrder = parseChoice(
+					line.getOptionValue(REPORT_ORDER_LONG), VocabularyReport.Order.class, REPORT_ORDER_LONG);
+		}
+
+		if (line.hasOption(POSITIONS_LONG)) {
+			if (this.watchInterval.isPresent() || this.journal.isPresent() || this.approximation.isPresent()
+					|| this.deduplicationRequested) {
+				throw new IllegalArgumentException("Match positions can't be written while watching directory, with"
+						+ " journal, approximating or deduplicating input files.");
+			}
+
+			this.positionsOutput = Optional.of(line.getOptionValue(POSITIONS_LONG));
+		}
+
 		// Unparsed arguments at this point assumed to be explicitly provided input files.
 		this.additionalFiles = line.getArgList();
+
+		this.query = this.buildQuery();
+	}
+
+	/**
+	 * Returns the Query described by command line arguments.
+	 *
+	 * @return Query to be run by the Engine.
+	 */
+	public Query toQuery() {
+		return this.query;
+	}
+
+	/** Builds the Query, compiling its term pattern once. */
+	private Query buildQuery() {
+		final Query.Builder builder = Query.builder(this.term)
+				.verbose(this.verbose)
+				.everyTermCount(this.verbose)
+				.matchCount(this.matchCountRequested)
+				.distinctEstimate(this.distinctEstimateRequested)
+				.spillThreshold(this.spillThreshold)
+				.spillDirectory(this.spillDirectory)
+				.offHeapVocabulary(this.offHeapVocabulary);
+		this.memoryBudget.ifPresent(builder::memoryBudget);
+		this.vocabularyOutput.ifPresent(builder::vocabularyOutput);
+		this.journal.ifPresent(builder::journal);
+		this.deadline.ifPresent(builder::deadline);
+		this.positionsOutput.ifPresent(builder::positionsOutput);
+		return builder.build();
+	}
+
+	/**
+	 * Tells whether occurrences of every term (not only the one in question) need to be recorded.
+	 *
+	 * @return True if every term count is either printed (verbose) or written into vocabulary output.
+	 */
+	public boolean isEveryTermCountRequested() {
+		return this.verbose || this.vocabularyOutput.isPresent();
+	}
+
+	/**
+	 * Tells whether every term count is spilled to disk while processing.
+	 *
+	 * @return True if vocabulary output is requested and every term count is not kept off-heap.
+	 */
+	public boolean isVocabularySpilled() {
+		return this.vocabularyOutput.isPresent() && !this.offHeapVocabulary;
+	}
+
+	/**
+	 * Tells whether every term count is accumulated outside of the Java heap.
+	 *
+	 * @return True if every term count is requested and kept off-heap.
+	 */
+	public boolean isVocabularyOffHeap() {
+		return this.isEveryTermCountRequested() && this.offHeapVocabulary;
+	}
+
+	/**
+	 * Parses value of the argument which is expected to be a positive integer.
+	 *
+	 * @param value Value of the argument.
+	 * @param name Name of the argument (used in error message).
+	 * @return Parsed positive integer.
+	 * @throws IllegalArgumentException If value is not a positive integer.
+	 */
+	private static int parsePositiveInteger(final String value, final String name) {
+		try {
+			final int result = Integer.parseInt(value);
+			if (result > 0) {
+				return result;
+			}
+		} catch (final NumberFormatException e) {
+			// Fall through to the exception below
+		}
+
+		throw new IllegalArgumentException(String.format("%s argument must be a positive integer.", name));
+	}
+
+	/**
+	 * Parses value of the argument which is expected to be a positive number.
+	 *
+	 * @param value Value of the argument.
+	 * @param name Name of the argument (used in error message).
+	 * @return Parsed positive number.
+	 * @throws IllegalArgumentException If value is not a positive number.
+	 */
+	private static double parsePositiveDouble(final String value, final String name) {
+		try {
+			final double result = Double.parseDouble(value);
+			if (result > 0 && !Double.isInfinite(result)) {
+				return result;
+			}
+		} catch (final NumberFormatException e) {
+			// Fall through to the exception below
+		}
+
+		throw new IllegalArgumentException(String.format("%s argument must be a positive number.", name));
+	}
+
+	/**
+	 * Parses value of the argument which is expected to be one of the constants of an enum, written in lower case
+	 * with dashes instead of underscores (e.g. json-lines for JSON_LINES).
+	 *
+	 * @param value Value of the argument.
+	 * @param type Enum of the accepted values.
+	 * @param name Name of the argument (used in error message).
+	 * @return Parsed enum constant.
+	 * @throws IllegalArgumentException If value is not one of the accepted values.
+	 */
+	private static <E extends Enum<E>> E parseChoice(final String value, final Class<E> type, final String name) {
+		for (final E choice : type.getEnumConstants()) {
+			if (choiceName(choice).equals(value)) {
+				return choice;
+			}
+		}
+
+		final StringBuilder choices = new StringBuilder();
+		for (final E choice : type.getEnumConstants()) {
+			choices.append(choices.length() > 0 ? ", " : "").append(choiceName(choice));
+		}
+
+		throw new IllegalArgumentException(String.format("%s argument must be one of: %s.", name, choices));
+	}
+
+	private static String choiceName(final Enum<?> choice) {
+		return choice.name().toLowerCase(Locale.ROOT).replace('_', '-');
 	}
 
 	/** Prints the help message to the stdin. */
@@ -166,12 +624,51 @@ public class CLIOptions {
 				+ "Wildcard : %s\n"
 				+ "Skip file type check : %s\n"
 				+ "Be verbose : %s\n"
+				+ "Watch interval : %s\n"
+				+ "Memory budget : %s\n"
+				+ "Read stdin : %s\n"
+				+ "Vocabulary output : %s\n"
+				+ "Print match counts : %s\n"
+				+ "Read ahead : %s\n"
+				+ "Device concurrency : %s\n"
+				+ "Workers : %s\n"
+				+ "Off-heap vocabulary : %s\n"
+				+ "Journal : %s\n"
+				+ "Approximate within : %s\n"
+				+ "Top documents : %s\n"
+				+ "Estimate distinct terms : %s\n"
+				+ "Deduplicate input files : %s\n"
+				+ "Deadline : %s\n"
+				+ "Report : %s\n"
+				+ "Positions output : %s\n"
 				+ "Additional files : %s",
 				this.getTerm(),
 				this.getDirectory().orElse("NONE"),
 				this.getWildcard().orElse("NONE"),
 				this.isSkipTypeCheck(),
 				this.isVerbose(),
+				this.getWatchInterval().map(i -> i + " sec.").orElse("NONE"),
+				this.getMemoryBudget().map(b -> b / BYTES_PER_MEGABYTE + " MB").orElse("NONE"),
+				this.isStdin(),
+				this.getVocabularyOutput().map(o -> String.format("%s (spill threshold: %d terms, spill directory: %s)",
+						o, this.getSpillThreshold(), this.getSpillDirectory())).orElse("NONE"),
+				this.isMatchCountRequested(),
+				this.getReadAhead() > 0 ? this.getReadAhead() + " chunk(s)" : "NONE",
+				this.getDeviceLimits(),
+				this.getMinWorkers() < this.getMaxWorkers()
+						? this.getMinWorkers() + "-" + this.getMaxWorkers() + " (adaptive)"
+						: this.getMinWorkers(),
+				this.isOffHeapVocabulary(),
+				this.getJournal().orElse("NONE"),
+				this.getApproximation().map(a -> a * PERCENT + "%").orElse("NONE"),
+				this.getTopDocuments().map(Object::toString).orElse("NONE"),
+				this.isDistinctEstimateRequested(),
+				this.isDeduplicationRequested(),
+				this.getDeadline().map(d -> d + " ms").orElse("NONE"),
+				this.isVerbose()
+						? choiceName(this.getReportFormat()) + " sorted by " + choiceName(this.getReportOrder())
+						: "NONE",
+				this.getPositionsOutput().orElse("NONE"),
 				this.getAdditionalFiles().isEmpty() ? "NONE" : this.getAdditionalFiles());
 	}
 }
@@ -1,13 +1,7 @@
 package basiuktv.tfc.launcher;
 
 import java.io.IOException;
-import java.util.List;
 
-import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
-import basiuktv.tfc.data.fetchers.InputDataFetcher;
-import basiuktv.tfc.data.processor.ProcessingResult;
-import basiuktv.tfc.data.processor.ThreadPoolExecutorProcessor;
-import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
 import basiuktv.tfc.util.Logging;
 
 /**
@@ -15,34 +9,119 @@ import basiuktv.tfc.util.Logging;
  * UTF-8 text documents.
  *
  * usage: java -jar tfc.jar -t TERM [OPTIONS] [FILES]
- * -d,--input-directory arg     File system directory containing input files
- *                              (sub-directories will not be inspected).
- * -h,--help                    Print this message.
- * -s,--skip-file-type-check    Skip input files type check (by content
- *                              probing). Use at your own risk.
- * -t,--term arg                Term to calculate occurence frequency for.
- * -v,--verbose                 Request additional information regarding
- *                              program execution.
- * -w,--wildcard arg            File name wildcard to be used for input file
- *                              discovery in provided directory (or current
- *                              one).
+ *    --approximate arg            Estimate frequency from a random sample
+ *                                 of the input files (stratified by file),
+ *                                 sampling until it's known within arg
+ *                                 percent (at 95% confidence), and print it
+ *                                 with its error bounds.
+ * -b,--memory-budget arg          Limit estimated memory used by data being
+ *                                 processed at the same time to arg
+ *                                 megabytes.
+ * -d,--input-directory arg        File system directory containing input
+ *                                 files (sub-directories will not be
+ *                                 inspected).
+ *    --deadline arg               Stop processing arg seconds after it
+ *                                 starts and print the result of the work
+ *                                 completed by then, labeled as partial
+ *                                 with the share of input bytes it covers.
+ *    --dedup                      Process byte-identical input files (found
+ *                                 by their size and content hash) once,
+ *                                 counting their terms once per copy.
+ *    --device-concurrency arg     Read at most N chunks of input from the
+ *                                 same device (mount) at the same time.
+ *                                 arg is a comma separated list of N (for
+ *                                 every device) and PATH=N (for the device
+ *                                 holding PATH), e.g. 4,/mnt/nfs=16.
+ *    --distinct-estimate          Also print estimated number of distinct
+ *                                 terms (with its error bounds), using a
+ *                                 few KB of memory no matter how many
+ *                                 distinct terms there are.
+ * -h,--help                       Print this message.
+ * -i,--stdin                      Read input text from the standard input
+ *                                 (processed as it arrives) instead of
+ *                                 files.
+ * -j,--journal arg                Record completed work into arg journal
+ *                                 file, so an interrupted run started again
+ *                                 with the same journal only processes work
+ *                                 which wasn't completed (or whose input
+ *                                 file changed) before.
+ * -m,--watch arg                  Keep watching input directory for created
+ *                                 or modified files and print updated
+ *                                 frequency every arg seconds.
+ *    --match-counts               Also print count of every distinct term
+ *                                 matching the term pattern.
+ * -o,--vocabulary-output arg      Write exact count of every term into
+ *                                 arg file (sorted by term), spilling
+ *                                 partial counts to disk so vocabulary size
+ *                                 is limited by disk rather than memory.
+ *    --off-heap-vocabulary        Keep every term count (with -v or -o)
+ *                                 outside of the Java heap, so garbage
+ *                                 collection doesn't slow down with large
+ *                                 vocabularies. With -o, counts are written
+ *                                 from memory instead of being spilled to
+ *                                 disk.
+ *    --positions arg              Also write byte position of every match
+ *                                 into arg file (one "file TAB byte
+ *                                 offset" line per match, in file and
+ *                                 offset order), found in the same pass the
+ *                                 frequency is calculated.
+ *    --read-ahead arg             Read up to arg chunks of input ahead by
+ *                                 as many dedicated I/O threads, so reading
+ *                                 overlaps calculating terms by one thread
+ *                                 per core (useful for slow disks or
+ *                                 network storage).
+ *    --report-format arg          Print every term count (with -v) as arg
+ *                                 lines, either tsv (term TAB count,
+ *                                 default) or json-lines
+ *                                 ({"term":...,"count":...}).
+ *    --report-order arg           Print every term count (with -v) sorted
+ *                                 by arg, either count (highest first,
+ *                                 default) or term.
+ * -s,--skip-file-type-check       Skip input files type check (by content
+ *                                 probing). Use at your own risk.
+ *    --spill-directory arg        Directory to spill partial term counts
+ *                                 (with -o) and match positions (with
+ *                                 --positions) into. Default: system
+ *                                 temporary directory.
+ *    --spill-threshold arg        Number of distinct terms one worker holds
+ *                                 in memory before spilling them to disk
+ *                                 (with -o). Default: 1000000.
+ * -t,--term arg                   Term to calculate occurence frequency
+ *                                 for. May be a pattern where * matches any
+ *                                 characters and ? matches one character
+ *                                 (e.g. timeout* for all the terms starting
+ *                                 with timeout).
+ *    --top-documents arg          Also print arg input files with the
+ *                                 highest TF-IDF of the term (with their
+ *                                 term match and all terms counts),
+ *                                 calculated in the same pass.
+ * -v,--verbose                    Request additional information regarding
+ *                                 program execution.
+ * -w,--wildcard arg               File name wildcard to be used for input
+ *                                 file discovery in provided directory (or
+ *                                 current one).
+ *    --workers arg                Calculate terms by arg workers, either
+ *                                 N (fixed number) or MIN-MAX (tuned by
+ *                                 throughput while running, starting from
+ *                                 one per available core). Default: from 1
+ *                                 to two per available core.
  * 
  * Usage examples :
  * java -jar tfc.jar -t term input_file1.txt input_file2.txt
  * java -jar tfc.jar -t term -d input -w *.txt
+ * zcat input.txt.gz | java -jar tfc.jar -t term -i
+ * java -XX:SharedArchiveFile=tfc.jsa -jar tfc.jar -t term input_file1.txt
  * 
  * @author Taras Basiuk
  */
 public class Main {
 
 	private static final String INPUT_PARSING_STAGE_FRIENDLY_NAME = "CLI arguments parsing";
-	private static final String WORK_APPRAISING_STAGE_FRIENDLY_NAME = "Work appraising";
-	private static final String WORK_PROCESSING_STAGE_FRIENDLY_NAME = "Work processing";
 
 	public static void main(String[] args) throws IOException {
 
 		// Parse command line arguments
-		long startTime = System.currentTimeMillis();
+		final long startTime = System.currentTimeMillis();
 		CLIOptions options = null;
 		try {
 			options = new CLIOptions(args);
@@ -61,43 +140,9 @@ public class Main {
 		if (options.isVerbose()) {
 			Logging.logLatency(INPUT_PARSING_STAGE_FRIENDLY_NAME, startTime);
 			Logging.logInfo(options.toString());
-			startTime = System.currentTimeMillis();
 		}
 
-		// Appraise (prepare) work on input data
-		List<InputDataFetcher> work = null;
-		try {
-			work = new FileSystemWorkAppraiser(
-					FileSystemWorkAppraiser.DEFAULT_DESIRED_WORK_SIZE,
-					FileSystemWorkAppraiser.DEFAULT_MAX_NEXT_SEPARATOR_DISTANCE,
-					new EnglishTermFrequencyCalculator())
-				.appraiseWork(options);
-		} catch (final Exception e) {
-			Logging.logError(WORK_APPRAISING_STAGE_FRIENDLY_NAME, e);
-			return;
-		}
-
-		if (options.isVerbose()) {
-			Logging.logLatency(WORK_APPRAISING_STAGE_FRIENDLY_NAME, startTime);
-			Logging.logInfo(work.toString());
-			startTime = System.currentTimeMillis();
-		}
-
-		// Process work
-		ProcessingResult result = null;
-		try {
-			result = new ThreadPoolExecutorProcessor().processWork(work, options);
-		} catch (final Exception e) {
-			Logging.logError(WORK_PROCESSING_STAGE_FRIENDLY_NAME, e);
-			return;
-		}
-
-		if (options.isVerbose()) {
-			Logging.logLatency(WORK_PROCESSING_STAGE_FRIENDLY_NAME, startTime);
-			Logging.logInfo(result.getEveryTermCount().get().toString());
-		}
-
-		// Print result
-		System.out.println(String.format("%.10f", new Float(result.getTermMatchCount()) / result.getAllTermsCount()));
+		// Classes appraising and processing work are only loaded from here on
+		QueryLauncher.launch(options);
 	}
 }
@@ -0,0 +1,232 @@
+package basiuktv.tfc.launcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.appraiser.StreamWorkAppraiser;
+import basiuktv.tfc.data.documents.DocumentStatistics;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.processor.WorkCoverage;
+import basiuktv.tfc.data.sampling.RatioEstimator;
+import basiuktv.tfc.data.sampling.WorkSample;
+import basiuktv.tfc.data.vocabulary.VocabularyReport;
+import basiuktv.tfc.data.watcher.DirectoryWatcher;
+import basiuktv.tfc.engine.Engine;
+import basiuktv.tfc.engine.Query;
+import basiuktv.tfc.util.Logging;
+
+/**
+ * Runs the query described by parsed command line arguments and prints its result. Kept apart from Main, so parsing
+ * arguments (and printing help or parsing errors) doesn't load classes appraising and processing work.
+ *
+ * @author Taras Basiuk
+ */
+class QueryLauncher {
+
+	private static final String WORK_APPRAISING_STAGE_FRIENDLY_NAME = "Work appraising";
+	private static final String WORK_PROCESSING_STAGE_FRIENDLY_NAME = "Work processing";
+	private static final String DIRECTORY_WATCHING_STAGE_FRIENDLY_NAME = "Directory watching";
+	private static final String REPORTING_LATENCY_FORMAT = "Vocabulary report of {} term(s) : {} ms.";
+
+	/**
+	 * Runs the query described by parsed command line arguments with a new Engine and prints its result.
+	 *
+	 * @param options Parsed command line arguments.
+	 * @throws IOException When every term count can't be printed or off-heap one can't be freed.
+	 */
+	static void launch(final CLIOptions options) throws IOException {
+		try (final Engine engine = new Engine(
+				options.getReadAhead(), options.getDeviceLimits(), options.getMinWorkers(), options.getMaxWorkers())) {
+			run(options, engine);
+		}
+	}
+
+	/**
+	 * Runs the query described by parsed command line arguments with given Engine and prints its result.
+	 *
+	 * @param options Parsed command line arguments.
+	 * @param engine Engine to run the query with.
+	 * @throws IOException When every term count can't be printed or off-heap one can't be freed.
+	 */
+	private static void run(final CLIOptions options, final Engine engine) throws IOException {
+		long startTime = System.currentTimeMillis();
+		final Query query = options.toQuery();
+
+		// If memory budget is set, chunks of work are shrunk so they fit into it
+		final int desiredWorkSize = engine.getWorkSize(query);
+		final FileSystemWorkAppraiser appraiser = engine.newAppraiser(query);
+
+		// If watching was requested, keep processing created or modified input files until terminated
+		if (options.getWatchInterval().isPresent()) {
+			try {
+				new DirectoryWatcher(appraiser, engine, DirectoryWatcher.DEFAULT_DEBOUNCE_MS)
+					.watch(options,
+							TimeUnit.SECONDS.toMillis(options.getWatchInterval().get()),
+							QueryLauncher::printResult);
+			} catch (final Exception e) {
+				Logging.logError(DIRECTORY_WATCHING_STAGE_FRIENDLY_NAME, e);
+			}
+
+			return;
+		}
+
+		// Appraise (prepare) work on input data. Standard input is appraised while being processed.
+		// If approximation was requested, only slices of input files drawn into the sample get appraised.
+		List<InputDataFetcher> fileWork = null;
+		WorkSample sample = null;
+		if (options.getApproximation().isPresent()) {
+			try {
+				sample = new WorkSample(
+						FileSystemWorkAppraiser.collectInputFiles(options),
+						new FileSystemWorkAppraiser(
+								Math.min(desiredWorkSize, WorkSample.DEFAULT_SLICE_SIZE),
+								FileSystemWorkAppraiser.DEFAULT_MAX_NEXT_SEPARATOR_DISTANCE,
+								engine.getCalculator()),
+						new Random(),
+						options.getApproximation().get());
+			} catch (final Exception e) {
+				Logging.logError(WORK_APPRAISING_STAGE_FRIENDLY_NAME, e);
+				return;
+			}
+		} else if (!options.isStdin()) {
+			try {
+				fileWork = appraiser.appraiseWork(options);
+			} catch (final Exception e) {
+				Logging.logError(WORK_APPRAISING_STAGE_FRIENDLY_NAME, e);
+				return;
+			}
+
+			if (options.isVerbose()) {
+				Logging.logLatency(WORK_APPRAISING_STAGE_FRIENDLY_NAME, startTime);
+				Logging.logInfo(fileWork.toString());
+				startTime = System.currentTimeMillis();
+			}
+		}
+
+		// Per-document statistics are accumulated from partial results of the same pass over file work
+		final Optional<DocumentStatistics> documents = options.getTopDocuments().isPresent()
+				? Optional.of(new DocumentStatistics(
+						fileWork.stream().map(InputDataFetcher::getSource).collect(Collectors.toList())))
+				: Optional.empty();
+
+		// Work completed before the deadline (if any) is what the result covers
+		final Optional<WorkCoverage> coverage = query.getDeadline().isPresent()
+				? Optional.of(new WorkCoverage(fileWork))
+				: Optional.empty();
+
+		// Process work. Whole list of file work is passed, so the processor can order it.
+		// Sample is processed until the frequency estimated from every processed slice is precise enough.
+		final RatioEstimator estimator = sample != null ? sample.getEstimator() : null;
+		ProcessingResult result = null;
+		try {
+			if (sample != null) {
+				result = engine.processWork(
+						sample, query, (fetcher, partialResult) -> estimator.add(partialResult));
+			} else {
+				result = fileWork != null
+						? engine.processWork(fileWork, query, (fetcher, partialResult) -> {
+							documents.ifPresent(d -> d.add(fetcher.getSource(), partialResult));
+							coverage.ifPresent(c -> c.add(fetcher));
+						})
+						: engine.run(query, System.in, StreamWorkAppraiser.STDIN_SOURCE);
+			}
+		} catch (final Exception e) {
+			Logging.logError(WORK_PROCESSING_STAGE_FRIENDLY_NAME, e);
+			return;
+		}
+
+		if (options.isVerbose()) {
+			Logging.logLatency(WORK_PROCESSING_STAGE_FRIENDLY_NAME, startTime);
+		}
+
+		// Print result, approximated frequency comes with its error bounds, partial one with the input it covers
+		if (estimator != null) {
+			printResult(estimator.toString(), result);
+		} else if (coverage.isPresent() && !coverage.get().isComplete()) {
+			printResult(describePartialResult(result, coverage.get()), result);
+		} else {
+			printResult(result);
+		}
+
+		if (documents.isPresent()) {
+			if (options.isVerbose()) {
+				Logging.logInfo(String.format("Term is found in %d of %d document(s).",
+						documents.get().getDocumentFrequency(), documents.get().getDocumentCount()));
+			}
+
+			Logging.flush();
+			documents.get().getTopDocuments(options.getTopDocuments().get()).forEach(System.out::println);
+		}
+
+		// Stream every term count right to the standard output, after everything else is printed
+		if (options.isVerbose() && result.getEveryTermCount().isPresent()) {
+			final long reportStartTime = System.currentTimeMillis();
+			Logging.flush();
+			final int terms = new VocabularyReport(options.getReportFormat(), options.getReportOrder())
+					.write(result.getEveryTermCount().get(), Channels.newChannel(System.out));
+			System.out.flush();
+			Logging.logLatency(REPORTING_LATENCY_FORMAT, terms, reportStartTime);
+		}
+
+		// Free every term count kept off-heap
+		if (result.getEveryTermCount().isPresent() && result.getEveryTermCount().get() instanceof Closeable) {
+			((Closeable) result.getEveryTermCount().get()).close();
+		}
+	}
+
+	/**
+	 * Describes occurrence frequency of the term from given ProcessingResult of the work completed before the deadline,
+	 * along with the input it covers. If no term was covered by then, there is no frequency to tell.
+	 *
+	 * @param result ProcessingResult of the work completed before the deadline.
+	 * @param coverage Coverage of the input by the work completed before the deadline.
+	 * @return Formatted occurrence frequency.
+	 */
+	static String describePartialResult(final ProcessingResult result, final WorkCoverage coverage) {
+		if (result.getAllTermsCount() == 0) {
+			return String.format("NO RESULT (no input covered before deadline passed: %s)", coverage);
+		}
+
+		return String.format("%.10f (PARTIAL RESULT, deadline passed: %s)",
+				(float) result.getTermMatchCount() / result.getAllTermsCount(), coverage);
+	}
+
+	/**
+	 * Prints occurrence frequency of the term from given ProcessingResult,
+	 * followed by count of every matching term (sorted by term), if recorded.
+	 *
+	 * @param result ProcessingResult to print.
+	 */
+	private static void printResult(final ProcessingResult result) {
+		printResult(String.format("%.10f", new Float(result.getTermMatchCount()) / result.getAllTermsCount()), result);
+	}
+
+	/**
+	 * Prints given occurrence frequency of the term, followed by count of every matching term from given
+	 * ProcessingResult (sorted by term), if recorded.
+	 *
+	 * @param frequency Formatted occurrence frequency.
+	 * @param result ProcessingResult to print.
+	 */
+	private static void printResult(final String frequency, final ProcessingResult result) {
+		Logging.flush(); // Result follows messages logged before
+		System.out.println(frequency);
+		if (result.getDistinctTerms().isPresent()) {
+			System.out.println(result.getDistinctTerms().get());
+		}
+
+		if (result.getMatchingTermCount().isPresent()) {
+			new TreeMap<String, Long>(result.getMatchingTermCount().get())
+					.forEach((term, count) -> System.out.println(String.format("%s : %d", term, count)));
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package basiuktv.tfc.text;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.LongConsumer;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableSet;
+
+import basiuktv.tfc.data.processor.ProcessingResult;
+
+import lombok.Getter;
+
+/**
+ * Counts terms, and matches of a literal term, straight in the UTF-8 bytes of a text, for queries needing nothing but
+ * these two counts. Gives the same counts as TermFrequencyCalculator.splitIntoTerms does, without decoding the text or
+ * creating a String for every term:
+ * <ul>
+ * <li>Terms are counted by transitions from separator bytes to term bytes, looking past trimmer bytes (a term made of
+ * trimmer chars only is trimmed into nothing, so it isn't counted). Separators and trimmers must be ASCII, so every
+ * byte of a multi-byte char (and of malformed input, decoded into U+FFFD) belongs to a term.</li>
+ * <li>Term in question is found by case-insensitive Boyer-Moore-Horspool search. A hit is a match if nothing but
+ * trimmer bytes stands between it and the separators (or ends of the text) around it.</li>
+ * </ul>
+ * Folding ASCII bytes into lower case is the same as String.toLowerCase only for ASCII terms and in locales without
+ * special rules for 'I' (tr, az and lt). KELVIN SIGN is the only other char lowercased into an ASCII one ('k'), so text
+ * having it is left to splitIntoTerms when the term has a 'k'.
+ *
+ * @author Taras Basiuk
+ */
+public class CountOnlyTermCounter {
+
+	// Classes of bytes, bits of TERM and SEPARATOR are laid out for counting terms without branching
+	static final byte TERM = 1;
+	static final byte SEPARATOR = 2;
+	static final byte TRIMMER = 4;
+
+	static final int BYTE_MASK = 0xFF;
+
+	private static final int ASCII_SIZE = 128;
+	private static final int BYTE_VALUES = 256;
+
+	// Languages whose lower case of ASCII 'I' (or of chars around it) differs from the one of the root locale
+	private static final ImmutableSet<String> SPECIAL_CASING_LANGUAGES = ImmutableSet.of("tr", "az", "lt");
+
+	private static final char KELVIN_SIGN = '\u212a';
+	private static final char KELVIN_SIGN_LOWER_CASE = 'k';
+	private static final Horspool KELVIN_SIGN_SEARCH =
+			new Horspool(String.valueOf(KELVIN_SIGN).getBytes(StandardCharsets.UTF_8), false);
+
+	@Getter private final TermPattern pattern;
+
+	// Classes of every byte value
+	private final byte[] classes;
+
+	// Search of the term, or empty if no term can ever match it (e.g. it has upper case letters or separators)
+	private final Optional<Horspool> termSearch;
+
+	// Text with KELVIN SIGN is left to splitIntoTerms, if the sign may be a part of a match
+	private final boolean kelvinSignMatches;
+
+	private CountOnlyTermCounter(final TermPattern pattern, final byte[] classes, final String term) {
+		this.pattern = pattern;
+		this.classes = classes;
+		final byte[] termBytes = term.getBytes(StandardCharsets.US_ASCII);
+		boolean matchable = termBytes.length > 0
+				&& classes[termBytes[0]] != TRIMMER && classes[termBytes[termBytes.length - 1]] != TRIMMER;
+		for (final byte b : termBytes) {
+			matchable &= classes[b] != SEPARATOR && (b < 'A' || b > 'Z');
+		}
+
+		this.termSearch = matchable ? Optional.of(new Horspool(termBytes, true)) : Optional.empty();
+		this.kelvinSignMatches = matchable && term.indexOf(KELVIN_SIGN_LOWER_CASE) >= 0;
+	}
+
+	/**
+	 * Classifies every byte value by given language-specific separator and trimmer chars.
+	 *
+	 * @param separator Separator of terms.
+	 * @param trimmer Chars trimmed from both ends of every term.
+	 * @return Classes of every byte value, or empty if some separator or trimmer chars are not ASCII.
+	 */
+	static Optional<byte[]> classifyBytes(final CharMatcher separator, final CharMatcher trimmer) {
+		for (int c = ASCII_SIZE; c <= Character.MAX_VALUE; c++) {
+			if (separator.matches((char) c) || trimmer.matches((char) c)) {
+				return Optional.empty();
+			}
+		}
+
+		final byte[] classes = new byte[BYTE_VALUES];
+		Arrays.fill(classes, TERM);
+		for (char c = 0; c < ASCII_SIZE; c++) {
+			if (separator.matches(c)) {
+				classes[c] = SEPARATOR;
+			} else if (trimmer.matches(c)) {
+				classes[c] = TRIMMER;
+			}
+		}
+
+		return Optional.of(classes);
+	}
+
+	/**
+	 * Returns counter for given term pattern, if it can be counted in bytes.
+	 *
+	 * @param pattern Term in question.
+	 * @param classes Classes of every byte value (see classifyBytes).
+	 * @return Counter, or empty if pattern has wildcards or non-ASCII chars, or default locale lowercases specially.
+	 */
+	static Optional<CountOnlyTermCounter> of(final TermPattern pattern, final byte[] classes) {
+		final Optional<String> term = pattern.getLiteral();
+		if (!term.isPresent() || !CharMatcher.ascii().matchesAllOf(term.get())
+				|| SPECIAL_CASING_LANGUAGES.contains(Locale.getDefault().getLanguage())) {
+			return Optional.empty();
+		}
+
+		return Optional.of(new CountOnlyTermCounter(pattern, classes, term.get()));
+	}
+
+	/**
+	 * Counts terms and matches of the term in question in given UTF-8 text.
+	 *
+	 * @param data UTF-8 text (from position to limit, position is not changed), must be backed by an array.
+	 * @return ProcessingResult with the two counts, or empty if text must be decoded to count them.
+	 */
+	public Optional<ProcessingResult> count(final ByteBuffer data) {
+		return this.count(data, position -> { });
+	}
+
+	/**
+	 * Counts terms and matches of the term in question in given UTF-8 text, passing byte position of every match
+	 * (relative to the position of the data, in order) to given consumer as it's found.
+	 *
+	 * @param data UTF-8 text (from position to limit, position is not changed), must be backed by an array.
+	 * @param positions Consumer of match positions, given none if text must be decoded.
+	 * @return ProcessingResult with the two counts, or empty if text must be decoded to count them.
+	 */
+	public Optional<ProcessingResult> count(final ByteBuffer data, final LongConsumer positions) {
+		final byte[] array = data.array();
+		final int from = data.arrayOffset() + data.position();
+		final int to = data.arrayOffset() + data.limit();
+		if (this.kelvinSignMatches && KELVIN_SIGN_SEARCH.indexOf(array, from, to) >= 0) {
+			return Optional.empty();
+		}
+
+		long termMatchCount = 0;
+		if (this.termSearch.isPresent()) {
+			final Horspool search = this.termSearch.get();
+			for (int hit = search.indexOf(array, from, to); hit >= 0; hit = search.indexOf(array, hit + 1, to)) {
+				if (this.isTermBoundary(array, hit - 1, from, -1)
+						&& this.isTermBoundary(array, hit + search.length(), to - 1, 1)) {
+					termMatchCount++;
+					positions.accept(hit - from);
+				}
+			}
+		}
+
+		return Optional.of(new ProcessingResult(termMatchCount, this.countTerms(array, from, to), Optional.empty()));
+	}
+
+	/** Counts terms (runs of bytes between separators having some term bytes) in given range of bytes. */
+	private long countTerms(final byte[] array, final int from, final int to) {
+		long terms = 0;
+		int previous = SEPARATOR; // Start of the text separates terms too
+		for (int i = from; i < to; i++) {
+			final int current = this.classes[array[i] & BYTE_MASK];
+			if (previous == TRIMMER) {
+				// Trimmer bytes are rare, term starts after them if nothing but a separator stands before them
+				if (current == TERM && this.isTermBoundary(array, i - 1, from, -1)) {
+					terms++;
+				}
+			} else {
+				terms += previous >> 1 & current; // Separator followed by a term byte
+			}
+
+			previous = current;
+		}
+
+		return terms;
+	}
+
+	/**
+	 * Tells whether bytes from start towards end (by given step) are trimmer bytes followed by a separator or by the
+	 * end of the text, i.e. whether a term ends right before start (or starts right after it).
+	 */
+	private boolean isTermBoundary(final byte[] array, final int start, final int end, final int step) {
+		for (int i = start; i != end + step; i += step) {
+			final byte c = this.classes[array[i] & BYTE_MASK];
+			if (c != TRIMMER) {
+				return c == SEPARATOR;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Boyer-Moore-Horspool search of a byte pattern, optionally ignoring case of ASCII letters. Skip loop is tuned as
+	 * by Hume and Sunday: bytes matching the last byte of the pattern have no shift, so the loop only compares the
+	 * rest of the pattern once it stops skipping.
+	 */
+	private static class Horspool {
+
+		private final byte[] pattern;
+
+		// Byte every byte value is compared to the pattern as (upper case ASCII letters folded, if case is ignored)
+		private final byte[] folded = new byte[BYTE_VALUES];
+
+		// Shift of the search by the byte under the last byte of the pattern, and shift once the rest is compared
+		private final int[] shifts = new int[BYTE_VALUES];
+		private final int matchShift;
+
+		Horspool(final byte[] pattern, final boolean ignoreCase) {
+			this.pattern = pattern;
+			final int last = pattern.length - 1;
+			int matchShift = pattern.length;
+			for (int i = 0; i < last; i++) {
+				if (pattern[i] == pattern[last]) {
+					matchShift = last - i;
+				}
+			}
+
+			this.matchShift = matchShift;
+			for (int b = 0; b < BYTE_VALUES; b++) {
+				this.folded[b] = (byte) (ignoreCase && b >= 'A' && b <= 'Z' ? Character.toLowerCase(b) : b);
+				this.shifts[b] = pattern.length;
+				for (int i = 0; i <= last; i++) {
+					if (this.folded[b] == pattern[i]) {
+						this.shifts[b] = last - i;
+					}
+				}
+			}
+		}
+
+		int length() {
+			return this.pattern.length;
+		}
+
+		/** Returns index of the first occurrence of the pattern in given range of bytes, or -1 if there is none. */
+		int indexOf(final byte[] array, final int from, final int to) {
+			final int last = this.pattern.length - 1;
+			int i = from;
+			while (i + last < to) {
+				final int shift = this.shifts[array[i + last] & BYTE_MASK];
+				if (shift > 0) {
+					i += shift;
+					continue;
+				}
+
+				int j = last - 1;
+				while (j >= 0 && this.folded[array[i + j] & BYTE_MASK] == this.pattern[j]) {
+					j--;
+				}
+
+				if (j < 0) {
+					return i;
+				}
+
+				i += this.matchShift;
+			}
+
+			return -1;
+		}
+	}
+}
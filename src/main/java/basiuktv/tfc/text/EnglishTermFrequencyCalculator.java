@@ -15,10 +15,11 @@ public class EnglishTermFrequencyCalculator extends TermFrequencyCalculator {
 	@VisibleForTesting protected static final String TERM_TRIMMER_CHARS = "-'\"";
 
 	private static final CharMatcher TERM_SEPARATOR = CharMatcher.anyOf(TERM_SEPARATOR_CHARS);
+	private static final CharMatcher TERM_TRIMMER = CharMatcher.anyOf(TERM_TRIMMER_CHARS);
 
 	private static final Splitter TERM_SPLITTER = Splitter.on(TERM_SEPARATOR)
 			.omitEmptyStrings()
-			.trimResults(CharMatcher.anyOf(TERM_TRIMMER_CHARS));
+			.trimResults(TERM_TRIMMER);
 
 	/** {@inheritDoc} */
 	@Override
@@ -32,4 +33,10 @@ public class EnglishTermFrequencyCalculator extends TermFrequencyCalculator {
 		return TERM_SEPARATOR;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public CharMatcher getLanguageSpecificTermTrimmer() {
+		return TERM_TRIMMER;
+	}
+
 }
@@ -1,14 +1,22 @@
 package basiuktv.tfc.text;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.LongConsumer;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 
 import basiuktv.tfc.data.processor.ProcessingResult;
-import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.data.vocabulary.HyperLogLog;
+import basiuktv.tfc.data.vocabulary.TermCounts;
+import basiuktv.tfc.data.vocabulary.TermDictionary;
+import basiuktv.tfc.engine.Query;
 
 /**
  * Contains common functionality for calculating term occurrence rate in a text.
@@ -17,19 +25,144 @@ import basiuktv.tfc.launcher.CLIOptions;
  */
 public abstract class TermFrequencyCalculator {
 
+	// Classes of bytes counted by CountOnlyTermCounter, if separators and trimmers of the language are ASCII
+	private final Supplier<Optional<byte[]>> byteClasses = Suppliers.memoize(() -> CountOnlyTermCounter.classifyBytes(
+			this.getLanguageSpecificTermSeparator(), this.getLanguageSpecificTermTrimmer()));
+
+	// Counter of the last count-only query, reused by every chunk of its work
+	private volatile Optional<CountOnlyTermCounter> lastCounter = Optional.empty();
+
+	/**
+	 * Counts terms and matches of the term in question straight in UTF-8 bytes of the text (see CountOnlyTermCounter),
+	 * if the query needs nothing else and the term can be matched that way. Counts are the same as splitIntoTerms
+	 * gives for the decoded text, but take a fraction of its time and allocate nothing per term.
+	 *
+	 * @param data UTF-8 text (from position to limit, position is not changed).
+	 * @param query Query containing the term in question.
+	 * @return ProcessingResult, or empty if text must be decoded and split by splitIntoTerms instead.
+	 */
+	public Optional<ProcessingResult> countTerms(final ByteBuffer data, final Query query) {
+		return this.countTerms(data, query, position -> { });
+	}
+
+	/**
+	 * Counts terms and matches of the term in question straight in UTF-8 bytes of the text, as countTerms(data, query)
+	 * does, passing byte position of every match to given consumer in the same pass.
+	 *
+	 * @param data UTF-8 text (from position to limit, position is not changed).
+	 * @param query Query containing the term in question.
+	 * @param positions Consumer of match positions (relative to the position of the data, in order), given none if
+	 *        empty is returned.
+	 * @return ProcessingResult, or empty if text must be decoded and split by splitIntoTerms instead.
+	 */
+	public Optional<ProcessingResult> countTerms(
+			final ByteBuffer data, final Query query, final LongConsumer positions) {
+		if (query.isEveryTermCountRequested() || query.isMatchCountRequested() || query.isDistinctEstimateRequested()
+				|| !data.hasArray() || !this.byteClasses.get().isPresent()) {
+			return Optional.empty();
+		}
+
+		Optional<CountOnlyTermCounter> counter = this.lastCounter;
+		if (!counter.isPresent() || counter.get().getPattern() != query.getTermPattern()) {
+			counter = CountOnlyTermCounter.of(query.getTermPattern(), this.byteClasses.get().get());
+			if (!counter.isPresent()) {
+				return Optional.empty();
+			}
+
+			this.lastCounter = counter;
+		}
+
+		return counter.get().count(data, positions);
+	}
+
+	/**
+	 * Finds byte position of every match of the term in question in given UTF-8 text, for texts countTerms leaves to
+	 * splitIntoTerms. Terms are found between separator bytes and trimmed of trimmer bytes, then decoded one by one,
+	 * so matches are the same splitIntoTerms counts in the decoded text.
+	 *
+	 * @param data UTF-8 text (from position to limit, position is not changed).
+	 * @param query Query containing the term in question.
+	 * @param positions Consumer of match positions (relative to the position of the data, in order).
+	 * @throws UnsupportedOperationException If separators or trimmers of the language are not ASCII.
+	 */
+	public void findMatches(final ByteBuffer data, final Query query, final LongConsumer positions) {
+		final byte[] classes = this.byteClasses.get().orElseThrow(() -> new UnsupportedOperationException(
+				"Match positions can only be found for ASCII term separators and trimmers."));
+		final TermPattern pattern = query.getTermPattern();
+		final int from = data.position();
+		final int to = data.limit();
+		byte[] term = new byte[0];
+		int start = from;
+		while (start < to) {
+			// Skip separators and trimmers before the term, then find the separator (or end of the text) after it
+			while (start < to && classOf(classes, data, start) != CountOnlyTermCounter.TERM) {
+				start++;
+			}
+
+			int end = start;
+			while (end < to && classOf(classes, data, end) != CountOnlyTermCounter.SEPARATOR) {
+				end++;
+			}
+
+			int trimmedEnd = end;
+			while (trimmedEnd > start && classOf(classes, data, trimmedEnd - 1) == CountOnlyTermCounter.TRIMMER) {
+				trimmedEnd--;
+			}
+
+			if (trimmedEnd > start) {
+				if (term.length < trimmedEnd - start) {
+					term = new byte[trimmedEnd - start];
+				}
+
+				for (int i = start; i < trimmedEnd; i++) {
+					term[i - start] = data.get(i);
+				}
+
+				if (pattern.matches(new String(term, 0, trimmedEnd - start, StandardCharsets.UTF_8).toLowerCase())) {
+					positions.accept(start - from);
+				}
+			}
+
+			start = end;
+		}
+	}
+
+	private static byte classOf(final byte[] classes, final ByteBuffer data, final int index) {
+		return classes[data.get(index) & CountOnlyTermCounter.BYTE_MASK];
+	}
+
 	/**
 	 * Splits given text string into terms and records number of occurrences of a given term.
 	 * Optionally, records occurrences of all the terms in the text.
 	 * 
-	 * @param text String to be split into terms.
-	 * @param options CLIOptions containing the term in question (and verbosity setting).
+	 * @param text Text to be split into terms.
+	 * @param query Query containing the term in question (and what else is counted).
+	 * @return ProcessingResult
+	 */
+	public ProcessingResult splitIntoTerms(final CharSequence text, final Query query) {
+		return this.splitIntoTerms(text, query, Optional.empty());
+	}
+
+	/**
+	 * Splits given text string into terms and records number of occurrences of terms matching given term pattern.
+	 * Optionally, records occurrences of every matching term and of all the terms in the text,
+	 * the later as TermCounts if dictionary is given.
+	 *
+	 * @param text Text to be split into terms.
+	 * @param query Query containing the term in question (and what else is counted).
+	 * @param dictionary TermDictionary shared by all the chunks of work, if every term count is kept as TermCounts.
 	 * @return ProcessingResult
 	 */
-	public ProcessingResult splitIntoTerms(final String text, final CLIOptions options) {
+	public ProcessingResult splitIntoTerms(
+			final CharSequence text, final Query query, final Optional<TermDictionary> dictionary) {
 		// Initialize fields for ProcessingResult with default values
 		long allTermsCount = 0;
 		long termCount = 0;
-		final Map<String, Long> allTerms = new HashMap<String, Long>();
+		final TermCounts termCounts = dictionary.map(TermCounts::new).orElse(null);
+		final Map<String, Long> allTerms = termCounts != null ? termCounts : new HashMap<String, Long>();
+		final Map<String, Long> matchingTerms = new HashMap<String, Long>();
+		final TermPattern pattern = query.getTermPattern();
+		final HyperLogLog distinctTerms = query.isDistinctEstimateRequested() ? new HyperLogLog() : null;
 
 		// Split given text into terms following language specific rules. 
 		for (final String s : this.getLanguageSpecificSplitter().split(text)) {
@@ -37,12 +170,24 @@ public abstract class TermFrequencyCalculator {
 
 			// If current terms is a match, record this
 			final String lowercaseS = s.toLowerCase();
-			if (options.getTerm().equals(lowercaseS)) {
+			if (pattern.matches(lowercaseS)) {
 				termCount++;
+				if (query.isMatchCountRequested()) {
+					matchingTerms.merge(lowercaseS, 1L, Long::sum);
+				}
 			}
 
-			// If this execution is verbose, record occurances of all the terms
-			if (options.isVerbose()) {
+			if (distinctTerms != null) {
+				distinctTerms.add(lowercaseS);
+			}
+
+			// If every term count is requested, record occurances of all the terms
+			if (query.isEveryTermCountRequested()) {
+				if (termCounts != null) {
+					termCounts.increment(lowercaseS);
+					continue;
+				}
+
 				if (!allTerms.containsKey(lowercaseS)) {
 					allTerms.put(lowercaseS, 1L);
 					continue;
@@ -54,7 +199,11 @@ public abstract class TermFrequencyCalculator {
 
 		// Package and return calculated occurrences into ProcessingResult
 		return new ProcessingResult(
-				termCount, allTermsCount, options.isVerbose() ? Optional.of(allTerms) : Optional.empty());
+				termCount,
+				allTermsCount,
+				query.isEveryTermCountRequested() ? Optional.of(allTerms) : Optional.empty(),
+				query.isMatchCountRequested() ? Optional.of(matchingTerms) : Optional.empty(),
+				Optional.ofNullable(distinctTerms));
 	}
 
 	/**
@@ -70,4 +219,11 @@ public abstract class TermFrequencyCalculator {
 	 * @return CharMatcher
 	 */
 	public abstract CharMatcher getLanguageSpecificTermSeparator();
+
+	/**
+	 * Returns language-specific matcher of chars trimmed from both ends of every term.
+	 *
+	 * @return CharMatcher
+	 */
+	public abstract CharMatcher getLanguageSpecificTermTrimmer();
 }
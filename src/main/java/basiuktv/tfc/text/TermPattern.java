@@ -0,0 +1,230 @@
+package basiuktv.tfc.text;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Getter;
+
+/**
+ * Term in question, which may be a glob pattern: '*' matches any (possibly empty) sequence of characters, '?' matches
+ * exactly one character and '\' escapes the next character. So prefix query is a pattern like "timeout*".
+ *
+ * Pattern is compiled once into a deterministic finite automaton, so matching a term costs one table lookup per
+ * character regardless of the number of wildcards. Term without wildcards is matched by plain string comparison.
+ *
+ * @author Taras Basiuk
+ */
+public class TermPattern {
+
+	private static final char ANY_SEQUENCE = '*';
+	private static final char ANY_CHARACTER = '?';
+	private static final char ESCAPE = '\\';
+
+	private static final int ASCII_SIZE = 128;
+	private static final int OTHER_CHARACTER_CLASS = 0;
+	private static final int DEAD_STATE = 0;
+	private static final int START_STATE = 1;
+
+	/** One element of the parsed pattern. */
+	private static class Element {
+		private final boolean anySequence;
+		private final boolean anyCharacter;
+		private final char literal;
+
+		private Element(final boolean anySequence, final boolean anyCharacter, final char literal) {
+			this.anySequence = anySequence;
+			this.anyCharacter = anyCharacter;
+			this.literal = literal;
+		}
+	}
+
+	@Getter private final String pattern;
+
+	// Term to compare with, if pattern has no wildcards
+	private final String literal;
+
+	// Character classes: every character used literally in the pattern has its own class, the rest share class 0
+	private final int[] asciiClasses = new int[ASCII_SIZE];
+	private final Map<Character, Integer> otherClasses = new HashMap<Character, Integer>();
+
+	// Automaton transitions indexed by [state][character class], state 0 is dead (can't reach accepting state)
+	private final int[][] transitions;
+	private final boolean[] accepting;
+
+	/**
+	 * Compiles given pattern.
+	 *
+	 * @param pattern Term or glob pattern.
+	 * @throws IllegalArgumentException If pattern ends with unfinished escape.
+	 */
+	public TermPattern(final String pattern) {
+		this.pattern = Preconditions.checkNotNull(pattern, "pattern must not be null.");
+
+		final List<Element> elements = parse(pattern);
+		final StringBuilder literalTerm = new StringBuilder();
+		boolean wildcards = false;
+		for (final Element e : elements) {
+			wildcards |= e.anySequence || e.anyCharacter;
+			literalTerm.append(e.literal);
+		}
+
+		this.literal = wildcards ? null : literalTerm.toString();
+
+		// Assign character classes
+		int classCount = 1;
+		for (final Element e : elements) {
+			if (!e.anySequence && !e.anyCharacter && this.classOf(e.literal) == OTHER_CHARACTER_CLASS) {
+				if (e.literal < ASCII_SIZE) {
+					this.asciiClasses[e.literal] = classCount++;
+				} else {
+					this.otherClasses.put(e.literal, classCount++);
+				}
+			}
+		}
+
+		// Subset construction: DFA state is the set of pattern positions the term read so far may end at
+		final List<int[]> transitionRows = new ArrayList<int[]>();
+		final List<Boolean> acceptingStates = new ArrayList<Boolean>();
+		final Map<BitSet, Integer> stateIds = new HashMap<BitSet, Integer>();
+		final List<BitSet> states = new ArrayList<BitSet>();
+		final Queue<Integer> unprocessed = new LinkedList<Integer>();
+
+		final BitSet dead = new BitSet();
+		final BitSet start = new BitSet();
+		start.set(0);
+		for (final BitSet s : new BitSet[]{dead, closure(start, elements)}) {
+			stateIds.put(s, states.size());
+			states.add(s);
+			transitionRows.add(new int[classCount]);
+			acceptingStates.add(s.get(elements.size()));
+			unprocessed.add(states.size() - 1);
+		}
+
+		while (!unprocessed.isEmpty()) {
+			final int id = unprocessed.poll();
+			final BitSet state = states.get(id);
+			for (int c = 0; c < classCount; c++) {
+				final BitSet next = new BitSet();
+				for (int p = state.nextSetBit(0); p >= 0 && p < elements.size(); p = state.nextSetBit(p + 1)) {
+					final Element e = elements.get(p);
+					if (e.anySequence) {
+						next.set(p);
+					} else if (e.anyCharacter || (c != OTHER_CHARACTER_CLASS && this.classOf(e.literal) == c)) {
+						next.set(p + 1);
+					}
+				}
+
+				final BitSet closed = closure(next, elements);
+				Integer nextId = stateIds.get(closed);
+				if (nextId == null) {
+					nextId = states.size();
+					stateIds.put(closed, nextId);
+					states.add(closed);
+					transitionRows.add(new int[classCount]);
+					acceptingStates.add(closed.get(elements.size()));
+					unprocessed.add(nextId);
+				}
+
+				transitionRows.get(id)[c] = nextId;
+			}
+		}
+
+		this.transitions = transitionRows.toArray(new int[transitionRows.size()][]);
+		this.accepting = new boolean[acceptingStates.size()];
+		for (int i = 0; i < this.accepting.length; i++) {
+			this.accepting[i] = acceptingStates.get(i);
+		}
+	}
+
+	/**
+	 * Tells whether pattern has no wildcards, i.e. matches only the term equal to it.
+	 *
+	 * @return True if pattern is a plain term.
+	 */
+	public boolean isLiteral() {
+		return this.literal != null;
+	}
+
+	/**
+	 * Returns the only term matched by the pattern, if it has no wildcards.
+	 *
+	 * @return Term (with escapes removed), or empty if pattern has wildcards.
+	 */
+	public Optional<String> getLiteral() {
+		return Optional.ofNullable(this.literal);
+	}
+
+	/**
+	 * Tells whether given term matches the pattern.
+	 *
+	 * @param term Term to match.
+	 * @return True if term matches.
+	 */
+	public boolean matches(final CharSequence term) {
+		if (this.literal != null) {
+			return this.literal.contentEquals(term);
+		}
+
+		int state = START_STATE;
+		for (int i = 0; i < term.length() && state != DEAD_STATE; i++) {
+			state = this.transitions[state][this.classOf(term.charAt(i))];
+		}
+
+		return this.accepting[state];
+	}
+
+	@Override
+	public String toString() {
+		return this.pattern;
+	}
+
+	private int classOf(final char c) {
+		if (c < ASCII_SIZE) {
+			return this.asciiClasses[c];
+		}
+
+		final Integer characterClass = this.otherClasses.get(c);
+		return characterClass != null ? characterClass : OTHER_CHARACTER_CLASS;
+	}
+
+	/** Adds positions reachable without reading a character (skipping '*' matching empty sequence). */
+	private static BitSet closure(final BitSet positions, final List<Element> elements) {
+		final BitSet closed = (BitSet) positions.clone();
+		for (int p = closed.nextSetBit(0); p >= 0 && p < elements.size(); p = closed.nextSetBit(p + 1)) {
+			if (elements.get(p).anySequence) {
+				closed.set(p + 1);
+			}
+		}
+
+		return closed;
+	}
+
+	private static List<Element> parse(final String pattern) {
+		final List<Element> elements = new ArrayList<Element>();
+		for (int i = 0; i < pattern.length(); i++) {
+			final char c = pattern.charAt(i);
+			if (c == ESCAPE) {
+				Preconditions.checkArgument(i + 1 < pattern.length(), "Term pattern must not end with '\\'.");
+				elements.add(new Element(false, false, pattern.charAt(++i)));
+			} else if (c == ANY_SEQUENCE) {
+				if (elements.isEmpty() || !elements.get(elements.size() - 1).anySequence) {
+					elements.add(new Element(true, false, c)); // Consecutive '*' are the same as one
+				}
+			} else if (c == ANY_CHARACTER) {
+				elements.add(new Element(false, true, c));
+			} else {
+				elements.add(new Element(false, false, c));
+			}
+		}
+
+		return elements;
+	}
+}
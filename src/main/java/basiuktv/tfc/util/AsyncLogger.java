@@ -0,0 +1,335 @@
+package basiuktv.tfc.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.event.Level;
+import org.slf4j.helpers.FormattingTuple;
+import org.slf4j.helpers.MarkerIgnoringBase;
+import org.slf4j.helpers.MessageFormatter;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * slf4j Logger which hands log events over to a dedicated logging thread through a bounded ring buffer, so threads
+ * logging from the hot path neither format messages nor contend for the output stream.
+ *
+ * Level is checked before anything else, so disabled events cost nothing but the check. Enabled events are stored as
+ * the message format and its arguments (formatted with slf4j {} anchors by the logging thread), so arguments must not
+ * change after being logged. Logging thread writes the messages as they are (no level or time prefix) in batches.
+ *
+ * Ring buffer lets many threads log at once without locks: every event claims the next sequence number, waits for
+ * its slot to be free (only if the logging thread is a whole buffer behind) and publishes the event by advancing
+ * the slot sequence. Logging thread parks once there is nothing to write, until a thread publishing an event wakes it
+ * up, so an idle logger doesn't wake up at all.
+ *
+ * @author Taras Basiuk
+ */
+public class AsyncLogger extends MarkerIgnoringBase {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Default number of events buffered before logging threads have to wait for the logging thread. */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	// Time a thread waiting for a free slot or flush parks for, before checking again
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	// Number of characters formatted before they are written, even if more events are waiting
+	private static final int MAX_BATCH_CHARS = 64 * 1024;
+
+	private final transient PrintStream out;
+	private final Level level;
+
+	private final int mask;
+	private final transient AtomicReferenceArray<Event> events;
+
+	// Sequence number the slot is free for (slot + k * capacity) or, once published, that number plus one
+	private final transient AtomicLongArray sequences;
+	private final transient AtomicLong claimed = new AtomicLong();
+	private final transient AtomicLong written = new AtomicLong();
+
+	// Logging thread, and whether it is (about to be) parked until an event is published
+	private final transient Thread thread;
+	private volatile boolean idle;
+
+	/** One log event, formatted by the logging thread. */
+	private static class Event {
+
+		private final String format;
+		private final Object[] arguments;
+		private final Throwable throwable;
+
+		private Event(final String format, final Object[] arguments, final Throwable throwable) {
+			this.format = format;
+			this.arguments = arguments;
+			this.throwable = throwable;
+		}
+	}
+
+	/**
+	 * Default constructor. Starts the logging thread (daemon), which writes remaining events on JVM shutdown.
+	 *
+	 * @param name Name of the logger.
+	 * @param out Stream to write messages into.
+	 * @param capacity Number of buffered events (power of two).
+	 * @param level Least important level logged.
+	 */
+	public AsyncLogger(final String name, final PrintStream out, final int capacity, final Level level) {
+		Preconditions.checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "capacity must be power of two.");
+		this.name = name;
+		this.out = Preconditions.checkNotNull(out, "out must not be null.");
+		this.level = Preconditions.checkNotNull(level, "level must not be null.");
+		this.mask = capacity - 1;
+		this.events = new AtomicReferenceArray<Event>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			this.sequences.set(i, i);
+		}
+
+		this.thread = new Thread(this::drain, name + "-logging");
+		this.thread.setDaemon(true);
+		this.thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flush, name + "-logging-shutdown"));
+	}
+
+	/** Waits until every event logged so far is written. */
+	public void flush() {
+		final long target = this.claimed.get();
+		while (this.written.get() < target) {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	/** Tells whether events of given level are logged. */
+	private boolean isEnabled(final Level eventLevel) {
+		return eventLevel.toInt() >= this.level.toInt();
+	}
+
+	/** Publishes event into the ring buffer, waiting for its slot if the logging thread is a whole buffer behind. */
+	private void log(final Level eventLevel, final String format, final Object[] arguments, final Throwable t) {
+		if (!this.isEnabled(eventLevel)) {
+			return;
+		}
+
+		final long sequence = this.claimed.getAndIncrement();
+		final int slot = (int) (sequence & this.mask);
+		while (this.sequences.get(slot) != sequence) {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+
+		// Event is published by a volatile write, so either the logging thread sees it before parking or it's seen idle
+		this.events.set(slot, new Event(format, arguments, t));
+		this.sequences.set(slot, sequence + 1);
+		if (this.idle) {
+			LockSupport.unpark(this.thread);
+		}
+	}
+
+	/** Body of the logging thread, writes published events in order, a batch at a time. */
+	private void drain() {
+		final StringBuilder batch = new StringBuilder();
+		long next = 0;
+		while (true) {
+			final int slot = (int) (next & this.mask);
+			if (this.sequences.get(slot) != next + 1) {
+				// Nothing published yet, write out the batch and wait for more (checking again once marked idle)
+				this.write(batch, next);
+				this.idle = true;
+				if (this.sequences.get(slot) != next + 1) {
+					LockSupport.park(this);
+				}
+
+				this.idle = false;
+				continue;
+			}
+
+			final Event event = this.events.get(slot);
+			this.events.set(slot, null);
+			this.sequences.lazySet(slot, next + this.mask + 1); // Free the slot for the next round
+			next++;
+			format(event, batch);
+			if (batch.length() >= MAX_BATCH_CHARS) {
+				this.write(batch, next);
+			}
+		}
+	}
+
+	/** Writes formatted batch of events, preceding given sequence number, and clears it. */
+	private void write(final StringBuilder batch, final long next) {
+		if (batch.length() > 0) {
+			this.out.print(batch);
+			this.out.flush();
+			batch.setLength(0);
+		}
+
+		this.written.lazySet(next);
+	}
+
+	private static void format(final Event event, final StringBuilder batch) {
+		final FormattingTuple tuple = MessageFormatter.arrayFormat(event.format, event.arguments);
+		batch.append(tuple.getMessage()).append(System.lineSeparator());
+		final Throwable t = event.throwable != null ? event.throwable : tuple.getThrowable();
+		if (t != null) {
+			final StringWriter stackTrace = new StringWriter();
+			t.printStackTrace(new PrintWriter(stackTrace));
+			batch.append(stackTrace);
+		}
+	}
+
+	@Override
+	public boolean isTraceEnabled() {
+		return this.isEnabled(Level.TRACE);
+	}
+
+	@Override
+	public void trace(final String msg) {
+		this.log(Level.TRACE, msg, null, null);
+	}
+
+	@Override
+	public void trace(final String format, final Object arg) {
+		this.log(Level.TRACE, format, new Object[]{arg}, null);
+	}
+
+	@Override
+	public void trace(final String format, final Object arg1, final Object arg2) {
+		this.log(Level.TRACE, format, new Object[]{arg1, arg2}, null);
+	}
+
+	@Override
+	public void trace(final String format, final Object... arguments) {
+		this.log(Level.TRACE, format, arguments, null);
+	}
+
+	@Override
+	public void trace(final String msg, final Throwable t) {
+		this.log(Level.TRACE, msg, null, t);
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return this.isEnabled(Level.DEBUG);
+	}
+
+	@Override
+	public void debug(final String msg) {
+		this.log(Level.DEBUG, msg, null, null);
+	}
+
+	@Override
+	public void debug(final String format, final Object arg) {
+		this.log(Level.DEBUG, format, new Object[]{arg}, null);
+	}
+
+	@Override
+	public void debug(final String format, final Object arg1, final Object arg2) {
+		this.log(Level.DEBUG, format, new Object[]{arg1, arg2}, null);
+	}
+
+	@Override
+	public void debug(final String format, final Object... arguments) {
+		this.log(Level.DEBUG, format, arguments, null);
+	}
+
+	@Override
+	public void debug(final String msg, final Throwable t) {
+		this.log(Level.DEBUG, msg, null, t);
+	}
+
+	@Override
+	public boolean isInfoEnabled() {
+		return this.isEnabled(Level.INFO);
+	}
+
+	@Override
+	public void info(final String msg) {
+		this.log(Level.INFO, msg, null, null);
+	}
+
+	@Override
+	public void info(final String format, final Object arg) {
+		this.log(Level.INFO, format, new Object[]{arg}, null);
+	}
+
+	@Override
+	public void info(final String format, final Object arg1, final Object arg2) {
+		this.log(Level.INFO, format, new Object[]{arg1, arg2}, null);
+	}
+
+	@Override
+	public void info(final String format, final Object... arguments) {
+		this.log(Level.INFO, format, arguments, null);
+	}
+
+	@Override
+	public void info(final String msg, final Throwable t) {
+		this.log(Level.INFO, msg, null, t);
+	}
+
+	@Override
+	public boolean isWarnEnabled() {
+		return this.isEnabled(Level.WARN);
+	}
+
+	@Override
+	public void warn(final String msg) {
+		this.log(Level.WARN, msg, null, null);
+	}
+
+	@Override
+	public void warn(final String format, final Object arg) {
+		this.log(Level.WARN, format, new Object[]{arg}, null);
+	}
+
+	@Override
+	public void warn(final String format, final Object arg1, final Object arg2) {
+		this.log(Level.WARN, format, new Object[]{arg1, arg2}, null);
+	}
+
+	@Override
+	public void warn(final String format, final Object... arguments) {
+		this.log(Level.WARN, format, arguments, null);
+	}
+
+	@Override
+	public void warn(final String msg, final Throwable t) {
+		this.log(Level.WARN, msg, null, t);
+	}
+
+	@Override
+	public boolean isErrorEnabled() {
+		return this.isEnabled(Level.ERROR);
+	}
+
+	@Override
+	public void error(final String msg) {
+		this.log(Level.ERROR, msg, null, null);
+	}
+
+	@Override
+	public void error(final String format, final Object arg) {
+		this.log(Level.ERROR, format, new Object[]{arg}, null);
+	}
+
+	@Override
+	public void error(final String format, final Object arg1, final Object arg2) {
+		this.log(Level.ERROR, format, new Object[]{arg1, arg2}, null);
+	}
+
+	@Override
+	public void error(final String format, final Object... arguments) {
+		this.log(Level.ERROR, format, arguments, null);
+	}
+
+	@Override
+	public void error(final String msg, final Throwable t) {
+		this.log(Level.ERROR, msg, null, t);
+	}
+}
@@ -0,0 +1,180 @@
+package basiuktv.tfc.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Getter;
+
+/**
+ * Resizable pool of reusable per-worker byte and char buffers.
+ * Buffers grow to the size of the largest chunk of work seen and are then reused, so steady-state processing doesn't
+ * allocate new buffers per chunk of work. Buffers are created once first leased and the most recently released ones
+ * are leased first, so with fewer workers than the pool size only as many buffers as needed grow. Buffers grown
+ * beyond the max retained capacity (by an unusually large chunk) are dropped once released.
+ *
+ * @author Taras Basiuk
+ */
+public class BufferPool {
+
+	/** Byte and char buffers (plus decoder between them) leased by one worker at a time. */
+	public static class Buffers {
+
+		private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		private ByteBuffer bytes = ByteBuffer.allocate(0);
+		private CharBuffer chars = CharBuffer.allocate(0);
+
+		/**
+		 * Returns cleared byte buffer of at least given capacity.
+		 *
+		 * @param capacity Minimal capacity of the buffer.
+		 * @return ByteBuffer
+		 */
+		public ByteBuffer getBytes(final int capacity) {
+			if (this.bytes.capacity() < capacity) {
+				this.bytes = ByteBuffer.allocate(capacity);
+			}
+
+			this.bytes.clear();
+			return this.bytes;
+		}
+
+		/**
+		 * Decodes given UTF-8 bytes into the char buffer. Malformed input is replaced, same as String constructor does.
+		 *
+		 * @param data UTF-8 bytes to decode (from position to limit).
+		 * @return CharBuffer with decoded text (valid until the next call).
+		 */
+		public CharBuffer decode(final ByteBuffer data) {
+			// UTF-8 never decodes into more chars than it had bytes
+			if (this.chars.capacity() < data.remaining()) {
+				this.chars = CharBuffer.allocate(data.remaining());
+			}
+
+			this.chars.clear();
+			this.decoder.reset();
+			final CoderResult decodeResult = this.decoder.decode(data, this.chars, true);
+			final CoderResult flushResult = this.decoder.flush(this.chars);
+			if (decodeResult.isOverflow() || flushResult.isOverflow()) {
+				throw new IllegalStateException("Char buffer overflow while decoding UTF-8 data.");
+			}
+
+			this.chars.flip();
+			return this.chars;
+		}
+
+		/** Drops buffers of larger capacity than given one, so they are allocated again once needed. */
+		private void trim(final int maxCapacity) {
+			if (this.bytes.capacity() > maxCapacity) {
+				this.bytes = ByteBuffer.allocate(0);
+			}
+
+			if (this.chars.capacity() > maxCapacity) {
+				this.chars = CharBuffer.allocate(0);
+			}
+		}
+
+		/** Returns number of bytes of memory held by the buffers. */
+		long getHeldBytes() {
+			return this.bytes.capacity() + (long) Character.BYTES * this.chars.capacity();
+		}
+	}
+
+	@Getter private int size;
+	@Getter private final int maxRetainedCapacity;
+
+	// Buffers not leased right now (the most recently released first), number of leased ones and memory held by the
+	// ones not leased
+	private final Deque<Buffers> available = new ArrayDeque<Buffers>();
+	private int leased;
+	private long idleBytes;
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param size Number of Buffers in the pool (usually number of workers).
+	 * @param maxRetainedCapacity Max capacity of buffers kept once released (usually max size of a chunk of work).
+	 */
+	public BufferPool(final int size, final int maxRetainedCapacity) {
+		Preconditions.checkArgument(size > 0, "size must be positive.");
+		Preconditions.checkArgument(maxRetainedCapacity >= 0, "maxRetainedCapacity must not be negative.");
+		this.size = size;
+		this.maxRetainedCapacity = maxRetainedCapacity;
+	}
+
+	/**
+	 * Leases Buffers from the pool, waiting for one to be released if none is available.
+	 *
+	 * @return Buffers to be released back once no longer used.
+	 * @throws InterruptedException When interrupted while waiting.
+	 */
+	public synchronized Buffers lease() throws InterruptedException {
+		while (this.leased >= this.size) {
+			this.wait();
+		}
+
+		this.leased++;
+		final Buffers buffers = this.available.poll();
+		if (buffers == null) {
+			return new Buffers();
+		}
+
+		this.idleBytes -= buffers.getHeldBytes();
+		return buffers;
+	}
+
+	/**
+	 * Releases previously leased Buffers back to the pool.
+	 *
+	 * @param buffers Leased Buffers.
+	 */
+	public synchronized void release(final Buffers buffers) {
+		Preconditions.checkNotNull(buffers);
+		Preconditions.checkState(this.leased > 0, "Released more buffers than the pool holds.");
+		this.leased--;
+
+		// Buffers leased before the pool shrunk are dropped, rather than kept
+		if (this.leased + this.available.size() < this.size) {
+			buffers.trim(this.maxRetainedCapacity);
+			this.available.push(buffers);
+			this.idleBytes += buffers.getHeldBytes();
+		}
+
+		this.notifyAll();
+	}
+
+	/**
+	 * Resizes the pool. Once shrunk, the least recently released buffers beyond the new size are dropped, and so are
+	 * the leased ones beyond it once released.
+	 *
+	 * @param size New number of Buffers in the pool.
+	 */
+	public synchronized void resize(final int size) {
+		Preconditions.checkArgument(size > 0, "size must be positive.");
+		this.size = size;
+		while (this.leased + this.available.size() > size && !this.available.isEmpty()) {
+			this.idleBytes -= this.available.removeLast().getHeldBytes();
+		}
+
+		this.notifyAll();
+	}
+
+	/**
+	 * Returns number of bytes of memory held by the buffers kept in the pool, but not leased right now.
+	 *
+	 * @return Number of bytes.
+	 */
+	public synchronized long getIdleBytes() {
+		return this.idleBytes;
+	}
+}
@@ -0,0 +1,79 @@
+package basiuktv.tfc.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+/**
+ * Helper methods for the CPU quota of the Linux control group (e.g. container) the program runs in.
+ * Java runtimes older than 8u191 ignore the quota, counting every core of the host as available, so a container
+ * limited to 2 cores on a 64 core host would start 64 workers.
+ *
+ * @author Taras Basiuk
+ */
+public class CpuQuota {
+
+	private static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+
+	// Quota files of cgroup v2 ("QUOTA PERIOD" or "max PERIOD") and of cgroup v1 (-1 for no quota)
+	private static final String V2_MAX = "cpu.max";
+	private static final String[] V1_CONTROLLERS = {"cpu", "cpu,cpuacct", "cpuacct,cpu"};
+	private static final String V1_QUOTA = "cpu.cfs_quota_us";
+	private static final String V1_PERIOD = "cpu.cfs_period_us";
+	private static final String NO_V2_QUOTA = "max";
+
+	/**
+	 * Returns number of processors available to the program, capped by the CPU quota of its control group (rounded
+	 * up to whole cores), if any.
+	 *
+	 * @return Number of available processors, at least 1.
+	 */
+	public static int availableProcessors() {
+		final int processors = Runtime.getRuntime().availableProcessors();
+		return readQuota(CGROUP_ROOT)
+				.map(cores -> Math.max(1, Math.min(processors, (int) Math.ceil(cores))))
+				.orElse(processors);
+	}
+
+	/**
+	 * Reads CPU quota of the control group from cgroup (v2 or v1) file system mounted at given root.
+	 *
+	 * @param root Mount point of the cgroup file system (usually /sys/fs/cgroup).
+	 * @return Quota in cores (e.g. 1.5 for 150 ms of CPU time per 100 ms), or empty if there is no quota or it can't
+	 *         be read.
+	 */
+	public static Optional<Double> readQuota(final Path root) {
+		try {
+			final Path v2Max = root.resolve(V2_MAX);
+			if (Files.isRegularFile(v2Max)) {
+				final String[] fields = read(v2Max).split("\\s+");
+				return fields.length == 2 && !NO_V2_QUOTA.equals(fields[0])
+						? quota(Long.parseLong(fields[0]), Long.parseLong(fields[1]))
+						: Optional.empty();
+			}
+
+			for (final String controller : V1_CONTROLLERS) {
+				final Path directory = root.resolve(controller);
+				if (Files.isRegularFile(directory.resolve(V1_QUOTA))) {
+					return quota(Long.parseLong(read(directory.resolve(V1_QUOTA))),
+							Long.parseLong(read(directory.resolve(V1_PERIOD))));
+				}
+			}
+		} catch (final IOException | NumberFormatException e) {
+			// Quota can't be read, same as no quota
+		}
+
+		return Optional.empty();
+	}
+
+	private static Optional<Double> quota(final long quota, final long period) {
+		return quota > 0 && period > 0 ? Optional.of((double) quota / period) : Optional.empty();
+	}
+
+	private static String read(final Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+	}
+}
@@ -0,0 +1,49 @@
+package basiuktv.tfc.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Helper methods for direct (off-heap) ByteBuffer.
+ *
+ * @author Taras Basiuk
+ */
+public class DirectBuffers {
+
+	/**
+	 * Frees memory of given direct ByteBuffer right away, rather than whenever the buffer gets garbage collected.
+	 * Buffer must not be used afterwards. If the running JVM doesn't allow freeing explicitly, memory is left to be
+	 * freed by garbage collector.
+	 *
+	 * @param buffer Direct ByteBuffer.
+	 */
+	public static void free(final ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+
+		try {
+			// Java 9 and later
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			// Not available, try Java 8 way below
+		}
+
+		try {
+			final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			final Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			// Leave it to the garbage collector
+		}
+	}
+}
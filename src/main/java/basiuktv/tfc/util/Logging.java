@@ -1,19 +1,43 @@
 package basiuktv.tfc.util;
 
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+
 /**
  * Helper methods used for logging.
- * 
+ * Messages are logged through AsyncLogger, so worker threads only check the level and hand the message format and
+ * its arguments over to the logging thread. Anything printed directly to the standard output (e.g. the result) must
+ * be preceded by flush, so it's not mixed with messages logged before.
+ *
  * @author Taras Basiuk
  */
 public class Logging {
 
+	private static final AsyncLogger LOGGER =
+			new AsyncLogger("tfc", System.out, AsyncLogger.DEFAULT_CAPACITY, Level.INFO);
+
 	/**
-	 * Logs an error.
+	 * Returns the logger for parameterized messages.
+	 *
+	 * @return slf4j Logger.
+	 */
+	public static Logger getLogger() {
+		return LOGGER;
+	}
+
+	/** Waits until every message logged so far is written. */
+	public static void flush() {
+		LOGGER.flush();
+	}
+
+	/**
+	 * Logs an error and waits for it to be written, as the program may be about to exit.
 	 *
 	 * @param description String describing error being logged.
 	 */
 	public static void logError(final String description, final Exception e) {
-		System.out.println(String.format("ERROR : %s REASON: %s", description, e.getMessage()));
+		LOGGER.error("ERROR : {} REASON: {}", description, e.getMessage());
+		LOGGER.flush();
 	}
 
 	/**
@@ -22,17 +46,29 @@ public class Logging {
 	 * @param description String describing info being logged.
 	 */
 	public static void logInfo(final String description) {
-		System.out.println(String.format("INFO : %s", description));
+		LOGGER.info("INFO : {}", description);
 	}
 
 	/**
 	 * Logs latency from previously recorded time.
-	 * 
+	 *
 	 * @param description String describing latency being logged.
 	 * @param startTime Previously recorded start time.
 	 */
 	public static void logLatency(final String description, final long startTime) {
-		System.out.println(String.format("%s : %d ms.", description, System.currentTimeMillis() - startTime));
+		LOGGER.info("{} : {} ms.", description, System.currentTimeMillis() - startTime);
 	}
 
+	/**
+	 * Logs latency from previously recorded time, with description formatted only by the logging thread.
+	 *
+	 * @param format Format of the message with {} anchors for the argument and the latency (e.g. "{} : {} ms.").
+	 * @param argument Argument of the description, must not change after being logged.
+	 * @param startTime Previously recorded start time.
+	 */
+	public static void logLatency(final String format, final Object argument, final long startTime) {
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info(format, argument, System.currentTimeMillis() - startTime);
+		}
+	}
 }
@@ -1,7 +1,14 @@
 package basiuktv.tfc.data.appraiser;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.apache.commons.cli.ParseException;
@@ -18,6 +25,7 @@ public class FileSystemWorkAppraiserTests {
 
 	private static final String TOP_LEVEL_DATA_FILE_PATH = "src\\test\\data\\randomterm1.txt";
 	private static final String TOP_DIR_DATA_FILE_PATH = "src\\test\\data\\dir\\randomterm2.txt";
+	private static final String TOP_DIR_DATA_FILE_COPY_PATH = "src\\test\\data\\dir\\copyrandomterm2.txt";
 	private static final String SUB_DIR_DATA_FILE_PATH = "src\\test\\data\\dir\\subdir\\randomterm2.txt";
 	private static final String NOT_TEXT_FILE_PATH = "src\\test\\data\\dir\\nottext.jpg";
 	private static final String WILDCARD = "randomterm*.txt";
@@ -137,6 +145,74 @@ public class FileSystemWorkAppraiserTests {
 		Assert.assertEquals(resultingFetchers.get(3).getLimit(), new Long(48));
 	}
 
+	/** Tests that chunks end at a term separator, not within a multi-byte character, looking for it in bytes. */
+	@Test
+	public void testAppraiseWorkSplittingMultiByteText() throws IOException {
+		final FileSystemWorkAppraiser testAppraiser =
+				new FileSystemWorkAppraiser(10, 10, new EnglishTermFrequencyCalculator());
+		final Path file = Files.createTempFile("tfc-test", ".txt");
+		try {
+			// Two-byte characters right at the desired end of the first chunk, the separator follows them
+			Files.write(file, "aaaaaaaaaa\u00e9\u00e9 bbbbbbbb\u00e9\u00e9 cc".getBytes(StandardCharsets.UTF_8));
+			final List<InputDataFetcher> resultingFetchers =
+					testAppraiser.appraiseWork(Collections.singletonList(file.toFile()));
+
+			// 0 -> 'aaaaaaaaaa' and two 2-byte characters -> 14 -> ' bbbbbbbb', two 2-byte characters and ' cc' -> 30
+			Assert.assertEquals(resultingFetchers.size(), 2);
+			Assert.assertEquals(resultingFetchers.get(0).getOffset(), new Long(0));
+			Assert.assertEquals(resultingFetchers.get(0).getLimit(), new Long(14));
+			Assert.assertEquals(resultingFetchers.get(1).getOffset(), new Long(14));
+			Assert.assertEquals(resultingFetchers.get(1).getLimit(), new Long(30));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/** Tests appraising slices of a file one by one, which together cover the whole file. */
+	@Test
+	public void testAppraiseSlice() {
+		final FileSystemWorkAppraiser testAppraiser =
+				new FileSystemWorkAppraiser(10, 10, new EnglishTermFrequencyCalculator());
+		final File file = new File(SMALL_FILE); // "Mammoth one that but hello leapt more provident."
+		Assert.assertEquals(testAppraiser.getSliceCount(file), 5);
+
+		// 0 -> 'Mammoth one' -> 11 -> ' that but' -> 20 -> ' hello leapt' -> 32 -> ' more provident' -> 47 -> '.' -> 48
+		final long[] boundaries = {0, 11, 20, 32, 47, 48};
+		for (int i = 0; i < 5; i++) {
+			final InputDataFetcher slice = testAppraiser.appraiseSlice(file, i);
+			Assert.assertEquals(slice.getOffset(), new Long(boundaries[i]));
+			Assert.assertEquals(slice.getLimit(), new Long(boundaries[i + 1]));
+		}
+	}
+
+	/** Tests finding byte-identical files, listed in any order. */
+	@Test
+	public void testFindDistinctFiles() {
+		final File original = new File(TOP_DIR_DATA_FILE_PATH);
+		final File copy = new File(TOP_DIR_DATA_FILE_COPY_PATH);
+		final File other = new File(TOP_LEVEL_DATA_FILE_PATH);
+		final File subDirCopy = new File(SUB_DIR_DATA_FILE_PATH);
+
+		final Map<File, Integer> distinctFiles =
+				FileSystemWorkAppraiser.findDistinctFiles(Arrays.asList(original, other, copy, subDirCopy));
+		Assert.assertEquals(distinctFiles.size(), 2);
+		Assert.assertEquals(distinctFiles.get(original), new Integer(3));
+		Assert.assertEquals(distinctFiles.get(other), new Integer(1));
+	}
+
+	/** Tests that every chunk of work on deduplicated file stands for every copy of it. */
+	@Test
+	public void testAppraiseDistinctWork() {
+		final FileSystemWorkAppraiser testAppraiser =
+				new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator());
+		final List<InputDataFetcher> work = testAppraiser.appraiseDistinctWork(Arrays.asList(
+				new File(TOP_DIR_DATA_FILE_PATH), new File(TOP_DIR_DATA_FILE_COPY_PATH)));
+		Assert.assertEquals(
+				work.stream().map(InputDataFetcher::getSource).distinct().collect(Collectors.toList()),
+				Arrays.asList(TOP_DIR_DATA_FILE_PATH));
+		Assert.assertTrue(work.stream().allMatch(f -> f.getMultiplicity() == 2));
+	}
+
 	/** Tests splitting small file with no term separators. */
 	@Test(expectedExceptions={RuntimeException.class})
 	public void testSplittingNoSeparators() throws ParseException {
@@ -0,0 +1,81 @@
+package basiuktv.tfc.data.appraiser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.cli.ParseException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.processor.SimpleProcessor;
+import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+
+/** Tests for StreamWorkAppraiser. */
+public class StreamWorkAppraiserTests {
+
+	private static final String SMALL_FILE = "src\\test\\data\\smallrandom.txt";
+	private static final String RANDOM_TERM_FILE = "src\\test\\data\\randomterm1.txt";
+
+	/** Tests slicing small stream into chunks ending right after term separators. */
+	@Test
+	public void testStreamSlicing() throws IOException {
+		final byte[] data = Files.readAllBytes(new File(SMALL_FILE).toPath());
+		final List<InputDataFetcher> chunks = Lists.newArrayList(new StreamWorkAppraiser(
+				new ByteArrayInputStream(data), "test", 15, new EnglishTermFrequencyCalculator()));
+
+		// "Mammoth one that but hello leapt more provident."
+		// 0 -> 'Mammoth one ' -> 12 -> 'that but hello ' -> 27 -> 'leapt more ' -> 38 -> 'provident.' -> 48
+		Assert.assertEquals(chunks.size(), 4);
+		final StringBuilder sb = new StringBuilder();
+		long expectedOffset = 0;
+		for (final InputDataFetcher chunk : chunks) {
+			Assert.assertEquals(chunk.getOffset(), new Long(expectedOffset));
+			expectedOffset = chunk.getLimit();
+			sb.append(chunk.fetchData());
+		}
+
+		Assert.assertEquals(chunks.get(1).getOffset(), new Long(12));
+		Assert.assertEquals(chunks.get(2).getOffset(), new Long(27));
+		Assert.assertEquals(chunks.get(3).getOffset(), new Long(38));
+		Assert.assertEquals(sb.toString(), new String(data, StandardCharsets.UTF_8));
+	}
+
+	/** Tests that stream without term separators within one chunk causes an exception. */
+	@Test(expectedExceptions={RuntimeException.class})
+	public void testSlicingNoSeparators() {
+		final byte[] data = "Mammothonethatbuthelloleaptmoreprovident.".getBytes(StandardCharsets.UTF_8);
+		new StreamWorkAppraiser(new ByteArrayInputStream(data), "test", 10, new EnglishTermFrequencyCalculator())
+				.next();
+	}
+
+	/** Tests that processing a stream gives the same result as processing the same file. */
+	@Test
+	public void testStreamResultMatchesFileResult() throws IOException, ParseException {
+		final CLIOptions options = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, "the", "-" + CLIOptions.VERBOSE_SHORT, RANDOM_TERM_FILE});
+		final ProcessingResult fileResult = new SimpleProcessor().processWork(
+				new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator())
+					.appraiseWork(Collections.singletonList(new File(RANDOM_TERM_FILE))),
+				options.toQuery());
+
+		final byte[] data = Files.readAllBytes(new File(RANDOM_TERM_FILE).toPath());
+		final ProcessingResult streamResult = new SimpleProcessor().processWork(
+				new StreamWorkAppraiser(
+						new ByteArrayInputStream(data), "test", 100, new EnglishTermFrequencyCalculator()),
+				options.toQuery());
+
+		Assert.assertEquals(streamResult.getTermMatchCount(), fileResult.getTermMatchCount());
+		Assert.assertEquals(streamResult.getAllTermsCount(), fileResult.getAllTermsCount());
+		Assert.assertEquals(streamResult.getEveryTermCount(), fileResult.getEveryTermCount());
+	}
+}
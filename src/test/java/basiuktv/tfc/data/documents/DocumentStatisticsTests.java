@@ -0,0 +1,62 @@
+package basiuktv.tfc.data.documents;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.processor.ProcessingResult;
+
+/** Tests for DocumentStatistics. */
+public class DocumentStatisticsTests {
+
+	/** Tests ranking documents by TF-IDF from their chunks. */
+	@Test
+	public void testTopDocuments() {
+		final DocumentStatistics statistics = new DocumentStatistics(Arrays.asList("a", "b", "c", "d", "a"));
+		statistics.add("a", new ProcessingResult(1, 100, Optional.empty()));
+		statistics.add("a", new ProcessingResult(3, 100, Optional.empty())); // 4 of 200
+		statistics.add("b", new ProcessingResult(5, 50, Optional.empty())); // 5 of 50
+		statistics.add("c", new ProcessingResult(2, 100, Optional.empty())); // 2 of 100, ties with "a"
+		statistics.add("d", new ProcessingResult(0, 100, Optional.empty()));
+
+		Assert.assertEquals(statistics.getDocumentCount(), 4);
+		Assert.assertEquals(statistics.getDocumentFrequency(), 3);
+		final double idf = Math.log(5.0 / 4.0) + 1;
+		Assert.assertEquals(statistics.getInverseDocumentFrequency(), idf, 1e-12);
+
+		final List<DocumentStatistics.DocumentScore> top = statistics.getTopDocuments(2);
+		Assert.assertEquals(
+				top.stream().map(DocumentStatistics.DocumentScore::getDocument).collect(Collectors.toList()),
+				Arrays.asList("b", "a"));
+		Assert.assertEquals(top.get(0).getScore(), idf * 0.1, 1e-12);
+		Assert.assertEquals(top.get(1).getTermMatchCount(), 4);
+		Assert.assertEquals(top.get(1).getAllTermsCount(), 200);
+
+		// Documents without matches are not ranked
+		Assert.assertEquals(statistics.getTopDocuments(10).size(), 3);
+	}
+
+	/** Tests adding chunks of the same documents from several threads. */
+	@Test
+	public void testParallelAdding() {
+		final DocumentStatistics statistics = new DocumentStatistics(Arrays.asList("a", "b"));
+		IntStream.range(0, 10000).parallel().forEach(i ->
+				statistics.add(i % 2 == 0 ? "a" : "b", new ProcessingResult(i % 2, 10, Optional.empty())));
+
+		final List<DocumentStatistics.DocumentScore> top = statistics.getTopDocuments(2);
+		Assert.assertEquals(top.size(), 1);
+		Assert.assertEquals(top.get(0).getTermMatchCount(), 5000);
+		Assert.assertEquals(top.get(0).getAllTermsCount(), 50000);
+	}
+
+	/** Tests that chunks of unknown documents are rejected. */
+	@Test(expectedExceptions={IllegalArgumentException.class})
+	public void testUnknownDocument() {
+		new DocumentStatistics(Arrays.asList("a")).add("b", new ProcessingResult(1, 1, Optional.empty()));
+	}
+}
@@ -1,6 +1,8 @@
 package basiuktv.tfc.data.fetchers;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.testng.Assert;
@@ -37,4 +39,22 @@ public class FileSystemDataFetcherTests {
 
 		Assert.assertEquals(sb.toString(), "Mammoth one that but hello leapt more provident.");
 	}
+
+	/** Tests fetching a file part by part into one reused caller-supplied buffer. */
+	@Test
+	public void partByPartBufferFetchTest() throws IOException {
+		final List<InputDataFetcher> testFetchers = Lists.newArrayList(
+				new FileSystemDataFetcher(SMALL_FILE, 0L, 26L),
+				new FileSystemDataFetcher(SMALL_FILE, 26L, 37L),
+				new FileSystemDataFetcher(SMALL_FILE, 37L, 48L));
+
+		final ByteBuffer buffer = ByteBuffer.allocate(26);
+		final StringBuilder sb = new StringBuilder();
+		for (InputDataFetcher idf : testFetchers) {
+			Assert.assertEquals(idf.fetchData(buffer), idf.getSize());
+			sb.append(StandardCharsets.UTF_8.decode(buffer));
+		}
+
+		Assert.assertEquals(sb.toString(), "Mammoth one that but hello leapt more provident.");
+	}
 }
@@ -0,0 +1,111 @@
+package basiuktv.tfc.data.journal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.cli.ParseException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import basiuktv.tfc.data.fetchers.FileSystemDataFetcher;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.engine.Query;
+import basiuktv.tfc.launcher.CLIOptions;
+
+/** Tests for WorkJournal. */
+public class WorkJournalTests {
+
+	private static final String RANDOM_TERM_FILE = "src\\test\\data\\randomterm1.txt";
+
+	private static final ProcessingResult RESULT = new ProcessingResult(2, 10,
+			Optional.<Map<String, Long>>of(ImmutableMap.of("the", 2L, "\u00e9t\u00e9", 8L)),
+			Optional.empty());
+
+	/** Tests that work recorded by one run is replayed by the next one. */
+	@Test
+	public void testRecordAndReplay() throws IOException, ParseException {
+		final Path file = Files.createTempFile("tfc-test", ".journal");
+		Files.delete(file); // Journal creates the file itself
+		try {
+			final InputDataFetcher done = new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 100L);
+			final InputDataFetcher notDone = new FileSystemDataFetcher(RANDOM_TERM_FILE, 100L, 200L);
+			try (final WorkJournal journal = new WorkJournal(file, query("the"))) {
+				Assert.assertFalse(journal.replay(done).isPresent());
+				journal.record(done, RESULT);
+				Assert.assertEquals(journal.getRecordedWork(), 1);
+			}
+
+			try (final WorkJournal journal = new WorkJournal(file, query("the"))) {
+				Assert.assertEquals(journal.replay(done).get(), RESULT);
+				Assert.assertFalse(journal.replay(notDone).isPresent());
+				Assert.assertEquals(journal.getReplayedWork(), 1);
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/** Tests that a record torn by a crash is dropped, while complete records are still replayed. */
+	@Test
+	public void testTornRecordDropped() throws IOException, ParseException {
+		final Path file = Files.createTempFile("tfc-test", ".journal");
+		Files.delete(file);
+		try {
+			final InputDataFetcher done = new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 100L);
+			try (final WorkJournal journal = new WorkJournal(file, query("the"))) {
+				journal.record(done, RESULT);
+			}
+
+			final long validSize = Files.size(file);
+			Files.write(file, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+			try (final WorkJournal journal = new WorkJournal(file, query("the"))) {
+				Assert.assertEquals(Files.size(file), validSize);
+				Assert.assertEquals(journal.replay(done).get(), RESULT);
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/** Tests that journal of a different query is not resumed. */
+	@Test(expectedExceptions={IllegalArgumentException.class})
+	public void testDifferentQuery() throws IOException, ParseException {
+		final Path file = Files.createTempFile("tfc-test", ".journal");
+		Files.delete(file);
+		try {
+			new WorkJournal(file, query("the")).close();
+			new WorkJournal(file, query("a")).close();
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/** Tests that a file which is not a journal is not overwritten. */
+	@Test
+	public void testNotJournal() throws IOException, ParseException {
+		final Path file = Files.createTempFile("tfc-test", ".txt");
+		try {
+			Files.write(file, "not a journal".getBytes(StandardCharsets.UTF_8));
+			try {
+				new WorkJournal(file, query("the")).close();
+				Assert.fail("Expected IllegalArgumentException.");
+			} catch (final IllegalArgumentException e) {
+				Assert.assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), "not a journal");
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static Query query(final String term) throws ParseException {
+		return new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, term, RANDOM_TERM_FILE}).toQuery();
+	}
+}
@@ -0,0 +1,109 @@
+package basiuktv.tfc.data.positions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+
+/** Tests for MatchPositions. */
+public class MatchPositionsTests {
+
+	/** Tests that positions of chunks committed in any order are written in source and offset order. */
+	@Test
+	public void testPositionsInSourceAndOffsetOrder() throws IOException {
+		final Path scratchParent = Paths.get(System.getProperty("java.io.tmpdir"));
+		final Path output = Files.createTempFile("tfc-test", ".tsv");
+		try {
+			final MatchPositions positions = new MatchPositions(scratchParent);
+
+			// Two workers writing chunks at the same time, the second chunk of b.txt is finished first
+			try (final MatchPositions.Chunk first = positions.startChunk(new TestDataFetcher("b.txt", 1000L, 2000L));
+					final MatchPositions.Chunk second = positions.startChunk(new TestDataFetcher("b.txt", 0L, 1000L))) {
+				first.accept(0);
+				first.accept(999);
+				second.accept(5);
+				first.commit();
+				second.commit();
+			}
+
+			// Scratch file is reused, positions of a chunk whose result wasn't accepted are left out
+			try (final MatchPositions.Chunk abandoned = positions.startChunk(new TestDataFetcher("a.txt", 0L, 10L))) {
+				abandoned.accept(1);
+			}
+
+			try (final MatchPositions.Chunk chunk = positions.startChunk(new TestDataFetcher("a.txt", 10L, 1L << 40))) {
+				chunk.accept(3);
+				chunk.accept(3);
+				chunk.accept(1L << 39);
+				chunk.commit();
+			}
+
+			Assert.assertEquals(positions.getPositions(), 6L);
+			positions.finish(output);
+			Assert.assertEquals(Files.readAllLines(output), Arrays.asList(
+					"a.txt\t13", "a.txt\t13", "a.txt\t" + (10 + (1L << 39)), "b.txt\t5", "b.txt\t1000", "b.txt\t1999"));
+		} finally {
+			Files.deleteIfExists(output);
+		}
+	}
+
+	/** Tests writing positions while a chunk which is never committed is still written, and discarding them. */
+	@Test
+	public void testWriteAndDiscard() throws IOException {
+		final Path scratchParent = Files.createTempDirectory("tfc-test");
+		final Path output = Files.createTempFile("tfc-test", ".tsv");
+		try {
+			final MatchPositions positions = new MatchPositions(scratchParent);
+			try (final MatchPositions.Chunk chunk = positions.startChunk(new TestDataFetcher("a.txt", 0L, 10L))) {
+				chunk.accept(2);
+				chunk.commit();
+			}
+
+			// Abandoned chunk writes the same scratch file before and after positions are written
+			try (final MatchPositions.Chunk abandoned = positions.startChunk(new TestDataFetcher("b.txt", 0L, 10L))) {
+				abandoned.accept(1);
+				positions.write(output);
+				abandoned.accept(3);
+			}
+
+			Assert.assertEquals(Files.readAllLines(output), Arrays.asList("a.txt\t2"));
+			positions.discard();
+			Assert.assertEquals(scratchParent.toFile().list().length, 0);
+		} finally {
+			Files.deleteIfExists(output);
+			Files.deleteIfExists(scratchParent);
+		}
+	}
+
+	/** Tests that positions must be written in order. */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testPositionsOutOfOrder() throws IOException {
+		final MatchPositions positions = new MatchPositions(Paths.get(System.getProperty("java.io.tmpdir")));
+		try (final MatchPositions.Chunk chunk = positions.startChunk(new TestDataFetcher("a.txt", 0L, 10L))) {
+			chunk.accept(5);
+			chunk.accept(4);
+		} finally {
+			positions.finish(Files.createTempFile("tfc-test", ".tsv"));
+		}
+	}
+
+	/** InputDataFetcher standing for a chunk of work, which is never fetched. */
+	private static class TestDataFetcher extends InputDataFetcher {
+
+		TestDataFetcher(final String source, final Long offset, final Long limit) {
+			super(source, offset, limit);
+		}
+
+		@Override
+		public int fetchData(final ByteBuffer buffer) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for ConcurrencyController, driven by simulated workers: chunks finish one after another at the throughput the
+ * model gives for the current number of workers, either waiting for a worker as long as it processes them (saturated
+ * workers) or not at all (starved workers).
+ */
+public class ConcurrencyControllerTests {
+
+	private static final long CHUNK_BYTES = 1024 * 1024;
+	private static final double BYTES_PER_NANO = 0.1; // Throughput of one worker, about 100 MB/s
+	private static final int CHUNKS = 20000;
+
+	/** Tests that saturated workers are added while that raises throughput, and no further. */
+	@Test
+	public void testConvergesToThroughputPeak() {
+		final List<Integer> changes = new ArrayList<Integer>();
+		final ConcurrencyController controller = new ConcurrencyController(1, 16, 1, changes::add);
+		simulate(controller, workers -> BYTES_PER_NANO * Math.min(workers, 4), true);
+
+		Assert.assertTrue(changes.contains(4));
+		Assert.assertTrue(controller.getConcurrency() >= 4 && controller.getConcurrency() <= 5,
+				controller.toString());
+		Assert.assertTrue(changes.stream().allMatch(workers -> workers <= 5), changes.toString());
+	}
+
+	/** Tests that workers contending for a resource are taken back once throughput drops. */
+	@Test
+	public void testBacksOffContention() {
+		final ConcurrencyController controller = new ConcurrencyController(1, 16, 3, workers -> { });
+		simulate(controller, workers -> BYTES_PER_NANO * (workers <= 4 ? workers : 16.0 / workers), true);
+
+		Assert.assertTrue(controller.getConcurrency() >= 4 && controller.getConcurrency() <= 5,
+				controller.toString());
+	}
+
+	/** Tests that number of workers stays within the bounds. */
+	@Test
+	public void testRespectsBounds() {
+		final List<Integer> changes = new ArrayList<Integer>();
+		ConcurrencyController controller = new ConcurrencyController(2, 6, 4, changes::add);
+		simulate(controller, workers -> BYTES_PER_NANO * workers, true);
+		Assert.assertEquals(controller.getConcurrency(), 6);
+
+		controller = new ConcurrencyController(2, 6, 4, changes::add);
+		simulate(controller, workers -> BYTES_PER_NANO, false);
+		Assert.assertEquals(controller.getConcurrency(), 2);
+		Assert.assertTrue(changes.stream().allMatch(workers -> workers >= 2 && workers <= 6), changes.toString());
+
+		// Initial number of workers is capped too, fixed number is never changed
+		Assert.assertEquals(new ConcurrencyController(2, 6, 64, changes::add).getConcurrency(), 6);
+		controller = new ConcurrencyController(3, 3, 1, workers -> Assert.fail("Fixed number of workers changed."));
+		simulate(controller, workers -> BYTES_PER_NANO * workers, true);
+		Assert.assertEquals(controller.getConcurrency(), 3);
+		Assert.assertFalse(controller.isAdaptive());
+	}
+
+	/** Tests that workers waiting for work (e.g. for slow storage) are taken away. */
+	@Test
+	public void testShrinksStarvedWorkers() {
+		final ConcurrencyController controller = new ConcurrencyController(1, 16, 8, workers -> { });
+		simulate(controller, workers -> BYTES_PER_NANO, false);
+		Assert.assertEquals(controller.getConcurrency(), 1);
+	}
+
+	/** Tests that invalid bounds are rejected. */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testInvalidBounds() {
+		new ConcurrencyController(4, 2, 3, workers -> { });
+	}
+
+	/**
+	 * Feeds chunks into the controller, each finishing once the throughput of the current number of workers lets it.
+	 * Every worker processes its chunk for as long as all the workers take to process as many chunks.
+	 */
+	private static void simulate(
+			final ConcurrencyController controller, final IntToDoubleFunction throughput, final boolean saturated) {
+		long nowNanos = 0;
+		for (int i = 0; i < CHUNKS; i++) {
+			final int workers = controller.getConcurrency();
+			final long serviceNanos = (long) (CHUNK_BYTES * workers / throughput.applyAsDouble(workers));
+			nowNanos += serviceNanos / workers;
+			controller.record(CHUNK_BYTES, saturated ? serviceNanos : 0, nowNanos - serviceNanos, nowNanos);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.fetchers.FileSystemDataFetcher;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.fetchers.StreamDataFetcher;
+
+/** Tests for DeviceLimits. */
+public class DeviceLimitsTests {
+
+	private static final String RANDOM_TERM_FILE = "src\\test\\data\\randomterm1.txt";
+	private static final String OTHER_RANDOM_TERM_FILE = "src\\test\\data\\dir\\randomterm2.txt";
+	private static final String DATA_DIR = "src\\test\\data";
+
+	/** Tests that reads of files on the same device beyond its limit wait until earlier reads are over. */
+	@Test
+	public void testDefaultLimit() {
+		final DeviceLimits limits = DeviceLimits.parse("2");
+		final List<String> started = new ArrayList<String>();
+		final InputDataFetcher first = new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 10L);
+		final InputDataFetcher second = new FileSystemDataFetcher(OTHER_RANDOM_TERM_FILE, 0L, 10L);
+		limits.execute(first, () -> started.add("first"), Runnable::run);
+		limits.execute(second, () -> started.add("second"), Runnable::run);
+		limits.execute(first, () -> started.add("third"), Runnable::run);
+		limits.execute(second, () -> started.add("fourth"), Runnable::run);
+		Assert.assertEquals(started, Arrays.asList("first", "second"));
+
+		// Reads waiting for the device start in the order they were given, one per read over
+		limits.release(second);
+		Assert.assertEquals(started, Arrays.asList("first", "second", "third"));
+		limits.release(first);
+		Assert.assertEquals(started, Arrays.asList("first", "second", "third", "fourth"));
+
+		limits.release(first);
+		limits.release(second);
+		limits.execute(first, () -> started.add("fifth"), Runnable::run);
+		Assert.assertEquals(started.size(), 5);
+	}
+
+	/** Tests that limit given for the device holding a path overrides the default one. */
+	@Test
+	public void testPathLimit() {
+		final DeviceLimits limits = DeviceLimits.parse("1," + DATA_DIR + "=3");
+		final AtomicInteger started = new AtomicInteger();
+		for (int i = 0; i < 5; i++) {
+			limits.execute(new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 10L),
+					started::incrementAndGet, Runnable::run);
+		}
+
+		Assert.assertEquals(started.get(), 3);
+	}
+
+	/** Tests that sources which are not files, and devices without limit, are not limited. */
+	@Test
+	public void testUnlimited() {
+		final DeviceLimits limits = DeviceLimits.parse("3");
+		final DeviceLimits unlimited = DeviceLimits.unlimited();
+		final AtomicInteger started = new AtomicInteger();
+		for (int i = 0; i < 5; i++) {
+			limits.execute(new StreamDataFetcher("<stdin>", 0L, new byte[1], 1, data -> { }),
+					started::incrementAndGet, Runnable::run);
+			unlimited.execute(new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 10L),
+					started::incrementAndGet, Runnable::run);
+		}
+
+		Assert.assertEquals(started.get(), 10);
+	}
+
+	/** Tests that devices are not looked for at all, unless some device is limited. */
+	@Test
+	public void testNoLookupWithoutLimits() {
+		final AtomicInteger lookups = new AtomicInteger();
+		final DeviceLimits limits = new DeviceLimits(DeviceLimits.UNLIMITED, Collections.<String, Integer>emptyMap(),
+				path -> Optional.of(lookups.incrementAndGet()));
+		final InputDataFetcher fetcher = new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 10L);
+		limits.execute(fetcher, () -> { }, Runnable::run);
+		limits.release(fetcher);
+		Assert.assertEquals(lookups.get(), 0);
+	}
+
+	/** Tests that only sources read lately are remembered, but a source being read is never forgotten. */
+	@Test
+	public void testKnownSourcesBound() {
+		final AtomicInteger lookups = new AtomicInteger();
+		final DeviceLimits limits = new DeviceLimits(1, Collections.<String, Integer>emptyMap(), path -> {
+			lookups.incrementAndGet();
+			return Optional.of(path);
+		});
+
+		final InputDataFetcher held = new FileSystemDataFetcher("held.txt", 0L, 10L);
+		limits.execute(held, () -> { }, Runnable::run);
+		for (int i = 0; i <= DeviceLimits.MAX_KNOWN_SOURCES; i++) {
+			final InputDataFetcher fetcher = new FileSystemDataFetcher(i + ".txt", 0L, 10L);
+			limits.execute(fetcher, () -> { }, Runnable::run);
+			limits.release(fetcher);
+		}
+
+		// The first of the other sources was forgotten, the one still being read was not
+		Assert.assertEquals(lookups.get(), DeviceLimits.MAX_KNOWN_SOURCES + 2);
+		limits.release(held);
+		limits.execute(held, () -> { }, Runnable::run);
+		limits.execute(new FileSystemDataFetcher("0.txt", 0L, 10L), () -> { }, Runnable::run);
+		Assert.assertEquals(lookups.get(), DeviceLimits.MAX_KNOWN_SOURCES + 3);
+	}
+
+	/** Tests parsing invalid limits. */
+	@Test
+	public void testInvalidLimits() {
+		for (final String spec : new String[]{"0", "-1", "many", DATA_DIR + "=0", "missing-dir=4"}) {
+			try {
+				DeviceLimits.parse(spec);
+				Assert.fail(String.format("Exception was expected for %s.", spec));
+			} catch (final IllegalArgumentException e) {
+				// All is good
+			}
+		}
+	}
+}
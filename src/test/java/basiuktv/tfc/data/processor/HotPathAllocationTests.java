@@ -0,0 +1,193 @@
+package basiuktv.tfc.data.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.vocabulary.TermDictionary;
+import basiuktv.tfc.engine.Query;
+import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+import basiuktv.tfc.text.TermFrequencyCalculator;
+import basiuktv.tfc.util.BufferPool;
+
+/**
+ * Tests that the hot path (fetching, counting terms in bytes or decoding and splitting into terms, and combining
+ * results of every chunk of work) doesn't allocate more bytes per processed MB of input than its budget, so a change
+ * starting to allocate per term or per chunk is noticed. Bytes allocated by the testing thread are measured around
+ * every component, after the same work is processed once to warm up (and to grow the reused buffers and fill the
+ * shared TermDictionary, as in a long run). Budgets leave some room above what the components allocate now, every
+ * component is reported when one is over its budget.
+ */
+public class HotPathAllocationTests {
+
+	private static final String RANDOM_TERM_FILE = "src\\test\\data\\randomterm1.txt";
+
+	private static final int INPUT_COPIES = 400; // About 2.4 MB of input
+	private static final int WORK_SIZE = 256 * 1024;
+
+	private static final long KILOBYTE = 1024;
+	private static final long MEGABYTE = 1024 * KILOBYTE;
+
+	private static final String FETCH = "fetchData";
+	private static final String COUNT = "countTerms";
+	private static final String DECODE = "decode";
+	private static final String SPLIT = "splitIntoTerms";
+	private static final String COMBINE = "combineResults";
+
+	// Budgets of every component in bytes allocated per MB of input. Count-only queries are counted in bytes, neither
+	// decoding nor splitting anything. Splitting allocates about 17 MB per MB (mostly the term strings), so one more
+	// object of 24 bytes per term takes it over the budget.
+	private static final Map<String, Long> COUNT_ONLY_BUDGETS =
+			budgets(16 * KILOBYTE, 4 * KILOBYTE, 0, 0, 4 * KILOBYTE);
+	private static final Map<String, Long> VERBOSE_BUDGETS =
+			budgets(16 * KILOBYTE, 4 * KILOBYTE, 4 * KILOBYTE, 20 * MEGABYTE, 4 * KILOBYTE);
+
+	private final TermFrequencyCalculator calculator = new EnglishTermFrequencyCalculator();
+
+	private com.sun.management.ThreadMXBean threads;
+	private Path input;
+	private List<InputDataFetcher> work;
+
+	/** Creates input of many copies of the random term file and checks allocations can be measured. */
+	@BeforeClass
+	public void setUp() throws IOException {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			throw new SkipException("Allocated bytes can't be measured by this JVM.");
+		}
+
+		this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!this.threads.isThreadAllocatedMemorySupported()) {
+			throw new SkipException("Allocated bytes can't be measured by this JVM.");
+		}
+
+		this.threads.setThreadAllocatedMemoryEnabled(true);
+
+		final String text = new String(Files.readAllBytes(Paths.get(RANDOM_TERM_FILE)), StandardCharsets.UTF_8);
+		this.input = Files.createTempFile("tfc-test", ".txt");
+		Files.write(this.input, String.join("\n", Collections.nCopies(INPUT_COPIES, text))
+				.getBytes(StandardCharsets.UTF_8));
+		this.work = new FileSystemWorkAppraiser(WORK_SIZE, WORK_SIZE, this.calculator)
+				.appraiseWork(Collections.singletonList(new File(this.input.toString())));
+	}
+
+	/** Deletes the input. */
+	@AfterClass
+	public void tearDown() throws IOException {
+		if (this.input != null) {
+			Files.delete(this.input);
+		}
+	}
+
+	/** Tests allocations of counting only the term matches. */
+	@Test
+	public void testCountOnlyAllocations() throws IOException {
+		this.checkBudgets("count-only", Query.builder("the").build(), COUNT_ONLY_BUDGETS);
+	}
+
+	/** Tests allocations of counting every term too (as verbose runs do), with counts kept as TermCounts. */
+	@Test
+	public void testVerboseAllocations() throws IOException {
+		this.checkBudgets(
+				"verbose", Query.builder("the").verbose(true).everyTermCount(true).build(), VERBOSE_BUDGETS);
+	}
+
+	private void checkBudgets(final String mode, final Query query, final Map<String, Long> budgets)
+			throws IOException {
+		// Buffers and dictionary are shared by both passes, as they are by every chunk of work in a long run
+		final BufferPool.Buffers buffers = new BufferPool.Buffers();
+		final Optional<TermDictionary> dictionary =
+				query.isEveryTermCountRequested() ? Optional.of(new TermDictionary()) : Optional.empty();
+		this.process(query, buffers, dictionary); // Warm up
+		final Map<String, Long> allocated = this.process(query, buffers, dictionary);
+
+		final long inputBytes = this.work.stream().mapToLong(InputDataFetcher::getSize).sum();
+		final StringBuilder breakdown = new StringBuilder(
+				String.format("Bytes allocated per MB of input (%s, %d bytes of input):", mode, inputBytes));
+		boolean overBudget = false;
+		for (final Map.Entry<String, Long> e : allocated.entrySet()) {
+			final long perMegabyte = Math.round((double) e.getValue() * MEGABYTE / inputBytes);
+			final long budget = budgets.get(e.getKey());
+			overBudget |= perMegabyte > budget;
+			breakdown.append(String.format("%n  %-15s %,15d (budget %,d)%s",
+					e.getKey(), perMegabyte, budget, perMegabyte > budget ? " OVER BUDGET" : ""));
+		}
+
+		if (overBudget) {
+			System.out.println(breakdown);
+			Assert.fail(breakdown.toString());
+		}
+	}
+
+	/** Processes all the work as one worker does, returning bytes allocated by every component. */
+	private Map<String, Long> process(final Query query, final BufferPool.Buffers buffers,
+			final Optional<TermDictionary> dictionary) throws IOException {
+		final Map<String, Long> allocated = budgets(0, 0, 0, 0, 0);
+		final long threadId = Thread.currentThread().getId();
+		ProcessingResult combinedResult = null;
+		for (final InputDataFetcher fetcher : this.work) {
+			long start = this.threads.getThreadAllocatedBytes(threadId);
+			final ByteBuffer data = buffers.getBytes(fetcher.getSize());
+			fetcher.fetchData(data);
+			start = this.record(allocated, FETCH, start);
+
+			// Same as the processors do, text is only decoded and split if it can't be counted in bytes
+			final Optional<ProcessingResult> counted = this.calculator.countTerms(data, query);
+			start = this.record(allocated, COUNT, start);
+
+			final ProcessingResult partialResult;
+			if (counted.isPresent()) {
+				partialResult = counted.get();
+			} else {
+				final CharBuffer text = buffers.decode(data);
+				start = this.record(allocated, DECODE, start);
+
+				partialResult = this.calculator.splitIntoTerms(text, query, dictionary);
+				start = this.record(allocated, SPLIT, start);
+			}
+
+			combinedResult = combinedResult != null
+					? ProcessingResult.combineResults(combinedResult, partialResult)
+					: partialResult;
+			this.record(allocated, COMBINE, start);
+		}
+
+		return allocated;
+	}
+
+	/** Adds bytes allocated since start to the component, returns current allocated bytes. */
+	private long record(final Map<String, Long> allocated, final String component, final long start) {
+		final long now = this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		allocated.merge(component, now - start, Long::sum);
+		return now;
+	}
+
+	private static Map<String, Long> budgets(
+			final long fetch, final long count, final long decode, final long split, final long combine) {
+		final Map<String, Long> budgets = new LinkedHashMap<String, Long>();
+		budgets.put(FETCH, fetch);
+		budgets.put(COUNT, count);
+		budgets.put(DECODE, decode);
+		budgets.put(SPLIT, split);
+		budgets.put(COMBINE, combine);
+		return budgets;
+	}
+}
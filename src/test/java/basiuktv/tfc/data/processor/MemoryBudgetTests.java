@@ -0,0 +1,89 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.fetchers.FileSystemDataFetcher;
+
+/** Tests for MemoryBudget. */
+public class MemoryBudgetTests {
+
+	private static final long MEGABYTE = 1024 * 1024;
+
+	/** Tests estimating memory needed to process a chunk of work. */
+	@Test
+	public void testEstimateBytes() {
+		final FileSystemDataFetcher fetcher = new FileSystemDataFetcher("input.txt", 100L, 200L);
+		Assert.assertEquals(MemoryBudget.estimateBytes(fetcher, false),
+				100L * MemoryBudget.DATA_BYTES_PER_INPUT_BYTE);
+		Assert.assertEquals(MemoryBudget.estimateBytes(fetcher, true),
+				100L * (MemoryBudget.DATA_BYTES_PER_INPUT_BYTE + MemoryBudget.EVERY_TERM_COUNT_BYTES_PER_INPUT_BYTE));
+	}
+
+	/** Tests that work size first shrinks to fit all workers, then stops shrinking and fewer workers fit. */
+	@Test
+	public void testFitWorkSize() {
+		final int desired = 50 * (int) MEGABYTE;
+		final int perByte = MemoryBudget.DATA_BYTES_PER_INPUT_BYTE;
+
+		// Budget large enough for all workers with desired work size
+		Assert.assertEquals(new MemoryBudget(1000 * MEGABYTE).fitWorkSize(5, false, desired), desired);
+
+		// Budget fits all workers with smaller chunks
+		Assert.assertEquals(new MemoryBudget(5 * 4 * perByte * MEGABYTE).fitWorkSize(5, false, desired),
+				4 * MEGABYTE);
+
+		// Budget fits only two workers with minimal chunks
+		Assert.assertEquals(new MemoryBudget(2 * perByte * MEGABYTE).fitWorkSize(5, false, desired),
+				MemoryBudget.MIN_WORK_SIZE);
+
+		// Budget doesn't fit even one minimal chunk
+		Assert.assertEquals(new MemoryBudget(perByte * 1000).fitWorkSize(5, false, desired), 1000);
+	}
+
+	/** Tests reserving and releasing memory, including reservation larger than the whole budget. */
+	@Test
+	public void testAcquireAndRelease() throws InterruptedException {
+		final MemoryBudget budget = new MemoryBudget(100);
+		final long first = budget.acquire(60);
+		final long second = budget.acquire(40);
+		Assert.assertEquals(budget.getReservedBytes(), 100L);
+		budget.release(first);
+		budget.release(second);
+
+		final long oversized = budget.acquire(1000);
+		Assert.assertEquals(oversized, 100L);
+		budget.release(oversized);
+		Assert.assertEquals(budget.getReservedBytes(), 0L);
+		Assert.assertEquals(budget.getPeakReservedBytes(), 100L);
+		Assert.assertEquals(budget.getAdmissionsWaited(), 0L);
+	}
+
+	/** Tests that memory held outside of the work is counted as reserved, unless the work would be alone. */
+	@Test(timeOut=30000)
+	public void testHeldBytes() throws InterruptedException {
+		final AtomicLong held = new AtomicLong(50);
+		final MemoryBudget budget = new MemoryBudget(100, held::get);
+		final long first = budget.acquire(60);
+
+		final Thread second = new Thread(() -> {
+			try {
+				budget.release(budget.acquire(40));
+			} catch (final InterruptedException e) {
+				// Test fails on timeout
+			}
+		});
+		second.start();
+		while (budget.getAdmissionsWaited() == 0) {
+			Thread.sleep(10);
+		}
+
+		held.set(0);
+		budget.release(first);
+		second.join();
+		Assert.assertEquals(budget.getReservedBytes(), 0L);
+		Assert.assertEquals(budget.getAdmissionsWaited(), 1L);
+	}
+}
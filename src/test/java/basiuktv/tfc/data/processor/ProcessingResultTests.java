@@ -8,6 +8,9 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.vocabulary.HyperLogLog;
+import basiuktv.tfc.data.vocabulary.TermCounts;
+import basiuktv.tfc.data.vocabulary.TermDictionary;
 
 /** Tests for ProcessingResult. */
 public class ProcessingResultTests {
@@ -72,4 +75,87 @@ public class ProcessingResultTests {
 		Assert.assertEquals(test.getEveryTermCount().get().get("three"), new Long(3L));
 		Assert.assertEquals(test.getEveryTermCount().get().size(), 3);
 	}
+
+	/** Tests combination of two ProcessingResult with every term counts sharing a dictionary. */
+	@Test
+	public void testCombinationSharedDictionary() {
+		final TermDictionary dictionary = new TermDictionary();
+		final TermCounts c1 = new TermCounts(dictionary);
+		c1.put("one", 1L);
+		c1.put("two", 2L);
+
+		final TermCounts c2 = new TermCounts(dictionary);
+		c2.put("two", 2L);
+		c2.put("three", 3L);
+
+		final ProcessingResult test = ProcessingResult.combineResults(
+				new ProcessingResult(5L, 10L, Optional.of(c1)), new ProcessingResult(10L, 20L, Optional.of(c2)));
+		Assert.assertEquals(test.getTermMatchCount(), 15L);
+		Assert.assertEquals(test.getAllTermsCount(), 30L);
+		Assert.assertEquals(test.getEveryTermCount().get().get("one"), new Long(1L));
+		Assert.assertEquals(test.getEveryTermCount().get().get("two"), new Long(4L));
+		Assert.assertEquals(test.getEveryTermCount().get().get("three"), new Long(3L));
+		Assert.assertEquals(test.getEveryTermCount().get().size(), 3);
+	}
+
+	/** Tests combination of two ProcessingResult with distinct terms sketches. */
+	@Test
+	public void testCombinationDistinctTerms() {
+		final HyperLogLog s1 = new HyperLogLog();
+		s1.add("one");
+		s1.add("two");
+
+		final HyperLogLog s2 = new HyperLogLog();
+		s2.add("two");
+		s2.add("three");
+
+		final ProcessingResult test = ProcessingResult.combineResults(
+				new ProcessingResult(5L, 10L, Optional.empty(), Optional.empty(), Optional.of(s1)),
+				new ProcessingResult(10L, 20L, Optional.empty(), Optional.empty(), Optional.of(s2)));
+		Assert.assertEquals(test.getDistinctTerms().get().estimate(), 3L);
+
+		final ProcessingResult oneSided = ProcessingResult.combineResults(
+				new ProcessingResult(5L, 10L, Optional.empty()),
+				new ProcessingResult(10L, 20L, Optional.empty(), Optional.empty(), Optional.of(s2)));
+		Assert.assertEquals(oneSided.getDistinctTerms().get().estimate(), 2L);
+	}
+
+	/** Tests scaling ProcessingResult of work standing for several identical copies. */
+	@Test
+	public void testScaleResult() {
+		final Map<String, Long> counts = new HashMap<String, Long>();
+		counts.put("one", 1L);
+		counts.put("two", 2L);
+		final ProcessingResult single = new ProcessingResult(2L, 3L, Optional.of(counts));
+		Assert.assertSame(ProcessingResult.scaleResult(single, 1), single);
+
+		final ProcessingResult test = ProcessingResult.scaleResult(single, 3);
+		Assert.assertEquals(test.getTermMatchCount(), 6L);
+		Assert.assertEquals(test.getAllTermsCount(), 9L);
+		Assert.assertEquals(test.getEveryTermCount().get().get("one"), new Long(3L));
+		Assert.assertEquals(test.getEveryTermCount().get().get("two"), new Long(6L));
+	}
+
+	/** Tests that combining a copy of the result leaves the result itself intact. */
+	@Test
+	public void testCopyResult() {
+		final Map<String, Long> m = new HashMap<String, Long>();
+		m.put("one", 1L);
+		m.put("two", 2L);
+		final HyperLogLog sketch = new HyperLogLog();
+		sketch.add("one");
+		final ProcessingResult result = new ProcessingResult(1L, 1L, Optional.of(m), Optional.of(m),
+				Optional.of(sketch));
+		final ProcessingResult copy = ProcessingResult.copyResult(result);
+		Assert.assertEquals(copy, result);
+
+		final Map<String, Long> other = new HashMap<String, Long>();
+		other.put("three", 3L);
+		final HyperLogLog otherSketch = new HyperLogLog();
+		otherSketch.add("three");
+		ProcessingResult.combineResults(copy, new ProcessingResult(2L, 2L, Optional.of(other), Optional.of(other),
+				Optional.of(otherSketch)));
+		Assert.assertEquals(m.size(), 2);
+		Assert.assertEquals(result.getDistinctTerms().get().estimate(), 1L);
+	}
 }
@@ -0,0 +1,266 @@
+package basiuktv.tfc.data.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.commons.cli.ParseException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.fetchers.FileSystemDataFetcher;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.vocabulary.OffHeapTermCounts;
+import basiuktv.tfc.engine.Query;
+import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+
+/** Tests for ThreadPoolExecutorProcessor. */
+public class ThreadPoolExecutorProcessorTests {
+
+	private static final String RANDOM_TERM_FILE = "src\\test\\data\\randomterm1.txt";
+	private static final String OTHER_RANDOM_TERM_FILE = "src\\test\\data\\dir\\randomterm2.txt";
+
+	/** Tests that reading chunks ahead gives the same result as sequential processing. */
+	@Test
+	public void testReadAheadResultMatchesSimpleResult() throws IOException, ParseException {
+		final List<InputDataFetcher> work = new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator())
+				.appraiseWork(Collections.singletonList(new File(RANDOM_TERM_FILE)));
+		final Query query = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, "the", "-" + CLIOptions.VERBOSE_SHORT, RANDOM_TERM_FILE}).toQuery();
+		final ProcessingResult simpleResult = new SimpleProcessor().processWork(work, query);
+
+		for (final int readAhead : new int[]{1, 3}) {
+			try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor(readAhead)) {
+				final ProcessingResult result = processor.processWork(work, query);
+				Assert.assertEquals(result.getTermMatchCount(), simpleResult.getTermMatchCount());
+				Assert.assertEquals(result.getAllTermsCount(), simpleResult.getAllTermsCount());
+				Assert.assertEquals(result.getEveryTermCount(), simpleResult.getEveryTermCount());
+			}
+		}
+	}
+
+	/** Tests that limiting reads per device (to a single reader) gives the same result as sequential processing. */
+	@Test
+	public void testDeviceLimitedResultMatchesSimpleResult() throws IOException {
+		final List<InputDataFetcher> work = new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator())
+				.appraiseWork(Collections.singletonList(new File(RANDOM_TERM_FILE)));
+		final Query query = Query.builder("the").everyTermCount(true).build();
+		final ProcessingResult simpleResult = new SimpleProcessor().processWork(work, query);
+
+		try (final ThreadPoolExecutorProcessor processor =
+				new ThreadPoolExecutorProcessor(3, DeviceLimits.parse("1"))) {
+			Assert.assertEquals(processor.processWork(work, query), simpleResult);
+		}
+	}
+
+	/** Tests that every term counted off-heap gives the same result as on-heap counting. */
+	@Test
+	public void testOffHeapVocabularyResultMatchesSimpleResult() throws IOException, ParseException {
+		final List<InputDataFetcher> work = new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator())
+				.appraiseWork(Collections.singletonList(new File(RANDOM_TERM_FILE)));
+		final ProcessingResult simpleResult = new SimpleProcessor().processWork(work, new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, "the", "-" + CLIOptions.VERBOSE_SHORT, RANDOM_TERM_FILE}).toQuery());
+
+		final ProcessingResult result;
+		try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor()) {
+			result = processor.processWork(work, new CLIOptions(new String[]{
+					"-" + CLIOptions.TERM_SHORT, "the", "-" + CLIOptions.VERBOSE_SHORT,
+					"--" + CLIOptions.OFF_HEAP_VOCABULARY_LONG, RANDOM_TERM_FILE}).toQuery());
+		}
+
+		Assert.assertTrue(result.getEveryTermCount().get() instanceof OffHeapTermCounts);
+		Assert.assertEquals(result.getTermMatchCount(), simpleResult.getTermMatchCount());
+		Assert.assertEquals(result.getEveryTermCount().get(), simpleResult.getEveryTermCount().get());
+		((OffHeapTermCounts) result.getEveryTermCount().get()).close();
+	}
+
+	/** Tests that chunks of a device at its limit wait for it without holding the I/O threads reading other devices. */
+	@Test(timeOut=10000)
+	public void testSlowDeviceDoesNotBlockOthers() throws IOException {
+		// Every source is a device of its own, read by one chunk at a time
+		final DeviceLimits limits = new DeviceLimits(1, Collections.<String, Integer>emptyMap(), Optional::of);
+		final List<InputDataFetcher> work = new ArrayList<InputDataFetcher>();
+		for (int i = 0; i < 3; i++) {
+			work.add(new SlowDataFetcher(RANDOM_TERM_FILE, 0L, 10L, 500));
+		}
+
+		for (int i = 0; i < 3; i++) {
+			work.add(new FileSystemDataFetcher(OTHER_RANDOM_TERM_FILE, 0L, 10L));
+		}
+
+		final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+		try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor(2, limits)) {
+			processor.processWork(work.iterator(), Query.builder("the").build(),
+					(fetcher, partialResult) -> completed.add(fetcher.getSource()));
+		}
+
+		// Chunks of the second device are read while the first one is busy with its first chunk
+		Assert.assertEquals(completed, Arrays.asList(OTHER_RANDOM_TERM_FILE, OTHER_RANDOM_TERM_FILE,
+				OTHER_RANDOM_TERM_FILE, RANDOM_TERM_FILE, RANDOM_TERM_FILE, RANDOM_TERM_FILE));
+	}
+
+	/** Tests that a run resumed from the journal replays completed work and gives the same result. */
+	@Test
+	public void testJournalResume() throws IOException, ParseException {
+		final List<InputDataFetcher> work = new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator())
+				.appraiseWork(Collections.singletonList(new File(RANDOM_TERM_FILE)));
+		final Path journal = Files.createTempFile("tfc-test", ".journal");
+		Files.delete(journal);
+		try {
+			final Query query = new CLIOptions(new String[]{
+					"-" + CLIOptions.TERM_SHORT, "the", "-" + CLIOptions.VERBOSE_SHORT,
+					"-" + CLIOptions.JOURNAL_SHORT, journal.toString(), RANDOM_TERM_FILE}).toQuery();
+
+			// First run is interrupted after half of the work, the second one completes it
+			final ProcessingResult interruptedResult =
+					new SimpleProcessor().processWork(work.subList(0, work.size() / 2), query);
+			final ProcessingResult resumedResult;
+			try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor()) {
+				resumedResult = processor.processWork(work, query);
+			}
+
+			final ProcessingResult expectedResult = new SimpleProcessor().processWork(work, new CLIOptions(new String[]{
+					"-" + CLIOptions.TERM_SHORT, "the", "-" + CLIOptions.VERBOSE_SHORT, RANDOM_TERM_FILE}).toQuery());
+			Assert.assertTrue(interruptedResult.getAllTermsCount() < expectedResult.getAllTermsCount());
+			Assert.assertEquals(resumedResult, expectedResult);
+		} finally {
+			Files.deleteIfExists(journal);
+		}
+	}
+
+	/**
+	 * Tests that every match position written points at a match, in offset order, whether terms are counted in bytes
+	 * or decoded, and that both processors write the same positions.
+	 */
+	@Test
+	public void testPositionsOutput() throws IOException {
+		final List<InputDataFetcher> work = new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator())
+				.appraiseWork(Collections.singletonList(new File(RANDOM_TERM_FILE)));
+		final byte[] text = Files.readAllBytes(new File(RANDOM_TERM_FILE).toPath());
+		final Path output = Files.createTempFile("tfc-test", ".tsv");
+		try {
+			for (final Query query : new Query[]{
+					Query.builder("the").positionsOutput(output.toString()).build(),
+					Query.builder("the").everyTermCount(true).positionsOutput(output.toString()).build()}) {
+				final ProcessingResult simpleResult = new SimpleProcessor().processWork(work, query);
+				final List<String> simplePositions = Files.readAllLines(output);
+
+				try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor(1)) {
+					final ProcessingResult result = processor.processWork(work, query);
+					Assert.assertEquals(result.getTermMatchCount(), simpleResult.getTermMatchCount());
+					Assert.assertEquals(Files.readAllLines(output), simplePositions);
+				}
+
+				Assert.assertEquals(simplePositions.size(), simpleResult.getTermMatchCount());
+				long previous = -1;
+				for (final String line : simplePositions) {
+					final String[] fields = line.split("\t");
+					final long offset = Long.parseLong(fields[1]);
+					Assert.assertEquals(fields[0], RANDOM_TERM_FILE);
+					Assert.assertTrue(offset > previous);
+					Assert.assertEquals(new String(text, (int) offset, 3, StandardCharsets.UTF_8).toLowerCase(), "the");
+					previous = offset;
+				}
+			}
+		} finally {
+			Files.deleteIfExists(output);
+		}
+	}
+
+	/** Tests that the first failure fails processing without waiting for slow work submitted before it. */
+	@Test(expectedExceptions={RuntimeException.class}, timeOut=3000)
+	public void testFailFast() throws IOException {
+		try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor(2)) {
+			processor.processWork(Arrays.asList(
+					new SlowDataFetcher(RANDOM_TERM_FILE, 0L, 10L, 10000),
+					new FileSystemDataFetcher("missing.txt", 0L, 10L)),
+					Query.builder("the").build());
+		}
+	}
+
+	/** Tests that scratch files of a failed call are deleted once the work still running is over. */
+	@Test(timeOut=10000)
+	public void testFailureDeletesScratchFiles() throws IOException, InterruptedException {
+		final Path scratch = Files.createTempDirectory("tfc-test");
+		final Query query = Query.builder("the").spillDirectory(scratch.toString())
+				.vocabularyOutput(scratch.resolve("vocabulary.tsv").toString())
+				.positionsOutput(scratch.resolve("positions.tsv").toString()).build();
+		try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor(2)) {
+			processor.processWork(Arrays.asList(
+					new SlowDataFetcher(RANDOM_TERM_FILE, 0L, 10L, 500),
+					new FileSystemDataFetcher("missing.txt", 0L, 10L)),
+					query);
+			Assert.fail("RuntimeException was expected by now.");
+		} catch (final RuntimeException e) {
+			// All is good
+		}
+
+		// Slow work is still running once the call fails, its scratch files are deleted when it's over
+		while (scratch.toFile().list().length > 0) {
+			Thread.sleep(10);
+		}
+
+		Files.delete(scratch);
+	}
+
+	/** Tests that processing stops at the deadline with result of the work completed by then. */
+	@Test(timeOut=3000)
+	public void testDeadline() throws IOException {
+		final List<InputDataFetcher> completedWork =
+				new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator())
+						.appraiseWork(Collections.singletonList(new File(RANDOM_TERM_FILE)));
+		final List<InputDataFetcher> work = new ArrayList<InputDataFetcher>(completedWork);
+		work.add(new SlowDataFetcher(RANDOM_TERM_FILE, 0L, 10L, 10000));
+
+		final Query query = Query.builder("the").deadline(500).build();
+		final WorkCoverage coverage = new WorkCoverage(work);
+		try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor(1)) {
+			final ProcessingResult result =
+					processor.processWork(work, query, (fetcher, partialResult) -> coverage.add(fetcher));
+			Assert.assertEquals(result, new SimpleProcessor().processWork(completedWork, query));
+			Assert.assertFalse(coverage.isComplete());
+			Assert.assertEquals(coverage.getCoveredBytes(), coverage.getTotalBytes() - 10);
+		}
+	}
+
+	/** FileSystemDataFetcher which takes given number of milliseconds to fetch data. */
+	private static class SlowDataFetcher extends FileSystemDataFetcher {
+
+		private final long delayMillis;
+
+		SlowDataFetcher(final String source, final Long offset, final Long limit, final long delayMillis) {
+			super(source, offset, limit);
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public int fetchData(final ByteBuffer buffer) throws IOException {
+			try {
+				Thread.sleep(this.delayMillis);
+			} catch (final InterruptedException e) {
+				throw new IOException(e);
+			}
+
+			return super.fetchData(buffer);
+		}
+	}
+
+	/** Tests that failing to read a chunk ahead fails processing. */
+	@Test(expectedExceptions={RuntimeException.class}, timeOut=10000)
+	public void testReadAheadFailure() throws IOException, ParseException {
+		try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor(2)) {
+			processor.processWork(Collections.singletonList(new FileSystemDataFetcher("missing.txt", 0L, 10L)),
+					Query.builder("the").build());
+		}
+	}
+}
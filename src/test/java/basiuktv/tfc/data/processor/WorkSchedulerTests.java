@@ -0,0 +1,107 @@
+package basiuktv.tfc.data.processor;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+import basiuktv.tfc.data.fetchers.FileSystemDataFetcher;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+
+/** Tests for WorkScheduler. */
+public class WorkSchedulerTests {
+
+	/** Tests that without measured throughput the largest work goes first. */
+	@Test
+	public void testOrderBySize() {
+		final InputDataFetcher small = new FileSystemDataFetcher("a.txt", 0L, 10L);
+		final InputDataFetcher large = new FileSystemDataFetcher("b.txt", 0L, 1000L);
+		final InputDataFetcher medium = new FileSystemDataFetcher("a.txt", 10L, 110L);
+
+		final List<InputDataFetcher> ordered = new WorkScheduler(2).order(Lists.newArrayList(small, large, medium));
+		Assert.assertEquals(ordered, Lists.newArrayList(large, medium, small));
+	}
+
+	/** Tests that work from a source measured to be slow is estimated to cost more than larger work. */
+	@Test
+	public void testOrderByThroughput() {
+		final WorkScheduler scheduler = new WorkScheduler(2);
+		scheduler.record(new FileSystemDataFetcher("slow.txt", 0L, 100L), 0, 1000); // 0.1 bytes per ns
+		scheduler.record(new FileSystemDataFetcher("fast.txt", 0L, 1000L), 0, 100); // 10 bytes per ns
+
+		final InputDataFetcher slow = new FileSystemDataFetcher("slow.txt", 100L, 200L);
+		final InputDataFetcher fast = new FileSystemDataFetcher("fast.txt", 1000L, 5000L);
+		final InputDataFetcher unknown = new FileSystemDataFetcher("new.txt", 0L, 1000L);
+		Assert.assertEquals(scheduler.estimateCost(slow), 1000, 0.001);
+		Assert.assertEquals(scheduler.estimateCost(fast), 400, 0.001);
+
+		// Unmeasured source is assumed to have average throughput of 1100 bytes per 1100 ns
+		Assert.assertEquals(scheduler.estimateCost(unknown), 1000, 0.001);
+		Assert.assertEquals(scheduler.order(Lists.newArrayList(fast, slow)), Lists.newArrayList(slow, fast));
+	}
+
+	/** Tests that the tail is measured from the first worker running out of work to the last one finishing. */
+	@Test
+	public void testTail() {
+		final WorkScheduler.Run run = new WorkScheduler(2).startRun();
+		Assert.assertEquals(run.getTailNanos(), 0);
+
+		final InputDataFetcher fetcher = new FileSystemDataFetcher("a.txt", 0L, 10L);
+		run.record(fetcher, 0, 100);
+		run.record(fetcher, 0, 150);
+		run.record(fetcher, 100, 400); // The other worker is idle since 150
+		Assert.assertEquals(run.getTailNanos(), 250);
+	}
+
+	/** Tests that runs at the same time record their own chunks, and share throughput of the sources. */
+	@Test
+	public void testConcurrentRuns() {
+		final WorkScheduler scheduler = new WorkScheduler(2);
+		final WorkScheduler.Run first = scheduler.startRun();
+		first.record(new FileSystemDataFetcher("slow.txt", 0L, 100L), 0, 1000);
+		first.record(new FileSystemDataFetcher("slow.txt", 100L, 200L), 1000, 2000);
+
+		final WorkScheduler.Run second = scheduler.startRun();
+		second.record(new FileSystemDataFetcher("fast.txt", 0L, 1000L), 0, 100);
+		Assert.assertEquals(first.getTailNanos(), 1000);
+		Assert.assertEquals(second.getTailNanos(), 0);
+		Assert.assertTrue(first.toString().contains("2 chunk(s)"), first.toString());
+		Assert.assertTrue(second.toString().contains("1 chunk(s)"), second.toString());
+		Assert.assertEquals(scheduler.estimateCost(new FileSystemDataFetcher("slow.txt", 0L, 100L)), 1000, 0.001);
+	}
+
+	/** Tests that the tail is measured by the number of workers at the time, as workers may be resized. */
+	@Test
+	public void testResizedWorkers() {
+		final AtomicInteger workers = new AtomicInteger(1);
+		final WorkScheduler.Run run = new WorkScheduler(workers::get).startRun();
+		final InputDataFetcher fetcher = new FileSystemDataFetcher("a.txt", 0L, 10L);
+		run.record(fetcher, 0, 100);
+		run.record(fetcher, 0, 150);
+		run.record(fetcher, 100, 400);
+		Assert.assertEquals(run.getTailNanos(), 0);
+
+		workers.set(2);
+		Assert.assertEquals(run.getTailNanos(), 250);
+	}
+
+	/** Tests that throughput is kept only for the most recently measured sources. */
+	@Test
+	public void testBoundedThroughputHistory() {
+		final WorkScheduler scheduler = new WorkScheduler(2);
+		for (int i = 0; i <= WorkScheduler.MAX_MEASURED_SOURCES; i++) {
+			scheduler.record(new FileSystemDataFetcher(i + ".txt", 0L, 100L), 0, i == 0 ? 10000 : 100);
+			if (i == 1) {
+				// First source is measured again, so the second one is the least recently measured
+				scheduler.record(new FileSystemDataFetcher("0.txt", 0L, 100L), 0, 10000);
+			}
+		}
+
+		Assert.assertEquals(scheduler.getMeasuredSources(), WorkScheduler.MAX_MEASURED_SOURCES);
+		Assert.assertEquals(scheduler.estimateCost(new FileSystemDataFetcher("0.txt", 0L, 100L)), 10000, 0.001);
+		Assert.assertNotEquals(scheduler.estimateCost(new FileSystemDataFetcher("1.txt", 0L, 100L)), 100, 0.001);
+	}
+}
@@ -0,0 +1,66 @@
+package basiuktv.tfc.data.sampling;
+
+import java.util.Optional;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.processor.ProcessingResult;
+
+/** Tests for RatioEstimator. */
+public class RatioEstimatorTests {
+
+	/** Tests that the estimate is exact once every chunk is sampled. */
+	@Test
+	public void testWholePopulation() {
+		final RatioEstimator estimator = new RatioEstimator(3);
+		Assert.assertEquals(estimator.getHalfWidth(), Double.POSITIVE_INFINITY);
+		estimator.add(new ProcessingResult(1, 10, Optional.empty()));
+		estimator.add(new ProcessingResult(5, 20, Optional.empty()));
+		Assert.assertFalse(estimator.isWithin(0.5));
+		estimator.add(new ProcessingResult(0, 10, Optional.empty()));
+		Assert.assertEquals(estimator.getEstimate(), 0.15);
+		Assert.assertEquals(estimator.getHalfWidth(), 0.0);
+		Assert.assertTrue(estimator.isWithin(0.01));
+	}
+
+	/** Tests that the confidence interval covers the true frequency and shrinks as the sample grows. */
+	@Test
+	public void testIntervalCoversFrequency() {
+		final Random random = new Random(42);
+		final RatioEstimator estimator = new RatioEstimator(1000000);
+		double previousHalfWidth = Double.POSITIVE_INFINITY;
+		for (int sampleSize = 1; sampleSize <= 4000; sampleSize++) {
+			// Chunks of 1000 terms, every term matching with probability of 0.1
+			long matches = 0;
+			for (int i = 0; i < 1000; i++) {
+				matches += random.nextDouble() < 0.1 ? 1 : 0;
+			}
+
+			estimator.add(new ProcessingResult(matches, 1000, Optional.empty()));
+			if (sampleSize % 1000 == 0) {
+				Assert.assertTrue(estimator.getHalfWidth() < previousHalfWidth);
+				Assert.assertTrue(Math.abs(estimator.getEstimate() - 0.1) <= estimator.getHalfWidth());
+				previousHalfWidth = estimator.getHalfWidth();
+			}
+		}
+
+		// Binomial standard error of 4,000,000 terms is 0.00015
+		Assert.assertEquals(estimator.getHalfWidth(), 1.96 * 0.00015, 0.00002);
+		Assert.assertTrue(estimator.isWithin(0.01));
+	}
+
+	/** Tests that the estimate of zero is never precise enough, unless every chunk is sampled. */
+	@Test
+	public void testZeroEstimate() {
+		final RatioEstimator estimator = new RatioEstimator(1000);
+		for (int i = 0; i < 999; i++) {
+			estimator.add(new ProcessingResult(0, 100, Optional.empty()));
+		}
+
+		Assert.assertFalse(estimator.isWithin(0.5));
+		estimator.add(new ProcessingResult(0, 100, Optional.empty()));
+		Assert.assertTrue(estimator.isWithin(0.5));
+	}
+}
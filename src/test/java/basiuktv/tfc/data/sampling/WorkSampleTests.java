@@ -0,0 +1,88 @@
+package basiuktv.tfc.data.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+
+/** Tests for WorkSample. */
+public class WorkSampleTests {
+
+	private static final FileSystemWorkAppraiser APPRAISER =
+			new FileSystemWorkAppraiser(10, 10, new EnglishTermFrequencyCalculator());
+
+	/** Tests that every slice is drawn once and files take turns in proportion to their number of slices. */
+	@Test
+	public void testStratifiedDraw() throws IOException {
+		final Path directory = Files.createTempDirectory("tfc-test");
+		try {
+			final File large = writeFile(directory, "large.txt", 300); // 300 slices
+			final File small = writeFile(directory, "small.txt", 100); // 100 slices
+
+			// Estimate is never precise enough, as no results are added
+			final WorkSample sample = new WorkSample(Arrays.asList(large, small), APPRAISER, new Random(42), 0.01);
+			Assert.assertEquals(sample.getEstimator().getPopulationSize(), 400);
+
+			final Set<String> drawn = new HashSet<String>();
+			int drawnFromSmall = 0;
+			for (int i = 0; i < 400; i++) {
+				final InputDataFetcher slice = sample.next();
+				Assert.assertTrue(drawn.add(slice.getSource() + ":" + slice.getOffset()));
+				drawnFromSmall += slice.getSource().equals(small.getPath()) ? 1 : 0;
+				if (i == 39) {
+					Assert.assertEquals(drawnFromSmall, 10, 1); // A quarter of the slices is in the small file
+				}
+			}
+
+			Assert.assertFalse(sample.hasNext());
+			Assert.assertEquals(drawnFromSmall, 100);
+		} finally {
+			FileUtils.deleteDirectory(directory.toFile());
+		}
+	}
+
+	/** Tests that drawing stops once the estimate is precise enough. */
+	@Test
+	public void testStopsWhenPrecise() throws IOException {
+		final Path directory = Files.createTempDirectory("tfc-test");
+		try {
+			final List<File> files = Arrays.asList(writeFile(directory, "input.txt", 1000));
+			final WorkSample sample = new WorkSample(files, APPRAISER, new Random(42), 0.1);
+			int drawn = 0;
+			while (sample.hasNext()) {
+				sample.next();
+				sample.getEstimator().add(new ProcessingResult(1, 2, Optional.empty()));
+				drawn++;
+			}
+
+			Assert.assertEquals(drawn, RatioEstimator.MIN_SAMPLE_SIZE);
+			Assert.assertEquals(sample.getEstimator().getEstimate(), 0.5);
+		} finally {
+			FileUtils.deleteDirectory(directory.toFile());
+		}
+	}
+
+	/** Writes file of given number of 10 byte slices ("abcdefghi" followed by a space). */
+	private static File writeFile(final Path directory, final String name, final int slices) throws IOException {
+		final File file = directory.resolve(name).toFile();
+		Files.write(file.toPath(), StringUtils.repeat("abcdefghi ", slices).getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
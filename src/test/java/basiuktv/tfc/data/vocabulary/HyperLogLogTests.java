@@ -0,0 +1,68 @@
+package basiuktv.tfc.data.vocabulary;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Tests for HyperLogLog. */
+public class HyperLogLogTests {
+
+	/** Tests that small number of distinct terms is estimated (almost) exactly, no matter how often they repeat. */
+	@Test
+	public void testSmallCardinality() {
+		final HyperLogLog sketch = new HyperLogLog();
+		for (int repeat = 0; repeat < 10; repeat++) {
+			for (int i = 0; i < 100; i++) {
+				sketch.add("term" + i);
+			}
+		}
+
+		Assert.assertEquals(sketch.estimate(), 100L, 2L);
+	}
+
+	/** Tests that large number of distinct terms is estimated within three standard errors. */
+	@Test
+	public void testLargeCardinality() {
+		final HyperLogLog sketch = new HyperLogLog();
+		final int distinct = 100000;
+		for (int i = 0; i < distinct; i++) {
+			sketch.add("term" + i);
+		}
+
+		Assert.assertEquals(sketch.estimate(), distinct, 3 * sketch.getRelativeError() * distinct);
+	}
+
+	/** Tests that merging sketches of the parts gives the same sketch as adding everything into one. */
+	@Test
+	public void testMerge() {
+		final HyperLogLog whole = new HyperLogLog();
+		final HyperLogLog first = new HyperLogLog();
+		final HyperLogLog second = new HyperLogLog();
+		for (int i = 0; i < 20000; i++) {
+			whole.add("term" + i);
+			(i % 3 == 0 ? first : second).add("term" + i);
+		}
+
+		first.addAll(second);
+		Assert.assertEquals(first, whole);
+		Assert.assertEquals(first.estimate(), whole.estimate());
+	}
+
+	/** Tests that sketch is restored from its registers. */
+	@Test
+	public void testFromRegisters() {
+		final HyperLogLog sketch = new HyperLogLog(10);
+		for (int i = 0; i < 5000; i++) {
+			sketch.add("term" + i);
+		}
+
+		final HyperLogLog restored = HyperLogLog.fromRegisters(sketch.getRegisters());
+		Assert.assertEquals(restored, sketch);
+		Assert.assertEquals(restored.estimate(), sketch.estimate());
+	}
+
+	/** Tests that sketches of different precision are not merged. */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testMergeDifferentPrecision() {
+		new HyperLogLog(10).addAll(new HyperLogLog(12));
+	}
+}
@@ -0,0 +1,84 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/** Tests for OffHeapTermCounts. */
+public class OffHeapTermCountsTests {
+
+	/** Tests counting many terms across several arenas and index growths, compared to an on-heap map. */
+	@Test
+	public void testCountingMatchesHeapMap() {
+		final Random random = new Random(42);
+		final Map<String, Long> expected = new TreeMap<String, Long>();
+		try (final OffHeapTermCounts counts = new OffHeapTermCounts(4096)) {
+			for (int i = 0; i < 20000; i++) {
+				final String term = Integer.toString(random.nextInt(5000), 36) + (i % 3 == 0 ? "\u00e9" : "");
+				counts.add(term, 1);
+				expected.merge(term, 1L, Long::sum);
+			}
+
+			Assert.assertEquals(counts.size(), expected.size());
+			Assert.assertEquals(counts, expected);
+			Assert.assertNull(counts.get("not there"));
+
+			// Sorted iteration gives the same order as String.compareTo
+			final Iterator<Map.Entry<String, Long>> sorted = counts.sortedIterator();
+			for (final Map.Entry<String, Long> e : expected.entrySet()) {
+				Assert.assertEquals(sorted.next(), e);
+			}
+
+			Assert.assertFalse(sorted.hasNext());
+		}
+	}
+
+	/** Tests merging off-heap and on-heap counts. */
+	@Test
+	public void testMerge() {
+		try (final OffHeapTermCounts c1 = new OffHeapTermCounts();
+				final OffHeapTermCounts c2 = new OffHeapTermCounts()) {
+			c1.addAll(ImmutableMap.of("one", 1L, "two", 2L));
+			c2.addAll(ImmutableMap.of("two", 2L, "three", 3L));
+			c1.addAll(c2);
+			c1.put("four", 4L);
+			Assert.assertEquals(c1, ImmutableMap.of("one", 1L, "two", 4L, "three", 3L, "four", 4L));
+			Assert.assertEquals(c1.toString(), "{four=4, one=1, three=3, two=4}");
+		}
+	}
+
+	/** Tests writing sorted counts into a file. */
+	@Test
+	public void testWriteSorted() throws IOException {
+		final Path output = Files.createTempFile("tfc-test", ".tsv");
+		try (final OffHeapTermCounts counts = new OffHeapTermCounts()) {
+			counts.addAll(ImmutableMap.of("b", 2L, "a", 1L, "c", 3L));
+			counts.writeSorted(output);
+			Assert.assertEquals(Files.readAllLines(output, StandardCharsets.UTF_8),
+					Lists.newArrayList("a\t1", "b\t2", "c\t3"));
+		} finally {
+			Files.delete(output);
+		}
+	}
+
+	/** Tests that closed counts can't be used anymore. */
+	@Test(expectedExceptions={IllegalStateException.class})
+	public void testUseAfterClose() {
+		final OffHeapTermCounts counts = new OffHeapTermCounts();
+		counts.add("one", 1);
+		counts.close();
+		counts.close(); // Closing twice is fine
+		counts.add("one", 1);
+	}
+}
@@ -0,0 +1,60 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/** Tests for SpillingTermCounter. */
+public class SpillingTermCounterTests {
+
+	/** Tests that counts spilled into several runs get merged into exact sorted counts. */
+	@Test
+	public void testSpillAndMerge() throws IOException {
+		final Path scratch = Files.createTempDirectory("tfc-test");
+		final SpillingTermCounter counter = new SpillingTermCounter(scratch, 2);
+		counter.add(new HashMap<String, Long>(ImmutableMap.of("one", 1L, "two", 2L)));
+		counter.add(new HashMap<String, Long>(ImmutableMap.of("three", 3L)));
+		counter.add(new HashMap<String, Long>(ImmutableMap.of("two", 2L, "four", 4L)));
+		counter.add(new HashMap<String, Long>(ImmutableMap.of("one", 1L)));
+		Assert.assertEquals(counter.getSpilledRuns(), 2);
+
+		final Path output = scratch.resolve("vocabulary.tsv");
+		counter.finish(output);
+		Assert.assertEquals(Files.readAllLines(output, StandardCharsets.UTF_8),
+				Lists.newArrayList("four\t4", "one\t2", "three\t3", "two\t4"));
+
+		// Only the output file remains in the scratch parent directory
+		Assert.assertEquals(scratch.toFile().list().length, 1);
+	}
+
+	/** Tests merging more runs than can be merged at once. */
+	@Test
+	public void testMultiPassMerge() throws IOException {
+		final Path scratch = Files.createTempDirectory("tfc-test");
+		final SpillingTermCounter counter = new SpillingTermCounter(scratch, 1);
+		for (int i = 0; i < 300; i++) {
+			final Map<String, Long> counts = new HashMap<String, Long>();
+			counts.put("term" + (i % 100), 1L);
+			counts.put("common", 1L);
+			counter.add(counts);
+		}
+
+		final Path output = scratch.resolve("vocabulary.tsv");
+		counter.finish(output);
+		final List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+		Assert.assertEquals(lines.size(), 101);
+		Assert.assertEquals(lines.get(0), "common\t300");
+		Assert.assertEquals(lines.get(1), "term0\t3");
+		Assert.assertEquals(lines.get(100), "term99\t3");
+	}
+}
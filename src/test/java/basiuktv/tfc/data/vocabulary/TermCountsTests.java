@@ -0,0 +1,92 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/** Tests for TermCounts and TermDictionary. */
+public class TermCountsTests {
+
+	/** Tests that terms get dense IDs in order of first sight. */
+	@Test
+	public void testDictionaryIds() {
+		final TermDictionary dictionary = new TermDictionary();
+		Assert.assertEquals(dictionary.intern("one"), 0);
+		Assert.assertEquals(dictionary.intern("two"), 1);
+		Assert.assertEquals(dictionary.intern("one"), 0);
+		Assert.assertEquals(dictionary.lookup("three"), TermDictionary.NO_ID);
+		Assert.assertEquals(dictionary.term(1), "two");
+		Assert.assertEquals(dictionary.size(), 2);
+	}
+
+	/** Tests that counts sharing a dictionary are added up and read back as a map. */
+	@Test
+	public void testCountAndAdd() {
+		final TermDictionary dictionary = new TermDictionary();
+		final TermCounts c1 = new TermCounts(dictionary);
+		c1.increment("one");
+		c1.increment("two");
+		c1.increment("two");
+
+		final TermCounts c2 = new TermCounts(dictionary);
+		c2.increment("three");
+		c2.increment("two");
+
+		c1.addAll(c2);
+		final Map<String, Long> expected =
+				new HashMap<String, Long>(ImmutableMap.of("one", 1L, "two", 3L, "three", 1L));
+		Assert.assertEquals(c1, expected);
+		Assert.assertEquals(c1.size(), 3);
+		Assert.assertNull(c1.get("four"));
+		Assert.assertFalse(c2.containsKey("one")); // Known to the dictionary, but never counted by c2
+	}
+
+	/** Tests that counts hold only the terms they count, however large the shared dictionary is. */
+	@Test
+	public void testSparseCounts() {
+		final TermDictionary dictionary = new TermDictionary();
+		for (int i = 0; i < 100000; i++) {
+			dictionary.intern(Integer.toString(i));
+		}
+
+		final TermCounts counts = new TermCounts(dictionary);
+		counts.increment("99999");
+		counts.increment("new");
+		final int capacity = counts.capacity();
+		Assert.assertTrue(capacity < 1000, "Capacity of " + capacity + " slots for 2 terms.");
+		Assert.assertEquals(counts.size(), 2);
+
+		// Removed terms are left out once the counts grow, and may be counted again before that
+		Assert.assertEquals(counts.remove("new").longValue(), 1L);
+		Assert.assertEquals(counts.put("99999", 7L).longValue(), 1L);
+		counts.increment("new");
+		Assert.assertEquals(counts, ImmutableMap.of("99999", 7L, "new", 1L));
+		for (int i = 0; i < capacity; i++) {
+			counts.increment(Integer.toString(i));
+			counts.remove(Integer.toString(i));
+		}
+
+		Assert.assertEquals(counts, ImmutableMap.of("99999", 7L, "new", 1L));
+		Assert.assertEquals(counts.capacity(), capacity);
+	}
+
+	/** Tests growing counts past their initial capacity. */
+	@Test
+	public void testGrowth() {
+		final TermDictionary dictionary = new TermDictionary();
+		final TermCounts counts = new TermCounts(dictionary);
+		final int terms = 3 * counts.capacity();
+		for (int i = 0; i < terms; i++) {
+			counts.increment(Integer.toString(i));
+		}
+
+		counts.put("0", 5L);
+		Assert.assertEquals(counts.size(), terms);
+		Assert.assertEquals(counts.get("0").longValue(), 5L);
+		Assert.assertEquals(counts.get(Integer.toString(terms - 1)).longValue(), 1L);
+	}
+}
@@ -0,0 +1,91 @@
+package basiuktv.tfc.data.vocabulary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/** Tests for VocabularyReport. */
+public class VocabularyReportTests {
+
+	private static final Map<String, Long> COUNTS =
+			ImmutableMap.of("beta", 2L, "alpha", 2L, "gamma", 7L, "delta", 1L);
+
+	/** Tests TSV lines sorted by count (highest first), with equal counts sorted by term. */
+	@Test
+	public void testTsvByCount() throws IOException {
+		Assert.assertEquals(write(COUNTS, VocabularyReport.Format.TSV, VocabularyReport.Order.COUNT),
+				"gamma\t7\nalpha\t2\nbeta\t2\ndelta\t1\n");
+	}
+
+	/** Tests JSON lines sorted by term, with characters which must be escaped. */
+	@Test
+	public void testJsonLinesByTerm() throws IOException {
+		final Map<String, Long> counts = ImmutableMap.of("b\"\\", 3L, "a\u0001\u00e9", 4L);
+		Assert.assertEquals(write(counts, VocabularyReport.Format.JSON_LINES, VocabularyReport.Order.TERM),
+				"{\"term\":\"a\\u0001\u00e9\",\"count\":4}\n{\"term\":\"b\\\"\\\\\",\"count\":3}\n");
+	}
+
+	/** Tests sorting many terms of various lengths (down to the trailing \0 chars) the same way as TreeMap does. */
+	@Test
+	public void testManyTermsByTerm() throws IOException {
+		final char[] alphabet = {'\0', 'a', 'b', '\u00e9', '\uff21'};
+		final Random random = new Random(42);
+		final Map<String, Long> expected = new TreeMap<String, Long>();
+		for (int i = 0; i < 20000; i++) {
+			final char[] term = new char[random.nextInt(8)];
+			for (int j = 0; j < term.length; j++) {
+				term[j] = alphabet[random.nextInt(alphabet.length)];
+			}
+
+			expected.merge(new String(term), 1L, Long::sum);
+		}
+
+		final StringBuilder expectedReport = new StringBuilder();
+		expected.forEach((term, count) -> expectedReport.append(term).append('\t').append(count).append('\n'));
+		Assert.assertEquals(write(new HashMap<String, Long>(expected), VocabularyReport.Format.TSV,
+				VocabularyReport.Order.TERM), expectedReport.toString());
+	}
+
+	/** Tests that counts too high to be packed into sort keys are still sorted by count. */
+	@Test
+	public void testHighCounts() throws IOException {
+		final Map<String, Long> counts = ImmutableMap.of("a", 1L, "b", Long.MAX_VALUE, "c", 1L << 40, "d", 1L << 40);
+		Assert.assertEquals(write(counts, VocabularyReport.Format.TSV, VocabularyReport.Order.COUNT),
+				"b\t" + Long.MAX_VALUE + "\nc\t" + (1L << 40) + "\nd\t" + (1L << 40) + "\na\t1\n");
+	}
+
+	/** Tests that every kind of term counts gives the same report. */
+	@Test
+	public void testTermCountsImplementations() throws IOException {
+		final TermCounts termCounts = new TermCounts(new TermDictionary());
+		try (final OffHeapTermCounts offHeapCounts = new OffHeapTermCounts()) {
+			for (final Map.Entry<String, Long> e : COUNTS.entrySet()) {
+				termCounts.put(e.getKey(), e.getValue());
+				offHeapCounts.add(e.getKey(), e.getValue());
+			}
+
+			for (final VocabularyReport.Order order : VocabularyReport.Order.values()) {
+				final String expected = write(COUNTS, VocabularyReport.Format.TSV, order);
+				Assert.assertEquals(write(termCounts, VocabularyReport.Format.TSV, order), expected);
+				Assert.assertEquals(write(offHeapCounts, VocabularyReport.Format.TSV, order), expected);
+			}
+		}
+	}
+
+	private static String write(final Map<String, Long> counts, final VocabularyReport.Format format,
+			final VocabularyReport.Order order) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(new VocabularyReport(format, order).write(counts, Channels.newChannel(out)), counts.size());
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
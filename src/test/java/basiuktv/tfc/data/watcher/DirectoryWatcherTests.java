@@ -0,0 +1,242 @@
+package basiuktv.tfc.data.watcher;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.cli.ParseException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.InputDataProcessor;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.processor.SimpleProcessor;
+import basiuktv.tfc.engine.Query;
+import basiuktv.tfc.launcher.CLIOptions;
+import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+
+/** Tests for DirectoryWatcher. */
+public class DirectoryWatcherTests {
+
+	private static final long DEBOUNCE_MS = 200;
+	private static final long REPORT_INTERVAL_MS = 50;
+	private static final long TIMEOUT_MS = 10000;
+
+	/** Tests that only the newly appended byte range of a modified file is processed. */
+	@Test(timeOut=30000)
+	public void testAppendedRange() throws IOException, ParseException, InterruptedException {
+		try (final WatchedDirectory watched = new WatchedDirectory(DEBOUNCE_MS)) {
+			watched.write("log.txt", "the first line\n");
+			Assert.assertEquals(watched.awaitCall(0), Arrays.asList("log.txt:0-15"));
+
+			watched.append("log.txt", "the second line, the end\n");
+			Assert.assertEquals(watched.awaitCall(1), Arrays.asList("log.txt:15-40"));
+			watched.awaitMatches(3);
+		}
+	}
+
+	/** Tests that a truncated file, as well as a file replaced by another one, is processed again from the start. */
+	@Test(timeOut=30000)
+	public void testTruncationAndReplacement() throws IOException, ParseException, InterruptedException {
+		try (final WatchedDirectory watched = new WatchedDirectory(DEBOUNCE_MS)) {
+			watched.write("log.txt", "the first line\n");
+			Assert.assertEquals(watched.awaitCall(0), Arrays.asList("log.txt:0-15"));
+
+			watched.write("log.txt", "the line\n");
+			Assert.assertEquals(watched.awaitCall(1), Arrays.asList("log.txt:0-9"));
+
+			// Longer file moved in place of the processed one is not mistaken for an appended one
+			final Path replacement = Files.createTempFile("tfc-test", ".txt");
+			Files.write(replacement, "the rotated log file\n".getBytes(StandardCharsets.UTF_8));
+			Files.move(replacement, watched.directory.resolve("log.txt"), StandardCopyOption.REPLACE_EXISTING);
+			Assert.assertEquals(watched.awaitCall(2), Arrays.asList("log.txt:0-21"));
+		}
+	}
+
+	/** Tests that an append ending within a term is processed up to its last separator, the rest with the next one. */
+	@Test(timeOut=30000)
+	public void testAppendEndingWithinTerm() throws IOException, ParseException, InterruptedException {
+		try (final WatchedDirectory watched = new WatchedDirectory(DEBOUNCE_MS)) {
+			watched.write("log.txt", "the first line\nthe");
+			Assert.assertEquals(watched.awaitCall(0), Arrays.asList("log.txt:0-15"));
+
+			// Term "theory" is counted once it's complete, rather than as "the" and "ory"
+			watched.append("log.txt", "ory of the end\n");
+			Assert.assertEquals(watched.awaitCall(1), Arrays.asList("log.txt:15-33"));
+			watched.awaitMatches(2);
+			Assert.assertEquals(watched.lastReport.get().getAllTermsCount(), 7L);
+		}
+	}
+
+	/** Tests that content of a replaced or deleted file no longer counts in the running result. */
+	@Test(timeOut=30000)
+	public void testReplacedContentNotCounted() throws IOException, ParseException, InterruptedException {
+		try (final WatchedDirectory watched = new WatchedDirectory(DEBOUNCE_MS)) {
+			watched.write("other.txt", "the other file\n");
+			watched.write("log.txt", "the first line, the end\n");
+			watched.awaitMatches(3);
+
+			final Path replacement = Files.createTempFile("tfc-test", ".txt");
+			Files.write(replacement, "a rotated log file, longer than the old one\n".getBytes(StandardCharsets.UTF_8));
+			Files.move(replacement, watched.directory.resolve("log.txt"), StandardCopyOption.REPLACE_EXISTING);
+			watched.awaitMatches(2);
+			Assert.assertEquals(watched.lastReport.get().getAllTermsCount(), 12L);
+
+			Files.delete(watched.directory.resolve("log.txt"));
+			watched.awaitMatches(1);
+			Assert.assertEquals(watched.lastReport.get().getAllTermsCount(), 3L);
+		}
+	}
+
+	/** Tests that a burst of modifications of the same file is processed at once, once the file stays quiet. */
+	@Test(timeOut=30000)
+	public void testDebounce() throws IOException, ParseException, InterruptedException {
+		try (final WatchedDirectory watched = new WatchedDirectory(5 * DEBOUNCE_MS)) {
+			watched.write("log.txt", "");
+			for (int i = 0; i < 5; i++) {
+				watched.append("log.txt", "the line\n");
+				Thread.sleep(DEBOUNCE_MS / 10);
+			}
+
+			Assert.assertEquals(watched.awaitCall(0), Arrays.asList("log.txt:0-45"));
+			Thread.sleep(10 * DEBOUNCE_MS);
+			Assert.assertEquals(watched.getCalls(), 1);
+		}
+	}
+
+	/** Tests that a deleted file is not processed and a file created later under its name is processed in full. */
+	@Test(timeOut=30000)
+	public void testDeletion() throws IOException, ParseException, InterruptedException {
+		try (final WatchedDirectory watched = new WatchedDirectory(DEBOUNCE_MS)) {
+			watched.write("log.txt", "the first line\n");
+			Assert.assertEquals(watched.awaitCall(0), Arrays.asList("log.txt:0-15"));
+
+			Files.delete(watched.directory.resolve("log.txt"));
+			Thread.sleep(5 * DEBOUNCE_MS);
+			Assert.assertEquals(watched.getCalls(), 1);
+
+			watched.write("log.txt", "the new log file, longer than the old one\n");
+			Assert.assertEquals(watched.awaitCall(1), Arrays.asList("log.txt:0-42"));
+		}
+	}
+
+	/** Directory watched by a DirectoryWatcher running in a thread of its own, until closed. */
+	private static class WatchedDirectory implements Closeable {
+
+		private final Path directory;
+		private final RecordingProcessor processor = new RecordingProcessor();
+		private final AtomicReference<ProcessingResult> lastReport = new AtomicReference<ProcessingResult>();
+		private final Thread thread;
+
+		WatchedDirectory(final long debounceMillis) throws IOException, ParseException, InterruptedException {
+			this.directory = Files.createTempDirectory("tfc-test");
+			final CLIOptions options = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, "the",
+					"-" + CLIOptions.SKIP_TYPE_CHECK_SHORT,
+					"-" + CLIOptions.DIRECTORY_SHORT, this.directory.toString()});
+			final DirectoryWatcher watcher = new DirectoryWatcher(
+					new FileSystemWorkAppraiser(1000000, 100, new EnglishTermFrequencyCalculator()),
+					this.processor, debounceMillis);
+
+			// The first report follows the initial scan, so the directory is watched by then
+			final CountDownLatch watching = new CountDownLatch(1);
+			this.thread = new Thread(() -> {
+				try {
+					watcher.watch(options, REPORT_INTERVAL_MS, result -> {
+						this.lastReport.set(result);
+						watching.countDown();
+					});
+				} catch (final IOException | InterruptedException e) {
+					// Watching is over
+				}
+			});
+			this.thread.setDaemon(true);
+			this.thread.start();
+			Assert.assertTrue(watching.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		}
+
+		void write(final String name, final String text) throws IOException {
+			Files.write(this.directory.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+		}
+
+		void append(final String name, final String text) throws IOException {
+			Files.write(this.directory.resolve(name), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		}
+
+		int getCalls() {
+			return this.processor.calls.size();
+		}
+
+		/** Waits for the processor to be called given number of times before, returns work of the next call. */
+		List<String> awaitCall(final int previousCalls) throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (this.getCalls() <= previousCalls) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline, "Processor was not called in time.");
+				Thread.sleep(REPORT_INTERVAL_MS);
+			}
+
+			return this.processor.calls.get(previousCalls);
+		}
+
+		/** Waits for the running result to count given number of matches. */
+		void awaitMatches(final long matches) throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (this.lastReport.get().getTermMatchCount() != matches) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline, "Running result was not reported in time.");
+				Thread.sleep(REPORT_INTERVAL_MS);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.thread.interrupt();
+			try {
+				this.thread.join(TIMEOUT_MS);
+			} catch (final InterruptedException e) {
+				throw new IOException(e);
+			}
+
+			MoreFiles.deleteRecursively(this.directory, RecursiveDeleteOption.ALLOW_INSECURE);
+		}
+	}
+
+	/** SimpleProcessor recording work of every call as "file name:start-end" of every chunk. */
+	private static class RecordingProcessor implements InputDataProcessor {
+
+		private final List<List<String>> calls = Collections.synchronizedList(new ArrayList<List<String>>());
+
+		@Override
+		public ProcessingResult processWork(final Iterator<InputDataFetcher> work, final Query query,
+				final BiConsumer<InputDataFetcher, ProcessingResult> partialResultListener) throws IOException {
+			final List<InputDataFetcher> fetchers = new ArrayList<InputDataFetcher>();
+			final List<String> ranges = new ArrayList<String>();
+			work.forEachRemaining(fetcher -> {
+				fetchers.add(fetcher);
+				ranges.add(String.format("%s:%d-%d",
+						new File(fetcher.getSource()).getName(), fetcher.getOffset(), fetcher.getLimit()));
+			});
+
+			final ProcessingResult result = new SimpleProcessor().processWork(fetchers, query, partialResultListener);
+			this.calls.add(ranges);
+			return result;
+		}
+	}
+}
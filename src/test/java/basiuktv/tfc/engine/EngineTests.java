@@ -0,0 +1,82 @@
+package basiuktv.tfc.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.appraiser.FileSystemWorkAppraiser;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.processor.SimpleProcessor;
+import basiuktv.tfc.text.EnglishTermFrequencyCalculator;
+
+/** Tests for Engine. */
+public class EngineTests {
+
+	private static final String RANDOM_TERM_FILE = "src\\test\\data\\randomterm1.txt";
+	private static final String SMALL_RANDOM_FILE = "src\\test\\data\\smallrandom.txt";
+
+	/** Tests that queries run by one engine at the same time give the same results as run one by one. */
+	@Test
+	public void testConcurrentQueries() throws Exception {
+		final List<File> files = Arrays.asList(new File(RANDOM_TERM_FILE), new File(SMALL_RANDOM_FILE));
+		final List<Query> queries = Arrays.asList(
+				Query.builder("the").build(),
+				Query.builder("a*").matchCount(true).build(),
+				Query.builder("and").everyTermCount(true).build(),
+				Query.builder("of").distinctEstimate(true).build());
+
+		final List<ProcessingResult> expectedResults = new ArrayList<ProcessingResult>();
+		for (final Query query : queries) {
+			expectedResults.add(new SimpleProcessor().processWork(
+					new FileSystemWorkAppraiser(100, 100, new EnglishTermFrequencyCalculator()).appraiseWork(files),
+					query));
+		}
+
+		final ExecutorService callers = Executors.newFixedThreadPool(queries.size());
+		try (final Engine engine = new Engine()) {
+			// Every query runs a few times, so runs of different queries overlap
+			for (int round = 0; round < 3; round++) {
+				final List<Future<ProcessingResult>> results = new ArrayList<Future<ProcessingResult>>();
+				for (final Query query : queries) {
+					results.add(callers.submit(() -> engine.run(query, files)));
+				}
+
+				for (int i = 0; i < queries.size(); i++) {
+					final ProcessingResult result = results.get(i).get();
+					final ProcessingResult expected = expectedResults.get(i);
+					Assert.assertEquals(result.getTermMatchCount(), expected.getTermMatchCount());
+					Assert.assertEquals(result.getAllTermsCount(), expected.getAllTermsCount());
+					Assert.assertEquals(result.getEveryTermCount(), expected.getEveryTermCount());
+					Assert.assertEquals(result.getMatchingTermCount(), expected.getMatchingTermCount());
+					Assert.assertEquals(result.getDistinctTerms(), expected.getDistinctTerms());
+				}
+			}
+		} finally {
+			callers.shutdown();
+		}
+	}
+
+	/** Tests that running a query over a stream gives the same result as over the same file. */
+	@Test
+	public void testStreamMatchesFile() throws IOException {
+		final Query query = Query.builder("the").everyTermCount(true).build();
+		try (final Engine engine = new Engine(2)) {
+			final ProcessingResult fileResult = engine.run(query, Arrays.asList(new File(RANDOM_TERM_FILE)));
+			final ProcessingResult streamResult = engine.run(query,
+					new ByteArrayInputStream(Files.readAllBytes(new File(RANDOM_TERM_FILE).toPath())), "test");
+			Assert.assertEquals(streamResult.getTermMatchCount(), fileResult.getTermMatchCount());
+			Assert.assertEquals(streamResult.getAllTermsCount(), fileResult.getAllTermsCount());
+			Assert.assertEquals(streamResult.getEveryTermCount(), fileResult.getEveryTermCount());
+		}
+	}
+}
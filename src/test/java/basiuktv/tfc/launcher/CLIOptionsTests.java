@@ -4,6 +4,10 @@ import org.apache.commons.cli.ParseException;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import basiuktv.tfc.data.processor.ThreadPoolExecutorProcessor;
+import basiuktv.tfc.data.vocabulary.VocabularyReport;
+import basiuktv.tfc.engine.Query;
+
 /** Tests for CLIOptions. */
 public class CLIOptionsTests {
 
@@ -110,4 +114,200 @@ public class CLIOptionsTests {
 		final CLIOptions testOptions = new CLIOptions(testArgs);
 		Assert.assertEquals(testOptions.getDirectory().get(), ".");
 	}
+
+	/** Tests parsing watch interval CLI argument. */
+	@Test
+	public void testWatchIntervalParsing() throws ParseException {
+		final String[] testArgs = {
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM,
+				"-" + CLIOptions.DIRECTORY_SHORT, TEST_DIRECTORY,
+				"--" + CLIOptions.WATCH_LONG, "60"};
+
+		final CLIOptions testOptions = new CLIOptions(testArgs);
+		Assert.assertEquals(testOptions.getWatchInterval().get(), new Integer(60));
+	}
+
+	/** Tests that watching without input directory or with non-positive interval causes an exception. */
+	@Test
+	public void testInvalidWatchArguments() throws ParseException {
+		final String[][] invalidArgs = {
+				{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "-" + CLIOptions.WATCH_SHORT, "60", TEST_FILE_0},
+				{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "-" + CLIOptions.DIRECTORY_SHORT, TEST_DIRECTORY,
+					"-" + CLIOptions.WATCH_SHORT, "0"},
+				{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "-" + CLIOptions.DIRECTORY_SHORT, TEST_DIRECTORY,
+					"-" + CLIOptions.WATCH_SHORT, "soon"}};
+
+		for (final String[] testArgs : invalidArgs) {
+			try {
+				new CLIOptions(testArgs);
+				Assert.fail("IllegalArgumentException was expected by now.");
+			} catch (IllegalArgumentException e) {
+				// All is good
+			}
+		}
+	}
+
+	/** Tests parsing memory budget CLI argument (in megabytes). */
+	@Test
+	public void testMemoryBudgetParsing() throws ParseException {
+		final String[] testArgs = {
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM,
+				"-" + CLIOptions.MEMORY_BUDGET_SHORT, "256",
+				TEST_FILE_0};
+
+		final CLIOptions testOptions = new CLIOptions(testArgs);
+		Assert.assertEquals(testOptions.getMemoryBudget().get(), new Long(256L * 1024 * 1024));
+	}
+
+	/** Tests that standard input is accepted as the only input source, but not combined with files. */
+	@Test
+	public void testStdinParsing() throws ParseException {
+		final CLIOptions testOptions = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.STDIN_LONG});
+		Assert.assertTrue(testOptions.isStdin());
+		Assert.assertTrue(testOptions.getAdditionalFiles().isEmpty());
+
+		try {
+			new CLIOptions(new String[]{
+					"-" + CLIOptions.TERM_SHORT, TEST_TERM, "-" + CLIOptions.STDIN_SHORT, TEST_FILE_0});
+			Assert.fail("IllegalArgumentException was expected by now.");
+		} catch (IllegalArgumentException e) {
+			// All is good
+		}
+	}
+
+	/** Tests parsing approximation CLI argument (in percent), which needs input files. */
+	@Test
+	public void testApproximationParsing() throws ParseException {
+		final CLIOptions testOptions = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.APPROXIMATE_LONG, "0.5", TEST_FILE_0});
+		Assert.assertEquals(testOptions.getApproximation().get(), 0.005, 1e-12);
+
+		final String[][] invalidArgs = {
+				{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.APPROXIMATE_LONG, "0", TEST_FILE_0},
+				{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.APPROXIMATE_LONG, "1",
+						"-" + CLIOptions.STDIN_SHORT}};
+
+		for (final String[] testArgs : invalidArgs) {
+			try {
+				new CLIOptions(testArgs);
+				Assert.fail("IllegalArgumentException was expected by now.");
+			} catch (IllegalArgumentException e) {
+				// All is good
+			}
+		}
+	}
+
+	/** Tests parsing deadline CLI argument (in seconds), which needs input files. */
+	@Test
+	public void testDeadlineParsing() throws ParseException {
+		final CLIOptions testOptions = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.DEADLINE_LONG, "2.5", TEST_FILE_0});
+		Assert.assertEquals(testOptions.getDeadline().get().longValue(), 2500L);
+		Assert.assertEquals(testOptions.toQuery().getDeadline(), testOptions.getDeadline());
+
+		try {
+			new CLIOptions(new String[]{
+					"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.DEADLINE_LONG, "1",
+					"-" + CLIOptions.STDIN_SHORT});
+			Assert.fail("IllegalArgumentException was expected by now.");
+		} catch (IllegalArgumentException e) {
+			// All is good
+		}
+	}
+
+	/** Tests parsing format and order of every term count printed when verbose. */
+	@Test
+	public void testReportParsing() throws ParseException {
+		final CLIOptions testOptions = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM, "-" + CLIOptions.VERBOSE_SHORT,
+				"--" + CLIOptions.REPORT_FORMAT_LONG, "json-lines", "--" + CLIOptions.REPORT_ORDER_LONG, "term",
+				TEST_FILE_0});
+		Assert.assertEquals(testOptions.getReportFormat(), VocabularyReport.Format.JSON_LINES);
+		Assert.assertEquals(testOptions.getReportOrder(), VocabularyReport.Order.TERM);
+
+		// Unknown format, and order without verbose
+		for (final String[] args : new String[][]{
+				{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "-" + CLIOptions.VERBOSE_SHORT,
+						"--" + CLIOptions.REPORT_FORMAT_LONG, "xml", TEST_FILE_0},
+				{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.REPORT_ORDER_LONG, "term", TEST_FILE_0}}) {
+			try {
+				new CLIOptions(args);
+				Assert.fail("IllegalArgumentException was expected by now.");
+			} catch (IllegalArgumentException e) {
+				// All is good
+			}
+		}
+	}
+
+	/** Tests parsing fixed number and bounds of number of workers. */
+	@Test
+	public void testWorkersParsing() throws ParseException {
+		CLIOptions testOptions = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, TEST_TERM, TEST_FILE_0});
+		Assert.assertEquals(testOptions.getMinWorkers(), ThreadPoolExecutorProcessor.DEFAULT_MIN_WORKERS);
+		Assert.assertEquals(testOptions.getMaxWorkers(), ThreadPoolExecutorProcessor.DEFAULT_MAX_WORKERS);
+
+		testOptions = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.WORKERS_LONG, "3", TEST_FILE_0});
+		Assert.assertEquals(testOptions.getMinWorkers(), 3);
+		Assert.assertEquals(testOptions.getMaxWorkers(), 3);
+
+		testOptions = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.WORKERS_LONG, "2-64", TEST_FILE_0});
+		Assert.assertEquals(testOptions.getMinWorkers(), 2);
+		Assert.assertEquals(testOptions.getMaxWorkers(), 64);
+
+		for (final String workers : new String[]{"0", "8-4", "2-", "-4", "many"}) {
+			try {
+				new CLIOptions(new String[]{
+						"-" + CLIOptions.TERM_SHORT, TEST_TERM, "--" + CLIOptions.WORKERS_LONG, workers, TEST_FILE_0});
+				Assert.fail("IllegalArgumentException was expected by now.");
+			} catch (IllegalArgumentException e) {
+				// All is good
+			}
+		}
+	}
+
+	/** Tests parsing match positions output, which can't be written for work that isn't processed in full. */
+	@Test
+	public void testPositionsParsing() throws ParseException {
+		final CLIOptions testOptions = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, TEST_TERM,
+				"--" + CLIOptions.POSITIONS_LONG, "positions.tsv", TEST_FILE_0});
+		Assert.assertEquals(testOptions.getPositionsOutput().get(), "positions.tsv");
+		Assert.assertEquals(testOptions.toQuery().getPositionsOutput(), testOptions.getPositionsOutput());
+
+		for (final String option : new String[]{CLIOptions.DEDUP_LONG, CLIOptions.JOURNAL_LONG + "=journal.txt",
+				CLIOptions.APPROXIMATE_LONG + "=5"}) {
+			try {
+				new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, TEST_TERM,
+						"--" + CLIOptions.POSITIONS_LONG, "positions.tsv", "--" + option, TEST_FILE_0});
+				Assert.fail("IllegalArgumentException was expected by now.");
+			} catch (IllegalArgumentException e) {
+				// All is good
+			}
+		}
+	}
+
+	/** Tests that parsed CLI arguments describe the same Query as the builder does. */
+	@Test
+	public void testToQuery() throws ParseException {
+		final Query query = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM,
+				"-" + CLIOptions.VERBOSE_SHORT,
+				"-" + CLIOptions.MEMORY_BUDGET_SHORT, "10",
+				"--" + CLIOptions.MATCH_COUNTS_LONG,
+				TEST_FILE_0}).toQuery();
+		Assert.assertEquals(query.getTerm(), TEST_TERM);
+		Assert.assertTrue(query.isVerbose());
+		Assert.assertTrue(query.isEveryTermCountRequested());
+		Assert.assertTrue(query.isMatchCountRequested());
+		Assert.assertFalse(query.isDistinctEstimateRequested());
+		Assert.assertEquals(query.getMemoryBudget().get().longValue(), 10L * 1024 * 1024);
+		Assert.assertFalse(query.getJournal().isPresent());
+
+		final Query minimal =
+				new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, TEST_TERM, TEST_FILE_0}).toQuery();
+		Assert.assertFalse(minimal.isEveryTermCountRequested());
+		Assert.assertFalse(minimal.getMemoryBudget().isPresent());
+	}
 }
@@ -0,0 +1,61 @@
+package basiuktv.tfc.launcher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.fetchers.FileSystemDataFetcher;
+import basiuktv.tfc.data.fetchers.InputDataFetcher;
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.data.processor.ThreadPoolExecutorProcessor;
+import basiuktv.tfc.data.processor.WorkCoverage;
+import basiuktv.tfc.engine.Query;
+
+/** Tests for QueryLauncher. */
+public class QueryLauncherTests {
+
+	private static final String RANDOM_TERM_FILE = "src\\test\\data\\randomterm1.txt";
+
+	/** Tests that a deadline passing before any work is completed is told instead of a frequency of 0 / 0. */
+	@Test(timeOut=10000)
+	public void testNothingCoveredBeforeDeadline() throws IOException {
+		final List<InputDataFetcher> work = Collections.singletonList(
+				new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 10L) {
+					@Override
+					public int fetchData(final ByteBuffer buffer) throws IOException {
+						try {
+							Thread.sleep(1000);
+						} catch (final InterruptedException e) {
+							throw new IOException(e);
+						}
+
+						return super.fetchData(buffer);
+					}
+				});
+
+		final Query query = Query.builder("the").deadline(1).build();
+		final WorkCoverage coverage = new WorkCoverage(work);
+		try (final ThreadPoolExecutorProcessor processor = new ThreadPoolExecutorProcessor()) {
+			final ProcessingResult result =
+					processor.processWork(work, query, (fetcher, partialResult) -> coverage.add(fetcher));
+			Assert.assertEquals(result.getAllTermsCount(), 0L);
+			Assert.assertEquals(QueryLauncher.describePartialResult(result, coverage),
+					"NO RESULT (no input covered before deadline passed: 0.00% of input covered (0 of 10 bytes))");
+		}
+	}
+
+	/** Tests that a result covering part of the input tells its frequency along with the input covered. */
+	@Test
+	public void testPartialResult() {
+		final List<InputDataFetcher> work = Collections.singletonList(
+				new FileSystemDataFetcher(RANDOM_TERM_FILE, 0L, 10L));
+		final WorkCoverage coverage = new WorkCoverage(work);
+		Assert.assertEquals(QueryLauncher.describePartialResult(new ProcessingResult(1, 4, Optional.empty()), coverage),
+				"0.2500000000 (PARTIAL RESULT, deadline passed: 0.00% of input covered (0 of 10 bytes))");
+	}
+}
@@ -0,0 +1,118 @@
+package basiuktv.tfc.text;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import basiuktv.tfc.data.processor.ProcessingResult;
+import basiuktv.tfc.engine.Query;
+
+/**
+ * Tests for CountOnlyTermCounter, comparing its counts with the ones of splitIntoTerms over decoded text, and its match
+ * positions with the ones findMatches finds.
+ */
+public class CountOnlyTermCounterTests {
+
+	private static final TermFrequencyCalculator CALCULATOR = new EnglishTermFrequencyCalculator();
+
+	// Random text is made of these pieces: terms (in any case), separators, trimmers and non-ASCII chars. Every
+	// other text has no KELVIN SIGN (the last piece), so terms with 'k' are counted in bytes too.
+	private static final String[] PIECES = {
+		"the", "The", "THE", "they", "bathe", "t", "he", "k", "ok", "don't", "one-two", " ", ".", ",", "\n", "\r\n",
+		"(", ")", "-", "'", "\"", "--", "\u00e9", "TH\u00c9", "\u0130", "\ud83d\ude00", "\u212a"};
+	private static final String[] TERMS = {"the", "k", "ok", "don't", "one-two", "t", "-the", "the'", "t he", "The"};
+	private static final int TEXTS = 300;
+	private static final int PIECES_PER_TEXT = 200;
+
+	/** Tests that counts are the same as splitIntoTerms gives, for random text and every kind of term. */
+	@Test
+	public void testSameCountsAsSplitting() {
+		final Random random = new Random(42);
+		for (int i = 0; i < TEXTS; i++) {
+			final ByteArrayOutputStream text = new ByteArrayOutputStream();
+			for (int j = 0; j < PIECES_PER_TEXT; j++) {
+				if (random.nextInt(50) == 0) {
+					text.write(0xC3 - random.nextInt(2) * 0x40); // Malformed UTF-8
+				} else {
+					final byte[] piece = PIECES[random.nextInt(PIECES.length - i % 2)].getBytes(StandardCharsets.UTF_8);
+					text.write(piece, 0, piece.length);
+				}
+			}
+
+			for (final String term : TERMS) {
+				this.checkSameCounts(text.toByteArray(), term);
+			}
+		}
+	}
+
+	/** Tests counting terms in a part of a larger buffer, at its very ends and around trimmers only terms. */
+	@Test
+	public void testEdges() {
+		this.checkSameCounts("the".getBytes(StandardCharsets.UTF_8), "the");
+		this.checkSameCounts("'the' -- \"the\"-".getBytes(StandardCharsets.UTF_8), "the");
+		this.checkSameCounts(new byte[0], "the");
+
+		final ByteBuffer data = ByteBuffer.wrap("xthe the thex".getBytes(StandardCharsets.UTF_8), 1, 11).slice();
+		final ProcessingResult result = CALCULATOR.countTerms(data, Query.builder("the").build()).get();
+		Assert.assertEquals(result.getTermMatchCount(), 3L);
+		Assert.assertEquals(result.getAllTermsCount(), 3L);
+		Assert.assertEquals(data.position(), 0);
+	}
+
+	/** Tests that queries and texts which can't be counted in bytes are left to splitIntoTerms. */
+	@Test
+	public void testFallbacks() {
+		final ByteBuffer data = ByteBuffer.wrap("ok \u212a".getBytes(StandardCharsets.UTF_8));
+		Assert.assertFalse(CALCULATOR.countTerms(data, Query.builder("k").build()).isPresent());
+		Assert.assertTrue(CALCULATOR.countTerms(data, Query.builder("no").build()).isPresent());
+		Assert.assertFalse(CALCULATOR.countTerms(data, Query.builder("o*").build()).isPresent());
+		Assert.assertFalse(CALCULATOR.countTerms(data, Query.builder("\u00e9").build()).isPresent());
+		Assert.assertFalse(CALCULATOR.countTerms(data, Query.builder("ok").matchCount(true).build()).isPresent());
+		Assert.assertFalse(CALCULATOR.countTerms(data, Query.builder("ok").verbose(true).build()).isPresent());
+		Assert.assertFalse(
+				CALCULATOR.countTerms(ByteBuffer.allocateDirect(1), Query.builder("ok").build()).isPresent());
+
+		final Locale defaultLocale = Locale.getDefault();
+		try {
+			Locale.setDefault(new Locale("tr"));
+			Assert.assertFalse(CALCULATOR.countTerms(data, Query.builder("ok").build()).isPresent());
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	private void checkSameCounts(final byte[] text, final String term) {
+		final Query query = Query.builder(term).build();
+		final Optional<ProcessingResult> counted = CALCULATOR.countTerms(ByteBuffer.wrap(text), query);
+		final ProcessingResult split =
+				CALCULATOR.splitIntoTerms(new String(text, StandardCharsets.UTF_8), query);
+
+		// Every match is found at bytes too, at the same positions the counter passes along
+		final List<Long> found = new ArrayList<Long>();
+		CALCULATOR.findMatches(ByteBuffer.wrap(text), query, found::add);
+		Assert.assertEquals(found.size(), split.getTermMatchCount());
+		final List<Long> positions = new ArrayList<Long>();
+		if (CALCULATOR.countTerms(ByteBuffer.wrap(text), query, positions::add).isPresent()) {
+			Assert.assertEquals(positions, found);
+		} else {
+			Assert.assertTrue(positions.isEmpty());
+		}
+
+		if (counted.isPresent()) {
+			final String message =
+					String.format("Term \"%s\" in \"%s\"", term, new String(text, StandardCharsets.UTF_8));
+			Assert.assertEquals(counted.get().getTermMatchCount(), split.getTermMatchCount(), message);
+			Assert.assertEquals(counted.get().getAllTermsCount(), split.getAllTermsCount(), message);
+		} else {
+			Assert.assertTrue(term.contains("k"), "Only text with KELVIN SIGN is left to splitIntoTerms.");
+		}
+	}
+}
@@ -19,7 +19,8 @@ public class EnglishTermFrequencyCalculatorTests {
 	public void testTermsSeparation() throws ParseException {
 		final CLIOptions options = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "input.txt"});
 		final ProcessingResult result = TEST_CALCULATOR.splitIntoTerms(
-				String.format(" %1$s.%1$s,%1$s:%1$s;%1$s!%1$s?%1$s(%1$s)%1$s\n%1$s\t%1$s\r", TEST_TERM), options);
+				String.format(" %1$s.%1$s,%1$s:%1$s;%1$s!%1$s?%1$s(%1$s)%1$s\n%1$s\t%1$s\r", TEST_TERM),
+				options.toQuery());
 		Assert.assertEquals(result.getTermMatchCount(), 11L);
 		Assert.assertEquals(result.getAllTermsCount(), 11L);
 		Assert.assertEquals(EnglishTermFrequencyCalculator.TERM_SEPARATOR_CHARS.length(), 12L,
@@ -35,21 +36,21 @@ public class EnglishTermFrequencyCalculatorTests {
 		final String singleQuote = "don't";
 		CLIOptions options = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, singleQuote, "input.txt"});
 		ProcessingResult result = TEST_CALCULATOR.splitIntoTerms(
-				String.format("'%s'", singleQuote), options);
+				String.format("'%s'", singleQuote), options.toQuery());
 		Assert.assertEquals(result.getTermMatchCount(), 1L);
 		Assert.assertEquals(result.getAllTermsCount(), 1L);
 
 		final String doubleQuote = "don\"t";
 		options = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, doubleQuote, "input.txt"});
 		result = TEST_CALCULATOR.splitIntoTerms(
-				String.format("\"%s\"", doubleQuote), options);
+				String.format("\"%s\"", doubleQuote), options.toQuery());
 		Assert.assertEquals(result.getTermMatchCount(), 1L);
 		Assert.assertEquals(result.getAllTermsCount(), 1L);
 
 		final String dash = "one-two";
 		options = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, dash, "input.txt"});
 		result = TEST_CALCULATOR.splitIntoTerms(
-				String.format("-%s-", dash), options);
+				String.format("-%s-", dash), options.toQuery());
 		Assert.assertEquals(result.getTermMatchCount(), 1L);
 		Assert.assertEquals(result.getAllTermsCount(), 1L);
 
@@ -62,7 +63,7 @@ public class EnglishTermFrequencyCalculatorTests {
 	public void testAddedToTermCalculation() throws ParseException {
 		final CLIOptions options = new CLIOptions(new String[]{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "input.txt"});
 		final ProcessingResult result = TEST_CALCULATOR.splitIntoTerms(
-				String.format("%s %s %s", "not" + TEST_TERM, TEST_TERM, TEST_TERM + "not"), options);
+				String.format("%s %s %s", "not" + TEST_TERM, TEST_TERM, TEST_TERM + "not"), options.toQuery());
 		Assert.assertEquals(result.getTermMatchCount(), 1L);
 		Assert.assertEquals(result.getAllTermsCount(), 3L);
 	}
@@ -73,9 +74,24 @@ public class EnglishTermFrequencyCalculatorTests {
 		final CLIOptions options = new CLIOptions(
 				new String[]{"-" + CLIOptions.TERM_SHORT, TEST_TERM, "-" + CLIOptions.VERBOSE_SHORT, "input.txt"});
 		final ProcessingResult result = TEST_CALCULATOR.splitIntoTerms(
-				String.format("%1$s %2$s %2$s %3$s %3$s %3$s", "one", "two", "three"), options);
+				String.format("%1$s %2$s %2$s %3$s %3$s %3$s", "one", "two", "three"), options.toQuery());
 		Assert.assertEquals(result.getEveryTermCount().get().get("one").longValue(), 1L);
 		Assert.assertEquals(result.getEveryTermCount().get().get("two").longValue(), 2L);
 		Assert.assertEquals(result.getEveryTermCount().get().get("three").longValue(), 3L);
 	}
+
+	/** Tests counting terms matching a prefix pattern, including count of every matching term. */
+	@Test
+	public void testPatternMatchCounting() throws ParseException {
+		final CLIOptions options = new CLIOptions(new String[]{
+				"-" + CLIOptions.TERM_SHORT, TEST_TERM + "*", "--" + CLIOptions.MATCH_COUNTS_LONG, "input.txt"});
+		final ProcessingResult result = TEST_CALCULATOR.splitIntoTerms(
+				String.format("%1$s %1$ss %1$ss not%1$s", TEST_TERM), options.toQuery());
+		Assert.assertEquals(result.getTermMatchCount(), 3L);
+		Assert.assertEquals(result.getAllTermsCount(), 4L);
+		Assert.assertEquals(result.getMatchingTermCount().get().get(TEST_TERM).longValue(), 1L);
+		Assert.assertEquals(result.getMatchingTermCount().get().get(TEST_TERM + "s").longValue(), 2L);
+		Assert.assertEquals(result.getMatchingTermCount().get().size(), 2);
+		Assert.assertFalse(result.getEveryTermCount().isPresent());
+	}
 }
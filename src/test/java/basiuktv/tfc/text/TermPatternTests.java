@@ -0,0 +1,64 @@
+package basiuktv.tfc.text;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Tests for TermPattern. */
+public class TermPatternTests {
+
+	/** Tests that pattern without wildcards matches only the equal term. */
+	@Test
+	public void testLiteral() {
+		final TermPattern pattern = new TermPattern("term");
+		Assert.assertTrue(pattern.isLiteral());
+		Assert.assertTrue(pattern.matches("term"));
+		Assert.assertFalse(pattern.matches("terms"));
+		Assert.assertFalse(pattern.matches("ter"));
+	}
+
+	/** Tests prefix pattern. */
+	@Test
+	public void testPrefix() {
+		final TermPattern pattern = new TermPattern("timeout*");
+		Assert.assertFalse(pattern.isLiteral());
+		Assert.assertTrue(pattern.matches("timeout"));
+		Assert.assertTrue(pattern.matches("timeouts"));
+		Assert.assertTrue(pattern.matches("timeoutexception"));
+		Assert.assertFalse(pattern.matches("timeou"));
+		Assert.assertFalse(pattern.matches("atimeout"));
+	}
+
+	/** Tests glob patterns mixing both wildcards. */
+	@Test
+	public void testGlob() {
+		final TermPattern pattern = new TermPattern("*a?a*");
+		Assert.assertTrue(pattern.matches("banana"));
+		Assert.assertTrue(pattern.matches("aha"));
+		Assert.assertFalse(pattern.matches("aa"));
+		Assert.assertFalse(pattern.matches("abba"));
+
+		final TermPattern suffix = new TermPattern("**ing");
+		Assert.assertTrue(suffix.matches("ing"));
+		Assert.assertTrue(suffix.matches("singing"));
+		Assert.assertFalse(suffix.matches("ingo"));
+
+		final TermPattern nonAscii = new TermPattern("caf\u00e9?");
+		Assert.assertTrue(nonAscii.matches("caf\u00e9s"));
+		Assert.assertFalse(nonAscii.matches("cafes"));
+	}
+
+	/** Tests escaping wildcards. */
+	@Test
+	public void testEscape() {
+		final TermPattern pattern = new TermPattern("a\\*b");
+		Assert.assertTrue(pattern.isLiteral());
+		Assert.assertTrue(pattern.matches("a*b"));
+		Assert.assertFalse(pattern.matches("axb"));
+	}
+
+	/** Tests that pattern ending with unfinished escape causes an IllegalArgumentException being thrown. */
+	@Test(expectedExceptions={IllegalArgumentException.class})
+	public void testUnfinishedEscape() {
+		new TermPattern("term\\");
+	}
+}
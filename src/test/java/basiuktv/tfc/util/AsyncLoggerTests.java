@@ -0,0 +1,105 @@
+package basiuktv.tfc.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.event.Level;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Tests for AsyncLogger. */
+public class AsyncLoggerTests {
+
+	/** Tests that parameterized messages are formatted and written once flushed. */
+	@Test
+	public void testFormatting() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final AsyncLogger logger = new AsyncLogger("test", new PrintStream(bytes, true, "UTF-8"), 16, Level.INFO);
+		logger.info("INFO : {}", "{not an anchor}");
+		logger.info("{} : {} ms.", "Calculating", 42L);
+		logger.error("{} {} {}", 1, 2, 3);
+		logger.flush();
+		Assert.assertEquals(lines(bytes), Arrays.asList("INFO : {not an anchor}", "Calculating : 42 ms.", "1 2 3"));
+	}
+
+	/** Tests that arguments of disabled levels are never formatted. */
+	@Test
+	public void testDisabledLevel() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final AsyncLogger logger = new AsyncLogger("test", new PrintStream(bytes, true, "UTF-8"), 16, Level.INFO);
+		final AtomicInteger formatted = new AtomicInteger();
+		final Object argument = new Object() {
+			@Override
+			public String toString() {
+				formatted.incrementAndGet();
+				return "argument";
+			}
+		};
+
+		Assert.assertFalse(logger.isDebugEnabled());
+		logger.debug("{}", argument);
+		logger.trace("{}", argument);
+		logger.info("{}", argument);
+		logger.flush();
+		Assert.assertEquals(formatted.get(), 1);
+		Assert.assertEquals(lines(bytes), Arrays.asList("argument"));
+	}
+
+	/** Tests that idle logging thread parks until an event is published, rather than waking up periodically. */
+	@Test(timeOut=10000)
+	public void testIdleThreadWaits() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final AsyncLogger logger = new AsyncLogger("idle", new PrintStream(bytes, true, "UTF-8"), 16, Level.INFO);
+		logger.info("first");
+		logger.flush();
+
+		final Thread thread = Thread.getAllStackTraces().keySet().stream()
+				.filter(t -> t.getName().equals("idle-logging")).findFirst().get();
+		while (thread.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+
+		logger.info("second");
+		logger.flush();
+		Assert.assertEquals(lines(bytes), Arrays.asList("first", "second"));
+	}
+
+	/** Tests that messages of many threads, more than the buffer holds, are all written in per-thread order. */
+	@Test(timeOut=10000)
+	public void testConcurrentLogging() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final AsyncLogger logger = new AsyncLogger("test", new PrintStream(bytes, true, "UTF-8"), 8, Level.INFO);
+		IntStream.range(0, 4).parallel().forEach(thread -> {
+			for (int i = 0; i < 1000; i++) {
+				logger.info("{} {}", thread, i);
+			}
+		});
+
+		logger.flush();
+		final List<String> lines = lines(bytes);
+		Assert.assertEquals(lines.size(), 4000);
+		for (int thread = 0; thread < 4; thread++) {
+			final String prefix = thread + " ";
+			final List<String> threadLines =
+					lines.stream().filter(l -> l.startsWith(prefix)).collect(Collectors.toList());
+			final List<String> expected = new ArrayList<String>();
+			for (int i = 0; i < 1000; i++) {
+				expected.add(prefix + i);
+			}
+
+			Assert.assertEquals(threadLines, expected);
+		}
+	}
+
+	private static List<String> lines(final ByteArrayOutputStream bytes) {
+		final String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		return Arrays.asList(text.split(System.lineSeparator()));
+	}
+}
@@ -0,0 +1,111 @@
+package basiuktv.tfc.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Tests for BufferPool. */
+public class BufferPoolTests {
+
+	/** Tests that buffers are reused once large enough and grow only when needed. */
+	@Test
+	public void testBuffersReuse() {
+		final BufferPool.Buffers buffers = new BufferPool.Buffers();
+		final ByteBuffer large = buffers.getBytes(100);
+		Assert.assertSame(buffers.getBytes(50), large);
+		Assert.assertSame(buffers.getBytes(100), large);
+		Assert.assertNotSame(buffers.getBytes(101), large);
+	}
+
+	/** Tests that decoding matches String constructor, including multi-byte and malformed input. */
+	@Test
+	public void testDecodeMatchesString() {
+		final BufferPool.Buffers buffers = new BufferPool.Buffers();
+		final byte[][] inputs = {
+				"plain text".getBytes(StandardCharsets.UTF_8),
+				"na\u00efve caf\u00e9 \u20ac".getBytes(StandardCharsets.UTF_8),
+				{'a', (byte) 0xC3, 'b', (byte) 0xFF, (byte) 0xE2, (byte) 0x82}};
+
+		for (final byte[] input : inputs) {
+			final ByteBuffer data = buffers.getBytes(input.length);
+			data.put(input).flip();
+			Assert.assertEquals(buffers.decode(data).toString(), new String(input, StandardCharsets.UTF_8));
+		}
+	}
+
+	/** Tests that leased buffers come back to the pool once released. */
+	@Test
+	public void testLeaseAndRelease() throws InterruptedException {
+		final BufferPool pool = new BufferPool(1, 100);
+		final BufferPool.Buffers buffers = pool.lease();
+		pool.release(buffers);
+		Assert.assertSame(pool.lease(), buffers);
+	}
+
+	/** Tests that the most recently released buffers are leased first, so the others never grow. */
+	@Test
+	public void testMostRecentlyReleasedFirst() throws InterruptedException {
+		final BufferPool pool = new BufferPool(3, 100);
+		final BufferPool.Buffers first = pool.lease();
+		final BufferPool.Buffers second = pool.lease();
+		pool.release(first);
+		pool.release(second);
+		for (int i = 0; i < 3; i++) {
+			final BufferPool.Buffers buffers = pool.lease();
+			Assert.assertSame(buffers, second);
+			buffers.getBytes(10);
+			pool.release(buffers);
+		}
+
+		pool.lease();
+		Assert.assertSame(pool.lease(), first);
+		Assert.assertEquals(first.getBytes(0).capacity(), 0);
+	}
+
+	/** Tests that buffers grown beyond the max retained capacity are dropped once released, and idle memory is told. */
+	@Test
+	public void testTrimOnRelease() throws InterruptedException {
+		final BufferPool pool = new BufferPool(1, 100);
+		final BufferPool.Buffers buffers = pool.lease();
+		final ByteBuffer data = buffers.getBytes(100);
+		data.put(new byte[100]).flip();
+		buffers.decode(data);
+		pool.release(buffers);
+		Assert.assertEquals(pool.getIdleBytes(), 100L + Character.BYTES * 100L);
+
+		Assert.assertSame(pool.lease(), buffers);
+		Assert.assertEquals(pool.getIdleBytes(), 0L);
+		buffers.getBytes(101);
+		pool.release(buffers);
+		Assert.assertEquals(pool.getIdleBytes(), Character.BYTES * 100L);
+		Assert.assertEquals(pool.lease().getBytes(0).capacity(), 0);
+	}
+
+	/** Tests that a shrunk pool drops buffers beyond its new size, idle ones at once and leased ones once released. */
+	@Test(timeOut=30000)
+	public void testResize() throws InterruptedException {
+		final BufferPool pool = new BufferPool(1, 100);
+		final BufferPool.Buffers first = pool.lease();
+		pool.resize(2);
+		final BufferPool.Buffers second = pool.lease();
+		second.getBytes(10);
+
+		pool.resize(1);
+		pool.release(first);
+		Assert.assertEquals(pool.getIdleBytes(), 0L);
+		pool.release(second);
+		Assert.assertEquals(pool.getIdleBytes(), 10L);
+
+		pool.resize(2);
+		final BufferPool.Buffers third = pool.lease();
+		Assert.assertSame(third, second);
+		Assert.assertNotSame(pool.lease(), first);
+		pool.release(third);
+		Assert.assertEquals(pool.getIdleBytes(), 10L);
+		pool.resize(1);
+		Assert.assertEquals(pool.getIdleBytes(), 0L);
+		Assert.assertEquals(pool.getSize(), 1);
+	}
+}
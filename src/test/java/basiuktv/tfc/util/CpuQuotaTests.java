@@ -0,0 +1,72 @@
+package basiuktv.tfc.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+/** Tests for CpuQuota, reading quota files from a fake cgroup file system. */
+public class CpuQuotaTests {
+
+	private Path root;
+
+	/** Creates root of the fake cgroup file system. */
+	@BeforeMethod
+	public void setUp() throws IOException {
+		this.root = Files.createTempDirectory("tfc-test");
+	}
+
+	/** Deletes the fake cgroup file system. */
+	@AfterMethod
+	public void tearDown() throws IOException {
+		MoreFiles.deleteRecursively(this.root, RecursiveDeleteOption.ALLOW_INSECURE);
+	}
+
+	/** Tests reading quota of cgroup v2. */
+	@Test
+	public void testV2Quota() throws IOException {
+		this.write("cpu.max", "150000 100000\n");
+		Assert.assertEquals(CpuQuota.readQuota(this.root), Optional.of(1.5));
+
+		this.write("cpu.max", "max 100000\n");
+		Assert.assertEquals(CpuQuota.readQuota(this.root), Optional.empty());
+	}
+
+	/** Tests reading quota of cgroup v1, where -1 stands for no quota. */
+	@Test
+	public void testV1Quota() throws IOException {
+		this.write("cpu,cpuacct/cpu.cfs_quota_us", "200000\n");
+		this.write("cpu,cpuacct/cpu.cfs_period_us", "100000\n");
+		Assert.assertEquals(CpuQuota.readQuota(this.root), Optional.of(2.0));
+
+		this.write("cpu,cpuacct/cpu.cfs_quota_us", "-1\n");
+		Assert.assertEquals(CpuQuota.readQuota(this.root), Optional.empty());
+	}
+
+	/** Tests that missing or malformed quota files are the same as no quota. */
+	@Test
+	public void testNoQuota() throws IOException {
+		Assert.assertEquals(CpuQuota.readQuota(this.root), Optional.empty());
+
+		this.write("cpu.max", "unlimited\n");
+		Assert.assertEquals(CpuQuota.readQuota(this.root), Optional.empty());
+
+		Assert.assertTrue(CpuQuota.availableProcessors() >= 1);
+		Assert.assertTrue(CpuQuota.availableProcessors() <= Runtime.getRuntime().availableProcessors());
+	}
+
+	private void write(final String file, final String content) throws IOException {
+		final Path path = this.root.resolve(file);
+		Files.createDirectories(path.getParent());
+		Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+	}
+}